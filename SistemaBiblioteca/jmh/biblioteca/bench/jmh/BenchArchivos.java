@@ -0,0 +1,125 @@
+package biblioteca.bench.jmh;
+
+import biblioteca.bench.GeneradorDatos;
+import biblioteca.model.BibliotecaManager;
+import biblioteca.model.Usuario;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cargadores y guardados de recursos.txt, usuarios.txt y de la instantánea binaria
+ * con archivos sintéticos de {@code filas} filas ({@link GeneradorDatos}). Cada
+ * medida es la operación completa sobre el archivo.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class BenchArchivos {
+
+	@Param({ "1000000" })
+	public int filas;
+
+	private File directorio;
+	private String recursos;
+	private String usuarios;
+	private String salida;
+	private String instantanea;
+
+	/** Biblioteca con los dos archivos cargados, para los guardados */
+	private BibliotecaManager cargada;
+
+	/** Biblioteca vacía para cada carga */
+	private BibliotecaManager destino;
+
+	@Setup(Level.Trial)
+	public void generar() throws IOException {
+		directorio = Files.createTempDirectory("bench-archivos").toFile();
+		recursos = new File(directorio, "recursos.txt").getPath();
+		usuarios = new File(directorio, "usuarios.txt").getPath();
+		salida = new File(directorio, "salida.txt").getPath();
+		instantanea = new File(directorio, "instantanea.bin").getPath();
+		GeneradorDatos.generarRecursos(recursos, filas);
+		GeneradorDatos.generarUsuarios(usuarios, filas);
+
+		cargada = new BibliotecaManager();
+		cargada.cargarRecursosEnParalelo(recursos);
+		cargada.cargarUsuariosEnParalelo(usuarios);
+		cargada.guardarInstantanea(instantanea);
+	}
+
+	@Setup(Level.Invocation)
+	public void vaciar() {
+		destino = new BibliotecaManager();
+	}
+
+	@TearDown(Level.Trial)
+	public void borrar() {
+		Datos.borrar(directorio);
+	}
+
+	@Benchmark
+	public int cargarRecursosSecuencial() {
+		destino.cargarRecursosDesdeArchivo(recursos);
+		return destino.getRecursos().size();
+	}
+
+	@Benchmark
+	public int cargarRecursosParalelo() {
+		destino.cargarRecursosEnParalelo(recursos);
+		return destino.getRecursos().size();
+	}
+
+	@Benchmark
+	public Usuario cargarUsuariosSecuencial() {
+		destino.cargarUsuariosDesdeArchivo(usuarios);
+		return destino.getUsuario("u0");
+	}
+
+	@Benchmark
+	public Usuario cargarUsuariosParalelo() {
+		destino.cargarUsuariosEnParalelo(usuarios);
+		return destino.getUsuario("u0");
+	}
+
+	@Benchmark
+	public long guardarRecursos() {
+		cargada.guardarRecursosEnArchivo(salida);
+		return new File(salida).length();
+	}
+
+	@Benchmark
+	public long guardarUsuarios() {
+		cargada.guardarUsuariosEnArchivo(salida);
+		return new File(salida).length();
+	}
+
+	@Benchmark
+	public long guardarInstantanea() {
+		cargada.guardarInstantanea(salida);
+		return new File(salida).length();
+	}
+
+	@Benchmark
+	public int cargarInstantanea() {
+		destino.cargarInstantanea(instantanea);
+		return destino.getRecursos().size();
+	}
+}
@@ -0,0 +1,52 @@
+package biblioteca.bench.jmh;
+
+import biblioteca.bench.GeneradorDatos;
+import biblioteca.model.Prestamo;
+import biblioteca.model.RecursoBiblioteca;
+import biblioteca.model.Usuario;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Construcción de descripcion() y resumen() sobre recursos de los tres tipos.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchCadenas {
+
+	private final RecursoBiblioteca[] recursos = new RecursoBiblioteca[1024];
+	private final Prestamo[] prestamos = new Prestamo[recursos.length];
+	private int invocacion;
+
+	@Setup(Level.Trial)
+	public void preparar() {
+		for (int i = 0; i < recursos.length; i++) {
+			recursos[i] = GeneradorDatos.recurso(i);
+			prestamos[i] = new Prestamo(recursos[i], new Usuario("u" + i, "Usuario " + i));
+		}
+	}
+
+	@Benchmark
+	public String descripcion() {
+		return recursos[invocacion++ & 1023].descripcion();
+	}
+
+	@Benchmark
+	public String resumen() {
+		return prestamos[invocacion++ & 1023].resumen();
+	}
+}
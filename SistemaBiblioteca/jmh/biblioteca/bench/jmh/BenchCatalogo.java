@@ -0,0 +1,74 @@
+package biblioteca.bench.jmh;
+
+import biblioteca.bench.GeneradorDatos;
+import biblioteca.model.BibliotecaManager;
+import biblioteca.model.RecursoBiblioteca;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * agregarRecurso y getRecurso con catálogos de distintos tamaños.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class BenchCatalogo {
+
+	/** Recursos nuevos que se construyen de una vez para agregarRecurso */
+	private static final int BLOQUE = 4096;
+
+	@Param({ "1000", "100000", "1000000" })
+	public int tamano;
+
+	private BibliotecaManager biblioteca;
+	private String[] ids;
+	private long invocacion;
+	private int siguiente;
+	private final RecursoBiblioteca[] nuevos = new RecursoBiblioteca[BLOQUE];
+	private int usados;
+
+	@Setup(Level.Trial)
+	public void preparar() {
+		biblioteca = new BibliotecaManager();
+		ids = new String[tamano];
+		for (int i = 0; i < tamano; i++) {
+			RecursoBiblioteca recurso = GeneradorDatos.recurso(i);
+			ids[i] = recurso.getId();
+			biblioteca.agregarRecurso(recurso);
+		}
+		siguiente = tamano;
+		usados = BLOQUE;
+	}
+
+	/** Índices pseudoaleatorios para no recorrer el mapa en orden */
+	@Benchmark
+	public RecursoBiblioteca getRecurso() {
+		return biblioteca.getRecurso(ids[(int) (((invocacion++ * 0x9E3779B97F4A7C15L) >>> 33) % tamano)]);
+	}
+
+	/** Los recursos nuevos se construyen por bloques, así que su coste apenas cuenta */
+	@Benchmark
+	public boolean agregarRecurso() {
+		if (usados == BLOQUE) {
+			for (int k = 0; k < BLOQUE; k++) {
+				nuevos[k] = GeneradorDatos.recurso(siguiente++);
+			}
+			usados = 0;
+		}
+		return biblioteca.agregarRecurso(nuevos[usados++]);
+	}
+}
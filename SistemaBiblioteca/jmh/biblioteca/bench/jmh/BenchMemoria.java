@@ -0,0 +1,174 @@
+package biblioteca.bench.jmh;
+
+import biblioteca.bench.GeneradorDatos;
+import biblioteca.model.Almacen;
+import biblioteca.model.AlmacenMapa;
+import biblioteca.model.AlmacenRecursosCompacto;
+import biblioteca.model.AlmacenRecursosFueraHeap;
+import biblioteca.model.AlmacenUsuariosCompacto;
+import biblioteca.model.DVD;
+import biblioteca.model.Libro;
+import biblioteca.model.RecursoBiblioteca;
+import biblioteca.model.Revista;
+import biblioteca.model.Usuario;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * Memoria retenida y coste de cada almacén ({@link AlmacenMapa}, los almacenes
+ * compactos y el de recursos fuera del heap) con {@code filas} recursos y usuarios.
+ *
+ * La consulta por ID informa además, como contadores secundarios, de los bytes de
+ * heap por recurso y por usuario y de los bytes de memoria directa por recurso,
+ * medidos al cargar el almacén. La recolección completa mide lo que tarda un
+ * {@code System.gc()} con todo cargado.
+ *
+ * Los recursos se construyen a partir de las líneas de {@link GeneradorDatos} igual
+ * que al cargar un archivo, así que cada recurso trae sus propias cadenas (también
+ * los autores repetidos).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "-XX:MaxDirectMemorySize=4g" })
+@State(Scope.Benchmark)
+public class BenchMemoria {
+
+	@Param({ "mapa", "compacto", "fueraDelHeap" })
+	public String almacen;
+
+	@Param({ "2000000" })
+	public int filas;
+
+	private Almacen<RecursoBiblioteca> recursos;
+	private Almacen<Usuario> usuarios;
+
+	/** Bytes por elemento medidos al cargar */
+	private double heapRecurso;
+	private double directaRecurso;
+	private double heapUsuario;
+
+	/**
+	 * Memoria por elemento medida al cargar, como contadores secundarios del resultado.
+	 * JMH pone los contadores a cero al empezar cada iteración y suma los de todas las
+	 * iteraciones y todos los hilos, así que cada uno anota su parte.
+	 */
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Memoria {
+		public double heapPorRecurso;
+		public double directaPorRecurso;
+		public double heapPorUsuario;
+		private int partes;
+
+		@Setup(Level.Trial)
+		public void preparar(BenchmarkParams parametros) {
+			partes = parametros.getMeasurement().getCount() * parametros.getThreads();
+		}
+
+		void anotar(BenchMemoria bench) {
+			heapPorRecurso = bench.heapRecurso / partes;
+			directaPorRecurso = bench.directaRecurso / partes;
+			heapPorUsuario = bench.heapUsuario / partes;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void cargar() throws InterruptedException {
+		long inicial = heapUsado();
+		long directaInicial = memoriaDirecta();
+		switch (almacen) {
+			case "mapa":
+				recursos = new AlmacenMapa<>(RecursoBiblioteca::getId);
+				usuarios = new AlmacenMapa<>(Usuario::getId);
+				break;
+			case "compacto":
+				recursos = new AlmacenRecursosCompacto();
+				usuarios = new AlmacenUsuariosCompacto();
+				break;
+			default:
+				recursos = new AlmacenRecursosFueraHeap();
+				usuarios = new AlmacenUsuariosCompacto();
+		}
+		for (int i = 0; i < filas; i++) {
+			recursos.agregar(recurso(GeneradorDatos.lineaRecurso(i)));
+		}
+		long conRecursos = heapUsado();
+		directaRecurso = (memoriaDirecta() - directaInicial) / (double) filas;
+		for (int i = 0; i < filas; i++) {
+			usuarios.agregar(new Usuario("u" + i, "Usuario " + i));
+		}
+		heapRecurso = (conRecursos - inicial) / (double) filas;
+		heapUsuario = (heapUsado() - conRecursos) / (double) filas;
+	}
+
+	@Benchmark
+	public RecursoBiblioteca consultarPorId(Memoria memoria) {
+		memoria.anotar(this);
+		return recursos.get(GeneradorDatos.idRecurso(ThreadLocalRandom.current().nextInt(filas)));
+	}
+
+	/** Lo que tarda una recolección completa con los dos almacenes cargados */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Measurement(iterations = 5)
+	public Almacen<Usuario> recoleccionCompleta() {
+		System.gc();
+		return usuarios;
+	}
+
+	/**
+	 * Construye el recurso de una línea TIPO,ID,TITULO,EXTRA con cadenas nuevas, como el cargador.
+	 */
+	private static RecursoBiblioteca recurso(String linea) {
+		String[] campos = linea.split(",", 4);
+		switch (campos[0]) {
+			case "LIBRO":
+				return new Libro(campos[1], campos[2], campos[3]);
+			case "REVISTA":
+				return new Revista(campos[1], campos[2], Integer.parseInt(campos[3]));
+			default:
+				return new DVD(campos[1], campos[2], Integer.parseInt(campos[3]));
+		}
+	}
+
+	/**
+	 * @return Bytes de los buffers directos y mapeados vivos
+	 */
+	private static long memoriaDirecta() {
+		long total = 0;
+		for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			total += Math.max(0, pool.getMemoryUsed());
+		}
+		return total;
+	}
+
+	/**
+	 * @return Heap ocupado tras varias recolecciones completas
+	 */
+	private static long heapUsado() throws InterruptedException {
+		for (int i = 0; i < 4; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+}
@@ -0,0 +1,68 @@
+package biblioteca.bench.jmh;
+
+import java.util.concurrent.TimeUnit;
+import jdk.jfr.Recording;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Prestar + devolver con las métricas desactivadas, activadas y activadas con una
+ * grabación de JFR en curso que recoge el evento de cada operación.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchMetricas {
+
+	@Param({ "desactivadas", "activadas", "activadasConJfr" })
+	public String modo;
+
+	private Datos.Prestamos datos;
+	private Recording grabacion;
+	private long invocacion;
+
+	@Setup(Level.Trial)
+	public void grabar() {
+		if (!modo.equals("activadasConJfr")) return;
+		grabacion = new Recording();
+		grabacion.enable("biblioteca.Operacion");
+		grabacion.setToDisk(false);
+		grabacion.start();
+	}
+
+	/** Se crea de nuevo en cada iteración para que el historial no crezca de una a otra */
+	@Setup(Level.Iteration)
+	public void preparar() {
+		datos = new Datos.Prestamos();
+		datos.biblioteca.getMetricas().setActivas(!modo.equals("desactivadas"));
+	}
+
+	@TearDown(Level.Iteration)
+	public void cerrarIteracion() {
+		datos.biblioteca.cerrar();
+	}
+
+	@TearDown(Level.Trial)
+	public void cerrar() {
+		if (grabacion != null) grabacion.close();
+	}
+
+	@Benchmark
+	public boolean prestarDevolver() {
+		return datos.prestarYDevolver(datos.recursos[(int) (invocacion++ % Datos.RECURSOS_PRESTAMO)], 0);
+	}
+}
@@ -0,0 +1,149 @@
+package biblioteca.bench.jmh;
+
+import biblioteca.enums.PoliticaSincronizacion;
+import biblioteca.enums.ResultadoOperacion;
+import biblioteca.eventos.OyenteConsola;
+import biblioteca.model.RecursoBiblioteca;
+import biblioteca.model.SolicitudPrestamo;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Prestar + devolver con uno y varios hilos, con poca y mucha contención y por
+ * lotes (coste por recurso). El parámetro {@code modo} añade un oyente de consola
+ * suscrito (que escribe en un flujo descartado, no en la salida estándar) o el
+ * diario activo sin fsync, para medir el coste propio de publicar eventos o de
+ * registrar cada operación.
+ *
+ * Los benchmarks de varios hilos usan tantos como núcleos; con {@code -t} se fija
+ * otro número.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BenchPrestamos {
+
+	/** Recursos que comparten todos los hilos en el caso de mucha contención */
+	private static final int RECURSOS_DISPUTADOS = 16;
+
+	/** Recursos de cada lote */
+	private static final int TAMANO_LOTE = 300;
+
+	/**
+	 * Biblioteca compartida por los hilos. Se crea de nuevo antes de cada iteración
+	 * para que el historial no crezca de una iteración a otra.
+	 */
+	@State(Scope.Benchmark)
+	public static class Biblioteca {
+		@Param({ "ninguno", "oyenteConsola", "diario" })
+		public String modo;
+
+		Datos.Prestamos datos;
+		private File directorio;
+		private int vuelta;
+
+		@Setup(Level.Trial)
+		public void abrir() throws IOException {
+			if (modo.equals("diario")) directorio = Files.createTempDirectory("bench-diario").toFile();
+		}
+
+		@Setup(Level.Iteration)
+		public void preparar() {
+			datos = new Datos.Prestamos();
+			if (modo.equals("oyenteConsola")) {
+				datos.biblioteca.suscribir(new OyenteConsola(new PrintStream(OutputStream.nullOutputStream()), true));
+			} else if (modo.equals("diario")) {
+				String base = new File(directorio, "v" + vuelta++).getPath();
+				datos.biblioteca.activarDiario(base + ".usuarios", base + ".recursos", base + ".diario",
+						PoliticaSincronizacion.NUNCA, 100_000);
+			}
+		}
+
+		@TearDown(Level.Iteration)
+		public void cerrarIteracion() {
+			datos.biblioteca.cerrar();
+		}
+
+		@TearDown(Level.Trial)
+		public void cerrar() {
+			if (directorio != null) Datos.borrar(directorio);
+		}
+	}
+
+	/**
+	 * Franja de recursos y contador de invocaciones propios de cada hilo.
+	 */
+	@State(Scope.Thread)
+	public static class Hilo {
+		int indice;
+		int desde;
+		int porHilo;
+		long invocacion;
+
+		@Setup(Level.Trial)
+		public void preparar(ThreadParams parametros) {
+			indice = parametros.getThreadIndex();
+			porHilo = Datos.RECURSOS_PRESTAMO / parametros.getThreadCount();
+			desde = indice * porHilo;
+		}
+	}
+
+	/** Cada hilo trabaja sobre su propia franja de recursos: sin contención */
+	@Benchmark
+	public boolean prestarDevolverSinContencion(Biblioteca b, Hilo h) {
+		return b.datos.prestarYDevolver(b.datos.recursos[h.desde + (int) (h.invocacion++ % h.porHilo)], h.indice);
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public boolean prestarDevolverSinContencionVariosHilos(Biblioteca b, Hilo h) {
+		return prestarDevolverSinContencion(b, h);
+	}
+
+	/** Todos los hilos compiten por unos pocos recursos */
+	@Benchmark
+	@Threads(Threads.MAX)
+	public boolean prestarDevolverConContencion(Biblioteca b, Hilo h) {
+		return b.datos.prestarYDevolver(b.datos.recursos[(int) ((h.invocacion++ + h.indice) % RECURSOS_DISPUTADOS)],
+				h.indice);
+	}
+
+	/** Presta y devuelve por lotes el tramo siguiente del catálogo; el resultado es por recurso */
+	@Benchmark
+	@OperationsPerInvocation(TAMANO_LOTE)
+	public List<ResultadoOperacion> prestarDevolverLote(Biblioteca b, Hilo h) {
+		int desde = (int) (h.invocacion++ % (Datos.RECURSOS_PRESTAMO / TAMANO_LOTE)) * TAMANO_LOTE;
+		List<RecursoBiblioteca> lote = Arrays.asList(b.datos.recursos).subList(desde, desde + TAMANO_LOTE);
+		List<SolicitudPrestamo> solicitudes = new ArrayList<>(TAMANO_LOTE);
+		for (RecursoBiblioteca r : lote) {
+			solicitudes.add(new SolicitudPrestamo(r, b.datos.usuarios[0]));
+		}
+		b.datos.biblioteca.prestarLote(solicitudes);
+		return b.datos.biblioteca.devolverLote(lote);
+	}
+}
@@ -0,0 +1,197 @@
+package biblioteca.bench.jmh;
+
+import biblioteca.enums.EstadoRecurso;
+import biblioteca.model.BibliotecaManager;
+import biblioteca.model.Libro;
+import biblioteca.model.RecursoBiblioteca;
+import biblioteca.model.Usuario;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Coste de la replicación primario/réplica por envío del registro de cambios.
+ *
+ * {@code prestarDevolver} presta o devuelve recursos al azar en el primario sin
+ * replicación, con la replicación activa pero sin réplicas (el coste que añade al
+ * préstamo) y con dos réplicas conectadas por TCP local; al terminar comprueba que
+ * las réplicas acaban con el mismo estado que el primario. {@code leerLoEscrito}
+ * mide cuánto espera una lectura en la réplica para ver lo que se acaba de escribir
+ * en el primario, y {@code ponerseAlDia} lo que tarda una réplica nueva en llegar a
+ * la posición del primario desde su instantánea.
+ *
+ * Todo va en el mismo proceso: con pocos núcleos las réplicas compiten con la carga
+ * del primario por la CPU.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BenchReplicacion {
+
+	private static final int USUARIOS = 1000;
+
+	/** Espera máxima a que una réplica llegue a una posición */
+	private static final long ESPERA_MS = 60_000;
+
+	/**
+	 * Primario con el catálogo cargado y, según el modo, la replicación y sus réplicas.
+	 */
+	@State(Scope.Benchmark)
+	public static class Primario {
+		@Param({ "sinReplicacion", "sinReplicas", "dosReplicas" })
+		public String modo;
+
+		@Param({ "200000" })
+		public int recursos;
+
+		BibliotecaManager biblioteca;
+		final List<BibliotecaManager> replicas = new ArrayList<>();
+
+		@Setup(Level.Trial)
+		public void abrir() {
+			biblioteca = crear(recursos);
+			if (modo.equals("sinReplicacion")) return;
+			biblioteca.activarReplicacionPrimaria(0);
+			if (modo.equals("sinReplicas")) return;
+			for (int i = 0; i < 2; i++) {
+				replicas.add(seguidora(biblioteca));
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void cerrar() {
+			try {
+				for (BibliotecaManager replica : replicas) {
+					alcanzar(replica, biblioteca);
+					for (EstadoRecurso estado : EstadoRecurso.values()) {
+						if (replica.contarRecursos(estado, null) != biblioteca.contarRecursos(estado, null)) {
+							throw new IllegalStateException("La réplica no tiene el estado del primario (" + estado + ")");
+						}
+					}
+				}
+			} finally {
+				for (BibliotecaManager replica : replicas) replica.cerrar();
+				biblioteca.cerrar();
+			}
+		}
+	}
+
+	/**
+	 * Primario con una réplica al día, para las lecturas tras escritura y las réplicas
+	 * nuevas. Es de cada hilo, así que nadie más escribe en el primario entre el préstamo
+	 * y la lectura en la réplica.
+	 */
+	@State(Scope.Thread)
+	public static class ConReplica {
+		@Param({ "200000" })
+		public int recursos;
+
+		BibliotecaManager primario;
+		BibliotecaManager replica;
+		BibliotecaManager nueva;
+
+		@Setup(Level.Trial)
+		public void abrir() {
+			primario = crear(recursos);
+			primario.activarReplicacionPrimaria(0);
+			replica = seguidora(primario);
+		}
+
+		@TearDown(Level.Invocation)
+		public void cerrarNueva() {
+			if (nueva != null) nueva.cerrar();
+			nueva = null;
+		}
+
+		@TearDown(Level.Trial)
+		public void cerrar() {
+			replica.cerrar();
+			primario.cerrar();
+		}
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public boolean prestarDevolver(Primario p) {
+		return prestarODevolver(p.biblioteca, p.recursos);
+	}
+
+	/** Préstamo o devolución en el primario y espera a verlo en la réplica */
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Threads(1)
+	public EstadoRecurso leerLoEscrito(ConReplica c) {
+		ThreadLocalRandom azar = ThreadLocalRandom.current();
+		RecursoBiblioteca recurso = c.primario.getRecurso("L" + azar.nextInt(c.recursos));
+		if (!c.primario.prestar(recurso, c.primario.getUsuario("U" + azar.nextInt(USUARIOS)))) c.primario.devolver(recurso);
+		alcanzar(c.replica, c.primario);
+		EstadoRecurso leido = c.replica.getRecurso(recurso.getId()).getEstado();
+		if (leido != recurso.getEstado()) {
+			throw new IllegalStateException("La réplica no ve lo escrito en " + recurso.getId() + ": " + leido);
+		}
+		return leido;
+	}
+
+	/** Una réplica nueva se conecta y recibe la instantánea y los registros hasta la posición actual */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 2)
+	@Measurement(iterations = 5)
+	@Threads(1)
+	public int ponerseAlDia(ConReplica c) {
+		c.nueva = seguidora(c.primario);
+		return c.nueva.getRecursos().size();
+	}
+
+	private static BibliotecaManager crear(int recursos) {
+		BibliotecaManager biblioteca = new BibliotecaManager();
+		for (int i = 0; i < USUARIOS; i++) {
+			biblioteca.agregarUsuario(new Usuario("U" + i, "Usuario " + i));
+		}
+		for (int i = 0; i < recursos; i++) {
+			biblioteca.agregarRecurso(new Libro("L" + i, "Titulo " + i, "Autor " + (i % 500)));
+		}
+		return biblioteca;
+	}
+
+	/**
+	 * Conecta una réplica nueva al primario y espera a que esté al día.
+	 */
+	private static BibliotecaManager seguidora(BibliotecaManager primario) {
+		BibliotecaManager replica = new BibliotecaManager();
+		replica.activarReplicacionSeguidora("localhost", primario.getServidorReplicacion().getPuerto());
+		alcanzar(replica, primario);
+		return replica;
+	}
+
+	private static void alcanzar(BibliotecaManager replica, BibliotecaManager primario) {
+		if (!replica.esperarPosicionReplicacion(primario.getEpocaReplicacion(), primario.getPosicionReplicacion(), ESPERA_MS)) {
+			throw new IllegalStateException("La réplica no llegó a la posición del primario en " + ESPERA_MS + " ms");
+		}
+	}
+
+	private static boolean prestarODevolver(BibliotecaManager biblioteca, int recursos) {
+		ThreadLocalRandom azar = ThreadLocalRandom.current();
+		RecursoBiblioteca recurso = biblioteca.getRecurso("L" + azar.nextInt(recursos));
+		return biblioteca.prestar(recurso, biblioteca.getUsuario("U" + azar.nextInt(USUARIOS))) || biblioteca.devolver(recurso);
+	}
+}
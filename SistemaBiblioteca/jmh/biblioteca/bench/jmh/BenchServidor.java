@@ -0,0 +1,179 @@
+package biblioteca.bench.jmh;
+
+import biblioteca.bench.GeneradorDatos;
+import biblioteca.model.BibliotecaManager;
+import biblioteca.model.Usuario;
+import biblioteca.servidor.ServidorBiblioteca;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latencia del servidor HTTP vista desde el cliente, con una conexión abierta por
+ * hilo (HTTP/1.1 con keep-alive) que envía peticiones una detrás de otra.
+ * {@code consultar} pide un recurso al azar y {@code prestarODevolver} presta o
+ * devuelve uno; el modo SampleTime da los percentiles de cada petición.
+ *
+ * Sin {@code servidor} arranca en el mismo proceso un servidor con una biblioteca en
+ * memoria de recursos y usuarios sintéticos; con {@code -p servidor=host:puerto} se
+ * conecta a uno ya en marcha cuyos datos sigan el formato de {@link GeneradorDatos}.
+ * Con {@code -t} se cambia el número de conexiones simultáneas.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(32)
+public class BenchServidor {
+
+	private static final int USUARIOS = 1000;
+
+	/**
+	 * Servidor al que se conectan los hilos.
+	 */
+	@State(Scope.Benchmark)
+	public static class Servidor {
+		/** host:puerto de un servidor en marcha, o vacío para arrancar uno aquí */
+		@Param({ "" })
+		public String servidor;
+
+		@Param({ "100000" })
+		public int recursos;
+
+		String host = "127.0.0.1";
+		int puerto;
+		private ServidorBiblioteca propio;
+
+		@Setup(Level.Trial)
+		public void iniciar() throws IOException {
+			if (!servidor.isEmpty()) {
+				String[] partes = servidor.split(":");
+				host = partes[0];
+				puerto = Integer.parseInt(partes[1]);
+				return;
+			}
+			BibliotecaManager biblioteca = new BibliotecaManager();
+			for (int i = 0; i < recursos; i++) {
+				biblioteca.agregarRecurso(GeneradorDatos.recurso(i));
+			}
+			for (int i = 0; i < USUARIOS; i++) {
+				biblioteca.agregarUsuario(new Usuario("u" + i, "Usuario " + i));
+			}
+			propio = new ServidorBiblioteca(biblioteca, 0);
+			propio.iniciar();
+			puerto = propio.getPuerto();
+		}
+
+		@TearDown(Level.Trial)
+		public void detener() {
+			if (propio != null) propio.detener(0);
+		}
+	}
+
+	/**
+	 * Conexión keep-alive de cada hilo.
+	 */
+	@State(Scope.Thread)
+	public static class Conexion {
+		private Socket socket;
+		private InputStream entrada;
+		private OutputStream salida;
+		private String host;
+
+		@Setup(Level.Trial)
+		public void conectar(Servidor s) throws IOException {
+			host = s.host;
+			socket = new Socket();
+			socket.setTcpNoDelay(true);
+			socket.connect(new InetSocketAddress(s.host, s.puerto), 30_000);
+			entrada = new BufferedInputStream(socket.getInputStream());
+			salida = new BufferedOutputStream(socket.getOutputStream());
+		}
+
+		@TearDown(Level.Trial)
+		public void cerrar() throws IOException {
+			socket.close();
+		}
+
+		/**
+		 * Envía una petición y lee la respuesta completa para dejar la conexión lista para la siguiente.
+		 *
+		 * @return Código de estado HTTP
+		 */
+		int enviar(String metodo, String ruta, String cuerpo) throws IOException {
+			String peticion = metodo + " " + ruta + " HTTP/1.1\r\nHost: " + host
+					+ "\r\nContent-Type: application/json\r\n"
+					+ "Content-Length: " + cuerpo.getBytes(StandardCharsets.UTF_8).length + "\r\n\r\n" + cuerpo;
+			salida.write(peticion.getBytes(StandardCharsets.UTF_8));
+			salida.flush();
+			String estado = leerLinea();
+			long longitud = 0;
+			String linea;
+			while (!(linea = leerLinea()).isEmpty()) {
+				if (linea.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+					longitud = Long.parseLong(linea.substring(15).trim());
+				}
+			}
+			entrada.skipNBytes(longitud);
+			return Integer.parseInt(estado.substring(9, 12));
+		}
+
+		private String leerLinea() throws IOException {
+			StringBuilder sb = new StringBuilder();
+			int c;
+			while ((c = entrada.read()) != '\n') {
+				if (c < 0) throw new IOException("El servidor cerró la conexión");
+				if (c != '\r') sb.append((char) c);
+			}
+			return sb.toString();
+		}
+	}
+
+	@Benchmark
+	public int consultar(Servidor s, Conexion c) throws IOException {
+		String recurso = GeneradorDatos.idRecurso(ThreadLocalRandom.current().nextInt(s.recursos));
+		return comprobar(c.enviar("GET", "/recursos/" + recurso, ""));
+	}
+
+	/** Préstamo o devolución de un recurso al azar; un 409 (ya prestado, no prestado) es correcto */
+	@Benchmark
+	public int prestarODevolver(Servidor s, Conexion c) throws IOException {
+		ThreadLocalRandom azar = ThreadLocalRandom.current();
+		String recurso = GeneradorDatos.idRecurso(azar.nextInt(s.recursos));
+		if (azar.nextBoolean()) {
+			return comprobar(c.enviar("POST", "/prestamos",
+					"{\"recurso\":\"" + recurso + "\",\"usuario\":\"u" + azar.nextInt(USUARIOS) + "\"}"));
+		}
+		return comprobar(c.enviar("POST", "/devoluciones", "{\"recurso\":\"" + recurso + "\"}"));
+	}
+
+	/**
+	 * @throws IllegalStateException Si la respuesta no es 2xx ni 409
+	 */
+	private static int comprobar(int estado) {
+		if (estado / 100 != 2 && estado != 409) throw new IllegalStateException("Respuesta HTTP " + estado);
+		return estado;
+	}
+}
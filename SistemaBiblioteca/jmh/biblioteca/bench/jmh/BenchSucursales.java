@@ -0,0 +1,296 @@
+package biblioteca.bench.jmh;
+
+import biblioteca.bench.GeneradorDatos;
+import biblioteca.enums.EstadoRecurso;
+import biblioteca.enums.ResultadoOperacion;
+import biblioteca.model.BibliotecaManager;
+import biblioteca.model.RecursoBiblioteca;
+import biblioteca.model.Usuario;
+import biblioteca.servidor.SucursalRemota;
+import biblioteca.sucursales.BibliotecaSucursales;
+import biblioteca.sucursales.Sucursal;
+import biblioteca.sucursales.SucursalLocal;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rendimiento de una biblioteca repartida en sucursales ({@link BibliotecaSucursales}).
+ *
+ * {@code prestarDevolver} presta un recurso al azar a un usuario al azar y, si se
+ * presta, lo devuelve, con 1, 2 y 4 sucursales (la mayoría de los préstamos son entre
+ * sucursales, porque el usuario suele ser de otra). {@code reparto} añade una sucursal
+ * más con préstamos en marcha en segundo plano y mide lo que tarda el reparto; al
+ * terminar cada iteración comprueba que ninguna operación dio INVALIDO ni falló y que
+ * cada recurso sigue en una sola sucursal.
+ *
+ * Con {@code -p tipo=remotas} cada sucursal es un proceso aparte ({@code Main servidor})
+ * en un directorio temporal y el coordinador habla con ellas por HTTP; conviene bajar
+ * el catálogo ({@code -p recursos=20000}) y subir los hilos ({@code -t 32}). El
+ * rendimiento solo crece con las sucursales si hay núcleos (o máquinas) para todas.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BenchSucursales {
+
+	private static final int USUARIOS = 1000;
+
+	/** Hilos que prestan en segundo plano durante el reparto */
+	private static final int HILOS_FONDO = 8;
+
+	/**
+	 * Biblioteca con un número fijo de sucursales durante toda la prueba.
+	 */
+	@State(Scope.Benchmark)
+	public static class Escalado {
+		@Param({ "1", "2", "4" })
+		public int sucursales;
+
+		@Param({ "locales" })
+		public String tipo;
+
+		@Param({ "200000" })
+		public int recursos;
+
+		final List<Process> procesos = new ArrayList<>();
+		BibliotecaSucursales biblioteca;
+
+		@Setup(Level.Trial)
+		public void abrir() throws Exception {
+			biblioteca = crear(sucursales, tipo, recursos, procesos);
+		}
+
+		@TearDown(Level.Trial)
+		public void cerrar() throws Exception {
+			try {
+				biblioteca.close();
+			} finally {
+				detener(procesos);
+			}
+		}
+	}
+
+	/**
+	 * Biblioteca nueva en cada iteración, con préstamos en segundo plano mientras se
+	 * añade la sucursal. Es de cada hilo para que {@code -t} no añada dos veces la misma.
+	 */
+	@State(Scope.Thread)
+	public static class Reparto {
+		/** Sucursales antes del reparto */
+		@Param({ "3" })
+		public int desde;
+
+		@Param({ "locales" })
+		public String tipo;
+
+		@Param({ "200000" })
+		public int recursos;
+
+		final List<Process> procesos = new ArrayList<>();
+		BibliotecaSucursales biblioteca;
+		private final List<Thread> fondo = new ArrayList<>();
+		private final AtomicReference<Exception> fallo = new AtomicReference<>();
+		private volatile boolean parar;
+
+		@Setup(Level.Iteration)
+		public void preparar() throws Exception {
+			biblioteca = crear(desde, tipo, recursos, procesos);
+			parar = false;
+			fallo.set(null);
+			for (int h = 0; h < HILOS_FONDO; h++) {
+				fondo.add(Thread.ofPlatform().start(() -> {
+					while (!parar && fallo.get() == null) {
+						try {
+							prestarYDevolver(biblioteca, recursos);
+						} catch (IOException | IllegalStateException e) {
+							fallo.compareAndSet(null, e);
+						}
+					}
+				}));
+			}
+		}
+
+		@TearDown(Level.Iteration)
+		public void comprobar() throws Exception {
+			parar = true;
+			try {
+				for (Thread hilo : fondo) hilo.join();
+				fondo.clear();
+				if (biblioteca.getErrorReparto() != null) throw biblioteca.getErrorReparto();
+				if (fallo.get() != null) {
+					throw new IllegalStateException("Falló una operación durante el reparto", fallo.get());
+				}
+				int presentes = 0;
+				for (Sucursal sucursal : biblioteca.getSucursales()) {
+					presentes += contar(sucursal);
+				}
+				if (presentes != recursos) {
+					throw new IllegalStateException("Recursos presentes tras el reparto: " + presentes + " de " + recursos);
+				}
+			} finally {
+				biblioteca.close();
+				detener(procesos);
+			}
+		}
+	}
+
+	@Benchmark
+	@Threads(8)
+	public ResultadoOperacion prestarDevolver(Escalado e) throws IOException {
+		return prestarYDevolver(e.biblioteca, e.recursos);
+	}
+
+	/** Añade una sucursal y espera a que termine el reparto; el resultado son los recursos movidos */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 1)
+	@Measurement(iterations = 3)
+	@Threads(1)
+	public long reparto(Reparto r) throws Exception {
+		r.biblioteca.agregarSucursal(sucursal(r.desde, r.tipo, r.procesos));
+		r.biblioteca.esperarReparto();
+		return r.biblioteca.getRecursosMovidos();
+	}
+
+	/**
+	 * Presta un recurso al azar a un usuario al azar y, si se presta, lo devuelve.
+	 *
+	 * @throws IllegalStateException Si alguna de las dos operaciones da INVALIDO
+	 */
+	private static ResultadoOperacion prestarYDevolver(BibliotecaSucursales biblioteca, int recursos)
+			throws IOException {
+		ThreadLocalRandom azar = ThreadLocalRandom.current();
+		String recurso = GeneradorDatos.idRecurso(azar.nextInt(recursos));
+		ResultadoOperacion resultado = biblioteca.prestar(recurso, "u" + azar.nextInt(USUARIOS));
+		if (resultado == ResultadoOperacion.REALIZADO) resultado = biblioteca.devolver(recurso);
+		if (resultado == ResultadoOperacion.INVALIDO) {
+			throw new IllegalStateException("Operación inválida sobre " + recurso);
+		}
+		return resultado;
+	}
+
+	private static BibliotecaSucursales crear(int n, String tipo, int recursos, List<Process> procesos)
+			throws Exception {
+		List<Sucursal> sucursales = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			sucursales.add(sucursal(i, tipo, procesos));
+		}
+		BibliotecaSucursales biblioteca = new BibliotecaSucursales(sucursales);
+		// Alta en paralelo: con sucursales remotas cada alta es una petición
+		AtomicInteger siguiente = new AtomicInteger();
+		List<Thread> cargadores = new ArrayList<>();
+		for (int h = 0; h < HILOS_FONDO; h++) {
+			cargadores.add(Thread.ofVirtual().start(() -> {
+				try {
+					for (int i; (i = siguiente.getAndIncrement()) < recursos + USUARIOS; ) {
+						if (i < USUARIOS) {
+							biblioteca.agregarUsuario(new Usuario("u" + i, "Usuario " + i));
+						} else {
+							biblioteca.agregarRecurso(GeneradorDatos.recurso(i - USUARIOS));
+						}
+					}
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}));
+		}
+		for (Thread cargador : cargadores) {
+			cargador.join();
+		}
+		return biblioteca;
+	}
+
+	private static Sucursal sucursal(int i, String tipo, List<Process> procesos) throws Exception {
+		if (!tipo.equals("remotas")) return new SucursalLocal(nombre(i), new BibliotecaManager());
+		int puerto;
+		try (ServerSocket libre = new ServerSocket(0)) {
+			puerto = libre.getLocalPort();
+		}
+		File directorio = Files.createTempDirectory("sucursal").toFile();
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		Process proceso = new ProcessBuilder(java, "-cp", classpath(),
+				"biblioteca.app.Main", "servidor", String.valueOf(puerto))
+				.directory(directorio)
+				.redirectErrorStream(true)
+				.redirectOutput(new File(directorio, "salida.log"))
+				.start();
+		procesos.add(proceso);
+		SucursalRemota sucursal = new SucursalRemota(nombre(i), "127.0.0.1", puerto);
+		// Espera a que el servidor acepte peticiones
+		for (int intento = 0; ; intento++) {
+			try {
+				sucursal.getUsuariosPorAlta(0, 1);
+				return sucursal;
+			} catch (IOException e) {
+				if (intento == 300 || !proceso.isAlive()) {
+					throw new IOException("No arrancó la sucursal " + nombre(i) + " (ver " + directorio + ")", e);
+				}
+				Thread.sleep(100);
+			}
+		}
+	}
+
+	/**
+	 * @return Classpath de este proceso con rutas absolutas, porque la sucursal arranca en otro directorio
+	 */
+	private static String classpath() {
+		StringJoiner rutas = new StringJoiner(File.pathSeparator);
+		for (String ruta : System.getProperty("java.class.path").split(File.pathSeparator)) {
+			rutas.add(new File(ruta).getAbsolutePath());
+		}
+		return rutas.toString();
+	}
+
+	private static String nombre(int i) {
+		return "sucursal-" + i;
+	}
+
+	/**
+	 * @return Recursos de la sucursal que no están retirados
+	 */
+	private static int contar(Sucursal sucursal) throws IOException {
+		int presentes = 0;
+		for (int desde = 0; ; desde += 5000) {
+			List<RecursoBiblioteca> lote = sucursal.getRecursosPorAlta(desde, 5000);
+			if (lote.isEmpty()) return presentes;
+			for (RecursoBiblioteca recurso : lote) {
+				if (recurso.getEstado() != EstadoRecurso.RETIRADO) presentes++;
+			}
+		}
+	}
+
+	private static void detener(List<Process> procesos) throws InterruptedException {
+		for (Process proceso : procesos) {
+			proceso.destroy();
+		}
+		for (Process proceso : procesos) {
+			proceso.waitFor();
+		}
+		procesos.clear();
+	}
+}
@@ -0,0 +1,61 @@
+package biblioteca.bench.jmh;
+
+import biblioteca.bench.GeneradorDatos;
+import biblioteca.model.BibliotecaManager;
+import biblioteca.model.RecursoBiblioteca;
+import biblioteca.model.Usuario;
+import java.io.File;
+
+/**
+ * Datos comunes de los benchmarks: la biblioteca de préstamo con sus recursos y
+ * usuarios, y la limpieza de los archivos temporales.
+ */
+final class Datos {
+
+	/** Recursos del catálogo en los benchmarks de préstamo */
+	static final int RECURSOS_PRESTAMO = 10_000;
+
+	/** Usuarios de la biblioteca de préstamo */
+	static final int USUARIOS = 64;
+
+	private Datos() {
+	}
+
+	/**
+	 * Biblioteca de préstamo recién creada.
+	 */
+	static final class Prestamos {
+		final BibliotecaManager biblioteca = new BibliotecaManager();
+		final RecursoBiblioteca[] recursos = new RecursoBiblioteca[RECURSOS_PRESTAMO];
+		final Usuario[] usuarios = new Usuario[USUARIOS];
+
+		Prestamos() {
+			for (int i = 0; i < recursos.length; i++) {
+				recursos[i] = GeneradorDatos.recurso(i);
+				biblioteca.agregarRecurso(recursos[i]);
+			}
+			for (int i = 0; i < usuarios.length; i++) {
+				usuarios[i] = new Usuario("u" + i, "Usuario " + i);
+				biblioteca.agregarUsuario(usuarios[i]);
+			}
+		}
+
+		/** Presta y devuelve un recurso; el resultado va al sumidero de JMH */
+		boolean prestarYDevolver(RecursoBiblioteca recurso, int hilo) {
+			boolean prestado = biblioteca.prestar(recurso, usuarios[hilo % usuarios.length]);
+			boolean devuelto = biblioteca.devolver(recurso);
+			return prestado == devuelto;
+		}
+	}
+
+	/**
+	 * Borra un directorio temporal y su contenido (sin subdirectorios).
+	 */
+	static void borrar(File directorio) {
+		File[] archivos = directorio.listFiles();
+		if (archivos != null) {
+			for (File f : archivos) f.delete();
+		}
+		directorio.delete();
+	}
+}
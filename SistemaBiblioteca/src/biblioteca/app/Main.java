@@ -5,37 +5,85 @@ import biblioteca.model.Libro;
 import biblioteca.model.Revista;
 import biblioteca.model.DVD;
 
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
 import java.util.Collection;
+import java.util.Formatter;
+import java.util.List;
+import java.util.Map;
+import javax.management.JMException;
 
+import biblioteca.enums.EstadoRecurso;
+import biblioteca.enums.EstadoReserva;
+import biblioteca.enums.FormatoExportacion;
+import biblioteca.enums.OrdenRecursos;
+import biblioteca.enums.PoliticaSincronizacion;
+import biblioteca.enums.TipoRecurso;
+import biblioteca.eventos.OyenteConsola;
+import biblioteca.metricas.EstadisticasCirculacion;
+import biblioteca.metricas.Frecuente;
+import biblioteca.metricas.ResumenOperacion;
 import biblioteca.model.BibliotecaManager;
+import biblioteca.model.PaginaRecursos;
+import biblioteca.model.Prestamo;
 import biblioteca.model.RecursoBiblioteca;
+import biblioteca.model.Reserva;
 import biblioteca.model.Usuario;
+import biblioteca.persistencia.Exportador;
+import biblioteca.servidor.ServidorBiblioteca;
 
 /**
  * Clase principal que implementa la interfaz de usuario del sistema de biblioteca.
- * Permite realizar operaciones de gestión de usuarios y recursos bibliográficos.
+ * Permite realizar operaciones de gestión de usuarios y recursos bibliográficos,
+ * desde el menú de consola o como servidor HTTP.
  */
 public class Main {
 
+    /** Puerto del modo servidor si no se indica otro */
+    private static final int PUERTO_POR_DEFECTO = 8080;
+
+    /** Recursos por página en el listado de la consola */
+    private static final int TAMANO_PAGINA = 20;
+
     /**
-     * Punto de entrada de la aplicación. Implementa un menú interactivo por consola
-     * para gestionar la biblioteca.
+     * Punto de entrada de la aplicación. Sin argumentos implementa un menú
+     * interactivo por consola para gestionar la biblioteca; con
+     * {@code servidor [puerto]} publica la biblioteca como API HTTP.
      * 
-     * @param args Argumentos de la línea de comandos (no utilizados)
+     * @param args Argumentos de la línea de comandos: vacío o {@code servidor [puerto]}
      */
     public static void main(String[] args) {
+        if (args.length > 0) {
+            if (!args[0].equals("servidor") || args.length > 2) {
+                System.out.println("Uso: Main [servidor [puerto]]");
+                return;
+            }
+            int puerto = PUERTO_POR_DEFECTO;
+            if (args.length == 2) {
+                try {
+                    puerto = Integer.parseInt(args[1]);
+                } catch (NumberFormatException e) {
+                    System.out.println("❌ Puerto no válido: " + args[1]);
+                    return;
+                }
+            }
+            modoServidor(puerto);
+            return;
+        }
+
         // Inicialización de componentes necesarios
         Scanner scanner = new Scanner(System.in);
-        BibliotecaManager biblioteca = new BibliotecaManager();
-        
-        // Carga de datos almacenados previamente
-        biblioteca.cargarUsuariosDesdeArchivo("usuarios.txt");
-        biblioteca.cargarRecursosDesdeArchivo("recursos.txt");
+        BibliotecaManager biblioteca = abrirBiblioteca(new OyenteConsola());
 
         int opcion;
 
         // Bucle principal del programa
         do {
+            // Antes del menú se espera a que la consola haya mostrado los mensajes pendientes
+            biblioteca.esperarEventos();
+
             // Muestra del menú principal
             System.out.println("\n=== Bienvenido al sistema de Biblioteca ===");
             System.out.println("Seleccione una opción:");
@@ -46,6 +94,14 @@ public class Main {
             System.out.println("4. Devolver recurso");
             System.out.println("5. Lista de recursos");
             System.out.println("7. Ver historial de préstamos");
+            System.out.println("8. Buscar recursos");
+            System.out.println("9. Ver préstamos activos de un usuario");
+            System.out.println("10. Reservar recurso");
+            System.out.println("11. Cancelar reserva");
+            System.out.println("12. Ver préstamos vencidos");
+            System.out.println("13. Resumen de préstamos por periodo");
+            System.out.println("14. Estadísticas de circulación");
+            System.out.println("15. Exportar datos (CSV o JSON Lines)");
             System.out.println("0. Salir");
             System.out.print("Opción: ");
 
@@ -69,7 +125,6 @@ public class Main {
                     Usuario nuevoUsuario = new Usuario(idUsuario, nombreUsuario);
                     if (biblioteca.agregarUsuario(nuevoUsuario)) {
                         System.out.println("✅ Usuario agregado correctamente.");
-                        biblioteca.guardarUsuariosEnArchivo("usuarios.txt");
                     } else {
                         System.out.println("❌ Ya existe un usuario con ese ID.");
                     }
@@ -124,7 +179,6 @@ public class Main {
                     if (nuevoRecurso != null) {
                         if (biblioteca.agregarRecurso(nuevoRecurso)) {
                             System.out.println("✅ Recurso agregado correctamente.");
-                            biblioteca.guardarRecursosEnArchivo("recursos.txt");
                         } else {
                             System.out.println("❌ Ya existe un recurso con ese ID.");
                         }
@@ -153,35 +207,35 @@ public class Main {
                     break;
 
                 case 5:
-                    // Listar recursos: muestra todos los recursos disponibles con sus detalles
-                    Collection<RecursoBiblioteca> recursos = biblioteca.getRecursos();
-                    if (recursos.isEmpty()) {
+                    // Listar recursos: por páginas, en el orden que elija el usuario
+                    if (biblioteca.contarRecursos(null, null) == 0) {
                         System.out.println("📭 No hay recursos en la biblioteca.");
-                    } else {
-                        System.out.println("📚 Recursos en la biblioteca:");
-                        System.out.printf("%-10s %-10s %-30s %-15s %-20s%n", "ID", "Tipo", "Título", "Estado", "Detalle");
-                        System.out.println("------------------------------------------------------------------------------------------");
-
-                        // Itera sobre cada recurso y muestra su información
-                        for (RecursoBiblioteca r : recursos) {
-                            String tipoRecurso = r.getClass().getSimpleName();
-                            String estado = r.getEstado().toString();
-                            String detalle = "";
-
-                            // Obtiene detalles específicos según el tipo de recurso
-                            if (r instanceof Libro) {
-                                detalle = "Autor: " + ((Libro) r).getAutor();
-                            } else if (r instanceof Revista) {
-                                detalle = "Edición: " + ((Revista) r).getNumeroEdicion();
-                            } else if (r instanceof DVD) {
-                                detalle = "Duración: " + ((DVD) r).getDuracionMinutos() + " min";
-                            }
-
-                            // Imprime la información formateada
-                            System.out.printf("%-10s %-10s %-30s %-15s %-20s%n",
-                                    r.getId(), tipoRecurso, r.getTitulo(), estado, detalle);
-                        }
+                        break;
                     }
+                    System.out.print("Ordenar por (1) ID, (2) Título, (3) Tipo, (4) Estado [1]: ");
+                    String criterio = scanner.nextLine().trim();
+                    OrdenRecursos orden = criterio.equals("2") ? OrdenRecursos.TITULO
+                            : criterio.equals("3") ? OrdenRecursos.TIPO
+                            : criterio.equals("4") ? OrdenRecursos.ESTADO : OrdenRecursos.ID;
+
+                    System.out.println("📚 Recursos en la biblioteca:");
+                    String cursor = null;
+                    do {
+                        PaginaRecursos pagina = biblioteca.getPaginaRecursos(orden, cursor, TAMANO_PAGINA);
+                        // Cada página se compone entera y se escribe de una vez
+                        System.out.print(tablaRecursos(pagina.getRecursos()));
+                        cursor = pagina.getCursorSiguiente();
+                        if (cursor != null) {
+                            System.out.print("Intro para la página siguiente, 'q' para terminar: ");
+                            if (scanner.nextLine().trim().equalsIgnoreCase("q")) break;
+                        }
+                    } while (cursor != null);
+
+                    // Recuentos del índice de estados, sin volver a recorrer la lista
+                    System.out.printf("📊 %d disponibles, %d prestados, %d reservados%n",
+                            biblioteca.contarRecursos(EstadoRecurso.DISPONIBLE, null),
+                            biblioteca.contarRecursos(EstadoRecurso.PRESTADO, null),
+                            biblioteca.contarRecursos(EstadoRecurso.RESERVADO, null));
                     break;
 
                 case 6:
@@ -199,6 +253,170 @@ public class Main {
                     biblioteca.verHistorialPrestamos();
                     break;
 
+                case 8:
+                    // Buscar recursos por título o autor
+                    System.out.print("Texto a buscar: ");
+                    String consulta = scanner.nextLine();
+                    System.out.print("¿Deben aparecer todas las palabras? (s/n): ");
+                    boolean todas = !scanner.nextLine().trim().equalsIgnoreCase("n");
+
+                    List<RecursoBiblioteca> encontrados = biblioteca.buscar(consulta, todas, 20);
+                    if (encontrados.isEmpty()) {
+                        System.out.println("📭 No se encontraron recursos.");
+                    } else {
+                        System.out.println("🔎 Resultados de la búsqueda:");
+                        for (RecursoBiblioteca r : encontrados) {
+                            System.out.println("- " + r.descripcion());
+                        }
+                    }
+                    break;
+
+                case 9:
+                    // Préstamos sin devolver de un usuario
+                    System.out.print("ID del usuario: ");
+                    String idUsuarioConsulta = scanner.nextLine();
+                    Collection<Prestamo> activos = biblioteca.getPrestamosActivosDeUsuario(idUsuarioConsulta);
+                    if (activos.isEmpty()) {
+                        System.out.println("📭 El usuario no tiene préstamos pendientes.");
+                    } else {
+                        System.out.println("📚 Préstamos pendientes:");
+                        for (Prestamo p : activos) {
+                            System.out.println("- " + p.resumen());
+                        }
+                    }
+                    break;
+
+                case 10:
+                    // Reservar recurso: el usuario entra en la lista de espera
+                    System.out.print("ID del recurso a reservar: ");
+                    String idRecursoReservar = scanner.nextLine();
+                    System.out.print("ID del usuario que reserva: ");
+                    String idUsuarioReservar = scanner.nextLine();
+                    Reserva reserva = biblioteca.reservar(biblioteca.getRecurso(idRecursoReservar),
+                            biblioteca.getUsuario(idUsuarioReservar));
+                    if (reserva == null) {
+                        System.out.println("ERROR: Recurso o usuario no encontrado.");
+                    } else if (reserva.getEstado() == EstadoReserva.RETENIDA) {
+                        System.out.println("📬 El recurso está reservado para el usuario hasta " + reserva.getFinRetencion());
+                    } else {
+                        System.out.println("📝 Reserva registrada. Posición en la lista de espera: "
+                                + biblioteca.getPosicionEnEspera(reserva));
+                    }
+                    break;
+
+                case 11:
+                    // Cancelar reserva: si tenía el recurso retenido pasa al siguiente
+                    System.out.print("ID del recurso reservado: ");
+                    String idRecursoCancelar = scanner.nextLine();
+                    System.out.print("ID del usuario: ");
+                    String idUsuarioCancelar = scanner.nextLine();
+                    Reserva cancelar = biblioteca.getReserva(idRecursoCancelar, idUsuarioCancelar);
+                    if (cancelar != null && biblioteca.cancelarReserva(cancelar)) {
+                        System.out.println("Reserva cancelada.");
+                    } else {
+                        System.out.println("ERROR: El usuario no tiene una reserva de ese recurso.");
+                    }
+                    break;
+
+                case 12:
+                    // Préstamos sin devolver con el plazo terminado, del más antiguo al más reciente
+                    List<Prestamo> vencidos = biblioteca.getPrestamosVencidos();
+                    if (vencidos.isEmpty()) {
+                        System.out.println("📭 No hay préstamos vencidos.");
+                    } else {
+                        System.out.println("⏰ Préstamos vencidos (" + vencidos.size() + "):");
+                        for (Prestamo p : vencidos.subList(0, Math.min(TAMANO_PAGINA, vencidos.size()))) {
+                            System.out.println("- " + p.resumen());
+                        }
+                        if (vencidos.size() > TAMANO_PAGINA) {
+                            System.out.println("... y " + (vencidos.size() - TAMANO_PAGINA) + " más.");
+                        }
+                    }
+                    break;
+
+                case 13:
+                    // Recuentos del historial en un rango de fechas, sin listar los préstamos
+                    LocalDate desde;
+                    LocalDate hasta;
+                    try {
+                        System.out.print("Desde (AAAA-MM-DD, vacío para el principio): ");
+                        desde = leerFecha(scanner.nextLine());
+                        System.out.print("Hasta (AAAA-MM-DD, vacío para hoy): ");
+                        hasta = leerFecha(scanner.nextLine());
+                    } catch (DateTimeParseException e) {
+                        System.out.println("ERROR: La fecha debe tener el formato AAAA-MM-DD.");
+                        break;
+                    }
+                    Map<YearMonth, Long> porMes = biblioteca.contarPrestamosPorMes(desde, hasta);
+                    if (porMes.isEmpty()) {
+                        System.out.println("📭 No hay préstamos en ese periodo.");
+                        break;
+                    }
+                    System.out.println("📅 Préstamos por mes:");
+                    porMes.forEach((mes, n) -> System.out.println("- " + mes + ": " + n));
+                    System.out.println("📚 Préstamos por tipo:");
+                    biblioteca.contarPrestamosPorTipo(desde, hasta)
+                            .forEach((tipoRecurso, n) -> System.out.println("- " + tipoRecurso + ": " + n));
+                    System.out.println("👤 Usuarios con más préstamos:");
+                    for (Map.Entry<String, Long> u : biblioteca.getUsuariosConMasPrestamos(desde, hasta, 10)) {
+                        Usuario usuario = biblioteca.getUsuario(u.getKey());
+                        String nombre = usuario != null ? usuario.getNombre() : u.getKey();
+                        System.out.println("- " + nombre + ": " + u.getValue());
+                    }
+                    break;
+
+                case 14:
+                    // Contadores mantenidos en cada préstamo: no recorren el historial
+                    EstadisticasCirculacion estadisticas = biblioteca.getEstadisticas();
+                    LocalDate hoy = LocalDate.now();
+                    int dias = estadisticas.getDiasVentana();
+                    System.out.println("📊 Préstamos por tipo (total / últimos " + dias + " días):");
+                    for (TipoRecurso tipoRecurso : TipoRecurso.values()) {
+                        System.out.println("- " + tipoRecurso + ": " + estadisticas.getPrestamos(tipoRecurso)
+                                + " / " + estadisticas.getPrestamosRecientes(tipoRecurso, hoy));
+                    }
+                    System.out.println("🏆 Más prestados en los últimos " + dias + " días:");
+                    for (Frecuente f : estadisticas.getRecursosMasPrestadosRecientes(10, hoy)) {
+                        RecursoBiblioteca recurso = biblioteca.getRecurso(f.getClave());
+                        String titulo = recurso != null ? recurso.getTitulo() : f.getClave();
+                        System.out.println("- " + titulo + ": " + f.getCuenta());
+                    }
+                    System.out.println("👤 Usuarios más activos:");
+                    for (Frecuente f : estadisticas.getUsuariosMasActivos(10)) {
+                        Usuario usuario = biblioteca.getUsuario(f.getClave());
+                        String nombre = usuario != null ? usuario.getNombre() : f.getClave();
+                        System.out.println("- " + nombre + ": " + f.getCuenta());
+                    }
+                    break;
+
+                case 15:
+                    // Las filas se escriben según se recorren, sin cargar nada en memoria
+                    System.out.print("Datos (RECURSOS, USUARIOS, HISTORIAL): ");
+                    String datos = scanner.nextLine().trim().toUpperCase();
+                    if (!datos.equals("RECURSOS") && !datos.equals("USUARIOS") && !datos.equals("HISTORIAL")) {
+                        System.out.println("ERROR: Datos no válidos.");
+                        break;
+                    }
+                    System.out.print("Archivo (.csv o .jsonl, con .gz para comprimir): ");
+                    String archivoExportar = scanner.nextLine().trim();
+                    boolean comprimir = archivoExportar.endsWith(".gz");
+                    String sinGz = comprimir ? archivoExportar.substring(0, archivoExportar.length() - 3) : archivoExportar;
+                    FormatoExportacion formato = sinGz.endsWith(".jsonl") ? FormatoExportacion.JSONL : FormatoExportacion.CSV;
+                    try (Exportador exportador = Exportador.abrir(archivoExportar, formato, comprimir)) {
+                        long filas;
+                        if (datos.equals("RECURSOS")) {
+                            filas = biblioteca.exportarRecursos(exportador);
+                        } else if (datos.equals("USUARIOS")) {
+                            filas = biblioteca.exportarUsuarios(exportador);
+                        } else {
+                            filas = biblioteca.exportarHistorial(exportador, null, null);
+                        }
+                        System.out.println("💾 " + filas + " filas exportadas a " + archivoExportar + " (" + formato + ").");
+                    } catch (IOException e) {
+                        System.out.println("❌ Error al exportar: " + e.getMessage());
+                    }
+                    break;
+
                 default:
                     // Opción no reconocida
                     System.out.println("⚠️ Opción no válida. Intente de nuevo.");
@@ -206,7 +424,169 @@ public class Main {
 
         } while (opcion != 0); // Continúa el bucle hasta que el usuario elija salir
 
+        // Guarda el estado final y cierra el diario y el historial
+        biblioteca.cerrar();
+
+        // Resumen de latencias si se han medido
+        mostrarMetricas(biblioteca);
+
         // Cierra el scanner para liberar recursos
         scanner.close();
     }
+
+    /**
+     * @return La fecha escrita, o null si se dejó vacía
+     * @throws DateTimeParseException si no tiene el formato AAAA-MM-DD
+     */
+    private static LocalDate leerFecha(String texto) {
+        texto = texto.trim();
+        return texto.isEmpty() ? null : LocalDate.parse(texto);
+    }
+
+    /**
+     * Crea la biblioteca, carga los datos guardados y activa el diario (o, con
+     * {@code -Dbiblioteca.persistencia=diferida}, el guardado en segundo plano) y el
+     * historial persistente. Común al modo consola y al modo servidor.
+     * 
+     * @param oyente Oyente que muestra los mensajes de las operaciones
+     * @return La biblioteca lista para usar
+     */
+    private static BibliotecaManager abrirBiblioteca(OyenteConsola oyente) {
+        BibliotecaManager biblioteca = new BibliotecaManager();
+        
+        // Los mensajes de las operaciones llegan como eventos; la consola es un oyente más
+        biblioteca.suscribir(oyente);
+        
+        // Métricas de latencia consultables por JMX (se activan con -Dbiblioteca.metricas=true o desde JMX)
+        try {
+            biblioteca.getMetricas().registrarEnJmx("principal");
+        } catch (JMException e) {
+            System.out.println("❌ Error al registrar las métricas en JMX: " + e.getMessage());
+        }
+        
+        // Carga de datos almacenados previamente
+        biblioteca.cargarUsuariosEnParalelo("usuarios.txt");
+        biblioteca.cargarRecursosEnParalelo("recursos.txt");
+        
+        if ("diferida".equals(System.getProperty("biblioteca.persistencia"))) {
+            // Las operaciones solo marcan lo que cambia; un hilo lo guarda cada segundo
+            // en archivos de cambios y compacta los archivos de texto de vez en cuando
+            biblioteca.activarGuardadoDiferido("usuarios.txt", "recursos.txt", "cambios", 1000, 10_000);
+        } else {
+            // Los cambios se anexan al diario; los archivos de texto se reescriben
+            // solo en los puntos de control
+            biblioteca.activarDiario("usuarios.txt", "recursos.txt", "biblioteca.diario",
+                    PoliticaSincronizacion.CADA_LOTE, 1000);
+        }
+        biblioteca.activarHistorialPersistente("historial");
+        return biblioteca;
+    }
+
+    /**
+     * Publica la biblioteca como API HTTP hasta que se detiene el proceso (Ctrl+C).
+     * Al detenerse se guarda el estado igual que al salir del menú.
+     * 
+     * Con {@code -Dbiblioteca.replicacion.puerto=N} la biblioteca es además primario
+     * de replicación en el puerto N. Con {@code -Dbiblioteca.replicacion.primario=host:puerto}
+     * es una réplica de solo lectura de ese primario: no lee ni escribe archivos y
+     * recibe el estado y los cambios del primario.
+     * 
+     * @param puerto Puerto TCP en el que escuchar
+     */
+    private static void modoServidor(int puerto) {
+        // En modo servidor la consola solo muestra cargas, guardados y errores
+        OyenteConsola oyente = new OyenteConsola(false);
+        BibliotecaManager biblioteca;
+        String primario = System.getProperty("biblioteca.replicacion.primario");
+        if (primario != null) {
+            int separador = primario.lastIndexOf(':');
+            int puertoPrimario;
+            try {
+                puertoPrimario = Integer.parseInt(primario.substring(separador + 1));
+            } catch (NumberFormatException e) {
+                System.out.println("❌ Primario no válido (host:puerto): " + primario);
+                return;
+            }
+            biblioteca = new BibliotecaManager();
+            biblioteca.suscribir(oyente);
+            biblioteca.activarReplicacionSeguidora(separador > 0 ? primario.substring(0, separador) : "localhost",
+                    puertoPrimario);
+        } else {
+            biblioteca = abrirBiblioteca(oyente);
+            String puertoReplicacion = System.getProperty("biblioteca.replicacion.puerto");
+            if (puertoReplicacion != null) {
+                try {
+                    biblioteca.activarReplicacionPrimaria(Integer.parseInt(puertoReplicacion));
+                } catch (NumberFormatException e) {
+                    System.out.println("❌ Puerto de replicación no válido: " + puertoReplicacion);
+                }
+            }
+        }
+
+        ServidorBiblioteca servidor;
+        try {
+            servidor = new ServidorBiblioteca(biblioteca, puerto);
+        } catch (IOException e) {
+            System.out.println("❌ No se pudo abrir el puerto " + puerto + ": " + e.getMessage());
+            biblioteca.cerrar();
+            return;
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            servidor.detener(2);
+            biblioteca.cerrar();
+            mostrarMetricas(biblioteca);
+            System.out.println("👋 Servidor detenido.");
+        }, "parada-servidor"));
+
+        servidor.iniciar();
+        biblioteca.esperarEventos();
+        System.out.println("🌐 Servidor de la biblioteca escuchando en el puerto " + servidor.getPuerto()
+                + " (Ctrl+C para detener)");
+    }
+
+    /**
+     * Compone la tabla de una página de recursos para escribirla de una vez.
+     *
+     * @param recursos Recursos de la página
+     * @return Tabla con cabecera y una fila por recurso
+     */
+    private static String tablaRecursos(List<RecursoBiblioteca> recursos) {
+        StringBuilder sb = new StringBuilder(128 * (recursos.size() + 2));
+        Formatter tabla = new Formatter(sb);
+        tabla.format("%-10s %-10s %-30s %-15s %-20s%n", "ID", "Tipo", "Título", "Estado", "Detalle");
+        sb.append("------------------------------------------------------------------------------------------")
+                .append(System.lineSeparator());
+        for (RecursoBiblioteca r : recursos) {
+            String tipoRecurso = "";
+            String detalle = "";
+
+            // Obtiene el tipo y los detalles específicos del recurso
+            // (con el almacén compacto la clase concreta es una vista)
+            if (r instanceof Libro) {
+                tipoRecurso = "Libro";
+                detalle = "Autor: " + ((Libro) r).getAutor();
+            } else if (r instanceof Revista) {
+                tipoRecurso = "Revista";
+                detalle = "Edición: " + ((Revista) r).getNumeroEdicion();
+            } else if (r instanceof DVD) {
+                tipoRecurso = "DVD";
+                detalle = "Duración: " + ((DVD) r).getDuracionMinutos() + " min";
+            }
+            tabla.format("%-10s %-10s %-30s %-15s %-20s%n", r.getId(), tipoRecurso, r.getTitulo(), r.getEstado(), detalle);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Muestra el resumen de latencias si las métricas están activas.
+     */
+    private static void mostrarMetricas(BibliotecaManager biblioteca) {
+        if (biblioteca.getMetricas().isActivas()) {
+            System.out.println("📊 Métricas de operaciones:");
+            for (ResumenOperacion r : biblioteca.getMetricas().getOperaciones()) {
+                System.out.println("- " + r);
+            }
+        }
+    }
 }
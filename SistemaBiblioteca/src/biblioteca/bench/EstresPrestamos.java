@@ -0,0 +1,226 @@
+package biblioteca.bench;
+
+import biblioteca.enums.EstadoRecurso;
+import biblioteca.enums.PoliticaSincronizacion;
+import biblioteca.enums.ResultadoOperacion;
+import biblioteca.enums.TipoRecurso;
+import biblioteca.model.BibliotecaManager;
+import biblioteca.model.Libro;
+import biblioteca.model.Prestamo;
+import biblioteca.model.RecursoBiblioteca;
+import biblioteca.model.SolicitudPrestamo;
+import biblioteca.model.Usuario;
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Prueba de estrés de préstamos y devoluciones concurrentes sobre los mismos recursos.
+ *
+ * Varios hilos prestan recursos al azar de un catálogo pequeño, de modo que casi
+ * todas las peticiones compiten por los mismos ejemplares, los retienen un rato y
+ * los devuelven; una de cada ocho operaciones va por lotes. Cada hilo solo devuelve
+ * lo que consiguió, así que un contador por recurso que sube tras cada préstamo
+ * concedido y baja antes de devolverlo no puede pasar nunca de 1: si llega a 2, el
+ * mismo recurso se prestó dos veces a la vez.
+ *
+ * Comprueba además que el préstamo abierto del recurso sea del usuario que lo
+ * consiguió, que toda devolución de lo prestado se acepte y que, al terminar, los
+ * préstamos y devoluciones concedidos coincidan con las estadísticas de circulación
+ * y no quede ningún recurso prestado. Termina con código 1 si algo no se cumple.
+ *
+ * Con un directorio como cuarto argumento se activan el diario y el historial persistente.
+ *
+ * Uso: java biblioteca.bench.EstresPrestamos [hilos] [segundos] [recursos] [directorio]
+ */
+public class EstresPrestamos {
+
+	/** Recursos que retiene cada hilo antes de devolver el más antiguo */
+	private static final int RETENIDOS = 4;
+
+	/** Recursos por lote */
+	private static final int LOTE = 4;
+
+	/** Fallos que se muestran como mucho */
+	private static final int MAX_FALLOS = 20;
+
+	public static void main(String[] args) throws Exception {
+		int hilos = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		int segundos = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int recursos = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+		String diario = args.length > 3 ? args[3] : null;
+
+		BibliotecaManager biblioteca = new BibliotecaManager();
+		for (int i = 0; i < recursos; i++) {
+			biblioteca.agregarRecurso(new Libro("L" + i, "Titulo " + i, "Autor " + i));
+		}
+		for (int h = 0; h < hilos; h++) {
+			biblioteca.agregarUsuario(new Usuario("U" + h, "Usuario " + h));
+		}
+		if (diario != null) {
+			new File(diario).mkdirs();
+			biblioteca.activarDiario(new File(diario, "usuarios.txt").getPath(), new File(diario, "recursos.txt").getPath(),
+					new File(diario, "biblioteca.diario").getPath(), PoliticaSincronizacion.CADA_LOTE, 100_000);
+			biblioteca.activarHistorialPersistente(new File(diario, "historial").getPath());
+		}
+
+		AtomicIntegerArray ocupantes = new AtomicIntegerArray(recursos);
+		LongAdder prestamos = new LongAdder();
+		LongAdder devoluciones = new LongAdder();
+		LongAdder rechazos = new LongAdder();
+		List<String> fallos = Collections.synchronizedList(new ArrayList<>());
+		long fin = System.nanoTime() + segundos * 1_000_000_000L;
+
+		List<Thread> trabajadores = new ArrayList<>();
+		for (int h = 0; h < hilos; h++) {
+			Usuario usuario = biblioteca.getUsuario("U" + h);
+			Thread hilo = new Thread(() -> {
+				ThreadLocalRandom azar = ThreadLocalRandom.current();
+				Queue<Integer> retenidos = new ArrayDeque<>();
+				int vuelta = 0;
+				while (System.nanoTime() < fin) {
+					if (retenidos.size() >= RETENIDOS) {
+						devolver(biblioteca, retenidos, ocupantes, devoluciones, fallos, ++vuelta % 8 == 0);
+						continue;
+					}
+					if (++vuelta % 8 == 0) {
+						List<Integer> elegidos = new ArrayList<>();
+						List<SolicitudPrestamo> lote = new ArrayList<>();
+						for (int i = 0; i < LOTE; i++) {
+							int r = azar.nextInt(recursos);
+							if (elegidos.contains(r)) continue;
+							elegidos.add(r);
+							lote.add(new SolicitudPrestamo(biblioteca.getRecurso("L" + r), usuario));
+						}
+						List<ResultadoOperacion> resultados = biblioteca.prestarLote(lote);
+						for (int i = 0; i < elegidos.size(); i++) {
+							if (resultados.get(i) == ResultadoOperacion.REALIZADO) {
+								concedido(biblioteca, elegidos.get(i), usuario, ocupantes, fallos);
+								retenidos.add(elegidos.get(i));
+								prestamos.increment();
+							} else {
+								rechazos.increment();
+							}
+						}
+					} else {
+						int r = azar.nextInt(recursos);
+						if (biblioteca.prestar(biblioteca.getRecurso("L" + r), usuario)) {
+							concedido(biblioteca, r, usuario, ocupantes, fallos);
+							retenidos.add(r);
+							prestamos.increment();
+						} else {
+							rechazos.increment();
+						}
+					}
+				}
+				while (!retenidos.isEmpty()) {
+					devolver(biblioteca, retenidos, ocupantes, devoluciones, fallos, false);
+				}
+			}, "estres-" + h);
+			hilo.start();
+			trabajadores.add(hilo);
+		}
+		for (Thread hilo : trabajadores) {
+			hilo.join();
+		}
+
+		long concedidos = prestamos.sum();
+		long devueltos = devoluciones.sum();
+		System.out.println(String.format(Locale.ROOT,
+				"📊 %d hilos sobre %d recursos durante %d s: %,d préstamos, %,d devoluciones, %,d rechazos (%.0f ops/s)",
+				hilos, recursos, segundos, concedidos, devueltos, rechazos.sum(),
+				(concedidos + devueltos + rechazos.sum()) / (double) segundos));
+
+		long prestamosEstadisticas = 0;
+		long devolucionesEstadisticas = 0;
+		for (TipoRecurso tipo : TipoRecurso.values()) {
+			prestamosEstadisticas += biblioteca.getEstadisticas().getPrestamos(tipo);
+			devolucionesEstadisticas += biblioteca.getEstadisticas().getDevoluciones(tipo);
+		}
+		if (prestamosEstadisticas != concedidos) {
+			fallos.add("Préstamos concedidos: " + concedidos + ", según las estadísticas: " + prestamosEstadisticas);
+		}
+		if (devolucionesEstadisticas != devueltos) {
+			fallos.add("Devoluciones aceptadas: " + devueltos + ", según las estadísticas: " + devolucionesEstadisticas);
+		}
+		if (concedidos != devueltos) {
+			fallos.add("Préstamos concedidos: " + concedidos + ", devoluciones aceptadas: " + devueltos);
+		}
+		long prestados = biblioteca.contarRecursos(EstadoRecurso.PRESTADO, null);
+		if (prestados != 0) {
+			fallos.add(prestados + " recursos siguen prestados tras devolverlo todo");
+		}
+		for (int r = 0; r < recursos; r++) {
+			if (biblioteca.getPrestamoActivo("L" + r) != null) {
+				fallos.add("L" + r + " conserva un préstamo abierto tras devolverlo todo");
+			}
+		}
+		biblioteca.cerrar();
+
+		if (fallos.isEmpty()) {
+			System.out.println("✅ Ningún recurso se prestó dos veces a la vez y los recuentos coinciden");
+			System.exit(0);
+		}
+		System.out.println("❌ " + fallos.size() + " comprobaciones incumplidas:");
+		for (int i = 0; i < Math.min(fallos.size(), MAX_FALLOS); i++) {
+			System.out.println("- " + fallos.get(i));
+		}
+		System.exit(1);
+	}
+
+	/**
+	 * Anota un préstamo concedido y comprueba que nadie más tenga el recurso.
+	 */
+	private static void concedido(BibliotecaManager biblioteca, int r, Usuario usuario,
+			AtomicIntegerArray ocupantes, List<String> fallos) {
+		int ocupado = ocupantes.incrementAndGet(r);
+		if (ocupado != 1) {
+			fallos.add("L" + r + " prestado a " + ocupado + " usuarios a la vez");
+		}
+		Prestamo activo = biblioteca.getPrestamoActivo("L" + r);
+		if (activo == null || activo.getUsuario() != usuario) {
+			fallos.add("L" + r + " prestado a " + usuario.getId() + " pero su préstamo abierto es "
+					+ (activo == null ? "ninguno" : "de " + activo.getUsuario().getId()));
+		}
+	}
+
+	/**
+	 * Devuelve el recurso retenido más antiguo, o los retenidos en un lote.
+	 */
+	private static void devolver(BibliotecaManager biblioteca, Queue<Integer> retenidos,
+			AtomicIntegerArray ocupantes, LongAdder devoluciones, List<String> fallos, boolean enLote) {
+		List<Integer> elegidos = new ArrayList<>();
+		if (enLote) {
+			elegidos.addAll(retenidos);
+			retenidos.clear();
+		} else {
+			elegidos.add(retenidos.remove());
+		}
+		List<RecursoBiblioteca> lote = new ArrayList<>();
+		for (int r : elegidos) {
+			// Antes de devolver: en cuanto vuelve a estar disponible otro hilo puede prestarlo
+			ocupantes.decrementAndGet(r);
+			lote.add(biblioteca.getRecurso("L" + r));
+		}
+		List<ResultadoOperacion> resultados = new ArrayList<>();
+		if (enLote) {
+			resultados.addAll(biblioteca.devolverLote(lote));
+		} else {
+			resultados.add(biblioteca.devolver(lote.get(0)) ? ResultadoOperacion.REALIZADO : ResultadoOperacion.NO_PRESTADO);
+		}
+		for (int i = 0; i < elegidos.size(); i++) {
+			if (resultados.get(i) == ResultadoOperacion.REALIZADO) {
+				devoluciones.increment();
+			} else {
+				fallos.add("Devolución de L" + elegidos.get(i) + " rechazada (" + resultados.get(i) + ") estando prestado");
+			}
+		}
+	}
+}
@@ -0,0 +1,405 @@
+package biblioteca.bench;
+
+import biblioteca.enums.EstadoRecurso;
+import biblioteca.enums.PoliticaSincronizacion;
+import biblioteca.metricas.HistogramaLatencia;
+import biblioteca.model.BibliotecaManager;
+import biblioteca.model.Prestamo;
+import biblioteca.model.RecursoBiblioteca;
+import biblioteca.model.Usuario;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Generador de carga en bucle cerrado y prueba de resistencia del núcleo.
+ *
+ * Lanza muchos clientes, cada uno en un hilo virtual, que llaman directamente a
+ * {@link BibliotecaManager} durante el tiempo indicado: cada cliente espera a que
+ * termine su operación (más una pausa opcional) antes de empezar la siguiente.
+ * La mezcla de operaciones es configurable; los préstamos eligen el recurso con
+ * una distribución de Zipf sobre el catálogo inicial, de modo que unos pocos
+ * títulos concentran la mayoría de las peticiones, y cada cliente devuelve los
+ * recursos que consiguió en el orden en que los obtuvo.
+ *
+ * Durante la prueba informa periódicamente del rendimiento, la tasa de rechazos
+ * y el heap usado; al terminar muestra percentiles de latencia por operación,
+ * el crecimiento del heap y comprueba las invariantes del estado de préstamos.
+ * Termina con código 1 si alguna invariante no se cumple.
+ *
+ * Uso: java biblioteca.bench.GeneradorCarga [clave=valor ...]
+ * <pre>
+ * clientes=1000      clientes simultáneos
+ * segundos=60        duración de la prueba
+ * recursos=100000    recursos del catálogo inicial
+ * usuarios=10000     usuarios iniciales
+ * zipf=1.0           exponente de la popularidad de los recursos
+ * mezcla=1,1,45,43,10  pesos de alta de usuario, alta de recurso, préstamo, devolución e historial
+ * pausa=0            pausa entre operaciones de un cliente, en microsegundos
+ * informe=5          segundos entre informes parciales
+ * diario=directorio  activa el diario y el historial persistente en ese directorio
+ * </pre>
+ */
+public class GeneradorCarga {
+
+	/** Operaciones que hacen los clientes, en el orden de los pesos de la mezcla */
+	private enum Accion {
+		ALTA_USUARIO, ALTA_RECURSO, PRESTAR, DEVOLVER, HISTORIAL
+	}
+
+	private static final Accion[] ACCIONES = Accion.values();
+
+	/** Préstamos que lee como mucho una consulta del historial (una página) */
+	private static final int PAGINA_HISTORIAL = 100;
+
+	// Configuración
+	private int clientes = 1000;
+	private int segundos = 60;
+	private int recursos = 100_000;
+	private int usuarios = 10_000;
+	private double exponente = 1.0;
+	private int[] mezcla = {1, 1, 45, 43, 10};
+	private long pausaNanos;
+	private int informe = 5;
+	private String diario;
+
+	private final BibliotecaManager biblioteca = new BibliotecaManager();
+	private RecursoBiblioteca[] catalogo;
+	private Usuario[] lectores;
+	private DistribucionZipf popularidad;
+	private int pesoTotal;
+
+	/** Recursos prestados antes de empezar (los que recupera el diario) */
+	private long prestadosIniciales;
+
+	private final HistogramaLatencia[] latencias = new HistogramaLatencia[ACCIONES.length];
+	private final LongAdder[] realizadas = new LongAdder[ACCIONES.length];
+	private final LongAdder[] rechazadas = new LongAdder[ACCIONES.length];
+	private final AtomicInteger siguienteUsuario = new AtomicInteger();
+	private final AtomicInteger siguienteRecurso = new AtomicInteger();
+
+	private volatile boolean detener;
+
+	/** Evita que el JIT descarte las lecturas del historial */
+	private volatile long sumidero;
+
+	private GeneradorCarga() {
+		for (int i = 0; i < ACCIONES.length; i++) {
+			latencias[i] = new HistogramaLatencia();
+			realizadas[i] = new LongAdder();
+			rechazadas[i] = new LongAdder();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		GeneradorCarga carga = new GeneradorCarga();
+		try {
+			carga.configurar(args);
+		} catch (IllegalArgumentException e) {
+			System.out.println("❌ " + e.getMessage());
+			System.out.println("Uso: GeneradorCarga [clientes=N] [segundos=N] [recursos=N] [usuarios=N] [zipf=X]"
+					+ " [mezcla=a,b,c,d,e] [pausa=us] [informe=s] [diario=directorio]");
+			System.exit(2);
+		}
+		carga.preparar();
+		carga.ejecutar();
+		boolean correcto = carga.comprobarInvariantes();
+		carga.biblioteca.cerrar();
+		System.exit(correcto ? 0 : 1);
+	}
+
+	private void configurar(String[] args) {
+		for (String arg : args) {
+			int igual = arg.indexOf('=');
+			if (igual < 0) throw new IllegalArgumentException("Argumento sin valor: " + arg);
+			String clave = arg.substring(0, igual);
+			String valor = arg.substring(igual + 1);
+			try {
+				switch (clave) {
+					case "clientes": clientes = Integer.parseInt(valor); break;
+					case "segundos": segundos = Integer.parseInt(valor); break;
+					case "recursos": recursos = Integer.parseInt(valor); break;
+					case "usuarios": usuarios = Integer.parseInt(valor); break;
+					case "zipf": exponente = Double.parseDouble(valor); break;
+					case "pausa": pausaNanos = Long.parseLong(valor) * 1000; break;
+					case "informe": informe = Integer.parseInt(valor); break;
+					case "diario": diario = valor; break;
+					case "mezcla":
+						String[] pesos = valor.split(",");
+						if (pesos.length != ACCIONES.length) {
+							throw new IllegalArgumentException("La mezcla necesita " + ACCIONES.length + " pesos");
+						}
+						for (int i = 0; i < pesos.length; i++) {
+							mezcla[i] = Integer.parseInt(pesos[i].trim());
+						}
+						break;
+					default:
+						throw new IllegalArgumentException("Opción desconocida: " + clave);
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Valor no válido para " + clave + ": " + valor);
+			}
+		}
+		if (clientes < 1 || segundos < 1 || recursos < 1 || usuarios < 1 || informe < 1) {
+			throw new IllegalArgumentException("clientes, segundos, recursos, usuarios e informe deben ser positivos");
+		}
+		for (int peso : mezcla) {
+			if (peso < 0) throw new IllegalArgumentException("Los pesos de la mezcla no pueden ser negativos");
+			pesoTotal += peso;
+		}
+		if (pesoTotal == 0) throw new IllegalArgumentException("La mezcla no tiene ninguna operación");
+	}
+
+	/**
+	 * Crea el catálogo y los usuarios iniciales y, si se pidió, activa el diario.
+	 */
+	private void preparar() {
+		catalogo = new RecursoBiblioteca[recursos];
+		for (int i = 0; i < recursos; i++) {
+			catalogo[i] = GeneradorDatos.recurso(i);
+			biblioteca.agregarRecurso(catalogo[i]);
+		}
+		lectores = new Usuario[usuarios];
+		for (int i = 0; i < usuarios; i++) {
+			lectores[i] = new Usuario("u" + i, "Usuario " + i);
+			biblioteca.agregarUsuario(lectores[i]);
+		}
+		siguienteRecurso.set(recursos);
+		popularidad = new DistribucionZipf(recursos, exponente);
+
+		if (diario != null) {
+			new File(diario).mkdirs();
+			biblioteca.activarDiario(new File(diario, "usuarios.txt").getPath(), new File(diario, "recursos.txt").getPath(),
+					new File(diario, "biblioteca.diario").getPath(), PoliticaSincronizacion.CADA_LOTE, 100_000);
+			biblioteca.activarHistorialPersistente(new File(diario, "historial").getPath());
+			for (RecursoBiblioteca recurso : catalogo) {
+				if (recurso.getEstado() == EstadoRecurso.PRESTADO) prestadosIniciales++;
+			}
+		}
+		System.out.println(String.format(Locale.ROOT,
+				"🚦 %d clientes durante %d s, %d recursos (zipf %.2f), %d usuarios, mezcla %s%s",
+				clientes, segundos, recursos, exponente, usuarios, Arrays.toString(mezcla),
+				diario != null ? ", diario en " + diario : ""));
+	}
+
+	private void ejecutar() throws InterruptedException {
+		System.gc();
+		long heapInicial = heapTrasGc();
+		List<Thread> hilos = new ArrayList<>(clientes);
+		for (int i = 0; i < clientes; i++) {
+			hilos.add(Thread.ofVirtual().name("cliente-" + i).start(this::cliente));
+		}
+
+		long inicio = System.nanoTime();
+		long fin = inicio + segundos * 1_000_000_000L;
+		long anteriores = 0;
+		long rechazosAnteriores = 0;
+		long instanteAnterior = inicio;
+		while (true) {
+			long ahora = System.nanoTime();
+			if (ahora >= fin) break;
+			LockSupport.parkNanos(Math.min(fin - ahora, informe * 1_000_000_000L));
+			ahora = System.nanoTime();
+			long total = totalOperaciones();
+			long rechazos = totalRechazadas();
+			double intervalo = (ahora - instanteAnterior) / 1e9;
+			MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+			System.out.println(String.format(Locale.ROOT,
+					"⏱️ %4.0f s: %,.0f ops/s, rechazos %.1f %%, heap %d MB (tras el último GC %d MB)",
+					(ahora - inicio) / 1e9, (total - anteriores) / intervalo,
+					total == anteriores ? 0 : 100.0 * (rechazos - rechazosAnteriores) / (total - anteriores),
+					heap.getUsed() >> 20, heapTrasGc() >> 20));
+			anteriores = total;
+			rechazosAnteriores = rechazos;
+			instanteAnterior = ahora;
+		}
+		detener = true;
+		for (Thread hilo : hilos) {
+			hilo.join();
+		}
+		double duracion = (System.nanoTime() - inicio) / 1e9;
+		biblioteca.esperarEventos();
+
+		System.out.println(String.format(Locale.ROOT, "%n📊 %,d operaciones en %.1f s: %,.0f ops/s",
+				totalOperaciones(), duracion, totalOperaciones() / duracion));
+		System.out.println(String.format(Locale.ROOT, "%-13s %12s %10s %10s %10s %10s %10s",
+				"operación", "total", "rechazos", "p50 µs", "p99 µs", "p99.9 µs", "máx µs"));
+		for (Accion accion : ACCIONES) {
+			HistogramaLatencia h = latencias[accion.ordinal()];
+			long total = h.getTotal();
+			if (total == 0) continue;
+			System.out.println(String.format(Locale.ROOT, "%-13s %,12d %9.1f%% %10.1f %10.1f %10.1f %10.1f",
+					accion, total, 100.0 * rechazadas[accion.ordinal()].sum() / total,
+					h.percentil(50) / 1e3, h.percentil(99) / 1e3, h.percentil(99.9) / 1e3, h.getMaximo() / 1e3));
+		}
+
+		System.gc();
+		long heapFinal = heapTrasGc();
+		System.out.println(String.format(Locale.ROOT, "🧠 Heap tras GC: %d MB al empezar, %d MB al terminar (%+.1f MB/min)",
+				heapInicial >> 20, heapFinal >> 20, (heapFinal - heapInicial) / 1048576.0 / (duracion / 60)));
+	}
+
+	/**
+	 * Bucle de un cliente: elige una operación según la mezcla, la ejecuta y
+	 * registra su latencia y su resultado.
+	 */
+	private void cliente() {
+		ThreadLocalRandom azar = ThreadLocalRandom.current();
+		ArrayDeque<RecursoBiblioteca> prestados = new ArrayDeque<>();
+		while (!detener) {
+			Accion accion = elegir(azar.nextInt(pesoTotal));
+			long inicio = System.nanoTime();
+			boolean realizada = ejecutar(accion, azar, prestados);
+			latencias[accion.ordinal()].registrar(System.nanoTime() - inicio);
+			(realizada ? realizadas : rechazadas)[accion.ordinal()].increment();
+			// Los hilos virtuales no se expropian: sin pausa, un cliente que nunca se
+			// bloquea no dejaría avanzar a los demás
+			if (pausaNanos > 0) {
+				LockSupport.parkNanos(pausaNanos);
+			} else {
+				Thread.yield();
+			}
+		}
+	}
+
+	private Accion elegir(int sorteo) {
+		for (int i = 0; i < mezcla.length; i++) {
+			sorteo -= mezcla[i];
+			if (sorteo < 0) return ACCIONES[i];
+		}
+		return ACCIONES[ACCIONES.length - 1];
+	}
+
+	private boolean ejecutar(Accion accion, ThreadLocalRandom azar, ArrayDeque<RecursoBiblioteca> prestados) {
+		switch (accion) {
+			case ALTA_USUARIO: {
+				int n = siguienteUsuario.getAndIncrement();
+				return biblioteca.agregarUsuario(new Usuario("c" + n, "Cliente " + n));
+			}
+			case ALTA_RECURSO:
+				return biblioteca.agregarRecurso(GeneradorDatos.recurso(siguienteRecurso.getAndIncrement()));
+			case PRESTAR: {
+				RecursoBiblioteca recurso = catalogo[popularidad.siguiente() - 1];
+				if (!biblioteca.prestar(recurso, lectores[azar.nextInt(lectores.length)])) return false;
+				prestados.addLast(recurso);
+				return true;
+			}
+			case DEVOLVER: {
+				// Devuelve lo que el cliente tiene; si no tiene nada, intenta un título popular
+				RecursoBiblioteca recurso = prestados.pollFirst();
+				return biblioteca.devolver(recurso != null ? recurso : catalogo[popularidad.siguiente() - 1]);
+			}
+			default: {
+				Iterable<Prestamo> prestamos = azar.nextBoolean()
+						? biblioteca.getPrestamosDeUsuario(lectores[azar.nextInt(lectores.length)].getId())
+						: biblioteca.getPrestamosDeRecurso(catalogo[popularidad.siguiente() - 1].getId());
+				long leidos = 0;
+				for (Prestamo p : prestamos) {
+					leidos += p.isDevuelto() ? 1 : 2;
+					if (leidos >= 2 * PAGINA_HISTORIAL) break;
+				}
+				sumidero += leidos;
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Comprueba que el estado de los recursos y los préstamos abiertos es coherente:
+	 * cada recurso PRESTADO tiene exactamente un préstamo abierto y es el que
+	 * devuelve {@link BibliotecaManager#getPrestamoActivo}, ningún recurso DISPONIBLE
+	 * tiene préstamos abiertos, los préstamos abiertos de los usuarios coinciden con
+	 * los recursos prestados, y préstamos menos devoluciones da los recursos prestados.
+	 *
+	 * @return true si se cumplen todas las invariantes
+	 */
+	private boolean comprobarInvariantes() {
+		List<String> fallos = new ArrayList<>();
+		long prestadosEnCatalogo = 0;
+		for (RecursoBiblioteca recurso : biblioteca.getRecursos()) {
+			Prestamo activo = biblioteca.getPrestamoActivo(recurso.getId());
+			int abiertos = 0;
+			for (Prestamo p : biblioteca.getPrestamosDeRecurso(recurso.getId())) {
+				if (!p.isDevuelto()) abiertos++;
+			}
+			if (recurso.getEstado() == EstadoRecurso.PRESTADO) {
+				prestadosEnCatalogo++;
+				if (abiertos != 1 || activo == null || activo.isDevuelto()) {
+					fallos.add(recurso.getId() + " está PRESTADO con " + abiertos + " préstamos abiertos");
+				}
+			} else if (abiertos != 0 || activo != null) {
+				fallos.add(recurso.getId() + " está " + recurso.getEstado() + " con " + abiertos + " préstamos abiertos");
+			}
+		}
+
+		long abiertosDeUsuarios = 0;
+		for (Usuario usuario : biblioteca.getUsuarios()) {
+			for (Prestamo p : biblioteca.getPrestamosActivosDeUsuario(usuario.getId())) {
+				abiertosDeUsuarios++;
+				if (p.isDevuelto() || p.getRecurso().getEstado() != EstadoRecurso.PRESTADO) {
+					fallos.add("el préstamo de " + p.getRecurso().getId() + " a " + usuario.getId()
+							+ " figura como abierto pero el recurso está " + p.getRecurso().getEstado());
+				}
+			}
+		}
+		if (abiertosDeUsuarios != prestadosEnCatalogo) {
+			fallos.add("los usuarios tienen " + abiertosDeUsuarios + " préstamos abiertos y hay "
+					+ prestadosEnCatalogo + " recursos prestados");
+		}
+
+		long balance = prestadosIniciales + realizadas[Accion.PRESTAR.ordinal()].sum()
+				- realizadas[Accion.DEVOLVER.ordinal()].sum();
+		if (balance != prestadosEnCatalogo) {
+			fallos.add("préstamos - devoluciones = " + balance + " pero hay " + prestadosEnCatalogo + " recursos prestados");
+		}
+
+		if (fallos.isEmpty()) {
+			System.out.println("✅ Invariantes correctas: " + prestadosEnCatalogo + " recursos prestados, cada uno con un único préstamo abierto");
+			return true;
+		}
+		System.out.println("❌ " + fallos.size() + " invariantes incumplidas:");
+		for (int i = 0; i < Math.min(20, fallos.size()); i++) {
+			System.out.println("- " + fallos.get(i));
+		}
+		return false;
+	}
+
+	private long totalOperaciones() {
+		long total = 0;
+		for (int i = 0; i < ACCIONES.length; i++) {
+			total += realizadas[i].sum() + rechazadas[i].sum();
+		}
+		return total;
+	}
+
+	private long totalRechazadas() {
+		long total = 0;
+		for (LongAdder r : rechazadas) {
+			total += r.sum();
+		}
+		return total;
+	}
+
+	/**
+	 * @return Heap ocupado justo después del último GC (lo que sobrevive), en bytes
+	 */
+	private static long heapTrasGc() {
+		long usado = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			MemoryUsage tras = pool.getCollectionUsage();
+			if (pool.getType() == MemoryType.HEAP && tras != null) usado += tras.getUsed();
+		}
+		return usado;
+	}
+}
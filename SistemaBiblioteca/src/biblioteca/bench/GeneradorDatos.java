@@ -0,0 +1,108 @@
+package biblioteca.bench;
+
+import biblioteca.model.DVD;
+import biblioteca.model.Libro;
+import biblioteca.model.RecursoBiblioteca;
+import biblioteca.model.Revista;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Generador de archivos sintéticos de recursos y usuarios con el mismo formato
+ * que recursos.txt y usuarios.txt, para pruebas de rendimiento con catálogos grandes.
+ *
+ * Uso: java biblioteca.bench.GeneradorDatos <recursos> <usuarios> <filasRecursos> <filasUsuarios>
+ */
+public class GeneradorDatos {
+
+	private static final String[] AUTORES = {
+		"Autor desconocido", "Alan Turing", "Robert Lafore", "Bjarne Stroustrup", "Donald Knuth"
+	};
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 4) {
+			System.out.println("Uso: GeneradorDatos <recursos> <usuarios> <filasRecursos> <filasUsuarios>");
+			return;
+		}
+		generarRecursos(args[0], Integer.parseInt(args[2]));
+		generarUsuarios(args[1], Integer.parseInt(args[3]));
+	}
+
+	/**
+	 * Escribe un archivo de recursos con libros, revistas y DVDs alternados.
+	 *
+	 * @param archivo Ruta del archivo a generar
+	 * @param filas   Número de recursos
+	 */
+	public static void generarRecursos(String archivo, int filas) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(archivo), StandardCharsets.UTF_8)) {
+			for (int i = 0; i < filas; i++) {
+				writer.write(lineaRecurso(i));
+				writer.newLine();
+			}
+		}
+	}
+
+	/**
+	 * Escribe un archivo de usuarios con identificadores u0..u(filas-1).
+	 *
+	 * @param archivo Ruta del archivo a generar
+	 * @param filas   Número de usuarios
+	 */
+	public static void generarUsuarios(String archivo, int filas) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(archivo), StandardCharsets.UTF_8)) {
+			for (int i = 0; i < filas; i++) {
+				writer.write("u" + i + ",Usuario " + i);
+				writer.newLine();
+			}
+		}
+	}
+
+	/**
+	 * @param i Índice del recurso
+	 * @return Línea TIPO,ID,TITULO,EXTRA del recurso i-ésimo
+	 */
+	public static String lineaRecurso(int i) {
+		switch (i % 3) {
+			case 0:
+				return "LIBRO,l" + i + ",Ingeniería del Software " + i + "," + AUTORES[i % AUTORES.length];
+			case 1:
+				return "REVISTA,r" + i + ",Tecnología Hoy " + i + "," + (1 + i % 200);
+			default:
+				return "DVD,d" + i + ",Historia de la Informática " + i + "," + (60 + i % 120);
+		}
+	}
+
+	/**
+	 * @param i Índice del recurso
+	 * @return El recurso i-ésimo ya construido, igual al que describe {@link #lineaRecurso(int)}
+	 */
+	public static RecursoBiblioteca recurso(int i) {
+		switch (i % 3) {
+			case 0:
+				return new Libro("l" + i, "Ingeniería del Software " + i, AUTORES[i % AUTORES.length]);
+			case 1:
+				return new Revista("r" + i, "Tecnología Hoy " + i, 1 + i % 200);
+			default:
+				return new DVD("d" + i, "Historia de la Informática " + i, 60 + i % 120);
+		}
+	}
+
+	/**
+	 * @param i Índice del recurso
+	 * @return Identificador que {@link #lineaRecurso(int)} asigna al recurso i-ésimo
+	 */
+	public static String idRecurso(int i) {
+		switch (i % 3) {
+			case 0:
+				return "l" + i;
+			case 1:
+				return "r" + i;
+			default:
+				return "d" + i;
+		}
+	}
+}
@@ -2,7 +2,10 @@ package biblioteca.enums;
 
 /**
  *  Enum que representa los posibles estados de un recurso de biblioteca.
+ *
+ *  RETIRADO es definitivo: el recurso se dio de baja (o pasó a otra sucursal) y ya
+ *  no se presta ni se reserva; desaparece de los archivos en el siguiente guardado.
  */
 public enum EstadoRecurso {
-	DISPONIBLE, PRESTADO, RESERVADO
-}
\ No newline at end of file
+	DISPONIBLE, PRESTADO, RESERVADO, RETIRADO
+}
@@ -0,0 +1,14 @@
+package biblioteca.enums;
+
+/**
+ *  Enum que representa el ciclo de vida de una reserva.
+ *
+ *  - EN_ESPERA: el usuario está en la lista de espera del recurso.
+ *  - RETENIDA: el recurso está RESERVADO para el usuario hasta que caduque la retención.
+ *  - CUMPLIDA: el usuario se llevó el recurso en préstamo.
+ *  - CANCELADA: el usuario renunció a la reserva.
+ *  - CADUCADA: el usuario no recogió el recurso a tiempo.
+ */
+public enum EstadoReserva {
+	EN_ESPERA, RETENIDA, CUMPLIDA, CANCELADA, CADUCADA
+}
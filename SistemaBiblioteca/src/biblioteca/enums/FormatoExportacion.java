@@ -0,0 +1,11 @@
+package biblioteca.enums;
+
+/**
+ *  Enum que representa los formatos de exportación de recursos, usuarios e historial.
+ *
+ *  - CSV: una fila de cabecera y una por elemento, con comillas solo donde hacen falta.
+ *  - JSONL: un objeto JSON por línea (JSON Lines).
+ */
+public enum FormatoExportacion {
+	CSV, JSONL
+}
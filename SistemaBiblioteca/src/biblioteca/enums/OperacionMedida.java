@@ -0,0 +1,11 @@
+package biblioteca.enums;
+
+/**
+ *  Enum que representa las operaciones de la biblioteca de las que se miden
+ *  latencias y resultados (ver {@code biblioteca.metricas.Metricas}).
+ */
+public enum OperacionMedida {
+	PRESTAR, DEVOLVER, PRESTAR_LOTE, DEVOLVER_LOTE,
+	CARGAR_RECURSOS, CARGAR_USUARIOS, GUARDAR_RECURSOS, GUARDAR_USUARIOS,
+	CARGAR_INSTANTANEA, GUARDAR_INSTANTANEA, PUNTO_CONTROL
+}
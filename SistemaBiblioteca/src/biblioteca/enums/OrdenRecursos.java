@@ -0,0 +1,9 @@
+package biblioteca.enums;
+
+/**
+ *  Enum que representa los criterios de orden del listado paginado de recursos.
+ *  Con TIPO y ESTADO, los recursos del mismo tipo o estado salen por orden de alta.
+ */
+public enum OrdenRecursos {
+	ID, TITULO, TIPO, ESTADO
+}
@@ -0,0 +1,12 @@
+package biblioteca.enums;
+
+/**
+ *  Enum que indica cuándo se fuerza a disco (fsync) el diario de operaciones.
+ *
+ *  - CADA_LOTE: cada lote escrito se sincroniza y quien registra espera a que sea durable.
+ *  - PERIODICA: se sincroniza como mucho una vez por intervalo; no se espera al disco.
+ *  - NUNCA: se deja la sincronización al sistema operativo.
+ */
+public enum PoliticaSincronizacion {
+	CADA_LOTE, PERIODICA, NUNCA
+}
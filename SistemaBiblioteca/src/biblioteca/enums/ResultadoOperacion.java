@@ -0,0 +1,16 @@
+package biblioteca.enums;
+
+/**
+ *  Enum que representa el resultado de cada elemento de un préstamo o devolución por lotes,
+ *  y el de cada operación medida en las métricas.
+ *
+ *  - REALIZADO: la operación se aplicó.
+ *  - NO_DISPONIBLE: el recurso no estaba disponible para prestarse.
+ *  - NO_PRESTADO: el recurso no estaba prestado y no se puede devolver.
+ *  - INVALIDO: falta el recurso o el usuario.
+ *  - REPETIDO: el recurso ya aparece antes en el mismo lote.
+ *  - ERROR: falló la lectura o escritura en disco (solo en las métricas).
+ */
+public enum ResultadoOperacion {
+	REALIZADO, NO_DISPONIBLE, NO_PRESTADO, INVALIDO, REPETIDO, ERROR
+}
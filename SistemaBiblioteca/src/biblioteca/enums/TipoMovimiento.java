@@ -0,0 +1,9 @@
+package biblioteca.enums;
+
+/**
+ *  Enum que representa los movimientos que se guardan en el historial persistente.
+ *  El orden de los valores se usa como código en los segmentos de historial.
+ */
+public enum TipoMovimiento {
+	PRESTAMO, DEVOLUCION
+}
@@ -0,0 +1,23 @@
+package biblioteca.enums;
+
+/**
+ *  Enum que representa los tipos de recurso de la biblioteca.
+ *  El orden de los valores se usa como código compacto en los formatos binarios,
+ *  por lo que los tipos nuevos deben añadirse al final.
+ */
+public enum TipoRecurso {
+	LIBRO(21), REVISTA(7), DVD(3);
+
+	private final int diasPrestamo;
+
+	TipoRecurso(int diasPrestamo) {
+		this.diasPrestamo = diasPrestamo;
+	}
+
+	/**
+	 * @return Días que dura un préstamo de este tipo de recurso
+	 */
+	public int getDiasPrestamo() {
+		return diasPrestamo;
+	}
+}
@@ -0,0 +1,167 @@
+package biblioteca.eventos;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bus de eventos asíncrono sobre un buffer circular acotado.
+ *
+ * Varios hilos publican y un único hilo despachador entrega los eventos a los
+ * oyentes. Cada publicación reserva una posición con un incremento atómico y
+ * deja el evento en su ranura; el despachador las consume en orden. Si el
+ * buffer está lleno quien publica espera a que haya sitio, de modo que no se
+ * pierde ningún evento y la memoria usada está acotada.
+ *
+ * Sin oyentes suscritos publicar no hace nada; quien publica puede comprobar
+ * {@link #hayOyentes()} antes incluso de construir el evento.
+ */
+public class BusEventos {
+
+	/** Capacidad por defecto del buffer (potencia de dos) */
+	public static final int CAPACIDAD_POR_DEFECTO = 8192;
+
+	/** Espera máxima del despachador sin eventos antes de volver a comprobar */
+	private static final long ESPERA_DESPACHADOR_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private final AtomicReferenceArray<Evento> ranuras;
+	private final int mascara;
+
+	/** Siguiente posición que reservará un publicador */
+	private final AtomicLong reservado = new AtomicLong();
+
+	/** Siguiente posición que entregará el despachador (solo la escribe él) */
+	private volatile long entregado;
+
+	private final List<OyenteEventos> oyentes = new CopyOnWriteArrayList<>();
+	private volatile Thread despachador;
+	private volatile boolean despachadorDormido;
+	private volatile boolean cerrado;
+
+	/**
+	 * Crea un bus con la capacidad por defecto.
+	 */
+	public BusEventos() {
+		this(CAPACIDAD_POR_DEFECTO);
+	}
+
+	/**
+	 * @param capacidad Eventos pendientes como máximo; se redondea a potencia de dos
+	 */
+	public BusEventos(int capacidad) {
+		int tamano = Integer.highestOneBit(Math.max(2, capacidad - 1)) << 1;
+		this.ranuras = new AtomicReferenceArray<>(tamano);
+		this.mascara = tamano - 1;
+	}
+
+	/**
+	 * Suscribe un oyente. El hilo despachador arranca con el primer oyente.
+	 *
+	 * @param oyente Oyente a suscribir
+	 */
+	public synchronized void suscribir(OyenteEventos oyente) {
+		if (cerrado) throw new IllegalStateException("El bus de eventos está cerrado");
+		oyentes.add(oyente);
+		if (despachador == null) {
+			Thread hilo = new Thread(this::despachar, "eventos-despachador");
+			hilo.setDaemon(true);
+			despachador = hilo;
+			hilo.start();
+		}
+	}
+
+	/**
+	 * @param oyente Oyente a dar de baja
+	 */
+	public void cancelarSuscripcion(OyenteEventos oyente) {
+		oyentes.remove(oyente);
+	}
+
+	/**
+	 * @return true si hay algún oyente suscrito
+	 */
+	public boolean hayOyentes() {
+		return !oyentes.isEmpty();
+	}
+
+	/**
+	 * Publica un evento. Si no hay oyentes no hace nada; si el buffer está
+	 * lleno espera a que el despachador libere sitio.
+	 *
+	 * @param evento Evento a publicar
+	 */
+	public void publicar(Evento evento) {
+		if (oyentes.isEmpty() || cerrado) return;
+		long posicion = reservado.getAndIncrement();
+		while (posicion - entregado >= ranuras.length()) {
+			LockSupport.parkNanos(this, 1000);
+		}
+		ranuras.set((int) posicion & mascara, evento);
+		if (despachadorDormido) LockSupport.unpark(despachador);
+	}
+
+	/**
+	 * Espera a que todos los eventos publicados hasta ahora se hayan entregado.
+	 * Si se llama desde un oyente vuelve inmediatamente.
+	 */
+	public void esperarEntrega() {
+		Thread hilo = despachador;
+		if (hilo == null || hilo == Thread.currentThread()) return;
+		long objetivo = reservado.get();
+		while (entregado < objetivo && hilo.isAlive()) {
+			LockSupport.unpark(hilo);
+			LockSupport.parkNanos(this, TimeUnit.MICROSECONDS.toNanos(100));
+		}
+	}
+
+	/**
+	 * Entrega los eventos pendientes y detiene el despachador.
+	 * Los eventos publicados después se descartan.
+	 */
+	public void cerrar() {
+		Thread hilo;
+		synchronized (this) {
+			cerrado = true;
+			hilo = despachador;
+		}
+		if (hilo == null) return;
+		LockSupport.unpark(hilo);
+		try {
+			hilo.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Bucle del hilo despachador: toma los eventos en orden de publicación y
+	 * los entrega a cada oyente. Un oyente que falla no afecta a los demás.
+	 */
+	private void despachar() {
+		long posicion = entregado;
+		while (true) {
+			int ranura = (int) posicion & mascara;
+			Evento evento = ranuras.get(ranura);
+			if (evento == null) {
+				// Posición aún no publicada (o ya no queda nada que entregar)
+				if (cerrado && posicion == reservado.get()) return;
+				despachadorDormido = true;
+				if (ranuras.get(ranura) == null) LockSupport.parkNanos(this, ESPERA_DESPACHADOR_NANOS);
+				despachadorDormido = false;
+				continue;
+			}
+			ranuras.set(ranura, null);
+			for (OyenteEventos oyente : oyentes) {
+				try {
+					oyente.alRecibir(evento);
+				} catch (RuntimeException e) {
+					System.err.println("❌ Error en un oyente de eventos: " + e);
+				}
+			}
+			entregado = ++posicion;
+		}
+	}
+}
@@ -0,0 +1,294 @@
+package biblioteca.eventos;
+
+import biblioteca.enums.EstadoRecurso;
+import biblioteca.enums.TipoMovimiento;
+import biblioteca.model.Prestamo;
+import biblioteca.model.RecursoBiblioteca;
+import biblioteca.model.Reserva;
+import biblioteca.model.Usuario;
+import biblioteca.persistencia.ErrorCarga;
+import java.time.Instant;
+
+/**
+ * Evento de dominio emitido por la biblioteca. Cada tipo de evento es una
+ * subclase inmutable que solo guarda referencias a los datos: el texto para
+ * mostrarlo lo construye, si hace falta, el oyente que lo recibe.
+ */
+public abstract class Evento {
+
+	private Evento() {
+	}
+
+	/** Un recurso se prestó a un usuario */
+	public static final class PrestamoConcedido extends Evento {
+		private final RecursoBiblioteca recurso;
+		private final Usuario usuario;
+
+		public PrestamoConcedido(RecursoBiblioteca recurso, Usuario usuario) {
+			this.recurso = recurso;
+			this.usuario = usuario;
+		}
+
+		public RecursoBiblioteca getRecurso() {
+			return recurso;
+		}
+
+		public Usuario getUsuario() {
+			return usuario;
+		}
+	}
+
+	/**
+	 * Un préstamo no se pudo hacer. Si falta el recurso o el usuario la solicitud
+	 * no era válida; si no, el recurso estaba en el estado indicado.
+	 */
+	public static final class PrestamoRechazado extends Evento {
+		private final RecursoBiblioteca recurso;
+		private final Usuario usuario;
+		private final EstadoRecurso estado;
+
+		public PrestamoRechazado(RecursoBiblioteca recurso, Usuario usuario, EstadoRecurso estado) {
+			this.recurso = recurso;
+			this.usuario = usuario;
+			this.estado = estado;
+		}
+
+		public RecursoBiblioteca getRecurso() {
+			return recurso;
+		}
+
+		public Usuario getUsuario() {
+			return usuario;
+		}
+
+		/** @return Estado del recurso al rechazar el préstamo, o null si la solicitud no era válida */
+		public EstadoRecurso getEstado() {
+			return estado;
+		}
+	}
+
+	/** Un recurso prestado se devolvió */
+	public static final class DevolucionRealizada extends Evento {
+		private final RecursoBiblioteca recurso;
+
+		public DevolucionRealizada(RecursoBiblioteca recurso) {
+			this.recurso = recurso;
+		}
+
+		public RecursoBiblioteca getRecurso() {
+			return recurso;
+		}
+	}
+
+	/** Una devolución no se pudo hacer: falta el recurso o no estaba prestado */
+	public static final class DevolucionRechazada extends Evento {
+		private final RecursoBiblioteca recurso;
+		private final EstadoRecurso estado;
+
+		public DevolucionRechazada(RecursoBiblioteca recurso, EstadoRecurso estado) {
+			this.recurso = recurso;
+			this.estado = estado;
+		}
+
+		public RecursoBiblioteca getRecurso() {
+			return recurso;
+		}
+
+		/** @return Estado del recurso al rechazar la devolución, o null si falta el recurso */
+		public EstadoRecurso getEstado() {
+			return estado;
+		}
+	}
+
+	/** Se procesó un lote de préstamos o devoluciones */
+	public static final class LoteProcesado extends Evento {
+		private final TipoMovimiento movimiento;
+		private final int realizados;
+		private final int total;
+
+		public LoteProcesado(TipoMovimiento movimiento, int realizados, int total) {
+			this.movimiento = movimiento;
+			this.realizados = realizados;
+			this.total = total;
+		}
+
+		public TipoMovimiento getMovimiento() {
+			return movimiento;
+		}
+
+		public int getRealizados() {
+			return realizados;
+		}
+
+		public int getTotal() {
+			return total;
+		}
+	}
+
+	/** Un recurso quedó retenido para el usuario que lo reservó y puede recogerlo */
+	public static final class ReservaDisponible extends Evento {
+		private final Reserva reserva;
+		private final Instant hasta;
+
+		public ReservaDisponible(Reserva reserva) {
+			this.reserva = reserva;
+			this.hasta = reserva.getFinRetencion();
+		}
+
+		public Reserva getReserva() {
+			return reserva;
+		}
+
+		/** @return Fin de la retención (se guarda al crear el evento: la reserva puede cambiar antes de entregarlo) */
+		public Instant getHasta() {
+			return hasta;
+		}
+	}
+
+	/** La retención de un recurso reservado caducó sin que el usuario lo recogiera */
+	public static final class ReservaCaducada extends Evento {
+		private final Reserva reserva;
+
+		public ReservaCaducada(Reserva reserva) {
+			this.reserva = reserva;
+		}
+
+		public Reserva getReserva() {
+			return reserva;
+		}
+	}
+
+	/** Terminó el plazo de un préstamo sin que se devolviera el recurso */
+	public static final class PrestamoVencido extends Evento {
+		private final Prestamo prestamo;
+
+		public PrestamoVencido(Prestamo prestamo) {
+			this.prestamo = prestamo;
+		}
+
+		public Prestamo getPrestamo() {
+			return prestamo;
+		}
+	}
+
+	/** Terminó la carga de un archivo de datos */
+	public static final class CargaCompletada extends Evento {
+		private final String contenido;
+		private final String archivo;
+		private final long cargados;
+
+		/**
+		 * @param contenido Qué se cargó ("Usuarios", "Recursos", "Instantánea")
+		 * @param archivo   Archivo leído
+		 * @param cargados  Elementos cargados
+		 */
+		public CargaCompletada(String contenido, String archivo, long cargados) {
+			this.contenido = contenido;
+			this.archivo = archivo;
+			this.cargados = cargados;
+		}
+
+		public String getContenido() {
+			return contenido;
+		}
+
+		public String getArchivo() {
+			return archivo;
+		}
+
+		public long getCargados() {
+			return cargados;
+		}
+	}
+
+	/** Una línea de un archivo de datos se descartó durante la carga */
+	public static final class LineaDescartada extends Evento {
+		private final String archivo;
+		private final ErrorCarga error;
+
+		public LineaDescartada(String archivo, ErrorCarga error) {
+			this.archivo = archivo;
+			this.error = error;
+		}
+
+		public String getArchivo() {
+			return archivo;
+		}
+
+		public ErrorCarga getError() {
+			return error;
+		}
+	}
+
+	/** Terminó el guardado de un archivo de datos */
+	public static final class GuardadoCompletado extends Evento {
+		private final String contenido;
+		private final String archivo;
+
+		/**
+		 * @param contenido Qué se guardó ("Usuarios", "Recursos", "Instantánea")
+		 * @param archivo   Archivo escrito
+		 */
+		public GuardadoCompletado(String contenido, String archivo) {
+			this.contenido = contenido;
+			this.archivo = archivo;
+		}
+
+		public String getContenido() {
+			return contenido;
+		}
+
+		public String getArchivo() {
+			return archivo;
+		}
+	}
+
+	/** Se activó el diario de operaciones */
+	public static final class DiarioActivado extends Evento {
+		private final String archivo;
+
+		public DiarioActivado(String archivo) {
+			this.archivo = archivo;
+		}
+
+		public String getArchivo() {
+			return archivo;
+		}
+	}
+
+	/** Se activó la replicación, como primario o como réplica */
+	public static final class ReplicacionActivada extends Evento {
+		private final String descripcion;
+
+		public ReplicacionActivada(String descripcion) {
+			this.descripcion = descripcion;
+		}
+
+		public String getDescripcion() {
+			return descripcion;
+		}
+	}
+
+	/** Falló una operación de persistencia */
+	public static final class ErrorPersistencia extends Evento {
+		private final String operacion;
+		private final String mensaje;
+
+		/**
+		 * @param operacion Operación que falló, en infinitivo ("guardar usuarios")
+		 * @param mensaje   Mensaje de la excepción
+		 */
+		public ErrorPersistencia(String operacion, String mensaje) {
+			this.operacion = operacion;
+			this.mensaje = mensaje;
+		}
+
+		public String getOperacion() {
+			return operacion;
+		}
+
+		public String getMensaje() {
+			return mensaje;
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package biblioteca.eventos;
+
+import biblioteca.enums.TipoMovimiento;
+import biblioteca.model.Prestamo;
+import biblioteca.model.Reserva;
+import java.io.PrintStream;
+
+/**
+ * Oyente que muestra los eventos por consola con los mensajes habituales de la aplicación.
+ */
+public class OyenteConsola implements OyenteEventos {
+
+	/** false para mostrar solo cargas, guardados y errores (p. ej. en modo servidor) */
+	private final boolean incluirOperaciones;
+
+	private final PrintStream salida;
+
+	/**
+	 * Crea un oyente que muestra todos los eventos.
+	 */
+	public OyenteConsola() {
+		this(true);
+	}
+
+	/**
+	 * @param incluirOperaciones true para mostrar también cada préstamo, devolución y lote
+	 */
+	public OyenteConsola(boolean incluirOperaciones) {
+		this(System.out, incluirOperaciones);
+	}
+
+	/**
+	 * @param salida             Donde se escriben los mensajes en lugar de la salida estándar
+	 * @param incluirOperaciones true para mostrar también cada préstamo, devolución y lote
+	 */
+	public OyenteConsola(PrintStream salida, boolean incluirOperaciones) {
+		this.salida = salida;
+		this.incluirOperaciones = incluirOperaciones;
+	}
+
+	@Override
+	public void alRecibir(Evento evento) {
+		if (!incluirOperaciones && esOperacion(evento)) return;
+		if (evento instanceof Evento.PrestamoConcedido) {
+			Evento.PrestamoConcedido e = (Evento.PrestamoConcedido) evento;
+			salida.println("✅ Recurso prestado correctamente a " + e.getUsuario().getNombre());
+		} else if (evento instanceof Evento.PrestamoRechazado) {
+			Evento.PrestamoRechazado e = (Evento.PrestamoRechazado) evento;
+			if (e.getEstado() == null) {
+				salida.println("ERROR: Recurso o usuario no encontrado.");
+			} else {
+				salida.println("❌ El recurso no está disponible (estado: " + e.getEstado() + ").");
+			}
+		} else if (evento instanceof Evento.DevolucionRealizada) {
+			salida.println("Recurso devuelto correctamente.");
+		} else if (evento instanceof Evento.DevolucionRechazada) {
+			Evento.DevolucionRechazada e = (Evento.DevolucionRechazada) evento;
+			if (e.getEstado() == null) {
+				salida.println("ERROR: Recurso no encontrado.");
+			} else {
+				salida.println("El recurso no estaba prestado (estado: " + e.getEstado() + ").");
+			}
+		} else if (evento instanceof Evento.LoteProcesado) {
+			Evento.LoteProcesado e = (Evento.LoteProcesado) evento;
+			salida.println((e.getRealizados() == e.getTotal() ? "✅ " : "⚠️ ")
+					+ (e.getMovimiento() == TipoMovimiento.PRESTAMO ? "Préstamo" : "Devolución") + " por lotes: "
+					+ e.getRealizados() + " de " + e.getTotal() + " realizados.");
+		} else if (evento instanceof Evento.ReservaDisponible) {
+			Evento.ReservaDisponible e = (Evento.ReservaDisponible) evento;
+			Reserva r = e.getReserva();
+			salida.println("📬 " + r.getRecurso().getTitulo() + " está reservado para " + r.getUsuario().getNombre()
+					+ " hasta " + e.getHasta());
+		} else if (evento instanceof Evento.ReservaCaducada) {
+			Reserva r = ((Evento.ReservaCaducada) evento).getReserva();
+			salida.println("⌛ Caducó la reserva de " + r.getRecurso().getTitulo() + " para " + r.getUsuario().getNombre());
+		} else if (evento instanceof Evento.PrestamoVencido) {
+			Prestamo p = ((Evento.PrestamoVencido) evento).getPrestamo();
+			salida.println("⏰ Venció el préstamo de " + p.getRecurso().getTitulo() + " a " + p.getUsuario().getNombre()
+					+ " (vencía el " + p.getFechaVencimiento() + ")");
+		} else if (evento instanceof Evento.CargaCompletada) {
+			Evento.CargaCompletada e = (Evento.CargaCompletada) evento;
+			salida.println("📂 " + e.getContenido() + " cargados desde " + e.getArchivo() + " (" + e.getCargados() + ")");
+		} else if (evento instanceof Evento.LineaDescartada) {
+			Evento.LineaDescartada e = (Evento.LineaDescartada) evento;
+			salida.println("⚠️ " + e.getArchivo() + ", " + e.getError());
+		} else if (evento instanceof Evento.GuardadoCompletado) {
+			Evento.GuardadoCompletado e = (Evento.GuardadoCompletado) evento;
+			salida.println("💾 " + e.getContenido() + " guardados en " + e.getArchivo());
+		} else if (evento instanceof Evento.DiarioActivado) {
+			salida.println("📒 Diario de operaciones activo en " + ((Evento.DiarioActivado) evento).getArchivo());
+		} else if (evento instanceof Evento.ReplicacionActivada) {
+			salida.println("🔁 Replicación activa: " + ((Evento.ReplicacionActivada) evento).getDescripcion());
+		} else if (evento instanceof Evento.ErrorPersistencia) {
+			Evento.ErrorPersistencia e = (Evento.ErrorPersistencia) evento;
+			salida.println("❌ Error al " + e.getOperacion() + ": " + e.getMensaje());
+		}
+	}
+
+	private static boolean esOperacion(Evento evento) {
+		return evento instanceof Evento.PrestamoConcedido || evento instanceof Evento.PrestamoRechazado
+				|| evento instanceof Evento.DevolucionRealizada || evento instanceof Evento.DevolucionRechazada
+				|| evento instanceof Evento.LoteProcesado || evento instanceof Evento.ReservaDisponible
+				|| evento instanceof Evento.ReservaCaducada || evento instanceof Evento.PrestamoVencido;
+	}
+}
@@ -0,0 +1,15 @@
+package biblioteca.eventos;
+
+/**
+ * Suscriptor de los eventos de la biblioteca.
+ *
+ * Los eventos se entregan en el hilo despachador del bus, uno a uno y en el
+ * orden en que se publicaron, nunca en el hilo que hizo la operación.
+ */
+public interface OyenteEventos {
+
+	/**
+	 * @param evento Evento publicado
+	 */
+	void alRecibir(Evento evento);
+}
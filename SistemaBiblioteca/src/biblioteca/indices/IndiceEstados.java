@@ -0,0 +1,205 @@
+package biblioteca.indices;
+
+import biblioteca.enums.EstadoRecurso;
+import biblioteca.enums.TipoRecurso;
+import biblioteca.model.RecursoBiblioteca;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntPredicate;
+
+/**
+ * Mapas de bits de los recursos por estado y por tipo, sobre la clave densa que
+ * les da su almacén.
+ *
+ * Las claves se reparten en bloques de 4096; cada bloque guarda un mapa de bits de
+ * 512 bytes por estado y otro por tipo, y el estado y el tipo con que está indexada
+ * cada clave. Los recuentos por estado y tipo son contadores que se mantienen en
+ * cada cambio, así que contar es O(1). Un listado filtrado por estado y tipo es un
+ * AND de palabras de 64 bits, sin mirar los recursos que no encajan.
+ *
+ * No hay cerrojos: un cambio reserva la clave con un CAS sobre su código, lee el
+ * estado del recurso, mueve sus bits con operaciones atómicas sobre las palabras y
+ * deja el código nuevo. Dos transiciones de recursos distintos no se esperan aunque
+ * caigan en el mismo bloque; las del mismo recurso se aplican una tras otra y la
+ * última ve el estado final. Los recorridos leen las palabras sin esperar a nadie,
+ * así que un recurso que está cambiando puede faltar o aparecer en dos estados.
+ * Es seguro para uso concurrente.
+ */
+public class IndiceEstados {
+
+	private static final int BITS_BLOQUE = 12;
+	private static final int MASCARA_BLOQUE = (1 << BITS_BLOQUE) - 1;
+	private static final int PALABRAS = 1 << (BITS_BLOQUE - 6);
+
+	/** Código de una clave mientras un hilo la está moviendo */
+	private static final byte RESERVADA = -1;
+
+	/** Vueltas esperando a una clave reservada antes de ceder el procesador */
+	private static final int ESPERAS_ACTIVAS = 64;
+
+	private static final VarHandle CODIGO = MethodHandles.arrayElementVarHandle(byte[].class);
+	private static final VarHandle PALABRA = MethodHandles.arrayElementVarHandle(long[].class);
+
+	private static final EstadoRecurso[] ESTADOS = EstadoRecurso.values();
+	private static final TipoRecurso[] TIPOS = TipoRecurso.values();
+
+	/** Mapas de bits de un bloque de claves consecutivas */
+	private static final class Bloque {
+		/** (estado * TIPOS + tipo) + 1 con que está indexada cada clave, 0 si no lo está */
+		final byte[] codigos = new byte[1 << BITS_BLOQUE];
+		final long[][] porEstado = new long[ESTADOS.length][PALABRAS];
+		final long[][] porTipo = new long[TIPOS.length][PALABRAS];
+	}
+
+	private volatile Bloque[] bloques = new Bloque[0];
+
+	/** Recursos indexados por (estado * TIPOS + tipo) */
+	private final LongAdder[] cuentas = new LongAdder[ESTADOS.length * TIPOS.length];
+
+	public IndiceEstados() {
+		for (int i = 0; i < cuentas.length; i++) cuentas[i] = new LongAdder();
+	}
+
+	/**
+	 * Indexa el recurso con su estado y su tipo actuales, o lo mueve si ya estaba
+	 * indexado con otros. Se llama después de cada cambio de estado del recurso.
+	 *
+	 * @param clave   Clave densa del recurso en su almacén
+	 * @param recurso El recurso guardado
+	 */
+	public void actualizar(int clave, RecursoBiblioteca recurso) {
+		Bloque bloque = bloqueParaEscribir(clave >>> BITS_BLOQUE);
+		int i = clave & MASCARA_BLOQUE;
+		if ((byte) CODIGO.getVolatile(bloque.codigos, i) == codigo(recurso)) return;
+
+		int anterior = reservar(bloque.codigos, i);
+		// El estado se lee con la clave reservada: la última transición en llegar ve el final
+		int codigo = codigo(recurso);
+		if (codigo != anterior) {
+			int palabra = i >>> 6;
+			long bit = 1L << i;
+			if (anterior > 0) {
+				PALABRA.getAndBitwiseAnd(bloque.porEstado[(anterior - 1) / TIPOS.length], palabra, ~bit);
+				PALABRA.getAndBitwiseAnd(bloque.porTipo[(anterior - 1) % TIPOS.length], palabra, ~bit);
+				cuentas[anterior - 1].decrement();
+			}
+			PALABRA.getAndBitwiseOr(bloque.porEstado[(codigo - 1) / TIPOS.length], palabra, bit);
+			PALABRA.getAndBitwiseOr(bloque.porTipo[(codigo - 1) % TIPOS.length], palabra, bit);
+			cuentas[codigo - 1].increment();
+		}
+		CODIGO.setRelease(bloque.codigos, i, (byte) codigo);
+	}
+
+	/**
+	 * @return Código con que se indexa el recurso en su estado actual
+	 */
+	private static int codigo(RecursoBiblioteca recurso) {
+		return recurso.getEstado().ordinal() * TIPOS.length + recurso.getTipo().ordinal() + 1;
+	}
+
+	/**
+	 * Marca la clave como reservada, esperando si otro hilo la tiene.
+	 *
+	 * @return Código que tenía la clave
+	 */
+	private static int reservar(byte[] codigos, int i) {
+		for (int vuelta = 0;; vuelta++) {
+			byte actual = (byte) CODIGO.getVolatile(codigos, i);
+			if (actual != RESERVADA && CODIGO.compareAndSet(codigos, i, actual, RESERVADA)) return actual;
+			if (vuelta < ESPERAS_ACTIVAS) {
+				Thread.onSpinWait();
+			} else {
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * Cuenta los recursos indexados con un estado y un tipo, en tiempo constante.
+	 *
+	 * @param estado Estado, o null para cualquiera
+	 * @param tipo   Tipo, o null para cualquiera
+	 * @return Número de recursos
+	 */
+	public long contar(EstadoRecurso estado, TipoRecurso tipo) {
+		long total = 0;
+		for (int e = 0; e < ESTADOS.length; e++) {
+			if (estado != null && estado.ordinal() != e) continue;
+			for (int t = 0; t < TIPOS.length; t++) {
+				if (tipo == null || tipo.ordinal() == t) total += cuentas[e * TIPOS.length + t].sum();
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Recorre por orden de clave los recursos indexados con un estado y un tipo.
+	 * Las palabras se leen sin cerrojo, así que puede ver un recurso que entretanto
+	 * cambió de estado.
+	 *
+	 * @param estado Estado, o null para cualquiera
+	 * @param tipo   Tipo, o null para cualquiera
+	 * @param accion Recibe cada clave; devuelve false para terminar el recorrido
+	 */
+	public void recorrer(EstadoRecurso estado, TipoRecurso tipo, IntPredicate accion) {
+		recorrer(estado, tipo, 0, accion);
+	}
+
+	/**
+	 * Recorre por orden de clave, desde la clave indicada, los recursos indexados con
+	 * un estado y un tipo. Empieza directamente en la palabra de esa clave, así que
+	 * terminar pronto cuesta poco.
+	 *
+	 * @param estado Estado, o null para cualquiera
+	 * @param tipo   Tipo, o null para cualquiera
+	 * @param desde  Primera clave a considerar
+	 * @param accion Recibe cada clave; devuelve false para terminar el recorrido
+	 */
+	public void recorrer(EstadoRecurso estado, TipoRecurso tipo, int desde, IntPredicate accion) {
+		Bloque[] actuales = bloques;
+		int primera = Math.max(0, desde);
+		for (int b = primera >>> BITS_BLOQUE; b < actuales.length; b++) {
+			Bloque bloque = actuales[b];
+			int base = b << BITS_BLOQUE;
+			int inicio = base < primera ? primera & MASCARA_BLOQUE : 0;
+			for (int w = inicio >>> 6; w < PALABRAS; w++) {
+				long palabra = palabra(bloque, estado, tipo, w);
+				if (w == inicio >>> 6) palabra &= -1L << inicio;
+				for (; palabra != 0; palabra &= palabra - 1) {
+					if (!accion.test(base | (w << 6) | Long.numberOfTrailingZeros(palabra))) return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return Bits de la palabra {@code w} del bloque con el estado y el tipo pedidos
+	 */
+	private static long palabra(Bloque bloque, EstadoRecurso estado, TipoRecurso tipo, int w) {
+		if (estado == null && tipo == null) {
+			long todas = 0;
+			for (long[] delTipo : bloque.porTipo) todas |= (long) PALABRA.getAcquire(delTipo, w);
+			return todas;
+		}
+		long palabra = -1L;
+		if (estado != null) palabra &= (long) PALABRA.getAcquire(bloque.porEstado[estado.ordinal()], w);
+		if (tipo != null) palabra &= (long) PALABRA.getAcquire(bloque.porTipo[tipo.ordinal()], w);
+		return palabra;
+	}
+
+	private Bloque bloqueParaEscribir(int indice) {
+		Bloque[] actuales = bloques;
+		if (indice < actuales.length) return actuales[indice];
+		synchronized (this) {
+			actuales = bloques;
+			if (indice >= actuales.length) {
+				actuales = Arrays.copyOf(actuales, indice + 1);
+				for (int b = bloques.length; b <= indice; b++) actuales[b] = new Bloque();
+				bloques = actuales;
+			}
+			return actuales[indice];
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package biblioteca.indices;
+
+import biblioteca.model.Prestamo;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.function.Consumer;
+
+/**
+ * Índices secundarios sobre el historial de préstamos.
+ *
+ * Mantiene los préstamos agrupados por usuario, por recurso y por fecha, además
+ * del préstamo abierto de cada recurso. Así las consultas por usuario o por recurso
+ * no dependen del tamaño total del historial y una devolución encuentra su préstamo
+ * en tiempo constante. Es seguro para uso concurrente.
+ *
+ * Con el historial persistente los préstamos ya guardados en disco no se quedan en
+ * el heap: tras {@link #conservarSoloActivos()} solo se guardan los préstamos abiertos
+ * y las consultas de préstamos cerrados se leen de los segmentos.
+ */
+public class IndiceHistorial {
+
+	/** ID de usuario -> todos sus préstamos, en orden cronológico */
+	private final Map<String, Queue<Prestamo>> porUsuario = new ConcurrentHashMap<>();
+
+	/** ID de recurso -> todos sus préstamos, el más reciente al final */
+	private final Map<String, Deque<Prestamo>> porRecurso = new ConcurrentHashMap<>();
+
+	/** Fecha de préstamo -> préstamos realizados ese día */
+	private final ConcurrentNavigableMap<LocalDate, Queue<Prestamo>> porFecha = new ConcurrentSkipListMap<>();
+
+	/** ID de recurso -> préstamo abierto */
+	private final Map<String, Prestamo> activos = new ConcurrentHashMap<>();
+
+	/** ID de usuario -> préstamos que aún no ha devuelto */
+	private final Map<String, Set<Prestamo>> activosPorUsuario = new ConcurrentHashMap<>();
+
+	/** true si los préstamos se guardan en disco y aquí solo se indexan los abiertos */
+	private volatile boolean soloActivos;
+
+	/**
+	 * Deja de indexar por usuario, recurso y fecha y descarta lo indexado: a partir
+	 * de aquí solo se guardan los préstamos abiertos, que se sueltan al cerrarse.
+	 */
+	public void conservarSoloActivos() {
+		soloActivos = true;
+		porUsuario.clear();
+		porRecurso.clear();
+		porFecha.clear();
+	}
+
+	/**
+	 * Añade un préstamo recién abierto a todos los índices.
+	 *
+	 * @param prestamo El préstamo
+	 */
+	public void registrar(Prestamo prestamo) {
+		String idRecurso = prestamo.getRecurso().getId();
+		String idUsuario = prestamo.getUsuario().getId();
+		if (!soloActivos) {
+			porUsuario.computeIfAbsent(idUsuario, k -> new ConcurrentLinkedQueue<>()).add(prestamo);
+			porRecurso.computeIfAbsent(idRecurso, k -> new ConcurrentLinkedDeque<>()).addLast(prestamo);
+			porFecha.computeIfAbsent(prestamo.getFechaPrestamo(), k -> new ConcurrentLinkedQueue<>()).add(prestamo);
+		}
+		if (!prestamo.isDevuelto()) {
+			// Primero en los activos del usuario y después en activos: una devolución
+			// concurrente solo ve el préstamo a través de activos, y si lo cerrara antes
+			// de que estuviera en el conjunto del usuario este quedaría abierto para siempre.
+			// Se añade dentro de compute porque un cierre puede quitar el conjunto si queda vacío
+			activosPorUsuario.compute(idUsuario, (k, delUsuario) -> {
+				if (delUsuario == null) delUsuario = ConcurrentHashMap.newKeySet();
+				delUsuario.add(prestamo);
+				return delUsuario;
+			});
+			activos.put(idRecurso, prestamo);
+		}
+	}
+
+	/**
+	 * Cierra un préstamo abierto concreto y lo marca como devuelto.
+	 * Si entretanto otro hilo lo cerró, no hace nada.
+	 *
+	 * @param idRecurso ID del recurso devuelto
+	 * @param prestamo  Préstamo abierto que se quiere cerrar
+	 * @return true si este llamador cerró el préstamo
+	 */
+	public boolean cerrar(String idRecurso, Prestamo prestamo) {
+		if (!activos.remove(idRecurso, prestamo)) return false;
+		prestamo.marcarComoDevuelto();
+		// Sin el resto del historial en el heap no se conservan conjuntos vacíos
+		activosPorUsuario.computeIfPresent(prestamo.getUsuario().getId(), (k, delUsuario) -> {
+			delUsuario.remove(prestamo);
+			return soloActivos && delUsuario.isEmpty() ? null : delUsuario;
+		});
+		return true;
+	}
+
+	/**
+	 * @param idRecurso ID del recurso
+	 * @return El préstamo abierto del recurso, o null si no está prestado
+	 */
+	public Prestamo getActivo(String idRecurso) {
+		return activos.get(idRecurso);
+	}
+
+	/**
+	 * @return Todos los préstamos abiertos
+	 */
+	public Collection<Prestamo> getActivos() {
+		return Collections.unmodifiableCollection(activos.values());
+	}
+
+	/**
+	 * @param idUsuario ID del usuario
+	 * @return Préstamos que el usuario tiene sin devolver
+	 */
+	public Collection<Prestamo> getActivosDeUsuario(String idUsuario) {
+		Set<Prestamo> delUsuario = activosPorUsuario.get(idUsuario);
+		return delUsuario == null ? Collections.emptySet() : Collections.unmodifiableSet(delUsuario);
+	}
+
+	/**
+	 * @param idUsuario ID del usuario
+	 * @return Todos los préstamos del usuario, en orden cronológico
+	 */
+	public Collection<Prestamo> getDeUsuario(String idUsuario) {
+		Queue<Prestamo> delUsuario = porUsuario.get(idUsuario);
+		return delUsuario == null ? Collections.emptyList() : Collections.unmodifiableCollection(delUsuario);
+	}
+
+	/**
+	 * @param idRecurso ID del recurso
+	 * @return Todos los préstamos del recurso, en orden cronológico
+	 */
+	public Collection<Prestamo> getDeRecurso(String idRecurso) {
+		Deque<Prestamo> delRecurso = porRecurso.get(idRecurso);
+		return delRecurso == null ? Collections.emptyList() : Collections.unmodifiableCollection(delRecurso);
+	}
+
+	/**
+	 * @param idRecurso ID del recurso
+	 * @return El préstamo más reciente del recurso, o null si nunca se prestó
+	 */
+	public Prestamo getUltimoDeRecurso(String idRecurso) {
+		Deque<Prestamo> delRecurso = porRecurso.get(idRecurso);
+		return delRecurso == null ? null : delRecurso.peekLast();
+	}
+
+	/**
+	 * @param desde Primera fecha incluida
+	 * @param hasta Última fecha incluida
+	 * @return Préstamos realizados en el rango de fechas, en orden cronológico
+	 */
+	public List<Prestamo> getEntre(LocalDate desde, LocalDate hasta) {
+		List<Prestamo> resultado = new ArrayList<>();
+		for (Queue<Prestamo> delDia : porFecha.subMap(desde, true, hasta, true).values()) {
+			resultado.addAll(delDia);
+		}
+		return resultado;
+	}
+
+	/**
+	 * Recorre en orden cronológico los préstamos de un rango de fechas sin
+	 * copiarlos a una lista.
+	 *
+	 * @param desde  Primera fecha incluida, o null para no acotar
+	 * @param hasta  Última fecha incluida, o null para no acotar
+	 * @param accion Acción a aplicar sobre cada préstamo
+	 */
+	public void recorrerEntre(LocalDate desde, LocalDate hasta, Consumer<Prestamo> accion) {
+		ConcurrentNavigableMap<LocalDate, Queue<Prestamo>> rango = porFecha;
+		if (desde != null) rango = rango.tailMap(desde, true);
+		if (hasta != null) rango = rango.headMap(hasta, true);
+		for (Queue<Prestamo> delDia : rango.values()) {
+			delDia.forEach(accion);
+		}
+	}
+}
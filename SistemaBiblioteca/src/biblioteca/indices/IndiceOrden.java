@@ -0,0 +1,101 @@
+package biblioteca.indices;
+
+import java.util.Comparator;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Índice ordenado de los recursos por una clave de orden (el ID o el título
+ * normalizado), con el ID para desempatar, sobre una lista de saltos concurrente.
+ *
+ * Una página empieza justo después de la última entrada de la anterior, así que
+ * cuesta O(log n) más el tamaño de la página sea cual sea el catálogo, y las altas
+ * y bajas que ocurran entre dos páginas no desplazan a las demás.
+ *
+ * El índice no existe hasta que se activa: mientras tanto las altas no hacen nada
+ * (solo leen un campo volátil), de modo que un orden que nadie pide no ocupa
+ * memoria. Al activarlo se llena una vez con el catálogo y desde entonces se
+ * mantiene en cada alta y reemplazo. Es seguro para uso concurrente.
+ */
+public class IndiceOrden {
+
+	/** Recibe las entradas del recorrido; devuelve false para terminarlo */
+	public interface Visitante {
+		boolean visitar(String orden, String id, int clave);
+	}
+
+	private static final class Entrada {
+		final String orden;
+		final String id;
+		final int clave;
+
+		Entrada(String orden, String id, int clave) {
+			this.orden = orden;
+			this.id = id;
+			this.clave = clave;
+		}
+	}
+
+	private static final Comparator<Entrada> ORDEN = Comparator.<Entrada, String>comparing(e -> e.orden)
+			.thenComparing(e -> e.id);
+
+	private final ConcurrentSkipListSet<Entrada> entradas = new ConcurrentSkipListSet<>(ORDEN);
+
+	/** Las altas se anotan desde que es true */
+	private volatile boolean activo;
+
+	/** El índice tiene ya todo el catálogo */
+	private volatile boolean listo;
+
+	/**
+	 * @return true si el índice está activo y las altas deben anotarse
+	 */
+	public boolean activo() {
+		return activo;
+	}
+
+	/**
+	 * Activa el índice si no lo estaba y espera a que esté lleno. Las altas que
+	 * lleguen mientras se llena se anotan también; una entrada repetida no cuenta dos veces.
+	 *
+	 * @param llenar Añade al índice todo el catálogo actual
+	 */
+	public void activar(Runnable llenar) {
+		if (listo) return;
+		synchronized (this) {
+			if (listo) return;
+			activo = true;
+			llenar.run();
+			listo = true;
+		}
+	}
+
+	/**
+	 * Anota un recurso si el índice está activo.
+	 */
+	public void agregar(String orden, String id, int clave) {
+		if (activo) entradas.add(new Entrada(orden, id, clave));
+	}
+
+	/**
+	 * Quita la entrada de un recurso si el índice está activo.
+	 */
+	public void quitar(String orden, String id) {
+		if (activo) entradas.remove(new Entrada(orden, id, -1));
+	}
+
+	/**
+	 * Recorre las entradas en orden, empezando justo después de la indicada.
+	 *
+	 * @param desdeOrden Clave de orden de la última entrada ya vista, o null para empezar por el principio
+	 * @param desdeId    ID de la última entrada ya vista
+	 * @param visitante  Recibe cada entrada
+	 */
+	public void recorrer(String desdeOrden, String desdeId, Visitante visitante) {
+		NavigableSet<Entrada> resto = desdeOrden == null ? entradas
+				: entradas.tailSet(new Entrada(desdeOrden, desdeId, -1), false);
+		for (Entrada entrada : resto) {
+			if (!visitante.visitar(entrada.orden, entrada.id, entrada.clave)) return;
+		}
+	}
+}
@@ -0,0 +1,230 @@
+package biblioteca.indices;
+
+import biblioteca.model.Libro;
+import biblioteca.model.RecursoBiblioteca;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Índice invertido en memoria sobre el título de los recursos y el autor de los libros.
+ *
+ * Los textos se normalizan a minúsculas y sin tildes ("Ingeniería" y "ingenieria"
+ * son el mismo término). Cada término apunta a los recursos que lo contienen con
+ * un peso (el título pesa más que el autor). Las consultas pueden exigir todos los
+ * términos (AND) o cualquiera (OR) y devuelven los mejores resultados ordenados por
+ * relevancia tf-idf. El índice se actualiza de forma incremental y es seguro para
+ * uso concurrente.
+ */
+public class IndiceTexto {
+
+	/** Peso de un término que aparece en el título */
+	private static final int PESO_TITULO = 2;
+
+	/** Peso de un término que aparece en el autor */
+	private static final int PESO_AUTOR = 1;
+
+	/** Palabras demasiado frecuentes para aportar nada a la búsqueda */
+	private static final Set<String> PALABRAS_VACIAS = Set.of(
+			"a", "al", "de", "del", "el", "en", "la", "las", "lo", "los", "para", "por", "un", "una", "y");
+
+	/** Término normalizado -> (ID de recurso -> peso) */
+	private final Map<String, Map<String, Integer>> terminos = new ConcurrentHashMap<>();
+
+	/** Número de recursos con algún término indexado, para el cálculo de idf */
+	private final AtomicInteger documentos = new AtomicInteger();
+
+	/**
+	 * Añade un recurso al índice.
+	 *
+	 * @param recurso El recurso a indexar
+	 */
+	public void indexar(RecursoBiblioteca recurso) {
+		// Se inserta dentro de compute: así no se cruza con un eliminar que quite la lista vacía
+		boolean[] nuevo = {false};
+		boolean[] previo = {false};
+		for (Map.Entry<String, Integer> termino : pesos(recurso).entrySet()) {
+			terminos.compute(termino.getKey(), (t, recursos) -> {
+				if (recursos == null) recursos = new ConcurrentHashMap<>();
+				if (recursos.put(recurso.getId(), termino.getValue()) == null) {
+					nuevo[0] = true;
+				} else {
+					previo[0] = true;
+				}
+				return recursos;
+			});
+		}
+		// Solo cuenta si no estaba ya indexado y tiene algún término
+		if (nuevo[0] && !previo[0]) documentos.incrementAndGet();
+	}
+
+	/**
+	 * Quita un recurso del índice.
+	 *
+	 * @param recurso El recurso a eliminar (con el mismo título y autor con que se indexó)
+	 */
+	public void eliminar(RecursoBiblioteca recurso) {
+		boolean[] quitado = {false};
+		for (String termino : pesos(recurso).keySet()) {
+			terminos.computeIfPresent(termino, (t, recursos) -> {
+				if (recursos.remove(recurso.getId()) != null) quitado[0] = true;
+				return recursos.isEmpty() ? null : recursos;
+			});
+		}
+		if (quitado[0]) documentos.decrementAndGet();
+	}
+
+	/**
+	 * Busca recursos por texto libre.
+	 *
+	 * @param consulta Palabras a buscar
+	 * @param todas    true para exigir todas las palabras (AND), false para cualquiera (OR)
+	 * @param limite   Número máximo de resultados
+	 * @return IDs de los recursos encontrados, del más al menos relevante
+	 */
+	public List<String> buscar(String consulta, boolean todas, int limite) {
+		// Cada palabra cuenta una vez aunque se repita en la consulta
+		Set<String> palabras = new LinkedHashSet<>(tokenizar(consulta));
+		if (palabras.isEmpty() || limite <= 0) return Collections.emptyList();
+
+		List<Map<String, Integer>> listas = new ArrayList<>(palabras.size());
+		for (String palabra : palabras) {
+			Map<String, Integer> lista = terminos.get(palabra);
+			if (lista == null) {
+				if (todas) return Collections.emptyList();
+				continue;
+			}
+			listas.add(lista);
+		}
+		if (listas.isEmpty()) return Collections.emptyList();
+
+		double total = Math.max(1, documentos.get());
+		double[] idf = new double[listas.size()];
+		for (int i = 0; i < listas.size(); i++) {
+			idf[i] = Math.log(1 + total / Math.max(1, listas.get(i).size()));
+		}
+
+		Map<String, Double> puntuaciones;
+		if (todas) {
+			// Se recorre la lista más corta y se comprueba el resto por acceso directo
+			int menor = 0;
+			for (int i = 1; i < listas.size(); i++) {
+				if (listas.get(i).size() < listas.get(menor).size()) menor = i;
+			}
+			puntuaciones = new HashMap<>();
+			candidatos:
+			for (Map.Entry<String, Integer> entrada : listas.get(menor).entrySet()) {
+				double puntuacion = 0;
+				for (int i = 0; i < listas.size(); i++) {
+					Integer peso = listas.get(i).get(entrada.getKey());
+					if (peso == null) continue candidatos;
+					puntuacion += peso * idf[i];
+				}
+				puntuaciones.put(entrada.getKey(), puntuacion);
+			}
+		} else {
+			puntuaciones = new HashMap<>();
+			for (int i = 0; i < listas.size(); i++) {
+				for (Map.Entry<String, Integer> entrada : listas.get(i).entrySet()) {
+					puntuaciones.merge(entrada.getKey(), entrada.getValue() * idf[i], Double::sum);
+				}
+			}
+		}
+		return mejores(puntuaciones, limite);
+	}
+
+	/**
+	 * Normaliza un texto para búsqueda: minúsculas y sin tildes ni diéresis.
+	 *
+	 * @param texto Texto original
+	 * @return Texto normalizado
+	 */
+	public static String normalizar(String texto) {
+		if (esAscii(texto)) return texto.toLowerCase(Locale.ROOT);
+		String descompuesto = Normalizer.normalize(texto, Normalizer.Form.NFD);
+		StringBuilder sb = new StringBuilder(descompuesto.length());
+		for (int i = 0; i < descompuesto.length(); i++) {
+			char c = descompuesto.charAt(i);
+			if (Character.getType(c) != Character.NON_SPACING_MARK) sb.append(c);
+		}
+		return sb.toString().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * @return true si el texto no tiene caracteres que descomponer (el caso habitual)
+	 */
+	private static boolean esAscii(String texto) {
+		for (int i = 0; i < texto.length(); i++) {
+			if (texto.charAt(i) >= 0x80) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Divide un texto en términos normalizados, descartando las palabras vacías.
+	 *
+	 * @param texto Texto original
+	 * @return Términos en el orden en que aparecen
+	 */
+	public static List<String> tokenizar(String texto) {
+		List<String> tokens = new ArrayList<>();
+		if (texto == null) return tokens;
+		String normalizado = normalizar(texto);
+		int inicio = -1;
+		for (int i = 0; i <= normalizado.length(); i++) {
+			boolean letra = i < normalizado.length() && Character.isLetterOrDigit(normalizado.charAt(i));
+			if (letra && inicio < 0) {
+				inicio = i;
+			} else if (!letra && inicio >= 0) {
+				String token = normalizado.substring(inicio, i);
+				if (!PALABRAS_VACIAS.contains(token)) tokens.add(token);
+				inicio = -1;
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * Calcula el peso de cada término del recurso (título y autor).
+	 */
+	private static Map<String, Integer> pesos(RecursoBiblioteca recurso) {
+		Map<String, Integer> pesos = new HashMap<>();
+		for (String token : tokenizar(recurso.getTitulo())) {
+			pesos.merge(token, PESO_TITULO, Integer::sum);
+		}
+		if (recurso instanceof Libro) {
+			for (String token : tokenizar(((Libro) recurso).getAutor())) {
+				pesos.merge(token, PESO_AUTOR, Integer::sum);
+			}
+		}
+		return pesos;
+	}
+
+	/**
+	 * Selecciona los {@code limite} IDs con mayor puntuación mediante un montículo acotado.
+	 */
+	private static List<String> mejores(Map<String, Double> puntuaciones, int limite) {
+		PriorityQueue<Map.Entry<String, Double>> monticulo = new PriorityQueue<>(
+				(a, b) -> a.getValue().equals(b.getValue()) ? b.getKey().compareTo(a.getKey())
+						: Double.compare(a.getValue(), b.getValue()));
+		for (Map.Entry<String, Double> entrada : puntuaciones.entrySet()) {
+			monticulo.offer(entrada);
+			if (monticulo.size() > limite) monticulo.poll();
+		}
+		List<String> resultado = new ArrayList<>(monticulo.size());
+		while (!monticulo.isEmpty()) {
+			resultado.add(monticulo.poll().getKey());
+		}
+		Collections.reverse(resultado);
+		return resultado;
+	}
+}
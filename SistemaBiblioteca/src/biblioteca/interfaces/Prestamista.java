@@ -1,7 +1,11 @@
 package biblioteca.interfaces;
 
+import biblioteca.enums.ResultadoOperacion;
 import biblioteca.model.RecursoBiblioteca;
+import biblioteca.model.SolicitudPrestamo;
 import biblioteca.model.Usuario;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
 *Esta interfaz define el comportamiento que deber tener cualquier sistema
@@ -25,4 +29,44 @@ public interface Prestamista {
 	 * @return ture si la devolción se realiza con éxito, false si hubo un problema
 	 */
 	boolean devolver(RecursoBiblioteca recurso);
+	
+	/**
+	 * Presta varios recursos de una vez.
+	 * La implementación por defecto presta uno a uno; las implementaciones
+	 * pueden aplicar todo el lote con una sola sincronización.
+	 * 
+	 * @param solicitudes Pares (recurso, usuario) a prestar.
+	 * @return El resultado de cada solicitud, en el mismo orden.
+	 */
+	default List<ResultadoOperacion> prestarLote(List<SolicitudPrestamo> solicitudes) {
+		List<ResultadoOperacion> resultados = new ArrayList<>(solicitudes.size());
+		for (SolicitudPrestamo s : solicitudes) {
+			if (s.getRecurso() == null || s.getUsuario() == null) {
+				resultados.add(ResultadoOperacion.INVALIDO);
+			} else {
+				resultados.add(prestar(s.getRecurso(), s.getUsuario())
+						? ResultadoOperacion.REALIZADO : ResultadoOperacion.NO_DISPONIBLE);
+			}
+		}
+		return resultados;
+	}
+	
+	/**
+	 * Devuelve varios recursos de una vez.
+	 * La implementación por defecto devuelve uno a uno.
+	 * 
+	 * @param recursos Recursos a devolver.
+	 * @return El resultado de cada devolución, en el mismo orden.
+	 */
+	default List<ResultadoOperacion> devolverLote(List<RecursoBiblioteca> recursos) {
+		List<ResultadoOperacion> resultados = new ArrayList<>(recursos.size());
+		for (RecursoBiblioteca r : recursos) {
+			if (r == null) {
+				resultados.add(ResultadoOperacion.INVALIDO);
+			} else {
+				resultados.add(devolver(r) ? ResultadoOperacion.REALIZADO : ResultadoOperacion.NO_PRESTADO);
+			}
+		}
+		return resultados;
+	}
 }
@@ -0,0 +1,493 @@
+package biblioteca.metricas;
+
+import biblioteca.enums.TipoMovimiento;
+import biblioteca.enums.TipoRecurso;
+import biblioteca.persistencia.RegistroHistorial;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Estadísticas de circulación que se actualizan con cada préstamo y devolución:
+ * préstamos y devoluciones por tipo de recurso, recursos más prestados y usuarios
+ * más activos, en total y en una ventana de los últimos días.
+ *
+ * Los recuentos por tipo son {@link LongAdder}. Los más frecuentes se llevan con
+ * {@link ResumenFrecuentes} (memoria fija, cuentas aproximadas por arriba) repartidos
+ * en {@value #FRANJAS} franjas según el hash de la clave, cada una con su cerrojo:
+ * una clave siempre cae en la misma franja, así que unir las franjas no pierde
+ * precisión. La ventana es un anillo de resúmenes por día; una posición se vacía
+ * cuando le llega un día nuevo. Las consultas cuestan O(franjas × días × capacidad),
+ * independientemente del tamaño del historial.
+ *
+ * {@link #recalcular} reconstruye las estadísticas recorriendo el historial en
+ * paralelo en el pool fork-join, con cuentas exactas; sirve para arrancar desde el
+ * historial guardado y para comprobar las incrementales con {@link #coincideCon}.
+ */
+public class EstadisticasCirculacion {
+
+	/** Franjas independientes (potencia de dos) */
+	private static final int FRANJAS = 8;
+
+	private static final TipoRecurso[] TIPOS = TipoRecurso.values();
+
+	/**
+	 * Parte del historial que se puede recorrer con independencia de las demás
+	 * (un mes del historial persistente, un trozo del de memoria).
+	 */
+	@FunctionalInterface
+	public interface Particion {
+		void recorrer(Consumer<RegistroHistorial> consumidor) throws IOException;
+	}
+
+	/** Resúmenes de las claves de una franja: el total y uno por cada día de la ventana */
+	private static final class Franja {
+		final ResumenFrecuentes total;
+		final ResumenFrecuentes[] dias;
+		/** Día (desde la época) de cada posición del anillo */
+		final long[] diaDe;
+		/** Préstamos por posición del anillo y tipo (solo en las franjas de recursos) */
+		final long[][] porTipo;
+
+		Franja(int capacidad, int diasVentana) {
+			total = new ResumenFrecuentes(capacidad);
+			dias = new ResumenFrecuentes[diasVentana];
+			for (int i = 0; i < diasVentana; i++) dias[i] = new ResumenFrecuentes(capacidad);
+			diaDe = new long[diasVentana];
+			Arrays.fill(diaDe, Long.MIN_VALUE);
+			porTipo = new long[diasVentana][TIPOS.length];
+		}
+
+		/**
+		 * @param tipo Ordinal del tipo, o -1 para no contar por tipo
+		 */
+		synchronized void registrar(String clave, int tipo, long dia, long veces) {
+			total.registrar(clave, veces);
+			int i = (int) Math.floorMod(dia, (long) dias.length);
+			if (diaDe[i] != dia) {
+				// Un día más antiguo que el de su posición ya quedó fuera de la ventana
+				if (diaDe[i] > dia) return;
+				dias[i].vaciar();
+				Arrays.fill(porTipo[i], 0);
+				diaDe[i] = dia;
+			}
+			dias[i].registrar(clave, veces);
+			if (tipo >= 0) porTipo[i][tipo] += veces;
+		}
+
+		synchronized boolean enVentana(int i, long hoy) {
+			return diaDe[i] <= hoy && diaDe[i] > hoy - dias.length;
+		}
+	}
+
+	private final int capacidad;
+	private final int diasVentana;
+	private final LongAdder[] prestamos = new LongAdder[TIPOS.length];
+	private final LongAdder[] devoluciones = new LongAdder[TIPOS.length];
+	private final Franja[] recursos = new Franja[FRANJAS];
+	private final Franja[] usuarios = new Franja[FRANJAS];
+
+	/**
+	 * @param capacidad   Claves que vigila cada resumen de cada franja
+	 * @param diasVentana Días de la ventana de recientes, contando el de hoy
+	 */
+	public EstadisticasCirculacion(int capacidad, int diasVentana) {
+		this.capacidad = capacidad;
+		this.diasVentana = diasVentana;
+		for (int t = 0; t < TIPOS.length; t++) {
+			prestamos[t] = new LongAdder();
+			devoluciones[t] = new LongAdder();
+		}
+		for (int f = 0; f < FRANJAS; f++) {
+			recursos[f] = new Franja(capacidad, diasVentana);
+			usuarios[f] = new Franja(capacidad, diasVentana);
+		}
+	}
+
+	/**
+	 * Cuenta un préstamo.
+	 *
+	 * @param dia Fecha del préstamo
+	 */
+	public void registrarPrestamo(String idRecurso, String idUsuario, TipoRecurso tipo, LocalDate dia) {
+		long epoca = dia.toEpochDay();
+		prestamos[tipo.ordinal()].increment();
+		franja(recursos, idRecurso).registrar(idRecurso, tipo.ordinal(), epoca, 1);
+		franja(usuarios, idUsuario).registrar(idUsuario, -1, epoca, 1);
+	}
+
+	/**
+	 * Cuenta una devolución.
+	 */
+	public void registrarDevolucion(TipoRecurso tipo) {
+		devoluciones[tipo.ordinal()].increment();
+	}
+
+	/**
+	 * @return Días de la ventana de recientes, contando el de hoy
+	 */
+	public int getDiasVentana() {
+		return diasVentana;
+	}
+
+	/**
+	 * @param tipo Tipo de recurso, o null para todos
+	 * @return Préstamos contados del tipo
+	 */
+	public long getPrestamos(TipoRecurso tipo) {
+		return sumar(prestamos, tipo);
+	}
+
+	/**
+	 * @param tipo Tipo de recurso, o null para todos
+	 * @return Devoluciones contadas del tipo
+	 */
+	public long getDevoluciones(TipoRecurso tipo) {
+		return sumar(devoluciones, tipo);
+	}
+
+	/**
+	 * @param tipo Tipo de recurso, o null para todos
+	 * @param hoy  Último día de la ventana
+	 * @return Préstamos del tipo en los días de la ventana
+	 */
+	public long getPrestamosRecientes(TipoRecurso tipo, LocalDate hoy) {
+		long dia = hoy.toEpochDay();
+		long total = 0;
+		for (Franja franja : recursos) {
+			synchronized (franja) {
+				for (int i = 0; i < diasVentana; i++) {
+					if (!franja.enVentana(i, dia)) continue;
+					for (int t = 0; t < TIPOS.length; t++) {
+						if (tipo == null || tipo.ordinal() == t) total += franja.porTipo[i][t];
+					}
+				}
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * @return Los recursos más prestados, de más a menos
+	 */
+	public List<Frecuente> getRecursosMasPrestados(int limite) {
+		return mayores(recursos, limite, null);
+	}
+
+	/**
+	 * @param hoy Último día de la ventana
+	 * @return Los recursos más prestados en los días de la ventana, de más a menos
+	 */
+	public List<Frecuente> getRecursosMasPrestadosRecientes(int limite, LocalDate hoy) {
+		return mayores(recursos, limite, hoy);
+	}
+
+	/**
+	 * @return Los usuarios con más préstamos, de más a menos
+	 */
+	public List<Frecuente> getUsuariosMasActivos(int limite) {
+		return mayores(usuarios, limite, null);
+	}
+
+	/**
+	 * @param hoy Último día de la ventana
+	 * @return Los usuarios con más préstamos en los días de la ventana, de más a menos
+	 */
+	public List<Frecuente> getUsuariosMasActivosRecientes(int limite, LocalDate hoy) {
+		return mayores(usuarios, limite, hoy);
+	}
+
+	/**
+	 * Comprueba estas estadísticas contra otras exactas (calculadas con
+	 * {@link #recalcular}): los recuentos por tipo, en total y en la ventana, deben
+	 * ser iguales, y la cuenta real de cada recurso y usuario de las listas de más
+	 * frecuentes debe estar dentro de su margen de error.
+	 *
+	 * @param exactas Estadísticas recalculadas
+	 * @param hoy     Último día de la ventana
+	 * @return true si coinciden
+	 */
+	public boolean coincideCon(EstadisticasCirculacion exactas, LocalDate hoy) {
+		for (TipoRecurso tipo : TIPOS) {
+			if (getPrestamos(tipo) != exactas.getPrestamos(tipo)
+					|| getDevoluciones(tipo) != exactas.getDevoluciones(tipo)
+					|| getPrestamosRecientes(tipo, hoy) != exactas.getPrestamosRecientes(tipo, hoy)) {
+				return false;
+			}
+		}
+		return dentroDelMargen(getRecursosMasPrestados(capacidad), exactas.recursos)
+				&& dentroDelMargen(getUsuariosMasActivos(capacidad), exactas.usuarios);
+	}
+
+	/**
+	 * Recalcula las estadísticas recorriendo las particiones del historial en
+	 * paralelo. Cada tarea cuenta de forma exacta su parte y las cuentas se suman al
+	 * unir las tareas; al final cada franja se llena con sus claves de mayor cuenta,
+	 * sin error.
+	 *
+	 * @param particiones Partes del historial
+	 * @param capacidad   Claves que vigila cada resumen de cada franja
+	 * @param diasVentana Días de la ventana de recientes
+	 * @param hoy         Último día de la ventana
+	 * @return Las estadísticas recalculadas
+	 * @throws IOException si falla la lectura de alguna partición
+	 */
+	public static EstadisticasCirculacion recalcular(List<Particion> particiones, int capacidad, int diasVentana,
+			LocalDate hoy) throws IOException {
+		Recuento recuento;
+		try {
+			recuento = ForkJoinPool.commonPool().invoke(
+					new TareaRecuento(particiones, 0, particiones.size(), diasVentana, hoy.toEpochDay()));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		EstadisticasCirculacion estadisticas = new EstadisticasCirculacion(capacidad, diasVentana);
+		for (int t = 0; t < TIPOS.length; t++) {
+			estadisticas.prestamos[t].add(recuento.prestamos[t]);
+			estadisticas.devoluciones[t].add(recuento.devoluciones[t]);
+		}
+		estadisticas.cargar(estadisticas.recursos, recuento.recursos, recuento.recursosPorDia, hoy.toEpochDay());
+		estadisticas.cargar(estadisticas.usuarios, recuento.usuarios, recuento.usuariosPorDia, hoy.toEpochDay());
+		for (Map.Entry<Long, long[][]> dia : recuento.tiposPorDia.entrySet()) {
+			int i = (int) Math.floorMod(dia.getKey(), (long) diasVentana);
+			for (int f = 0; f < FRANJAS; f++) {
+				estadisticas.recursos[f].diaDe[i] = dia.getKey();
+				System.arraycopy(dia.getValue()[f], 0, estadisticas.recursos[f].porTipo[i], 0, TIPOS.length);
+			}
+		}
+		return estadisticas;
+	}
+
+	/**
+	 * Llena los resúmenes de las franjas con las claves de mayor cuenta de cada una.
+	 */
+	private void cargar(Franja[] franjas, Map<String, long[]> total, Map<Long, Map<String, long[]>> porDia, long hoy) {
+		for (List<Map.Entry<String, long[]>> deFranja : mayoresPorFranja(total)) {
+			for (Map.Entry<String, long[]> e : deFranja) {
+				franja(franjas, e.getKey()).total.registrar(e.getKey(), e.getValue()[0]);
+			}
+		}
+		for (Map.Entry<Long, Map<String, long[]>> dia : porDia.entrySet()) {
+			int i = (int) Math.floorMod(dia.getKey(), (long) diasVentana);
+			for (Franja franja : franjas) franja.diaDe[i] = dia.getKey();
+			for (List<Map.Entry<String, long[]>> deFranja : mayoresPorFranja(dia.getValue())) {
+				for (Map.Entry<String, long[]> e : deFranja) {
+					franja(franjas, e.getKey()).dias[i].registrar(e.getKey(), e.getValue()[0]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return Por franja, las claves de mayor cuenta (como mucho la capacidad), de mayor a menor
+	 */
+	private List<List<Map.Entry<String, long[]>>> mayoresPorFranja(Map<String, long[]> cuentas) {
+		List<List<Map.Entry<String, long[]>>> listas = new ArrayList<>(FRANJAS);
+		for (int f = 0; f < FRANJAS; f++) listas.add(new ArrayList<>());
+		for (Map.Entry<String, long[]> e : cuentas.entrySet()) listas.get(indiceFranja(e.getKey())).add(e);
+		for (int f = 0; f < FRANJAS; f++) {
+			List<Map.Entry<String, long[]>> lista = listas.get(f);
+			lista.sort(Comparator.comparingLong((Map.Entry<String, long[]> e) -> e.getValue()[0]).reversed());
+			listas.set(f, lista.subList(0, Math.min(capacidad, lista.size())));
+		}
+		return listas;
+	}
+
+	/**
+	 * Une las n mayores de cada franja. En la ventana, la cuenta de una clave suma
+	 * las de cada día; un día en que no está vigilada suma la cota de ese día, que
+	 * pasa también al error.
+	 *
+	 * @param hoy Último día de la ventana, o null para los totales
+	 */
+	private List<Frecuente> mayores(Franja[] franjas, int limite, LocalDate hoy) {
+		List<Frecuente> candidatos = new ArrayList<>();
+		if (limite <= 0) return candidatos;
+		for (Franja franja : franjas) {
+			synchronized (franja) {
+				if (hoy == null) {
+					candidatos.addAll(franja.total.mayores(limite));
+					continue;
+				}
+				long dia = hoy.toEpochDay();
+				long cotas = 0;
+				Map<String, long[]> sumas = new HashMap<>();
+				for (int i = 0; i < diasVentana; i++) {
+					if (!franja.enVentana(i, dia)) continue;
+					long cota = franja.dias[i].cotaNoVigiladas();
+					cotas += cota;
+					franja.dias[i].acumular(sumas, cota);
+				}
+				candidatos.addAll(mayores(sumas, cotas, limite));
+			}
+		}
+		candidatos.sort(ORDEN);
+		return candidatos.subList(0, Math.min(limite, candidatos.size()));
+	}
+
+	/**
+	 * @return Las claves de mayor cuenta de las sumas de la ventana, sin ordenar
+	 */
+	private static List<Frecuente> mayores(Map<String, long[]> sumas, long cotas, int limite) {
+		// Montículo con las mejores hasta ahora; en la cima, la peor de ellas
+		PriorityQueue<Frecuente> mejores = new PriorityQueue<>(limite + 1, ORDEN.reversed());
+		for (Map.Entry<String, long[]> e : sumas.entrySet()) {
+			long cuenta = e.getValue()[0] + cotas;
+			Frecuente peor = mejores.peek();
+			if (mejores.size() == limite && (cuenta < peor.getCuenta()
+					|| cuenta == peor.getCuenta() && e.getKey().compareTo(peor.getClave()) > 0)) {
+				continue;
+			}
+			mejores.add(new Frecuente(e.getKey(), cuenta, e.getValue()[1] + cotas));
+			if (mejores.size() > limite) mejores.poll();
+		}
+		return new ArrayList<>(mejores);
+	}
+
+	private static final Comparator<Frecuente> ORDEN = Comparator.comparingLong(Frecuente::getCuenta).reversed()
+			.thenComparing(Frecuente::getClave);
+
+	/**
+	 * @return true si la cuenta exacta de cada elemento vigilado también en las
+	 *         exactas está dentro de su margen
+	 */
+	private static boolean dentroDelMargen(List<Frecuente> aproximados, Franja[] exactas) {
+		for (Frecuente f : aproximados) {
+			Franja franja = franja(exactas, f.getClave());
+			long exacta;
+			synchronized (franja) {
+				exacta = franja.total.cuenta(f.getClave());
+			}
+			if (exacta >= 0 && (exacta > f.getCuenta() || exacta < f.getCuenta() - f.getError())) return false;
+		}
+		return true;
+	}
+
+	private static long sumar(LongAdder[] contadores, TipoRecurso tipo) {
+		if (tipo != null) return contadores[tipo.ordinal()].sum();
+		long total = 0;
+		for (LongAdder contador : contadores) total += contador.sum();
+		return total;
+	}
+
+	private static Franja franja(Franja[] franjas, String clave) {
+		return franjas[indiceFranja(clave)];
+	}
+
+	private static int indiceFranja(String clave) {
+		int h = clave.hashCode();
+		return (h ^ (h >>> 16)) & (FRANJAS - 1);
+	}
+
+	/** Cuentas exactas de una parte del historial */
+	private static final class Recuento {
+		final long[] prestamos = new long[TIPOS.length];
+		final long[] devoluciones = new long[TIPOS.length];
+		final Map<String, long[]> recursos = new HashMap<>();
+		final Map<String, long[]> usuarios = new HashMap<>();
+		/** Solo los días de la ventana */
+		final Map<Long, Map<String, long[]>> recursosPorDia = new HashMap<>();
+		final Map<Long, Map<String, long[]>> usuariosPorDia = new HashMap<>();
+		/** Préstamos por día de la ventana, franja de recursos y tipo */
+		final Map<Long, long[][]> tiposPorDia = new HashMap<>();
+
+		void sumar(Recuento otro) {
+			for (int t = 0; t < TIPOS.length; t++) {
+				prestamos[t] += otro.prestamos[t];
+				devoluciones[t] += otro.devoluciones[t];
+			}
+			sumar(recursos, otro.recursos);
+			sumar(usuarios, otro.usuarios);
+			otro.recursosPorDia.forEach((dia, cuentas) -> sumar(recursosPorDia.computeIfAbsent(dia, d -> new HashMap<>()), cuentas));
+			otro.usuariosPorDia.forEach((dia, cuentas) -> sumar(usuariosPorDia.computeIfAbsent(dia, d -> new HashMap<>()), cuentas));
+			otro.tiposPorDia.forEach((dia, cuentas) -> {
+				long[][] destino = tiposPorDia.computeIfAbsent(dia, d -> new long[FRANJAS][TIPOS.length]);
+				for (int f = 0; f < FRANJAS; f++) {
+					for (int t = 0; t < TIPOS.length; t++) destino[f][t] += cuentas[f][t];
+				}
+			});
+		}
+
+		private static void sumar(Map<String, long[]> destino, Map<String, long[]> origen) {
+			origen.forEach((clave, cuenta) -> destino.computeIfAbsent(clave, k -> new long[1])[0] += cuenta[0]);
+		}
+	}
+
+	/**
+	 * Divide recursivamente la lista de particiones y cuenta cada una en el pool.
+	 */
+	private static final class TareaRecuento extends RecursiveTask<Recuento> {
+		private static final long serialVersionUID = 1L;
+
+		// La tarea solo vive dentro del pool; las particiones no se serializan
+		private final transient List<Particion> particiones;
+		private final int desde;
+		private final int hasta;
+		private final int diasVentana;
+		private final long hoy;
+
+		TareaRecuento(List<Particion> particiones, int desde, int hasta, int diasVentana, long hoy) {
+			this.particiones = particiones;
+			this.desde = desde;
+			this.hasta = hasta;
+			this.diasVentana = diasVentana;
+			this.hoy = hoy;
+		}
+
+		@Override
+		protected Recuento compute() {
+			if (hasta - desde <= 1) {
+				Recuento recuento = new Recuento();
+				if (hasta > desde) contar(particiones.get(desde), recuento);
+				return recuento;
+			}
+			int medio = (desde + hasta) >>> 1;
+			TareaRecuento izquierda = new TareaRecuento(particiones, desde, medio, diasVentana, hoy);
+			TareaRecuento derecha = new TareaRecuento(particiones, medio, hasta, diasVentana, hoy);
+			izquierda.fork();
+			Recuento resultado = derecha.compute();
+			resultado.sumar(izquierda.join());
+			return resultado;
+		}
+
+		private void contar(Particion particion, Recuento recuento) {
+			try {
+				particion.recorrer(registro -> {
+					int tipo = registro.getTipoRecurso().ordinal();
+					if (registro.getMovimiento() == TipoMovimiento.DEVOLUCION) {
+						recuento.devoluciones[tipo]++;
+						return;
+					}
+					recuento.prestamos[tipo]++;
+					String idRecurso = registro.getIdRecurso();
+					String idUsuario = registro.getIdUsuario();
+					recuento.recursos.computeIfAbsent(idRecurso, k -> new long[1])[0]++;
+					recuento.usuarios.computeIfAbsent(idUsuario, k -> new long[1])[0]++;
+					long dia = registro.getFecha().toEpochDay();
+					if (dia <= hoy && dia > hoy - diasVentana) {
+						recuento.recursosPorDia.computeIfAbsent(dia, d -> new HashMap<>())
+								.computeIfAbsent(idRecurso, k -> new long[1])[0]++;
+						recuento.usuariosPorDia.computeIfAbsent(dia, d -> new HashMap<>())
+								.computeIfAbsent(idUsuario, k -> new long[1])[0]++;
+						recuento.tiposPorDia.computeIfAbsent(dia, d -> new long[FRANJAS][TIPOS.length])
+								[indiceFranja(idRecurso)][tipo]++;
+					}
+				});
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
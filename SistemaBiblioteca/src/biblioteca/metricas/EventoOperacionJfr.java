@@ -0,0 +1,32 @@
+package biblioteca.metricas;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Evento de JDK Flight Recorder con cada operación medida. Solo se emite con
+ * las métricas activas y una grabación de JFR que tenga el evento habilitado
+ * (p. ej. {@code -XX:StartFlightRecording}).
+ */
+@Name("biblioteca.Operacion")
+@Label("Operación de biblioteca")
+@Category("Biblioteca")
+@Description("Préstamo, devolución, carga o guardado con su resultado y su duración")
+@StackTrace(false)
+class EventoOperacionJfr extends Event {
+
+	@Label("Operación")
+	String operacion;
+
+	@Label("Resultado")
+	String resultado;
+
+	@Label("Duración")
+	@Timespan(Timespan.NANOSECONDS)
+	long duracion;
+}
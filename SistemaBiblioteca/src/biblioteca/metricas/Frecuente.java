@@ -0,0 +1,45 @@
+package biblioteca.metricas;
+
+/**
+ * Elemento de una lista de los más frecuentes (recursos más prestados, usuarios más
+ * activos) con su cuenta estimada. La cuenta nunca se queda corta y se pasa como
+ * mucho en el error: la real está entre {@code getCuenta() - getError()} y
+ * {@code getCuenta()}.
+ */
+public final class Frecuente {
+	private final String clave;
+	private final long cuenta;
+	private final long error;
+
+	Frecuente(String clave, long cuenta, long error) {
+		this.clave = clave;
+		this.cuenta = cuenta;
+		this.error = error;
+	}
+
+	/**
+	 * @return ID del recurso o del usuario
+	 */
+	public String getClave() {
+		return clave;
+	}
+
+	/**
+	 * @return Cuenta estimada (cota superior de la real)
+	 */
+	public long getCuenta() {
+		return cuenta;
+	}
+
+	/**
+	 * @return Lo que la cuenta puede pasarse de la real; 0 si es exacta
+	 */
+	public long getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		return clave + "=" + cuenta + (error > 0 ? " (±" + error + ")" : "");
+	}
+}
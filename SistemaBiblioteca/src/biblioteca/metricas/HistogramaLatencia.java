@@ -0,0 +1,121 @@
+package biblioteca.metricas;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latencias en nanosegundos, seguro para uso concurrente.
+ *
+ * Usa cubetas log-lineales: cada potencia de dos se divide en 32 cubetas iguales,
+ * por lo que el error relativo de cualquier percentil es menor del 3,2 % y el
+ * histograma ocupa un tamaño fijo (unos 15 KB) cubra el rango que cubra.
+ * Registrar un valor es un cálculo de bits y un incremento atómico, sin bloqueos
+ * ni reserva de memoria.
+ */
+public class HistogramaLatencia {
+
+	/** Bits de subdivisión de cada potencia de dos (32 cubetas) */
+	private static final int BITS_SUBCUBETA = 5;
+	private static final int SUBCUBETAS = 1 << BITS_SUBCUBETA;
+
+	/** Número de cubetas necesarias para cualquier long positivo */
+	private static final int CUBETAS = (64 - BITS_SUBCUBETA + 1) * SUBCUBETAS;
+
+	private final AtomicLongArray cubetas = new AtomicLongArray(CUBETAS);
+	private final LongAdder total = new LongAdder();
+	private final LongAdder suma = new LongAdder();
+	private final AtomicLong maximo = new AtomicLong();
+
+	/**
+	 * Registra una latencia.
+	 *
+	 * @param nanos Latencia en nanosegundos (los negativos cuentan como 0)
+	 */
+	public void registrar(long nanos) {
+		long valor = Math.max(0, nanos);
+		cubetas.incrementAndGet(cubeta(valor));
+		total.increment();
+		suma.add(valor);
+		long actual;
+		while (valor > (actual = maximo.get()) && !maximo.compareAndSet(actual, valor)) {
+			// Otro hilo cambió el máximo; se vuelve a comparar
+		}
+	}
+
+	/**
+	 * @return Número de valores registrados
+	 */
+	public long getTotal() {
+		return total.sum();
+	}
+
+	/**
+	 * @return Latencia media en nanosegundos, o 0 si no hay valores
+	 */
+	public double getMedia() {
+		long n = total.sum();
+		return n == 0 ? 0 : (double) suma.sum() / n;
+	}
+
+	/**
+	 * @return Latencia máxima registrada en nanosegundos
+	 */
+	public long getMaximo() {
+		return maximo.get();
+	}
+
+	/**
+	 * Calcula un percentil. Devuelve el límite superior de la cubeta en la que
+	 * cae, de modo que nunca subestima la latencia real en más del error de cubeta.
+	 *
+	 * @param percentil Percentil entre 0 y 100 (p. ej. 99.9)
+	 * @return Latencia en nanosegundos, o 0 si no hay valores
+	 */
+	public long percentil(double percentil) {
+		long[] copia = new long[CUBETAS];
+		long n = 0;
+		for (int i = 0; i < CUBETAS; i++) {
+			copia[i] = cubetas.get(i);
+			n += copia[i];
+		}
+		if (n == 0) return 0;
+		long objetivo = Math.max(1, (long) Math.ceil(percentil / 100.0 * n));
+		long acumulado = 0;
+		for (int i = 0; i < CUBETAS; i++) {
+			acumulado += copia[i];
+			if (acumulado >= objetivo) return Math.min(limiteSuperior(i), maximo.get());
+		}
+		return maximo.get();
+	}
+
+	/**
+	 * Vacía el histograma. Los valores registrados a la vez pueden perderse.
+	 */
+	public void reiniciar() {
+		for (int i = 0; i < CUBETAS; i++) {
+			cubetas.set(i, 0);
+		}
+		total.reset();
+		suma.reset();
+		maximo.set(0);
+	}
+
+	/**
+	 * Los valores menores que 2 * SUBCUBETAS tienen cubeta propia; a partir de ahí
+	 * la cubeta es (exponente, primeros bits de la mantisa).
+	 */
+	private static int cubeta(long valor) {
+		if (valor < SUBCUBETAS) return (int) valor;
+		int exponente = 63 - Long.numberOfLeadingZeros(valor);
+		int mantisa = (int) (valor >>> (exponente - BITS_SUBCUBETA)) & (SUBCUBETAS - 1);
+		return (exponente - BITS_SUBCUBETA + 1) * SUBCUBETAS + mantisa;
+	}
+
+	private static long limiteSuperior(int cubeta) {
+		if (cubeta < 2 * SUBCUBETAS) return cubeta;
+		int exponente = cubeta / SUBCUBETAS + BITS_SUBCUBETA - 1;
+		int mantisa = cubeta % SUBCUBETAS;
+		return ((long) (SUBCUBETAS + mantisa + 1) << (exponente - BITS_SUBCUBETA)) - 1;
+	}
+}
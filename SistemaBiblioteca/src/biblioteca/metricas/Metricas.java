@@ -0,0 +1,152 @@
+package biblioteca.metricas;
+
+import biblioteca.enums.OperacionMedida;
+import biblioteca.enums.ResultadoOperacion;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Métricas de las operaciones de la biblioteca: un histograma de latencias y un
+ * contador por resultado para cada {@link OperacionMedida}. Se publican por JMX
+ * ({@link MetricasMXBean}) y, mientras haya una grabación de JFR activa, cada
+ * operación emite además un evento {@code biblioteca.Operacion}.
+ *
+ * Uso desde una operación:
+ * <pre>
+ * long inicio = metricas.iniciar();
+ * ...
+ * metricas.registrar(OperacionMedida.PRESTAR, ResultadoOperacion.REALIZADO, inicio);
+ * </pre>
+ * Con las métricas desactivadas {@code iniciar} no lee el reloj y {@code registrar}
+ * vuelve en la primera comparación, de modo que el coste es una lectura volátil.
+ * Se activan con {@code -Dbiblioteca.metricas=true}, con {@link #setActivas(boolean)}
+ * o en caliente por JMX.
+ */
+public class Metricas implements MetricasMXBean {
+
+	/** Propiedad del sistema que activa las métricas al arrancar */
+	public static final String PROPIEDAD_ACTIVAS = "biblioteca.metricas";
+
+	/** Valor de inicio que indica que la operación no se está midiendo */
+	private static final long SIN_MEDIR = Long.MIN_VALUE;
+
+	private static final OperacionMedida[] OPERACIONES = OperacionMedida.values();
+	private static final ResultadoOperacion[] RESULTADOS = ResultadoOperacion.values();
+
+	private volatile boolean activas = Boolean.getBoolean(PROPIEDAD_ACTIVAS);
+	private final HistogramaLatencia[] histogramas = new HistogramaLatencia[OPERACIONES.length];
+	private final LongAdder[][] contadores = new LongAdder[OPERACIONES.length][RESULTADOS.length];
+
+	public Metricas() {
+		for (int i = 0; i < OPERACIONES.length; i++) {
+			histogramas[i] = new HistogramaLatencia();
+			for (int j = 0; j < RESULTADOS.length; j++) {
+				contadores[i][j] = new LongAdder();
+			}
+		}
+	}
+
+	/**
+	 * Marca el comienzo de una operación.
+	 *
+	 * @return Instante de inicio que hay que pasar a {@link #registrar}
+	 */
+	public long iniciar() {
+		return activas ? System.nanoTime() : SIN_MEDIR;
+	}
+
+	/**
+	 * Registra el final de una operación: su latencia, su resultado y, si JFR
+	 * lo está grabando, el evento correspondiente.
+	 *
+	 * @param operacion Operación terminada
+	 * @param resultado Resultado de la operación
+	 * @param inicio    Valor devuelto por {@link #iniciar()} al empezarla
+	 */
+	public void registrar(OperacionMedida operacion, ResultadoOperacion resultado, long inicio) {
+		if (inicio == SIN_MEDIR) return;
+		long duracion = System.nanoTime() - inicio;
+		histogramas[operacion.ordinal()].registrar(duracion);
+		contadores[operacion.ordinal()][resultado.ordinal()].increment();
+
+		EventoOperacionJfr evento = new EventoOperacionJfr();
+		if (evento.isEnabled()) {
+			evento.operacion = operacion.name();
+			evento.resultado = resultado.name();
+			evento.duracion = duracion;
+			evento.commit();
+		}
+	}
+
+	/**
+	 * @param operacion Operación
+	 * @return Histograma de latencias de la operación
+	 */
+	public HistogramaLatencia getHistograma(OperacionMedida operacion) {
+		return histogramas[operacion.ordinal()];
+	}
+
+	/**
+	 * @param operacion Operación
+	 * @param resultado Resultado
+	 * @return Veces que la operación terminó con ese resultado
+	 */
+	public long getContador(OperacionMedida operacion, ResultadoOperacion resultado) {
+		return contadores[operacion.ordinal()][resultado.ordinal()].sum();
+	}
+
+	/**
+	 * Registra estas métricas en el servidor JMX de la plataforma con el nombre
+	 * {@code biblioteca:type=Metricas,name=<nombre>}.
+	 *
+	 * @param nombre Nombre que distingue esta biblioteca de otras en el mismo proceso
+	 * @throws JMException si el nombre no es válido o ya está registrado
+	 */
+	public void registrarEnJmx(String nombre) throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				new ObjectName("biblioteca:type=Metricas,name=" + ObjectName.quote(nombre)));
+	}
+
+	@Override
+	public boolean isActivas() {
+		return activas;
+	}
+
+	@Override
+	public void setActivas(boolean activas) {
+		this.activas = activas;
+	}
+
+	@Override
+	public List<ResumenOperacion> getOperaciones() {
+		List<ResumenOperacion> resumenes = new ArrayList<>();
+		for (OperacionMedida operacion : OPERACIONES) {
+			HistogramaLatencia h = histogramas[operacion.ordinal()];
+			if (h.getTotal() == 0) continue;
+			long realizadas = getContador(operacion, ResultadoOperacion.REALIZADO);
+			long errores = getContador(operacion, ResultadoOperacion.ERROR);
+			long rechazadas = 0;
+			for (ResultadoOperacion resultado : RESULTADOS) {
+				rechazadas += getContador(operacion, resultado);
+			}
+			rechazadas -= realizadas + errores;
+			resumenes.add(new ResumenOperacion(operacion.name(), realizadas, rechazadas, errores,
+					h.percentil(50) / 1e3, h.percentil(99) / 1e3, h.percentil(99.9) / 1e3, h.getMaximo() / 1e3));
+		}
+		return resumenes;
+	}
+
+	@Override
+	public void reiniciar() {
+		for (int i = 0; i < OPERACIONES.length; i++) {
+			histogramas[i].reiniciar();
+			for (LongAdder contador : contadores[i]) {
+				contador.reset();
+			}
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package biblioteca.metricas;
+
+import java.util.List;
+
+/**
+ * Interfaz de gestión JMX de las métricas de la biblioteca. Con jconsole o
+ * cualquier cliente JMX se pueden consultar los resúmenes por operación y
+ * activar o desactivar la medición en caliente.
+ */
+public interface MetricasMXBean {
+
+	/**
+	 * @return true si se están registrando métricas
+	 */
+	boolean isActivas();
+
+	/**
+	 * @param activas true para empezar a registrar métricas, false para dejar de hacerlo
+	 */
+	void setActivas(boolean activas);
+
+	/**
+	 * @return Resumen de cada operación que se ha ejecutado al menos una vez
+	 */
+	List<ResumenOperacion> getOperaciones();
+
+	/**
+	 * Pone a cero contadores e histogramas.
+	 */
+	void reiniciar();
+}
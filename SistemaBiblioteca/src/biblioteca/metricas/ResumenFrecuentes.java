@@ -0,0 +1,182 @@
+package biblioteca.metricas;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resumen de los elementos más frecuentes de un flujo con memoria fija (algoritmo
+ * Space-Saving).
+ *
+ * Vigila como mucho {@code capacidad} claves. Una clave nueva con el resumen lleno
+ * ocupa el sitio de la de menor cuenta y hereda esa cuenta como error, así que las
+ * cuentas nunca se quedan cortas y cualquier clave con más apariciones que la menor
+ * cuenta vigilada está en el resumen. Las claves se agrupan en cubetas por cuenta,
+ * en una lista ordenada de menor a mayor: sumar una aparición mueve la clave a la
+ * cubeta contigua en O(1) y listar las n mayores cuesta O(n).
+ *
+ * No es seguro para uso concurrente: quien lo usa lo protege.
+ */
+final class ResumenFrecuentes {
+
+	/** Claves con la misma cuenta */
+	private static final class Cubeta {
+		final long cuenta;
+		Nodo primero;
+		Cubeta anterior;
+		Cubeta siguiente;
+
+		Cubeta(long cuenta) {
+			this.cuenta = cuenta;
+		}
+	}
+
+	private static final class Nodo {
+		String clave;
+		long error;
+		Cubeta cubeta;
+		Nodo anterior;
+		Nodo siguiente;
+	}
+
+	private final int capacidad;
+	private final Map<String, Nodo> nodos;
+
+	/** Cubetas de menor y de mayor cuenta */
+	private Cubeta minima;
+	private Cubeta maxima;
+
+	ResumenFrecuentes(int capacidad) {
+		this.capacidad = capacidad;
+		this.nodos = new HashMap<>(capacidad * 4 / 3 + 1);
+	}
+
+	/**
+	 * Suma apariciones a una clave.
+	 */
+	void registrar(String clave, long veces) {
+		Nodo nodo = nodos.get(clave);
+		if (nodo != null) {
+			subir(nodo, nodo.cubeta.cuenta + veces);
+			return;
+		}
+		if (nodos.size() < capacidad) {
+			nodo = new Nodo();
+			nodo.clave = clave;
+			nodos.put(clave, nodo);
+			colocar(nodo, veces, null);
+			return;
+		}
+		// Resumen lleno: la clave nueva sustituye a una de las de menor cuenta
+		nodo = minima.primero;
+		long cuentaMinima = minima.cuenta;
+		nodos.remove(nodo.clave);
+		nodo.clave = clave;
+		nodo.error = cuentaMinima;
+		nodos.put(clave, nodo);
+		subir(nodo, cuentaMinima + veces);
+	}
+
+	/**
+	 * @return Las n claves de mayor cuenta, de mayor a menor
+	 */
+	List<Frecuente> mayores(int n) {
+		List<Frecuente> lista = new ArrayList<>(Math.min(n, nodos.size()));
+		for (Cubeta c = maxima; c != null && lista.size() < n; c = c.anterior) {
+			for (Nodo nodo = c.primero; nodo != null && lista.size() < n; nodo = nodo.siguiente) {
+				lista.add(new Frecuente(nodo.clave, c.cuenta, nodo.error));
+			}
+		}
+		return lista;
+	}
+
+	/**
+	 * Suma a cada clave vigilada, en el mapa, su cuenta y su error menos la cota
+	 * indicada: {cuenta, error}.
+	 */
+	void acumular(Map<String, long[]> sumas, long cota) {
+		for (Cubeta c = maxima; c != null; c = c.anterior) {
+			for (Nodo nodo = c.primero; nodo != null; nodo = nodo.siguiente) {
+				long[] suma = sumas.computeIfAbsent(nodo.clave, k -> new long[2]);
+				suma[0] += c.cuenta - cota;
+				suma[1] += nodo.error - cota;
+			}
+		}
+	}
+
+	/**
+	 * @return Cuenta de una clave vigilada, o -1 si no lo está
+	 */
+	long cuenta(String clave) {
+		Nodo nodo = nodos.get(clave);
+		return nodo == null ? -1 : nodo.cubeta.cuenta;
+	}
+
+	/**
+	 * @return Cota superior de la cuenta de cualquier clave no vigilada: la menor
+	 *         cuenta si el resumen está lleno, o 0 si aún no lo está
+	 */
+	long cotaNoVigiladas() {
+		return nodos.size() < capacidad || minima == null ? 0 : minima.cuenta;
+	}
+
+	int size() {
+		return nodos.size();
+	}
+
+	void vaciar() {
+		nodos.clear();
+		minima = null;
+		maxima = null;
+	}
+
+	/**
+	 * Mueve una clave a la cubeta de su nueva cuenta, mayor que la actual.
+	 */
+	private void subir(Nodo nodo, long cuenta) {
+		Cubeta desde = nodo.cubeta;
+		if (nodo.anterior != null) {
+			nodo.anterior.siguiente = nodo.siguiente;
+		} else {
+			desde.primero = nodo.siguiente;
+		}
+		if (nodo.siguiente != null) nodo.siguiente.anterior = nodo.anterior;
+
+		Cubeta previa = desde;
+		if (desde.primero == null) {
+			// Cubeta vacía: se quita de la lista
+			previa = desde.anterior;
+			if (previa != null) previa.siguiente = desde.siguiente; else minima = desde.siguiente;
+			if (desde.siguiente != null) desde.siguiente.anterior = previa; else maxima = previa;
+		}
+		colocar(nodo, cuenta, previa);
+	}
+
+	/**
+	 * Añade el nodo a la cubeta de la cuenta indicada, creándola si no existe. La
+	 * búsqueda empieza tras {@code previa} (o en la de menor cuenta si es null).
+	 */
+	private void colocar(Nodo nodo, long cuenta, Cubeta previa) {
+		Cubeta actual = previa == null ? minima : previa.siguiente;
+		while (actual != null && actual.cuenta < cuenta) {
+			previa = actual;
+			actual = actual.siguiente;
+		}
+		Cubeta destino;
+		if (actual != null && actual.cuenta == cuenta) {
+			destino = actual;
+		} else {
+			destino = new Cubeta(cuenta);
+			destino.anterior = previa;
+			destino.siguiente = actual;
+			if (previa != null) previa.siguiente = destino; else minima = destino;
+			if (actual != null) actual.anterior = destino; else maxima = destino;
+		}
+		nodo.cubeta = destino;
+		nodo.anterior = null;
+		nodo.siguiente = destino.primero;
+		if (destino.primero != null) destino.primero.anterior = nodo;
+		destino.primero = nodo;
+	}
+}
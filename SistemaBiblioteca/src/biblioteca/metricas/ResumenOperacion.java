@@ -0,0 +1,70 @@
+package biblioteca.metricas;
+
+import java.util.Locale;
+
+/**
+ * Resumen de las métricas de una operación en un instante: contadores por
+ * resultado y percentiles de latencia en microsegundos. Es el tipo que
+ * {@link MetricasMXBean} publica por JMX.
+ */
+public class ResumenOperacion {
+	private final String operacion;
+	private final long realizadas;
+	private final long rechazadas;
+	private final long errores;
+	private final double p50Micros;
+	private final double p99Micros;
+	private final double p999Micros;
+	private final double maximoMicros;
+
+	public ResumenOperacion(String operacion, long realizadas, long rechazadas, long errores,
+			double p50Micros, double p99Micros, double p999Micros, double maximoMicros) {
+		this.operacion = operacion;
+		this.realizadas = realizadas;
+		this.rechazadas = rechazadas;
+		this.errores = errores;
+		this.p50Micros = p50Micros;
+		this.p99Micros = p99Micros;
+		this.p999Micros = p999Micros;
+		this.maximoMicros = maximoMicros;
+	}
+
+	public String getOperacion() {
+		return operacion;
+	}
+
+	public long getRealizadas() {
+		return realizadas;
+	}
+
+	/** @return Operaciones rechazadas (recurso no disponible, no prestado, datos no válidos...) */
+	public long getRechazadas() {
+		return rechazadas;
+	}
+
+	public long getErrores() {
+		return errores;
+	}
+
+	public double getP50Micros() {
+		return p50Micros;
+	}
+
+	public double getP99Micros() {
+		return p99Micros;
+	}
+
+	public double getP999Micros() {
+		return p999Micros;
+	}
+
+	public double getMaximoMicros() {
+		return maximoMicros;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.ROOT, "%-20s ok=%d rechazadas=%d errores=%d p50=%.1fus p99=%.1fus p999=%.1fus max=%.1fus",
+				operacion, realizadas, rechazadas, errores, p50Micros, p99Micros, p999Micros, maximoMicros);
+	}
+}
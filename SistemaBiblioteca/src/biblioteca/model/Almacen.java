@@ -0,0 +1,73 @@
+package biblioteca.model;
+
+import java.util.Collection;
+
+/**
+ * Almacén de los recursos o los usuarios de la biblioteca, indexados por su ID.
+ *
+ * {@link BibliotecaManager} solo accede a sus datos a través de esta interfaz, de
+ * modo que la representación en memoria se puede cambiar sin tocar la lógica de
+ * préstamo: un mapa de objetos ({@link AlmacenMapa}) o columnas compactas con
+ * vistas ligeras ({@link AlmacenRecursosCompacto}, {@link AlmacenUsuariosCompacto}).
+ * Las implementaciones son seguras para uso concurrente.
+ *
+ * Cada elemento recibe al darse de alta una clave entera densa (0, 1, 2... por
+ * orden de alta) que no cambia aunque se reemplace; los índices que necesitan
+ * enteros en lugar de IDs (p. ej. los mapas de bits por estado) usan esa clave.
+ *
+ * @param <T> Tipo de los elementos guardados
+ */
+public interface Almacen<T> {
+
+	/**
+	 * @param id ID del elemento
+	 * @return El elemento, o null si no existe
+	 */
+	T get(String id);
+
+	/**
+	 * Añade un elemento si no hay otro con el mismo ID.
+	 *
+	 * @return true si se añadió
+	 */
+	boolean agregar(T elemento);
+
+	/**
+	 * Guarda un elemento, reemplazando al que tuviera el mismo ID.
+	 *
+	 * @return Una copia del elemento reemplazado, o null si no había ninguno
+	 */
+	T poner(T elemento);
+
+	/**
+	 * Devuelve el elemento tal como está guardado en el almacén. Los almacenes que
+	 * copian los datos al guardarlos lo buscan por su ID; el resto devuelve el
+	 * mismo objeto.
+	 *
+	 * @param elemento Elemento a resolver
+	 * @return El elemento guardado con ese ID, o null si el almacén no lo tiene
+	 */
+	T resolver(T elemento);
+
+	/**
+	 * @param elemento Elemento guardado (o con el mismo ID que uno guardado)
+	 * @return Clave densa del elemento, o -1 si el almacén no lo tiene
+	 */
+	int clave(T elemento);
+
+	/**
+	 * @param clave Clave densa
+	 * @return El elemento con esa clave, o null si no hay ninguno
+	 */
+	T porClave(int clave);
+
+	/**
+	 * @return Todos los elementos por orden de clave, en una colección de solo lectura que refleja el almacén
+	 */
+	Collection<T> valores();
+
+	/**
+	 * @return Número de elementos guardados
+	 */
+	int tamano();
+}
@@ -0,0 +1,141 @@
+package biblioteca.model;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Almacén que guarda los propios objetos en un mapa concurrente por ID, junto con
+ * su clave densa, y en arrays por trozos indexados por esa clave.
+ * Es el almacén por defecto: acceso directo a los objetos a cambio de un objeto
+ * (más sus cadenas y la entrada del mapa) por cada elemento.
+ *
+ * Las altas se serializan con el monitor del almacén; las consultas no bloquean.
+ *
+ * @param <T> Tipo de los elementos guardados
+ */
+public class AlmacenMapa<T> implements Almacen<T> {
+
+	/** Elementos por trozo */
+	private static final int BITS_TROZO = 14;
+	private static final int MASCARA_TROZO = (1 << BITS_TROZO) - 1;
+
+	/** Elemento guardado y su clave densa */
+	private static final class Entrada<T> {
+		final T elemento;
+		final int clave;
+
+		Entrada(T elemento, int clave) {
+			this.elemento = elemento;
+			this.clave = clave;
+		}
+	}
+
+	/** ID -> entrada; una clave se publica aquí después de guardar su elemento en los trozos */
+	private final Map<String, Entrada<T>> mapa = new ConcurrentHashMap<>();
+	private final Function<T, String> id;
+
+	private volatile Object[][] elementos = new Object[0][];
+	private volatile int tamano;
+
+	/**
+	 * @param id Obtiene el ID de un elemento (p. ej. {@code Usuario::getId})
+	 */
+	public AlmacenMapa(Function<T, String> id) {
+		this.id = id;
+	}
+
+	@Override
+	public T get(String id) {
+		Entrada<T> entrada = mapa.get(id);
+		return entrada == null ? null : entrada.elemento;
+	}
+
+	@Override
+	public synchronized boolean agregar(T elemento) {
+		String idElemento = id.apply(elemento);
+		if (mapa.containsKey(idElemento)) return false;
+		int clave = tamano;
+		Object[][] actuales = elementos;
+		if (clave >>> BITS_TROZO == actuales.length) {
+			actuales = Arrays.copyOf(actuales, actuales.length + 1);
+			actuales[actuales.length - 1] = new Object[1 << BITS_TROZO];
+			elementos = actuales;
+		}
+		actuales[clave >>> BITS_TROZO][clave & MASCARA_TROZO] = elemento;
+		mapa.put(idElemento, new Entrada<>(elemento, clave));
+		tamano = clave + 1;
+		return true;
+	}
+
+	@Override
+	public synchronized T poner(T elemento) {
+		String idElemento = id.apply(elemento);
+		Entrada<T> anterior = mapa.get(idElemento);
+		if (anterior == null) {
+			agregar(elemento);
+			return null;
+		}
+		int clave = anterior.clave;
+		elementos[clave >>> BITS_TROZO][clave & MASCARA_TROZO] = elemento;
+		mapa.put(idElemento, new Entrada<>(elemento, clave));
+		return anterior.elemento;
+	}
+
+	@Override
+	public T resolver(T elemento) {
+		return elemento;
+	}
+
+	@Override
+	public int clave(T elemento) {
+		Entrada<T> entrada = mapa.get(id.apply(elemento));
+		return entrada == null ? -1 : entrada.clave;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T porClave(int clave) {
+		if (clave < 0 || clave >= tamano) return null;
+		return (T) elementos[clave >>> BITS_TROZO][clave & MASCARA_TROZO];
+	}
+
+	@Override
+	public Collection<T> valores() {
+		return new AbstractCollection<T>() {
+			@Override
+			public Iterator<T> iterator() {
+				int total = tamano;
+				return new Iterator<T>() {
+					private int clave;
+
+					@Override
+					public boolean hasNext() {
+						return clave < total;
+					}
+
+					@Override
+					public T next() {
+						if (clave >= total) throw new NoSuchElementException();
+						return porClave(clave++);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return tamano;
+			}
+		};
+	}
+
+	@Override
+	public int tamano() {
+		return tamano;
+	}
+}
@@ -0,0 +1,309 @@
+package biblioteca.model;
+
+import biblioteca.enums.EstadoRecurso;
+import biblioteca.enums.TipoRecurso;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Base de los almacenes que guardan los recursos en columnas indexadas por una
+ * clave entera densa (0, 1, 2... por orden de alta) en lugar de como objetos.
+ *
+ * Las subclases deciden dónde viven las columnas; esta clase da las vistas ligeras
+ * que se devuelven al consultar (un {@link Libro}, {@link Revista} o {@link DVD}
+ * que lee las columnas al usarlo) y el orden de las altas: primero se escriben las
+ * columnas de la clave nueva y después se publica su ID, de modo que quien encuentra
+ * un ID ya ve sus datos. Las altas se serializan con el monitor del almacén; las
+ * consultas no bloquean.
+ */
+abstract class AlmacenRecursosColumnas implements Almacen<RecursoBiblioteca> {
+
+	private static final TipoRecurso[] TIPOS = TipoRecurso.values();
+	static final EstadoRecurso[] ESTADOS = EstadoRecurso.values();
+
+	/**
+	 * @return Clave del ID, o -1 si no está en el almacén
+	 */
+	abstract int buscarClave(String id);
+
+	/**
+	 * Escribe los datos del recurso en las columnas de la clave (nueva o existente).
+	 * Se llama con el monitor del almacén tomado.
+	 */
+	abstract void escribir(int clave, RecursoBiblioteca recurso);
+
+	/**
+	 * Hace visible la clave recién escrita para su ID. Se llama con el monitor tomado.
+	 */
+	abstract void publicar(int clave, String id);
+
+	abstract String id(int clave);
+
+	abstract int tipo(int clave);
+
+	abstract String titulo(int clave);
+
+	abstract String autor(int clave);
+
+	/** @return Número de edición (revistas) o duración en minutos (DVD) */
+	abstract int numero(int clave);
+
+	abstract EstadoRecurso estado(int clave);
+
+	abstract void establecerEstado(int clave, EstadoRecurso estado);
+
+	abstract boolean compararYEstablecerEstado(int clave, EstadoRecurso esperado, EstadoRecurso nuevo);
+
+	@Override
+	public RecursoBiblioteca get(String id) {
+		int clave = buscarClave(id);
+		return clave < 0 ? null : vista(clave, id);
+	}
+
+	@Override
+	public synchronized boolean agregar(RecursoBiblioteca recurso) {
+		if (buscarClave(recurso.getId()) >= 0) return false;
+		int clave = tamano();
+		escribir(clave, recurso);
+		publicar(clave, recurso.getId());
+		return true;
+	}
+
+	@Override
+	public synchronized RecursoBiblioteca poner(RecursoBiblioteca recurso) {
+		int clave = buscarClave(recurso.getId());
+		if (clave < 0) {
+			agregar(recurso);
+			return null;
+		}
+		RecursoBiblioteca anterior = copiar(clave, recurso.getId());
+		escribir(clave, recurso);
+		return anterior;
+	}
+
+	@Override
+	public RecursoBiblioteca resolver(RecursoBiblioteca recurso) {
+		if (recurso instanceof Vista && ((Vista) recurso).almacen() == this) return recurso;
+		return get(recurso.getId());
+	}
+
+	@Override
+	public int clave(RecursoBiblioteca recurso) {
+		if (recurso instanceof Vista && ((Vista) recurso).almacen() == this) return ((Vista) recurso).clave();
+		return buscarClave(recurso.getId());
+	}
+
+	@Override
+	public RecursoBiblioteca porClave(int clave) {
+		return clave < 0 || clave >= tamano() ? null : vista(clave, id(clave));
+	}
+
+	@Override
+	public Collection<RecursoBiblioteca> valores() {
+		return new AbstractCollection<RecursoBiblioteca>() {
+			@Override
+			public Iterator<RecursoBiblioteca> iterator() {
+				int total = tamano();
+				return new Iterator<RecursoBiblioteca>() {
+					private int clave;
+
+					@Override
+					public boolean hasNext() {
+						return clave < total;
+					}
+
+					@Override
+					public RecursoBiblioteca next() {
+						if (clave >= total) throw new NoSuchElementException();
+						int actual = clave++;
+						return vista(actual, id(actual));
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return tamano();
+			}
+		};
+	}
+
+	/**
+	 * @return Un objeto independiente con los datos actuales de la clave
+	 */
+	private RecursoBiblioteca copiar(int clave, String id) {
+		RecursoBiblioteca copia;
+		switch (TIPOS[tipo(clave)]) {
+			case LIBRO:
+				copia = new Libro(id, titulo(clave), autor(clave));
+				break;
+			case REVISTA:
+				copia = new Revista(id, titulo(clave), numero(clave));
+				break;
+			default:
+				copia = new DVD(id, titulo(clave), numero(clave));
+		}
+		copia.setEstado(estado(clave));
+		return copia;
+	}
+
+	private RecursoBiblioteca vista(int clave, String id) {
+		switch (TIPOS[tipo(clave)]) {
+			case LIBRO:
+				return new VistaLibro(this, clave, id);
+			case REVISTA:
+				return new VistaRevista(this, clave, id);
+			default:
+				return new VistaDVD(this, clave, id);
+		}
+	}
+
+	// ---------------------------------------------------------------- vistas
+
+	/** Vista de un recurso guardado en un almacén por columnas */
+	private interface Vista {
+		AlmacenRecursosColumnas almacen();
+
+		int clave();
+	}
+
+	private static final class VistaLibro extends Libro implements Vista {
+		private final AlmacenRecursosColumnas almacen;
+		private final int clave;
+
+		VistaLibro(AlmacenRecursosColumnas almacen, int clave, String id) {
+			super(id, null, null);
+			this.almacen = almacen;
+			this.clave = clave;
+		}
+
+		@Override
+		public AlmacenRecursosColumnas almacen() {
+			return almacen;
+		}
+
+		@Override
+		public int clave() {
+			return clave;
+		}
+
+		@Override
+		public String getTitulo() {
+			return almacen.titulo(clave);
+		}
+
+		@Override
+		public String getAutor() {
+			return almacen.autor(clave);
+		}
+
+		@Override
+		public EstadoRecurso getEstado() {
+			return almacen.estado(clave);
+		}
+
+		@Override
+		public void setEstado(EstadoRecurso estado) {
+			almacen.establecerEstado(clave, estado);
+		}
+
+		@Override
+		public boolean compararYEstablecerEstado(EstadoRecurso esperado, EstadoRecurso nuevo) {
+			return almacen.compararYEstablecerEstado(clave, esperado, nuevo);
+		}
+	}
+
+	private static final class VistaRevista extends Revista implements Vista {
+		private final AlmacenRecursosColumnas almacen;
+		private final int clave;
+
+		VistaRevista(AlmacenRecursosColumnas almacen, int clave, String id) {
+			super(id, null, 0);
+			this.almacen = almacen;
+			this.clave = clave;
+		}
+
+		@Override
+		public AlmacenRecursosColumnas almacen() {
+			return almacen;
+		}
+
+		@Override
+		public int clave() {
+			return clave;
+		}
+
+		@Override
+		public String getTitulo() {
+			return almacen.titulo(clave);
+		}
+
+		@Override
+		public int getNumeroEdicion() {
+			return almacen.numero(clave);
+		}
+
+		@Override
+		public EstadoRecurso getEstado() {
+			return almacen.estado(clave);
+		}
+
+		@Override
+		public void setEstado(EstadoRecurso estado) {
+			almacen.establecerEstado(clave, estado);
+		}
+
+		@Override
+		public boolean compararYEstablecerEstado(EstadoRecurso esperado, EstadoRecurso nuevo) {
+			return almacen.compararYEstablecerEstado(clave, esperado, nuevo);
+		}
+	}
+
+	private static final class VistaDVD extends DVD implements Vista {
+		private final AlmacenRecursosColumnas almacen;
+		private final int clave;
+
+		VistaDVD(AlmacenRecursosColumnas almacen, int clave, String id) {
+			super(id, null, 0);
+			this.almacen = almacen;
+			this.clave = clave;
+		}
+
+		@Override
+		public AlmacenRecursosColumnas almacen() {
+			return almacen;
+		}
+
+		@Override
+		public int clave() {
+			return clave;
+		}
+
+		@Override
+		public String getTitulo() {
+			return almacen.titulo(clave);
+		}
+
+		@Override
+		public int getDuracionMinutos() {
+			return almacen.numero(clave);
+		}
+
+		@Override
+		public EstadoRecurso getEstado() {
+			return almacen.estado(clave);
+		}
+
+		@Override
+		public void setEstado(EstadoRecurso estado) {
+			almacen.establecerEstado(clave, estado);
+		}
+
+		@Override
+		public boolean compararYEstablecerEstado(EstadoRecurso esperado, EstadoRecurso nuevo) {
+			return almacen.compararYEstablecerEstado(clave, esperado, nuevo);
+		}
+	}
+}
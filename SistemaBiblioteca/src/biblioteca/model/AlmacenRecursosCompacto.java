@@ -0,0 +1,132 @@
+package biblioteca.model;
+
+import biblioteca.enums.EstadoRecurso;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Almacén de recursos en columnas, pensado para catálogos de decenas de millones
+ * de recursos.
+ *
+ * En lugar de un objeto por recurso con sus propias cadenas, cada ID externo se
+ * traduce a una clave entera densa ({@link TablaCadenas}) y los datos del recurso
+ * son posiciones de arrays por trozos: tipo y estado en un byte cada uno, el título
+ * y el autor como códigos de una tabla de cadenas compartida (los autores y títulos
+ * repetidos se guardan una sola vez) y la edición o la duración como un entero.
+ *
+ * {@link #get(String)} devuelve una vista ligera (un {@link Libro}, {@link Revista}
+ * o {@link DVD}) que lee las columnas al consultarla; los cambios de estado de la
+ * vista son operaciones atómicas sobre el byte de estado, así que dos vistas del
+ * mismo recurso ven siempre el mismo estado. Las vistas no se guardan: cada consulta
+ * crea una nueva y el almacén solo retiene las columnas.
+ */
+public class AlmacenRecursosCompacto extends AlmacenRecursosColumnas {
+
+	/** Recursos por trozo de columnas */
+	private static final int BITS_TROZO = 14;
+	private static final int MASCARA_TROZO = (1 << BITS_TROZO) - 1;
+
+	/** Acceso atómico a los bytes de estado */
+	private static final VarHandle ESTADO = MethodHandles.arrayElementVarHandle(byte[].class);
+
+	/** Columnas de 2^BITS_TROZO recursos consecutivos */
+	private static final class Trozo {
+		final byte[] tipos = new byte[1 << BITS_TROZO];
+		final byte[] estados = new byte[1 << BITS_TROZO];
+		final int[] titulos = new int[1 << BITS_TROZO];
+		/** Código del autor (libros), número de edición (revistas) o duración (DVD) */
+		final int[] datos = new int[1 << BITS_TROZO];
+	}
+
+	/** ID externo -> clave densa (el código de la tabla) */
+	private final TablaCadenas ids = new TablaCadenas();
+
+	/** Títulos y autores sin repeticiones */
+	private final TablaCadenas textos = new TablaCadenas();
+
+	private volatile Trozo[] trozos = new Trozo[0];
+
+	@Override
+	public int tamano() {
+		return ids.tamano();
+	}
+
+	@Override
+	int buscarClave(String id) {
+		return ids.buscar(id);
+	}
+
+	@Override
+	void escribir(int clave, RecursoBiblioteca recurso) {
+		Trozo[] actuales = trozos;
+		if (clave >>> BITS_TROZO == actuales.length) {
+			actuales = Arrays.copyOf(actuales, actuales.length + 1);
+			actuales[actuales.length - 1] = new Trozo();
+			trozos = actuales;
+		}
+		Trozo trozo = actuales[clave >>> BITS_TROZO];
+		int i = clave & MASCARA_TROZO;
+		trozo.tipos[i] = (byte) recurso.getTipo().ordinal();
+		trozo.titulos[i] = textos.codigo(recurso.getTitulo());
+		if (recurso instanceof Libro) {
+			trozo.datos[i] = textos.codigo(((Libro) recurso).getAutor());
+		} else if (recurso instanceof Revista) {
+			trozo.datos[i] = ((Revista) recurso).getNumeroEdicion();
+		} else {
+			trozo.datos[i] = ((DVD) recurso).getDuracionMinutos();
+		}
+		ESTADO.setVolatile(trozo.estados, i, (byte) recurso.getEstado().ordinal());
+	}
+
+	@Override
+	void publicar(int clave, String id) {
+		// El código que asigna la tabla de IDs es la clave: ambos cuentan las altas
+		ids.codigo(id);
+	}
+
+	@Override
+	String id(int clave) {
+		return ids.cadena(clave);
+	}
+
+	@Override
+	int tipo(int clave) {
+		return trozo(clave).tipos[clave & MASCARA_TROZO];
+	}
+
+	@Override
+	String titulo(int clave) {
+		return textos.cadena(trozo(clave).titulos[clave & MASCARA_TROZO]);
+	}
+
+	@Override
+	String autor(int clave) {
+		return textos.cadena(trozo(clave).datos[clave & MASCARA_TROZO]);
+	}
+
+	@Override
+	int numero(int clave) {
+		return trozo(clave).datos[clave & MASCARA_TROZO];
+	}
+
+	@Override
+	EstadoRecurso estado(int clave) {
+		return ESTADOS[(byte) ESTADO.getVolatile(trozo(clave).estados, clave & MASCARA_TROZO)];
+	}
+
+	@Override
+	void establecerEstado(int clave, EstadoRecurso estado) {
+		ESTADO.setVolatile(trozo(clave).estados, clave & MASCARA_TROZO, (byte) estado.ordinal());
+	}
+
+	@Override
+	boolean compararYEstablecerEstado(int clave, EstadoRecurso esperado, EstadoRecurso nuevo) {
+		return ESTADO.compareAndSet(trozo(clave).estados, clave & MASCARA_TROZO,
+				(byte) esperado.ordinal(), (byte) nuevo.ordinal());
+	}
+
+	private Trozo trozo(int clave) {
+		return trozos[clave >>> BITS_TROZO];
+	}
+}
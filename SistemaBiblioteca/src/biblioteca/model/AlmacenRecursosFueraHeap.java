@@ -0,0 +1,336 @@
+package biblioteca.model;
+
+import biblioteca.enums.EstadoRecurso;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Almacén de recursos fuera del heap, para catálogos que no caben en él.
+ *
+ * Cada recurso es un registro de ancho fijo en buffers directos o, si se indica un
+ * directorio, en archivos mapeados en memoria (el sistema puede entonces llevar a
+ * disco las páginas que no se usan):
+ * <pre>
+ * 0  int estado    EstadoRecurso (ordinal), cambiado con CAS
+ * 4  int tipo      TipoRecurso (ordinal)
+ * 8  int id        posición del ID en el área de texto
+ * 12 int titulo    posición del título en el área de texto
+ * 16 int autor     posición del autor (libros), o -1
+ * 20 int numero    número de edición (revistas) o duración en minutos (DVD)
+ * </pre>
+ * Las cadenas van en un área de texto aparte (longitud de dos bytes y UTF-8) y la
+ * tabla hash de ID a clave también está fuera del heap. En el heap solo quedan los
+ * objetos de los buffers y un mapa con los autores distintos, que se guardan una
+ * sola vez. El recolector no recorre nada por recurso: las pausas y la generación
+ * vieja ya no crecen con el catálogo.
+ *
+ * Los cambios de estado de {@code prestar}/{@code devolver} son CAS sobre el entero
+ * de estado del registro; las consultas devuelven vistas ligeras igual que
+ * {@link AlmacenRecursosCompacto}. Reemplazar un recurso ya guardado (al cargar un
+ * archivo) escribe su título de nuevo y el anterior queda sin uso en el área de texto.
+ */
+public class AlmacenRecursosFueraHeap extends AlmacenRecursosColumnas {
+
+	private static final int BYTES_REGISTRO = 24;
+	private static final int ESTADO = 0;
+	private static final int TIPO = 4;
+	private static final int ID = 8;
+	private static final int TITULO = 12;
+	private static final int AUTOR = 16;
+	private static final int NUMERO = 20;
+
+	/** Registros por segmento (1,5 MiB) */
+	private static final int BITS_SEGMENTO = 16;
+	private static final int MASCARA_SEGMENTO = (1 << BITS_SEGMENTO) - 1;
+
+	/** Bytes por segmento de texto (16 MiB); una posición es (segmento << 24) | desplazamiento */
+	private static final int BITS_TEXTO = 24;
+	private static final int BYTES_TEXTO = 1 << BITS_TEXTO;
+
+	/** Con 255 segmentos como máximo, -1 nunca es una posición válida */
+	private static final int MAXIMO_SEGMENTOS_TEXTO = 255;
+
+	/** Bytes como máximo de una cadena, por la longitud de dos bytes */
+	private static final int MAXIMO_BYTES_CADENA = 0xFFFF;
+
+	private static final VarHandle ENTERO = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+	private static final VarHandle LARGO = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+	/** Directorio de los archivos mapeados, o null para buffers directos */
+	private final Path directorio;
+
+	private volatile ByteBuffer[] registros = new ByteBuffer[0];
+	private volatile ByteBuffer[] textos = new ByteBuffer[0];
+
+	/** Tabla hash abierta de ranuras de 8 bytes: (hashCode << 32) | (clave + 1), o 0 si está libre */
+	private volatile ByteBuffer tabla;
+
+	private volatile int tamano;
+
+	/** Siguiente byte libre del último segmento de texto; solo lo usan las altas */
+	private int libreTexto = BYTES_TEXTO;
+
+	/** Posición de cada autor ya escrito, para no repetirlo; solo lo usan las altas */
+	private final Map<String, Integer> autores = new HashMap<>();
+
+	/**
+	 * Crea un almacén sobre buffers directos (limitados por -XX:MaxDirectMemorySize).
+	 */
+	public AlmacenRecursosFueraHeap() {
+		this(null);
+	}
+
+	/**
+	 * Crea un almacén sobre archivos mapeados en memoria dentro del directorio.
+	 * Los archivos se borran en cuanto se mapean: solo sirven de respaldo de la memoria.
+	 *
+	 * @param directorio Directorio para los archivos, o null para buffers directos
+	 */
+	public AlmacenRecursosFueraHeap(Path directorio) {
+		this.directorio = directorio;
+		this.tabla = nuevoSegmento(1024 * 8);
+	}
+
+	@Override
+	public int tamano() {
+		return tamano;
+	}
+
+	/**
+	 * @return Bytes reservados fuera del heap (registros, texto y tabla hash)
+	 */
+	public long getBytesReservados() {
+		long total = tabla.capacity();
+		for (ByteBuffer segmento : registros) total += segmento.capacity();
+		for (ByteBuffer segmento : textos) total += segmento.capacity();
+		return total;
+	}
+
+	@Override
+	int buscarClave(String id) {
+		int hash = id.hashCode();
+		ByteBuffer t = tabla;
+		int mascara = t.capacity() / 8 - 1;
+		for (int i = dispersar(hash) & mascara; ; i = (i + 1) & mascara) {
+			long ranura = (long) LARGO.getAcquire(t, i * 8);
+			if (ranura == 0) return -1;
+			int clave = (int) ranura - 1;
+			if ((int) (ranura >>> 32) == hash && iguales(registro(clave).getInt(desplazamiento(clave) + ID), id)) {
+				return clave;
+			}
+		}
+	}
+
+	@Override
+	void escribir(int clave, RecursoBiblioteca recurso) {
+		ByteBuffer[] actuales = registros;
+		if (clave >>> BITS_SEGMENTO == actuales.length) {
+			actuales = Arrays.copyOf(actuales, actuales.length + 1);
+			actuales[actuales.length - 1] = nuevoSegmento(BYTES_REGISTRO << BITS_SEGMENTO);
+			registros = actuales;
+		}
+		ByteBuffer registro = actuales[clave >>> BITS_SEGMENTO];
+		int base = desplazamiento(clave);
+		if (clave == tamano) {
+			// El ID solo se escribe en el alta: al reemplazar un recurso no cambia
+			registro.putInt(base + ID, escribirTexto(recurso.getId()));
+		}
+		registro.putInt(base + TIPO, recurso.getTipo().ordinal());
+		registro.putInt(base + TITULO, escribirTexto(recurso.getTitulo()));
+		if (recurso instanceof Libro) {
+			String autor = ((Libro) recurso).getAutor();
+			Integer posicion = autores.get(autor);
+			if (posicion == null) {
+				posicion = escribirTexto(autor);
+				autores.put(autor, posicion);
+			}
+			registro.putInt(base + AUTOR, posicion);
+			registro.putInt(base + NUMERO, 0);
+		} else {
+			registro.putInt(base + AUTOR, -1);
+			registro.putInt(base + NUMERO, recurso instanceof Revista
+					? ((Revista) recurso).getNumeroEdicion() : ((DVD) recurso).getDuracionMinutos());
+		}
+		ENTERO.setVolatile(registro, base + ESTADO, recurso.getEstado().ordinal());
+	}
+
+	@Override
+	void publicar(int clave, String id) {
+		ByteBuffer t = tabla;
+		if ((clave + 1) * 4L > (t.capacity() / 8) * 3L) {
+			t = ampliarTabla(t);
+		}
+		insertar(t, id.hashCode(), clave);
+		tamano = clave + 1;
+	}
+
+	@Override
+	String id(int clave) {
+		return leerTexto(registro(clave).getInt(desplazamiento(clave) + ID));
+	}
+
+	@Override
+	int tipo(int clave) {
+		return registro(clave).getInt(desplazamiento(clave) + TIPO);
+	}
+
+	@Override
+	String titulo(int clave) {
+		return leerTexto(registro(clave).getInt(desplazamiento(clave) + TITULO));
+	}
+
+	@Override
+	String autor(int clave) {
+		return leerTexto(registro(clave).getInt(desplazamiento(clave) + AUTOR));
+	}
+
+	@Override
+	int numero(int clave) {
+		return registro(clave).getInt(desplazamiento(clave) + NUMERO);
+	}
+
+	@Override
+	EstadoRecurso estado(int clave) {
+		return ESTADOS[(int) ENTERO.getVolatile(registro(clave), desplazamiento(clave) + ESTADO)];
+	}
+
+	@Override
+	void establecerEstado(int clave, EstadoRecurso estado) {
+		ENTERO.setVolatile(registro(clave), desplazamiento(clave) + ESTADO, estado.ordinal());
+	}
+
+	@Override
+	boolean compararYEstablecerEstado(int clave, EstadoRecurso esperado, EstadoRecurso nuevo) {
+		return ENTERO.compareAndSet(registro(clave), desplazamiento(clave) + ESTADO, esperado.ordinal(), nuevo.ordinal());
+	}
+
+	private ByteBuffer registro(int clave) {
+		return registros[clave >>> BITS_SEGMENTO];
+	}
+
+	private static int desplazamiento(int clave) {
+		return (clave & MASCARA_SEGMENTO) * BYTES_REGISTRO;
+	}
+
+	// ---------------------------------------------------------------- área de texto
+
+	/**
+	 * Copia la cadena al final del último segmento de texto, o a uno nuevo si no cabe.
+	 *
+	 * @return Posición de la cadena
+	 */
+	private int escribirTexto(String cadena) {
+		byte[] bytes = cadena.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > MAXIMO_BYTES_CADENA) {
+			throw new IllegalArgumentException("Cadena demasiado larga (" + bytes.length + " bytes)");
+		}
+		ByteBuffer[] actuales = textos;
+		if (libreTexto + 2 + bytes.length > BYTES_TEXTO) {
+			if (actuales.length == MAXIMO_SEGMENTOS_TEXTO) {
+				throw new IllegalStateException("El área de texto del almacén está llena");
+			}
+			actuales = Arrays.copyOf(actuales, actuales.length + 1);
+			actuales[actuales.length - 1] = nuevoSegmento(BYTES_TEXTO);
+			textos = actuales;
+			libreTexto = 0;
+		}
+		ByteBuffer segmento = actuales[actuales.length - 1];
+		int posicion = (actuales.length - 1) << BITS_TEXTO | libreTexto;
+		segmento.putShort(libreTexto, (short) bytes.length);
+		segmento.put(libreTexto + 2, bytes);
+		libreTexto += 2 + bytes.length;
+		return posicion;
+	}
+
+	private String leerTexto(int posicion) {
+		ByteBuffer segmento = textos[posicion >>> BITS_TEXTO];
+		int desplazamiento = posicion & (BYTES_TEXTO - 1);
+		byte[] bytes = new byte[segmento.getShort(desplazamiento) & 0xFFFF];
+		segmento.get(desplazamiento + 2, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Compara la cadena guardada con la buscada sin crear objetos si es ASCII
+	 * (en UTF-8 ocupa tantos bytes como caracteres solo si todos son ASCII).
+	 */
+	private boolean iguales(int posicion, String cadena) {
+		ByteBuffer segmento = textos[posicion >>> BITS_TEXTO];
+		int desplazamiento = posicion & (BYTES_TEXTO - 1);
+		int longitud = segmento.getShort(desplazamiento) & 0xFFFF;
+		int caracteres = cadena.length();
+		if (longitud < caracteres) return false;
+		if (longitud == caracteres) {
+			for (int i = 0; i < caracteres; i++) {
+				if (segmento.get(desplazamiento + 2 + i) != cadena.charAt(i)) return false;
+			}
+			return true;
+		}
+		return leerTexto(posicion).equals(cadena);
+	}
+
+	// ---------------------------------------------------------------- tabla hash
+
+	/**
+	 * Duplica la tabla hash. Los lectores siguen con la anterior hasta que ven la nueva.
+	 */
+	private ByteBuffer ampliarTabla(ByteBuffer anterior) {
+		ByteBuffer nueva = nuevoSegmento(anterior.capacity() * 2);
+		for (int i = 0; i < anterior.capacity(); i += 8) {
+			long ranura = anterior.getLong(i);
+			if (ranura != 0) insertar(nueva, (int) (ranura >>> 32), (int) ranura - 1);
+		}
+		tabla = nueva;
+		return nueva;
+	}
+
+	private static void insertar(ByteBuffer tabla, int hash, int clave) {
+		int mascara = tabla.capacity() / 8 - 1;
+		int i = dispersar(hash) & mascara;
+		while (tabla.getLong(i * 8) != 0) {
+			i = (i + 1) & mascara;
+		}
+		LARGO.setRelease(tabla, i * 8, (long) hash << 32 | (clave + 1L));
+	}
+
+	private static int dispersar(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Reserva un segmento a ceros: un buffer directo, o un archivo mapeado si hay directorio.
+	 */
+	private ByteBuffer nuevoSegmento(int bytes) {
+		if (directorio == null) {
+			return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+		}
+		try {
+			Path archivo = Files.createTempFile(directorio, "almacen", ".seg");
+			ByteBuffer segmento;
+			try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				segmento = canal.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+			}
+			// El mapeo sigue siendo válido sin el archivo (donde el sistema lo permite)
+			try {
+				Files.delete(archivo);
+			} catch (IOException e) {
+				archivo.toFile().deleteOnExit();
+			}
+			return segmento.order(ByteOrder.nativeOrder());
+		} catch (IOException e) {
+			throw new UncheckedIOException("No se pudo mapear un segmento del almacén", e);
+		}
+	}
+}
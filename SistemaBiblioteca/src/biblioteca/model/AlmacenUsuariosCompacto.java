@@ -0,0 +1,141 @@
+package biblioteca.model;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Almacén de usuarios en columnas: el ID se traduce a una clave entera densa y el
+ * nombre es un código de una tabla de cadenas sin repeticiones. {@link #get(String)}
+ * devuelve una vista ligera que lee el nombre al consultarlo.
+ *
+ * Las altas se serializan con el monitor del almacén; las consultas no bloquean.
+ */
+public class AlmacenUsuariosCompacto implements Almacen<Usuario> {
+
+	/** Usuarios por trozo de la columna de nombres */
+	private static final int BITS_TROZO = 14;
+	private static final int MASCARA_TROZO = (1 << BITS_TROZO) - 1;
+
+	/** ID externo -> clave densa */
+	private final TablaCadenas ids = new TablaCadenas();
+
+	private final TablaCadenas nombres = new TablaCadenas();
+
+	/** Código del nombre de cada clave, por trozos */
+	private volatile int[][] codigosNombre = new int[0][];
+
+	@Override
+	public Usuario get(String id) {
+		int clave = ids.buscar(id);
+		return clave < 0 ? null : new UsuarioCompacto(this, clave, id);
+	}
+
+	@Override
+	public synchronized boolean agregar(Usuario usuario) {
+		if (ids.buscar(usuario.getId()) >= 0) return false;
+		escribir(ids.tamano(), usuario);
+		// Publicar el ID es lo último: quien encuentre la clave ya ve su nombre
+		ids.codigo(usuario.getId());
+		return true;
+	}
+
+	@Override
+	public synchronized Usuario poner(Usuario usuario) {
+		int clave = ids.buscar(usuario.getId());
+		if (clave < 0) {
+			agregar(usuario);
+			return null;
+		}
+		Usuario anterior = new Usuario(usuario.getId(), nombre(clave));
+		escribir(clave, usuario);
+		return anterior;
+	}
+
+	@Override
+	public Usuario resolver(Usuario usuario) {
+		if (usuario instanceof UsuarioCompacto && ((UsuarioCompacto) usuario).almacen == this) return usuario;
+		return get(usuario.getId());
+	}
+
+	@Override
+	public int clave(Usuario usuario) {
+		if (usuario instanceof UsuarioCompacto && ((UsuarioCompacto) usuario).almacen == this) {
+			return ((UsuarioCompacto) usuario).clave;
+		}
+		return ids.buscar(usuario.getId());
+	}
+
+	@Override
+	public Usuario porClave(int clave) {
+		return clave < 0 || clave >= ids.tamano() ? null : new UsuarioCompacto(this, clave, ids.cadena(clave));
+	}
+
+	@Override
+	public Collection<Usuario> valores() {
+		return new AbstractCollection<Usuario>() {
+			@Override
+			public Iterator<Usuario> iterator() {
+				int total = ids.tamano();
+				return new Iterator<Usuario>() {
+					private int clave;
+
+					@Override
+					public boolean hasNext() {
+						return clave < total;
+					}
+
+					@Override
+					public Usuario next() {
+						if (clave >= total) throw new NoSuchElementException();
+						int actual = clave++;
+						return new UsuarioCompacto(AlmacenUsuariosCompacto.this, actual, ids.cadena(actual));
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return ids.tamano();
+			}
+		};
+	}
+
+	@Override
+	public int tamano() {
+		return ids.tamano();
+	}
+
+	private void escribir(int clave, Usuario usuario) {
+		int[][] actuales = codigosNombre;
+		if (clave >>> BITS_TROZO == actuales.length) {
+			actuales = Arrays.copyOf(actuales, actuales.length + 1);
+			actuales[actuales.length - 1] = new int[1 << BITS_TROZO];
+			codigosNombre = actuales;
+		}
+		actuales[clave >>> BITS_TROZO][clave & MASCARA_TROZO] = nombres.codigo(usuario.getNombre());
+	}
+
+	private String nombre(int clave) {
+		return nombres.cadena(codigosNombre[clave >>> BITS_TROZO][clave & MASCARA_TROZO]);
+	}
+
+	/** Vista de un usuario guardado en el almacén */
+	private static final class UsuarioCompacto extends Usuario {
+		private final AlmacenUsuariosCompacto almacen;
+		private final int clave;
+
+		UsuarioCompacto(AlmacenUsuariosCompacto almacen, int clave, String id) {
+			super(id, null);
+			this.almacen = almacen;
+			this.clave = clave;
+		}
+
+		@Override
+		public String getNombre() {
+			return almacen.nombre(clave);
+		}
+	}
+}
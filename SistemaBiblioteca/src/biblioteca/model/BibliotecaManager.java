@@ -1,152 +1,2126 @@
 package biblioteca.model;
 
 import biblioteca.enums.EstadoRecurso;
+import biblioteca.enums.OperacionMedida;
+import biblioteca.enums.OrdenRecursos;
+import biblioteca.enums.PoliticaSincronizacion;
+import biblioteca.enums.ResultadoOperacion;
+import biblioteca.enums.TipoRecurso;
+import biblioteca.enums.TipoMovimiento;
+import biblioteca.eventos.BusEventos;
+import biblioteca.eventos.Evento;
+import biblioteca.eventos.OyenteEventos;
+import biblioteca.indices.IndiceEstados;
+import biblioteca.indices.IndiceHistorial;
+import biblioteca.indices.IndiceOrden;
+import biblioteca.indices.IndiceTexto;
 import biblioteca.interfaces.Prestamista;
+import biblioteca.metricas.EstadisticasCirculacion;
+import biblioteca.metricas.Metricas;
+import biblioteca.persistencia.CargadorParalelo;
+import biblioteca.persistencia.Diario;
+import biblioteca.persistencia.ErrorCarga;
+import biblioteca.persistencia.Exportador;
+import biblioteca.persistencia.FormatoRegistro;
+import biblioteca.persistencia.DestinoInstantanea;
+import biblioteca.persistencia.GuardadoDiferido;
+import biblioteca.persistencia.HistorialSegmentado;
+import biblioteca.persistencia.InstantaneaBinaria;
+import biblioteca.persistencia.RegistroHistorial;
+import biblioteca.persistencia.ResultadoCarga;
+import biblioteca.replicacion.ClienteReplicacion;
+import biblioteca.replicacion.RegistroReplicacion;
+import biblioteca.replicacion.ServidorReplicacion;
 import java.io.*;
-import java.util.ArrayList;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Clase gestora de la biblioteca.
+ * Implementa la lógica de préstamo y devolución de recursos,
+ * así como el almacenamiento de recursos y usuarios.
+ * 
+ * Esta clase centraliza todas las operaciones principales de la biblioteca:
+ * - Gestión de usuarios (agregar, listar, guardar, cargar)
+ * - Gestión de recursos (agregar, obtener, guardar, cargar)
+ * - Préstamo y devolución de recursos
+ * - Gestión del historial de préstamos
+ * 
+ * Es segura para uso concurrente: los mapas son concurrentes y los cambios de
+ * estado de los recursos se hacen con operaciones atómicas (CAS), sin bloqueo global.
+ * 
+ * Las operaciones no escriben en consola: publican eventos ({@link Evento}) que
+ * reciben de forma asíncrona los oyentes suscritos. Sin oyentes no se construye
+ * ningún mensaje.
+ */ 
+public class BibliotecaManager implements Prestamista {
+	
+	// Colecciones para almacenar los datos principales
+	/** Recursos indexados por su ID */
+	private final Almacen<RecursoBiblioteca> recursos;
+	
+	/** Usuarios indexados por su ID */
+	private final Almacen<Usuario> usuarios;
+	
+	/** Historial cronológico de préstamos realizados; vacío con el historial persistente, que los guarda en disco */
+	private Queue<Prestamo> historial;
+	
+	/** Índices del historial por usuario, recurso y fecha, y préstamos abiertos */
+	private final IndiceHistorial indiceHistorial = new IndiceHistorial();
+	
+	/** Índice invertido para buscar recursos por título y autor */
+	private final IndiceTexto indiceTexto = new IndiceTexto();
+	
+	/** Mapas de bits de los recursos por estado y por tipo, para contar y filtrar sin recorrer el catálogo */
+	private final IndiceEstados indiceEstados = new IndiceEstados();
+	
+	/** Índices ordenados por ID y por título para el listado paginado; se crean en la primera consulta */
+	private final IndiceOrden ordenPorId = new IndiceOrden();
+	private final IndiceOrden ordenPorTitulo = new IndiceOrden();
+	
+	/** Recursos como máximo por página del listado */
+	public static final int MAXIMO_PAGINA = 1000;
+	
+	// Persistencia por diario de operaciones (opcional)
+	/** Diario de escritura anticipada; null si la persistencia por diario no está activa */
+	private volatile Diario diario;
+	
+	/** Guardado en segundo plano de lo que cambió; null si no está activo */
+	private volatile GuardadoDiferido guardadoDiferido;
+	
+	/** Archivos que se reescriben en cada punto de control o compactación */
+	private String archivoUsuarios;
+	private String archivoRecursos;
+	private String archivoPrestamos;
+	
+	/** Número de registros del diario tras el que se lanza un punto de control */
+	private long registrosPorPuntoControl;
+	
+	/** Evita lanzar varios puntos de control automáticos a la vez */
+	private final AtomicBoolean puntoControlEnCurso = new AtomicBoolean();
+	
+	/** Historial persistente en segmentos; null si solo se guarda en memoria */
+	private volatile HistorialSegmentado historialPersistente;
+	
+	/** Meses del historial persistente que siguen en segmentos: el actual y el anterior */
+	private static final int MESES_RECIENTES = 2;
+	
+	/** Primer día (desde la época) cuyo movimiento lanza el archivado del historial */
+	private volatile long diaProximoArchivado;
+	
+	/** Evita lanzar varios archivados del historial a la vez */
+	private final AtomicBoolean archivadoEnCurso = new AtomicBoolean();
+	
+	/** Movimientos que muestra el historial en consola */
+	private static final int MOVIMIENTOS_VISIBLES = 20;
+	
+	/** Eventos de dominio para los oyentes suscritos (p. ej. la consola) */
+	private final BusEventos eventos = new BusEventos();
+	
+	/** Latencias y contadores de las operaciones (desactivadas salvo que se pidan) */
+	private final Metricas metricas = new Metricas();
+	
+	/** Claves que vigila cada franja de las listas de más prestados y más activos */
+	private static final int CAPACIDAD_ESTADISTICAS = 100;
+	
+	/** Días de la ventana de préstamos recientes, contando el de hoy */
+	private static final int DIAS_RECIENTES = 7;
+	
+	/** Préstamos del trozo del historial en memoria que recalcula cada tarea */
+	private static final int PRESTAMOS_POR_PARTICION = 65536;
+	
+	/** Recuentos de circulación que se actualizan con cada préstamo y devolución */
+	private volatile EstadisticasCirculacion estadisticas = new EstadisticasCirculacion(CAPACIDAD_ESTADISTICAS, DIAS_RECIENTES);
+	
+	/** Listas de espera y retenciones de los recursos reservados */
+	private final GestorReservas reservas = new GestorReservas(
+			reserva -> { if (eventos.hayOyentes()) eventos.publicar(new Evento.ReservaDisponible(reserva)); },
+			reserva -> { if (eventos.hayOyentes()) eventos.publicar(new Evento.ReservaCaducada(reserva)); },
+			this::actualizarEstado);
+	
+	/** Avisos de vencimiento de los préstamos abiertos */
+	private final GestorVencimientos vencimientos = new GestorVencimientos(
+			prestamo -> { if (eventos.hayOyentes()) eventos.publicar(new Evento.PrestamoVencido(prestamo)); });
+	
+	/** Recursos que un lote mantiene bloqueados a la vez */
+	private static final int MAXIMO_BLOQUEADOS_LOTE = 256;
+	
+	/** Cerrojos que ordenan las transiciones de cada recurso con su préstamo y su registro en el diario, repartidos por ID */
+	private static final int CERROJOS = 4096;
+	private final Object[] cerrojos = new Object[CERROJOS];
+	
+	// Replicación por envío del registro de cambios (opcional)
+	/** Registro de cambios que se envía a las réplicas; null si no es primario */
+	private volatile RegistroReplicacion replicacion;
+	
+	/** Servidor al que se conectan las réplicas; null si no es primario */
+	private volatile ServidorReplicacion servidorReplicacion;
+	
+	/** Conexión con el primario; null si no es réplica */
+	private volatile ClienteReplicacion clienteReplicacion;
+	
+	/** Cambios que conserva el registro de replicación para las réplicas que se retrasan */
+	private static final int CAPACIDAD_REPLICACION = 1 << 18;
+	
+	/**
+	 * Constructor por defecto.
+	 * Inicializa las estructuras de datos vacías para recursos, usuarios e historial,
+	 * con el almacén que indique la propiedad {@code biblioteca.almacen}: {@code mapa}
+	 * (por defecto), {@code compacto} o {@code fuera-heap}. Con {@code fuera-heap} los
+	 * recursos van en buffers directos, o en archivos mapeados si se indica el
+	 * directorio {@code biblioteca.almacen.directorio}, y los usuarios en el almacén compacto.
+	 */
+	public BibliotecaManager() {
+		this(almacenRecursos(System.getProperty("biblioteca.almacen", "mapa")),
+				almacenUsuarios(System.getProperty("biblioteca.almacen", "mapa")));
+	}
+	
+	/**
+	 * Crea la biblioteca sobre los almacenes indicados, que deben estar vacíos.
+	 * 
+	 * @param recursos Almacén de recursos
+	 * @param usuarios Almacén de usuarios
+	 */
+	public BibliotecaManager(Almacen<RecursoBiblioteca> recursos, Almacen<Usuario> usuarios) {
+		this.recursos = recursos;
+		this.usuarios = usuarios;
+		this.historial = new ConcurrentLinkedQueue<>();
+		for (int i = 0; i < CERROJOS; i++) {
+			cerrojos[i] = new Object();
+		}
+	}
+	
+	private static Almacen<RecursoBiblioteca> almacenRecursos(String tipo) {
+		switch (tipo) {
+			case "compacto":
+				return new AlmacenRecursosCompacto();
+			case "fuera-heap":
+				String directorio = System.getProperty("biblioteca.almacen.directorio");
+				return new AlmacenRecursosFueraHeap(directorio == null ? null : Paths.get(directorio));
+			default:
+				return new AlmacenMapa<>(RecursoBiblioteca::getId);
+		}
+	}
+	
+	private static Almacen<Usuario> almacenUsuarios(String tipo) {
+		return tipo.equals("mapa") ? new AlmacenMapa<>(Usuario::getId) : new AlmacenUsuariosCompacto();
+	}
+	
+	/**
+	 * Agrega un nuevo usuario al sistema.
+	 * 
+	 * @param usuario El usuario a agregar
+	 * @return true si se agregó correctamente, false si ya existía un usuario con el mismo ID
+	 */
+	public boolean agregarUsuario(Usuario usuario) {
+		Diario d = diario;
+		RegistroReplicacion r = replicacion;
+		Diario.Entrada entrada = null;
+		// El alta se anota en el diario y se replica antes de que el usuario sea
+		// visible: ningún préstamo suyo puede llegar antes que ella. El cerrojo evita
+		// que dos altas del mismo ID anoten las dos.
+		synchronized (cerrojos[indiceCerrojo(usuario.getId())]) {
+			comprobarDiario(d);
+			if (usuarios.get(usuario.getId()) != null) return false;
+			if (d != null || r != null) {
+				String linea = FormatoRegistro.unir("U", usuario.getId(), usuario.getNombre());
+				if (d != null) entrada = d.registrar(linea);
+				if (r != null) r.anexar(linea);
+			}
+			if (!usuarios.agregar(usuario)) return false;
+		}
+		if (d != null) esperarDiario(d, entrada);
+		GuardadoDiferido g = guardadoDiferido;
+		if (g != null) g.marcarUsuario(usuario.getId());
+		return true;
+	}
+	
+	/**
+	 * Agrega un nuevo recurso a la biblioteca.
+	 * 
+	 * @param recurso El recurso a agregar
+	 * @return true si se agregó correctamente, false si ya existía un recurso con el mismo ID
+	 */
+	public boolean agregarRecurso(RecursoBiblioteca recurso) {
+		Diario d = diario;
+		RegistroReplicacion r = replicacion;
+		Diario.Entrada entrada = null;
+		// Un préstamo del recurso toma el mismo cerrojo: se anota y se replica después del alta
+		synchronized (cerrojos[indiceCerrojo(recurso)]) {
+			comprobarDiario(d);
+			if (!recursos.agregar(recurso)) return false;
+			indexarRecurso(recurso);
+			if (d != null || r != null) {
+				String linea = "R," + lineaRecurso(recurso);
+				if (d != null) entrada = d.registrar(linea);
+				if (r != null) r.anexar(linea);
+			}
+		}
+		if (d != null) esperarDiario(d, entrada);
+		marcarCambio(recurso);
+		return true;
+	}
+	
+	/**
+	 * Da de baja un recurso disponible: pasa a RETIRADO, deja de aparecer en las
+	 * búsquedas y en los listados por ID y por título, y no se guarda en los archivos
+	 * completos, así que desaparece en el siguiente punto de control o compactación.
+	 * Hasta entonces su ID sigue ocupado. Es lo que hace una sucursal al entregar un
+	 * recurso a otra.
+	 * 
+	 * @param recurso Recurso a retirar
+	 * @return true si se retiró; false si no existe, no está DISPONIBLE o alguien lo espera
+	 */
+	public boolean retirarRecurso(RecursoBiblioteca recurso) {
+		RecursoBiblioteca guardado = guardado(recurso);
+		if (guardado == null) return false;
+		Diario d = diario;
+		RegistroReplicacion r = replicacion;
+		Diario.Entrada entrada = null;
+		synchronized (cerrojos[indiceCerrojo(guardado)]) {
+			comprobarDiario(d);
+			if (!reservas.retirar(guardado)) return false;
+			if (d != null || r != null) {
+				String linea = FormatoRegistro.unir("X", guardado.getId());
+				if (d != null) entrada = d.registrar(linea);
+				if (r != null) r.anexar(linea);
+			}
+		}
+		actualizarEstado(guardado);
+		desindexarRecurso(guardado);
+		if (d != null) esperarDiario(d, entrada);
+		marcarCambio(guardado);
+		return true;
+	}
+	
+	/**
+	 * Guarda un recurso leído de un archivo, reemplazando al que tuviera el mismo ID.
+	 * Mantiene los índices al día con el reemplazo.
+	 */
+	private void ponerRecurso(RecursoBiblioteca recurso) {
+		RecursoBiblioteca anterior = recursos.poner(recurso);
+		if (anterior != null) desindexarRecurso(anterior);
+		indexarRecurso(recurso);
+	}
+	
+	/**
+	 * Añade un recurso recién incorporado a los índices de búsqueda.
+	 */
+	private void indexarRecurso(RecursoBiblioteca recurso) {
+		indiceTexto.indexar(recurso);
+		actualizarEstado(recurso);
+		if (ordenPorId.activo() || ordenPorTitulo.activo()) {
+			int clave = recursos.clave(recurso);
+			ordenPorId.agregar(recurso.getId(), recurso.getId(), clave);
+			ordenPorTitulo.agregar(claveTitulo(recurso), recurso.getId(), clave);
+		}
+	}
+	
+	/**
+	 * Lleva al índice de estados el estado actual del recurso. Se llama después de
+	 * cada transición: el índice vuelve a leer el estado, así que da igual en qué
+	 * orden terminen dos transiciones que se crucen.
+	 */
+	private void actualizarEstado(RecursoBiblioteca recurso) {
+		RecursoBiblioteca guardado = recursos.resolver(recurso);
+		int clave = guardado == null ? -1 : recursos.clave(guardado);
+		if (clave >= 0) indiceEstados.actualizar(clave, guardado);
+	}
+	
+	/**
+	 * Quita de los índices de búsqueda un recurso que deja de estar en el catálogo.
+	 */
+	private void desindexarRecurso(RecursoBiblioteca recurso) {
+		indiceTexto.eliminar(recurso);
+		ordenPorId.quitar(recurso.getId(), recurso.getId());
+		ordenPorTitulo.quitar(claveTitulo(recurso), recurso.getId());
+	}
+	
+	/**
+	 * @return Título con que se ordena el recurso: sin mayúsculas ni tildes
+	 */
+	private static String claveTitulo(RecursoBiblioteca recurso) {
+		return IndiceTexto.normalizar(recurso.getTitulo());
+	}
+	
+	/**
+	 * Busca recursos por palabras del título o del autor, sin distinguir
+	 * mayúsculas ni tildes.
+	 * 
+	 * @param consulta Palabras a buscar
+	 * @param todas    true si el recurso debe contener todas las palabras, false si basta con una
+	 * @param limite   Número máximo de resultados
+	 * @return Recursos encontrados, ordenados por relevancia
+	 */
+	public List<RecursoBiblioteca> buscar(String consulta, boolean todas, int limite) {
+		List<RecursoBiblioteca> resultado = new ArrayList<>();
+		for (String id : indiceTexto.buscar(consulta, todas, limite)) {
+			RecursoBiblioteca recurso = recursos.get(id);
+			if (recurso != null) resultado.add(recurso);
+		}
+		return resultado;
+	}
+	
+	/**
+	 * Cuenta los recursos en un estado y de un tipo, en tiempo constante.
+	 * 
+	 * @param estado Estado, o null para cualquiera
+	 * @param tipo   Tipo, o null para cualquiera
+	 * @return Número de recursos
+	 */
+	public long contarRecursos(EstadoRecurso estado, TipoRecurso tipo) {
+		return indiceEstados.contar(estado, tipo);
+	}
+	
+	/**
+	 * Obtiene los recursos en un estado y de un tipo (p. ej. los libros disponibles)
+	 * a partir de los mapas de bits, sin recorrer el resto del catálogo.
+	 * 
+	 * @param estado Estado, o null para cualquiera
+	 * @param tipo   Tipo, o null para cualquiera
+	 * @param limite Número máximo de resultados
+	 * @return Recursos por orden de alta que tienen ese estado al consultarlos
+	 */
+	public List<RecursoBiblioteca> getRecursos(EstadoRecurso estado, TipoRecurso tipo, int limite) {
+		List<RecursoBiblioteca> resultado = new ArrayList<>();
+		if (limite <= 0) return resultado;
+		indiceEstados.recorrer(estado, tipo, clave -> {
+			RecursoBiblioteca recurso = recursos.porClave(clave);
+			// El índice se resuelve por bloques: el recurso pudo cambiar de estado después
+			if (recurso != null && (estado == null || recurso.getEstado() == estado)) resultado.add(recurso);
+			return resultado.size() < limite;
+		});
+		return resultado;
+	}
+	
+	/**
+	 * Obtiene una página del listado de recursos en el orden indicado. Cada página
+	 * sigue a la anterior a partir de su cursor, en tiempo acotado por el tamaño de
+	 * la página sea cual sea el catálogo: por ID o título sobre un índice ordenado
+	 * (que se construye en la primera consulta en ese orden y después se mantiene en
+	 * cada alta), por tipo o estado sobre los mapas de bits de {@link IndiceEstados}.
+	 * Un recurso que cambia de estado entre dos páginas del orden por estado puede
+	 * aparecer dos veces o ninguna.
+	 * 
+	 * @param orden  Criterio de orden
+	 * @param cursor Cursor devuelto por la página anterior, o null para la primera
+	 * @param tamano Recursos por página (como mucho {@link #MAXIMO_PAGINA})
+	 * @return La página, con el cursor de la siguiente si quedan más
+	 * @throws IllegalArgumentException si el cursor no es válido para ese orden o el tamaño no es positivo
+	 */
+	public PaginaRecursos getPaginaRecursos(OrdenRecursos orden, String cursor, int tamano) {
+		if (tamano <= 0) throw new IllegalArgumentException("El tamaño de página debe ser positivo");
+		int limite = Math.min(tamano, MAXIMO_PAGINA);
+		String[] desde = cursor == null ? null : leerCursor(orden, cursor);
+		// Se pide uno más para saber si hay página siguiente
+		List<RecursoBiblioteca> pagina = new ArrayList<>(limite + 1);
+		String[] siguiente = new String[1];
+		switch (orden) {
+			case ID:
+			case TITULO: {
+				IndiceOrden indice = orden == OrdenRecursos.ID ? ordenPorId : ordenPorTitulo;
+				indice.activar(() -> {
+					for (int clave = 0; clave < recursos.tamano(); clave++) {
+						RecursoBiblioteca recurso = recursos.porClave(clave);
+						if (recurso != null) {
+							indice.agregar(orden == OrdenRecursos.ID ? recurso.getId() : claveTitulo(recurso), recurso.getId(), clave);
+						}
+					}
+				});
+				indice.recorrer(desde == null ? null : desde[0], desde == null ? null : desde[1], (valor, id, clave) -> {
+					RecursoBiblioteca recurso = recursos.porClave(clave);
+					// Una entrada de un título ya reemplazado se salta (la nueva también está en el índice)
+					if (recurso != null && (orden == OrdenRecursos.ID || claveTitulo(recurso).equals(valor))) {
+						pagina.add(recurso);
+						if (pagina.size() == limite) {
+							siguiente[0] = orden == OrdenRecursos.ID ? escribirCursor(orden, id) : escribirCursor(orden, valor, id);
+						}
+					}
+					return pagina.size() <= limite;
+				});
+				break;
+			}
+			default: {
+				boolean porEstado = orden == OrdenRecursos.ESTADO;
+				int grupos = porEstado ? EstadoRecurso.values().length : TipoRecurso.values().length;
+				int primero = desde == null ? 0 : Integer.parseInt(desde[0]);
+				for (int g = primero; g < grupos && pagina.size() <= limite; g++) {
+					EstadoRecurso estado = porEstado ? EstadoRecurso.values()[g] : null;
+					TipoRecurso tipo = porEstado ? null : TipoRecurso.values()[g];
+					int grupo = g;
+					int inicio = desde != null && g == primero ? Integer.parseInt(desde[1]) + 1 : 0;
+					indiceEstados.recorrer(estado, tipo, inicio, clave -> {
+						RecursoBiblioteca recurso = recursos.porClave(clave);
+						if (recurso != null && (porEstado ? recurso.getEstado() == estado : recurso.getTipo() == tipo)) {
+							pagina.add(recurso);
+							if (pagina.size() == limite) {
+								siguiente[0] = escribirCursor(orden, String.valueOf(grupo), String.valueOf(clave));
+							}
+						}
+						return pagina.size() <= limite;
+					});
+				}
+			}
+		}
+		if (pagina.size() <= limite) return new PaginaRecursos(pagina, null);
+		pagina.remove(limite);
+		return new PaginaRecursos(pagina, siguiente[0]);
+	}
+	
+	/**
+	 * Cursor opaco: el orden y la posición del último recurso de la página, en Base64.
+	 */
+	private static String escribirCursor(OrdenRecursos orden, String... posicion) {
+		StringBuilder sb = new StringBuilder(orden.name());
+		for (String parte : posicion) sb.append('\0').append(parte);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * @return Las partes de la posición guardada en el cursor
+	 */
+	private static String[] leerCursor(OrdenRecursos orden, String cursor) {
+		String[] partes;
+		try {
+			partes = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\0", -1);
+			if (partes[0].equals(orden.name())) {
+				if (orden == OrdenRecursos.ID && partes.length == 2) return new String[] { partes[1], partes[1] };
+				if (orden == OrdenRecursos.TITULO && partes.length == 3) return new String[] { partes[1], partes[2] };
+				if (partes.length == 3) {
+					int grupos = orden == OrdenRecursos.ESTADO ? EstadoRecurso.values().length : TipoRecurso.values().length;
+					int grupo = Integer.parseInt(partes[1]);
+					if (grupo >= 0 && grupo < grupos && Integer.parseInt(partes[2]) >= 0) {
+						return new String[] { partes[1], partes[2] };
+					}
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			// Base64 o número no válidos: mismo error que un cursor de otro orden
+		}
+		throw new IllegalArgumentException("Cursor no válido para el orden " + orden);
+	}
+	
+	/**
+	 * Obtiene un recurso por su ID.
+	 * 
+	 * @param id El identificador del recurso
+	 * @return El recurso encontrado o null si no existe
+	 */
+	public RecursoBiblioteca getRecurso(String id) {
+		return recursos.get(id);
+	}
+
+	/**
+	 * Obtiene un usuario por su ID.
+	 * 
+	 * @param id El identificador del usuario
+	 * @return El usuario encontrado o null si no existe
+	 */
+	public Usuario getUsuario(String id) {
+		return usuarios.get(id);
+	}
+
+	/**
+	 * Obtiene todos los recursos de la biblioteca.
+	 * 
+	 * @return Colección con todos los recursos disponibles
+	 */
+	public Collection<RecursoBiblioteca> getRecursos() {
+		return recursos.valores();
+	}
+	
+	/**
+	 * Obtiene recursos por orden de alta a partir de una posición. Como las posiciones
+	 * no cambian (un recurso retirado conserva la suya), sirve para recorrer el
+	 * catálogo por partes mientras se sigue usando.
+	 * 
+	 * @param desde  Posición del primero (0 es el primero que se dio de alta)
+	 * @param limite Número máximo de recursos
+	 * @return Los recursos, retirados incluidos; vacía al pasar del último
+	 */
+	public List<RecursoBiblioteca> getRecursosPorAlta(int desde, int limite) {
+		List<RecursoBiblioteca> lista = new ArrayList<>();
+		for (int clave = Math.max(desde, 0); clave < recursos.tamano() && lista.size() < limite; clave++) {
+			RecursoBiblioteca recurso = recursos.porClave(clave);
+			if (recurso != null) lista.add(recurso);
+		}
+		return lista;
+	}
+	
+	/**
+	 * Obtiene usuarios por orden de alta a partir de una posición.
+	 * 
+	 * @param desde  Posición del primero (0 es el primero que se dio de alta)
+	 * @param limite Número máximo de usuarios
+	 * @return Los usuarios; vacía al pasar del último
+	 * @see #getRecursosPorAlta(int, int)
+	 */
+	public List<Usuario> getUsuariosPorAlta(int desde, int limite) {
+		List<Usuario> lista = new ArrayList<>();
+		for (int clave = Math.max(desde, 0); clave < usuarios.tamano() && lista.size() < limite; clave++) {
+			Usuario usuario = usuarios.porClave(clave);
+			if (usuario != null) lista.add(usuario);
+		}
+		return lista;
+	}
+	
+	/**
+	 * Obtiene todos los usuarios registrados.
+	 * 
+	 * @return Colección con todos los usuarios
+	 */
+	public Collection<Usuario> getUsuarios() {
+		return usuarios.valores();
+	}
+	
+	/**
+	 * Obtiene el historial de préstamos: el de esta ejecución en memoria o, con el
+	 * historial persistente activo, el completo leído de disco.
+	 * 
+	 * @return Préstamos en orden cronológico (solo lectura)
+	 */
+	public Collection<Prestamo> getHistorial() {
+		HistorialSegmentado persistente = historialPersistente;
+		if (persistente != null) return leerPrestamos(persistente, null, null, null, null);
+		return Collections.unmodifiableCollection(historial);
+	}
+	
+	/**
+	 * Implementación del método de préstamo de recursos.
+	 * Verifica disponibilidad y registra el préstamo en el historial.
+	 * La transición DISPONIBLE -> PRESTADO es atómica, por lo que si dos hilos
+	 * intentan prestar el mismo recurso solo uno de ellos lo consigue.
+	 * 
+	 * @param solicitado El recurso a prestar
+	 * @param usuario    El usuario que solicita el préstamo
+	 * @return true si el préstamo fue exitoso, false en caso contrario
+	 */
+	@Override
+	public boolean prestar(RecursoBiblioteca solicitado, Usuario usuario) {
+	    long inicio = metricas.iniciar();
+	    RecursoBiblioteca recurso = guardado(solicitado);
+	    // Validación de parámetros
+	    if (recurso == null || usuario == null) {
+	        if (eventos.hayOyentes()) eventos.publicar(new Evento.PrestamoRechazado(recurso, usuario, null));
+	        metricas.registrar(OperacionMedida.PRESTAR, ResultadoOperacion.INVALIDO, inicio);
+	        return false;
+	    }
+
+	    // Verificamos disponibilidad y actualizamos el estado en un solo paso
+	    if (ejecutarTransicion(recurso, () -> abrirPrestamo(recurso, usuario), TipoMovimiento.PRESTAMO) != null) {
+	        if (eventos.hayOyentes()) eventos.publicar(new Evento.PrestamoConcedido(recurso, usuario));
+	        metricas.registrar(OperacionMedida.PRESTAR, ResultadoOperacion.REALIZADO, inicio);
+	        return true;
+	    } else {
+	        if (eventos.hayOyentes()) eventos.publicar(new Evento.PrestamoRechazado(recurso, usuario, recurso.getEstado()));
+	        metricas.registrar(OperacionMedida.PRESTAR, ResultadoOperacion.NO_DISPONIBLE, inicio);
+	        return false;
+	    }
+	}
+
+	/**
+	 * Implementación del método de devolución de recursos.
+	 * Actualiza el estado del recurso a DISPONIBLE y cierra su préstamo abierto.
+	 * 
+	 * @param solicitado El recurso a devolver
+	 * @return true si la devolución fue exitosa, false en caso contrario
+	 */
+	@Override
+	public boolean devolver(RecursoBiblioteca solicitado) {
+		long inicio = metricas.iniciar();
+		RecursoBiblioteca recurso = guardado(solicitado);
+		// Validación de parámetros
+		if (recurso == null) {
+			if (eventos.hayOyentes()) eventos.publicar(new Evento.DevolucionRechazada(null, null));
+			metricas.registrar(OperacionMedida.DEVOLVER, ResultadoOperacion.INVALIDO, inicio);
+			return false;
+		}
+		
+		// Verificamos que el recurso esté efectivamente prestado y lo liberamos
+		if (ejecutarTransicion(recurso, () -> cerrarPrestamo(recurso), TipoMovimiento.DEVOLUCION) != null) {
+			if (eventos.hayOyentes()) eventos.publicar(new Evento.DevolucionRealizada(recurso));
+			metricas.registrar(OperacionMedida.DEVOLVER, ResultadoOperacion.REALIZADO, inicio);
+			return true;
+		} else {
+			if (eventos.hayOyentes()) eventos.publicar(new Evento.DevolucionRechazada(recurso, recurso.getEstado()));
+			metricas.registrar(OperacionMedida.DEVOLVER, ResultadoOperacion.NO_PRESTADO, inicio);
+			return false;
+		}
+	}
+	
+	/**
+	 * Presta varios recursos con una sola pasada: valida todo el lote, aplica las
+	 * transiciones, anota el lote en el diario como un único registro y espera una
+	 * sola vez a que sea durable. Solo publica un evento con el resumen del lote.
+	 * 
+	 * @param solicitudes Pares (recurso, usuario) a prestar
+	 * @return El resultado de cada solicitud, en el mismo orden
+	 */
+	@Override
+	public List<ResultadoOperacion> prestarLote(List<SolicitudPrestamo> solicitudes) {
+		long inicio = metricas.iniciar();
+		List<RecursoBiblioteca> lote = new ArrayList<>(solicitudes.size());
+		ResultadoOperacion[] resultados = new ResultadoOperacion[solicitudes.size()];
+		for (int i = 0; i < solicitudes.size(); i++) {
+			SolicitudPrestamo solicitud = solicitudes.get(i);
+			lote.add(guardado(solicitud.getRecurso()));
+			if (solicitud.getUsuario() == null) resultados[i] = ResultadoOperacion.INVALIDO;
+		}
+		validarLote(lote, resultados);
+		ejecutarLote(lote, resultados, i -> abrirPrestamo(lote.get(i), solicitudes.get(i).getUsuario()),
+				TipoMovimiento.PRESTAMO, ResultadoOperacion.NO_DISPONIBLE);
+		informarLote(TipoMovimiento.PRESTAMO, resultados);
+		metricas.registrar(OperacionMedida.PRESTAR_LOTE, ResultadoOperacion.REALIZADO, inicio);
+		return Arrays.asList(resultados);
+	}
+	
+	/**
+	 * Devuelve varios recursos con una sola pasada, igual que {@link #prestarLote(List)}.
+	 * 
+	 * @param recursos Recursos a devolver
+	 * @return El resultado de cada devolución, en el mismo orden
+	 */
+	@Override
+	public List<ResultadoOperacion> devolverLote(List<RecursoBiblioteca> recursos) {
+		long inicio = metricas.iniciar();
+		List<RecursoBiblioteca> lote = new ArrayList<>(recursos.size());
+		for (RecursoBiblioteca recurso : recursos) {
+			lote.add(guardado(recurso));
+		}
+		ResultadoOperacion[] resultados = new ResultadoOperacion[lote.size()];
+		validarLote(lote, resultados);
+		ejecutarLote(lote, resultados, i -> cerrarPrestamo(lote.get(i)),
+				TipoMovimiento.DEVOLUCION, ResultadoOperacion.NO_PRESTADO);
+		informarLote(TipoMovimiento.DEVOLUCION, resultados);
+		metricas.registrar(OperacionMedida.DEVOLVER_LOTE, ResultadoOperacion.REALIZADO, inicio);
+		return Arrays.asList(resultados);
+	}
+	
+	/**
+	 * Marca los elementos del lote sin recurso como INVALIDO y los recursos que ya
+	 * aparecieron antes en el lote como REPETIDO. Los elementos válidos quedan a null.
+	 */
+	private void validarLote(List<RecursoBiblioteca> lote, ResultadoOperacion[] resultados) {
+		Set<String> vistos = new HashSet<>();
+		for (int i = 0; i < lote.size(); i++) {
+			RecursoBiblioteca recurso = lote.get(i);
+			if (recurso == null) {
+				resultados[i] = ResultadoOperacion.INVALIDO;
+			} else if (resultados[i] == null && !vistos.add(recurso.getId())) {
+				resultados[i] = ResultadoOperacion.REPETIDO;
+			}
+		}
+	}
+	
+	/**
+	 * Aplica la transición a cada elemento válido del lote (resultado a null) y
+	 * registra los efectos persistentes de todo el lote de una vez.
+	 * 
+	 * Se toman los cerrojos de los recursos en orden, por tramos, igual que en
+	 * {@link #ejecutarTransicion}; al bloquear siempre en el mismo orden dos lotes
+	 * no pueden interbloquearse.
+	 * 
+	 * @param lote       Recursos del lote
+	 * @param resultados Resultados ya decididos por la validación; se completan aquí
+	 * @param transicion Transición del elemento i; devuelve el préstamo o null si no se aplicó
+	 * @param movimiento Tipo de movimiento, para el diario y el historial persistente
+	 * @param fallo      Resultado de los elementos cuya transición no se aplica
+	 */
+	private void ejecutarLote(List<RecursoBiblioteca> lote, ResultadoOperacion[] resultados,
+			IntFunction<Prestamo> transicion, TipoMovimiento movimiento, ResultadoOperacion fallo) {
+		List<Integer> pendientes = new ArrayList<>();
+		for (int i = 0; i < resultados.length; i++) {
+			if (resultados[i] == null) pendientes.add(i);
+		}
+		Prestamo[] prestamos = new Prestamo[resultados.length];
+		
+		Diario d = diario;
+		RegistroReplicacion r = replicacion;
+		HistorialSegmentado persistente = historialPersistente;
+		pendientes.sort(Comparator.comparingInt(i -> indiceCerrojo(lote.get(i))));
+		Diario.Entrada ultima = null;
+		for (int desde = 0; desde < pendientes.size(); desde += MAXIMO_BLOQUEADOS_LOTE) {
+			List<Integer> tramo = pendientes.subList(desde, Math.min(pendientes.size(), desde + MAXIMO_BLOQUEADOS_LOTE));
+			Diario.Entrada[] entrada = new Diario.Entrada[1];
+			conRecursosBloqueados(lote, tramo, 0, () -> {
+				comprobarDiario(d);
+				List<Prestamo> hechos = new ArrayList<>(r == null ? 0 : tramo.size());
+				List<String> lineas = new ArrayList<>(d == null ? 0 : tramo.size());
+				List<RegistroHistorial> movimientos = new ArrayList<>(persistente == null ? 0 : tramo.size());
+				for (int i : tramo) {
+					prestamos[i] = transicion.apply(i);
+					if (prestamos[i] == null) continue;
+					if (r != null) hechos.add(prestamos[i]);
+					if (d != null) lineas.add(lineaDiario(lote.get(i), prestamos[i], movimiento));
+					if (persistente != null) movimientos.add(registroHistorial(lote.get(i), prestamos[i], movimiento));
+				}
+				if (d != null) entrada[0] = d.registrarTodos(lineas);
+				if (r != null) r.anexarTodos(hechos, movimiento);
+				if (persistente != null && !movimientos.isEmpty()) anexarHistorial(persistente, movimientos);
+			});
+			if (entrada[0] != null) ultima = entrada[0];
+		}
+		// El diario escribe en orden: cuando el último registro es durable, lo son todos
+		if (ultima != null) esperarDiario(d, ultima);
+		
+		boolean alguno = false;
+		for (int i : pendientes) {
+			if (prestamos[i] == null) {
+				resultados[i] = fallo;
+			} else {
+				resultados[i] = ResultadoOperacion.REALIZADO;
+				marcarCambio(lote.get(i));
+				alguno = true;
+			}
+		}
+		if (persistente != null && alguno) comprobarArchivado(persistente, LocalDate.now());
+	}
+	
+	/**
+	 * Encola movimientos en el historial persistente. Se llama con los cerrojos de
+	 * sus recursos tomados, así que los movimientos de cada recurso llegan a los
+	 * segmentos en el orden real (cada devolución detrás de su préstamo), que es lo
+	 * que permite reconstruir los préstamos al leerlos.
+	 */
+	private void anexarHistorial(HistorialSegmentado persistente, List<RegistroHistorial> movimientos) {
+		try {
+			persistente.anexarTodos(movimientos);
+		} catch (IOException e) {
+			informarError("guardar el historial", e);
+		}
+	}
+	
+	/**
+	 * Ejecuta la acción con los cerrojos de los recursos indicados tomados, en el orden de la lista.
+	 * Dos recursos del lote pueden compartir cerrojo: los monitores son reentrantes.
+	 */
+	private void conRecursosBloqueados(List<RecursoBiblioteca> lote, List<Integer> indices, int k, Runnable accion) {
+		if (k == indices.size()) {
+			accion.run();
+			return;
+		}
+		synchronized (cerrojos[indiceCerrojo(lote.get(indices.get(k)))]) {
+			conRecursosBloqueados(lote, indices, k + 1, accion);
+		}
+	}
+	
+	/**
+	 * @return Índice del cerrojo que protege las transiciones del recurso
+	 */
+	private static int indiceCerrojo(RecursoBiblioteca recurso) {
+		return indiceCerrojo(recurso.getId());
+	}
+	
+	/**
+	 * @return Índice del cerrojo que corresponde a un ID (de recurso o de usuario)
+	 */
+	private static int indiceCerrojo(String id) {
+		int hash = id.hashCode();
+		return (hash ^ (hash >>> 16)) & (CERROJOS - 1);
+	}
+	
+	/**
+	 * Devuelve el recurso tal como está guardado en el almacén (un almacén compacto
+	 * copia los datos al guardarlos y los objetos de fuera no reflejan su estado).
+	 * 
+	 * @return El recurso guardado, o null si no se indicó recurso
+	 */
+	private RecursoBiblioteca guardado(RecursoBiblioteca recurso) {
+		return recurso == null ? null : recursos.resolver(recurso);
+	}
+	
+	/**
+	 * Publica un único evento con el resumen de un lote.
+	 */
+	private void informarLote(TipoMovimiento movimiento, ResultadoOperacion[] resultados) {
+		if (!eventos.hayOyentes()) return;
+		int realizados = 0;
+		for (ResultadoOperacion r : resultados) {
+			if (r == ResultadoOperacion.REALIZADO) realizados++;
+		}
+		eventos.publicar(new Evento.LoteProcesado(movimiento, realizados, resultados.length));
+	}
+	
+	/**
+	 * Registro del diario para un préstamo (P,idRecurso,idUsuario,fecha) o una devolución (D,idRecurso).
+	 */
+	private static String lineaDiario(RecursoBiblioteca recurso, Prestamo prestamo, TipoMovimiento movimiento) {
+		return movimiento == TipoMovimiento.PRESTAMO
+				? FormatoRegistro.unir("P", recurso.getId(), prestamo.getUsuario().getId(),
+						prestamo.getFechaPrestamo().toString())
+				: FormatoRegistro.unir("D", recurso.getId());
+	}
+	
+	/**
+	 * Movimiento del historial persistente correspondiente a un préstamo o devolución de hoy.
+	 */
+	private static RegistroHistorial registroHistorial(RecursoBiblioteca recurso, Prestamo prestamo, TipoMovimiento movimiento) {
+		return new RegistroHistorial(movimiento, recurso.getTipo(), LocalDate.now(), recurso.getId(),
+				prestamo.getUsuario().getId());
+	}
+	
+	/**
+	 * Ejecuta una transición de préstamo o devolución y registra sus efectos
+	 * persistentes. Todos los cambios de estado de préstamo y devolución pasan por aquí.
+	 * 
+	 * @param recurso    El recurso afectado
+	 * @param transicion Transición a aplicar; devuelve el préstamo abierto o cerrado, o null si no se aplicó
+	 * @param movimiento Tipo de movimiento, para el diario y el historial persistente
+	 * @return El préstamo abierto o cerrado, o null si la transición no se aplicó
+	 */
+	private Prestamo ejecutarTransicion(RecursoBiblioteca recurso, Supplier<Prestamo> transicion, TipoMovimiento movimiento) {
+		Diario d = diario;
+		RegistroReplicacion r = replicacion;
+		HistorialSegmentado persistente = historialPersistente;
+		Prestamo prestamo;
+		Diario.Entrada entrada = null;
+		RegistroHistorial registro = null;
+		// La transición se hace con el cerrojo del recurso: el préstamo abierto se
+		// publica junto con el cambio de estado, así que una devolución nunca ve el
+		// recurso PRESTADO sin su préstamo, y el orden del diario y el de las réplicas
+		// es el orden real de los cambios de cada recurso.
+		// Solo se sincroniza sobre el cerrojo del recurso, nunca de forma global
+		// (no sobre el propio objeto: un almacén compacto da una vista por consulta).
+		synchronized (cerrojos[indiceCerrojo(recurso)]) {
+			comprobarDiario(d);
+			prestamo = transicion.get();
+			if (prestamo != null) {
+				if (d != null) entrada = d.registrar(lineaDiario(recurso, prestamo, movimiento));
+				if (r != null) r.anexar(prestamo, movimiento);
+				if (persistente != null) {
+					registro = registroHistorial(recurso, prestamo, movimiento);
+					anexarHistorial(persistente, Collections.singletonList(registro));
+				}
+			}
+		}
+		if (prestamo == null) return null;
+		// Las réplicas no se esperan: solo el diario hace esperar al préstamo
+		if (d != null) esperarDiario(d, entrada);
+		marcarCambio(recurso);
+		if (registro != null) comprobarArchivado(persistente, registro.getFecha());
+		return prestamo;
+	}
+	
+	/**
+	 * Transición DISPONIBLE -> PRESTADO, o RESERVADO -> PRESTADO si el recurso está
+	 * retenido para este usuario: si el cambio de estado tiene éxito abre el préstamo.
+	 * Se llama con el cerrojo del recurso tomado.
+	 * 
+	 * @return El préstamo abierto, o null si el recurso no estaba disponible para el usuario
+	 */
+	private Prestamo abrirPrestamo(RecursoBiblioteca recurso, Usuario usuario) {
+		if (!recurso.compararYEstablecerEstado(EstadoRecurso.DISPONIBLE, EstadoRecurso.PRESTADO)
+				&& !(recurso.getEstado() == EstadoRecurso.RESERVADO && reservas.cumplir(recurso, usuario))) {
+			return null;
+		}
+		actualizarEstado(recurso);
+		Prestamo prestamo = new Prestamo(recurso, usuario);
+		if (historialPersistente == null) historial.add(prestamo);
+		indiceHistorial.registrar(prestamo);
+		vencimientos.programar(prestamo);
+		contarPrestamo(prestamo);
+		return prestamo;
+	}
+	
+	/**
+	 * Transición PRESTADO -> DISPONIBLE, o PRESTADO -> RESERVADO si alguien lo espera.
+	 * Primero se cierra el préstamo abierto y después se libera el recurso: mientras
+	 * tanto el recurso sigue PRESTADO y nadie puede abrir un préstamo nuevo que se
+	 * confunda con el que se está cerrando. Se llama con el cerrojo del recurso, el
+	 * mismo con el que {@link #abrirPrestamo} publica el préstamo, así que un recurso
+	 * PRESTADO siempre tiene aquí su préstamo abierto.
+	 * 
+	 * @return El préstamo cerrado, o null si el recurso no estaba prestado
+	 */
+	private Prestamo cerrarPrestamo(RecursoBiblioteca recurso) {
+		if (recurso.getEstado() != EstadoRecurso.PRESTADO) return null;
+		Prestamo prestamo = indiceHistorial.getActivo(recurso.getId());
+		if (prestamo == null || !indiceHistorial.cerrar(recurso.getId(), prestamo)) return null;
+		vencimientos.cancelar(prestamo);
+		estadisticas.registrarDevolucion(recurso.getTipo());
+		reservas.liberar(recurso);
+		actualizarEstado(recurso);
+		return prestamo;
+	}
+	
+	/**
+	 * Reserva un recurso para un usuario. El usuario entra al final de la lista de
+	 * espera del recurso; cuando el recurso se devuelve queda RESERVADO para el
+	 * primero de la lista, que puede llevárselo en préstamo hasta que caduque la
+	 * retención. Si el recurso está disponible y nadie espera, se retiene al momento.
+	 * 
+	 * Las reservas solo viven en memoria: ni la lista de espera ni la retención (el
+	 * paso a RESERVADO, al reservar o al devolver, y su vuelta a DISPONIBLE) se anotan
+	 * en el diario ni se envían a las réplicas. En una réplica el recurso retenido
+	 * aparece DISPONIBLE, y tras reiniciar (cargando los archivos, la instantánea o el
+	 * diario) queda DISPONIBLE sin reservas, así que otro usuario puede llevárselo.
+	 * 
+	 * @param recurso Recurso a reservar
+	 * @param usuario Usuario que lo reserva
+	 * @return La reserva (la que ya tuviera el usuario si repite), o null si falta el recurso o el usuario
+	 *         o el recurso está retirado
+	 */
+	public Reserva reservar(RecursoBiblioteca recurso, Usuario usuario) {
+		RecursoBiblioteca guardado = guardado(recurso);
+		if (guardado == null || usuario == null) return null;
+		Reserva reserva = reservas.reservar(guardado, usuario);
+		actualizarEstado(guardado);
+		return reserva;
+	}
+	
+	/**
+	 * Cancela una reserva. Si tenía el recurso retenido, pasa al siguiente de la lista.
+	 * 
+	 * @param reserva Reserva a cancelar
+	 * @return true si la reserva estaba en espera o retenida
+	 */
+	public boolean cancelarReserva(Reserva reserva) {
+		if (!reservas.cancelar(reserva)) return false;
+		actualizarEstado(reserva.getRecurso());
+		return true;
+	}
+	
+	/**
+	 * @param idRecurso ID del recurso
+	 * @param idUsuario ID del usuario
+	 * @return La reserva en espera o retenida del usuario para ese recurso, o null
+	 */
+	public Reserva getReserva(String idRecurso, String idUsuario) {
+		return reservas.buscar(idRecurso, idUsuario);
+	}
+	
+	/**
+	 * @param reserva Reserva
+	 * @return Posición en la lista de espera empezando en 1, o 0 si ya no está esperando
+	 */
+	public int getPosicionEnEspera(Reserva reserva) {
+		return reservas.posicion(reserva);
+	}
+	
+	/**
+	 * @param idRecurso ID del recurso
+	 * @return Usuarios que esperan el recurso, sin contar al que lo tiene retenido
+	 */
+	public int getLongitudEspera(String idRecurso) {
+		return reservas.longitud(idRecurso);
+	}
+	
+	/**
+	 * @param idRecurso ID del recurso
+	 * @return La reserva para la que el recurso está RESERVADO, o null
+	 */
+	public Reserva getReservaRetenida(String idRecurso) {
+		return reservas.getRetenida(idRecurso);
+	}
+	
+	/**
+	 * Cambia cuánto tiempo se retiene un recurso para el usuario que lo reservó
+	 * (por defecto tres días). Se aplica a las retenciones que empiecen después.
+	 * 
+	 * @param retencion Duración de la retención
+	 */
+	public void setDuracionRetencion(Duration retencion) {
+		reservas.setRetencion(retencion);
+	}
+	
+	/**
+	 * Obtiene el préstamo abierto de un recurso.
+	 * 
+	 * @param idRecurso ID del recurso
+	 * @return El préstamo sin devolver, o null si el recurso no está prestado
+	 */
+	public Prestamo getPrestamoActivo(String idRecurso) {
+		return indiceHistorial.getActivo(idRecurso);
+	}
+	
+	/**
+	 * Obtiene los préstamos que un usuario tiene sin devolver.
+	 * 
+	 * @param idUsuario ID del usuario
+	 * @return Préstamos abiertos del usuario
+	 */
+	public Collection<Prestamo> getPrestamosActivosDeUsuario(String idUsuario) {
+		return indiceHistorial.getActivosDeUsuario(idUsuario);
+	}
+	
+	/**
+	 * Obtiene todos los préstamos de un usuario, devueltos o no. Con el historial
+	 * persistente activo se leen de disco.
+	 * 
+	 * @param idUsuario ID del usuario
+	 * @return Préstamos del usuario en orden cronológico
+	 */
+	public Collection<Prestamo> getPrestamosDeUsuario(String idUsuario) {
+		HistorialSegmentado persistente = historialPersistente;
+		if (persistente != null) return leerPrestamos(persistente, null, idUsuario, null, null);
+		return indiceHistorial.getDeUsuario(idUsuario);
+	}
+	
+	/**
+	 * Obtiene todos los préstamos de un recurso. Con el historial persistente
+	 * activo se leen de disco.
+	 * 
+	 * @param idRecurso ID del recurso
+	 * @return Préstamos del recurso en orden cronológico
+	 */
+	public Collection<Prestamo> getPrestamosDeRecurso(String idRecurso) {
+		HistorialSegmentado persistente = historialPersistente;
+		if (persistente != null) return leerPrestamos(persistente, idRecurso, null, null, null);
+		return indiceHistorial.getDeRecurso(idRecurso);
+	}
+	
+	/**
+	 * Obtiene el último préstamo de un recurso (quién lo tuvo por última vez).
+	 * 
+	 * @param idRecurso ID del recurso
+	 * @return El préstamo más reciente, o null si nunca se prestó
+	 */
+	public Prestamo getUltimoPrestamo(String idRecurso) {
+		HistorialSegmentado persistente = historialPersistente;
+		if (persistente == null) return indiceHistorial.getUltimoDeRecurso(idRecurso);
+		Prestamo activo = indiceHistorial.getActivo(idRecurso);
+		if (activo != null) return activo;
+		List<Prestamo> prestamos = leerPrestamos(persistente, idRecurso, null, null, null);
+		return prestamos.isEmpty() ? null : prestamos.get(prestamos.size() - 1);
+	}
+	
+	/**
+	 * Obtiene los préstamos realizados entre dos fechas. Con el historial persistente
+	 * activo se leen de disco los meses desde el primero del rango.
+	 * 
+	 * @param desde Primera fecha incluida
+	 * @param hasta Última fecha incluida
+	 * @return Préstamos del periodo en orden cronológico
+	 */
+	public List<Prestamo> getPrestamosEntre(LocalDate desde, LocalDate hasta) {
+		HistorialSegmentado persistente = historialPersistente;
+		if (persistente != null) return leerPrestamos(persistente, null, null, desde, hasta);
+		return indiceHistorial.getEntre(desde, hasta);
+	}
+	
+	/**
+	 * Reconstruye préstamos leyendo los movimientos del historial persistente en
+	 * streaming: cada préstamo queda devuelto con la primera devolución posterior
+	 * de su recurso. En memoria solo quedan los préstamos del resultado. Los
+	 * que siguen abiertos son los del índice de préstamos activos; uno sin devolución
+	 * en disco que ya no está abierto (un movimiento perdido en una caída) se da por
+	 * devuelto. Los préstamos de recursos o usuarios que ya no existen se omiten.
+	 * 
+	 * @param idRecurso Solo los de este recurso, o null
+	 * @param idUsuario Solo los de este usuario, o null
+	 * @param desde     Primer día de préstamo incluido, o null
+	 * @param hasta     Último día de préstamo incluido, o null
+	 * @return Préstamos en orden cronológico
+	 */
+	private List<Prestamo> leerPrestamos(HistorialSegmentado persistente, String idRecurso, String idUsuario,
+			LocalDate desde, LocalDate hasta) {
+		// Las devoluciones de los préstamos del rango pueden caer después de él
+		LocalDate primero = desde == null || desde.equals(LocalDate.MIN) ? null : desde;
+		LocalDate ultimo = hasta == null || hasta.equals(LocalDate.MAX) ? null : hasta;
+		List<Prestamo> prestamos = new ArrayList<>();
+		Map<String, Prestamo> abiertos = new HashMap<>();
+		try {
+			persistente.recorrer(primero, null, idRecurso, idUsuario, registro -> {
+				// Una devolución cierra el préstamo abierto de su recurso, y un préstamo
+				// nuevo también (si su devolución no llegó a disco)
+				Prestamo anterior = abiertos.remove(registro.getIdRecurso());
+				if (anterior != null) anterior.marcarComoDevuelto();
+				if (registro.getMovimiento() == TipoMovimiento.DEVOLUCION) return;
+				if (ultimo != null && registro.getFecha().isAfter(ultimo)) return;
+				RecursoBiblioteca recurso = recursos.get(registro.getIdRecurso());
+				Usuario usuario = usuarios.get(registro.getIdUsuario());
+				if (recurso == null || usuario == null) return;
+				Prestamo prestamo = new Prestamo(recurso, usuario, registro.getFecha());
+				abiertos.put(registro.getIdRecurso(), prestamo);
+				prestamos.add(prestamo);
+			});
+		} catch (IOException e) {
+			informarError("leer el historial", e);
+		}
+		for (int i = 0; i < prestamos.size(); i++) {
+			Prestamo prestamo = prestamos.get(i);
+			if (prestamo.isDevuelto()) continue;
+			Prestamo activo = indiceHistorial.getActivo(prestamo.getRecurso().getId());
+			if (activo != null && activo.getUsuario() == prestamo.getUsuario()
+					&& activo.getFechaPrestamo().equals(prestamo.getFechaPrestamo())) {
+				prestamos.set(i, activo);
+			} else {
+				prestamo.marcarComoDevuelto();
+			}
+		}
+		return prestamos;
+	}
+	
+	/**
+	 * Cuenta los préstamos de cada mes en un rango de fechas. Con el historial
+	 * persistente activo incluye los de ejecuciones anteriores y solo lee los meses
+	 * del rango; los meses archivados se cuentan casi sin descomprimir.
+	 * 
+	 * @param desde Primera fecha incluida, o null para no acotar
+	 * @param hasta Última fecha incluida, o null para no acotar
+	 * @return Préstamos por mes, en orden, sin los meses sin ninguno
+	 */
+	public Map<YearMonth, Long> contarPrestamosPorMes(LocalDate desde, LocalDate hasta) {
+		HistorialSegmentado persistente = historialPersistente;
+		if (persistente != null) {
+			try {
+				return persistente.contarPorMes(TipoMovimiento.PRESTAMO, desde, hasta);
+			} catch (IOException e) {
+				informarError("leer el historial", e);
+				return Collections.emptyMap();
+			}
+		}
+		Map<YearMonth, Long> cuentas = new TreeMap<>();
+		indiceHistorial.recorrerEntre(desde, hasta, p -> cuentas.merge(YearMonth.from(p.getFechaPrestamo()), 1L, Long::sum));
+		return cuentas;
+	}
+	
+	/**
+	 * Cuenta los préstamos de cada tipo de recurso en un rango de fechas.
+	 * 
+	 * @param desde Primera fecha incluida, o null para no acotar
+	 * @param hasta Última fecha incluida, o null para no acotar
+	 * @return Préstamos por tipo, sin los tipos sin ninguno
+	 * @see #contarPrestamosPorMes(LocalDate, LocalDate)
+	 */
+	public Map<TipoRecurso, Long> contarPrestamosPorTipo(LocalDate desde, LocalDate hasta) {
+		HistorialSegmentado persistente = historialPersistente;
+		if (persistente != null) {
+			try {
+				return persistente.contarPorTipo(TipoMovimiento.PRESTAMO, desde, hasta);
+			} catch (IOException e) {
+				informarError("leer el historial", e);
+				return Collections.emptyMap();
+			}
+		}
+		Map<TipoRecurso, Long> cuentas = new EnumMap<>(TipoRecurso.class);
+		indiceHistorial.recorrerEntre(desde, hasta, p -> cuentas.merge(p.getRecurso().getTipo(), 1L, Long::sum));
+		return cuentas;
+	}
+	
+	/**
+	 * Cuenta los préstamos de cada usuario en un rango de fechas.
+	 * 
+	 * @param desde Primera fecha incluida, o null para no acotar
+	 * @param hasta Última fecha incluida, o null para no acotar
+	 * @return Préstamos por ID de usuario, sin orden
+	 * @see #contarPrestamosPorMes(LocalDate, LocalDate)
+	 */
+	public Map<String, Long> contarPrestamosPorUsuario(LocalDate desde, LocalDate hasta) {
+		HistorialSegmentado persistente = historialPersistente;
+		if (persistente != null) {
+			try {
+				return persistente.contarPorUsuario(TipoMovimiento.PRESTAMO, desde, hasta);
+			} catch (IOException e) {
+				informarError("leer el historial", e);
+				return Collections.emptyMap();
+			}
+		}
+		Map<String, Long> cuentas = new HashMap<>();
+		indiceHistorial.recorrerEntre(desde, hasta, p -> cuentas.merge(p.getUsuario().getId(), 1L, Long::sum));
+		return cuentas;
+	}
+	
+	/**
+	 * Obtiene los usuarios con más préstamos en un rango de fechas.
+	 * 
+	 * @param desde  Primera fecha incluida, o null para no acotar
+	 * @param hasta  Última fecha incluida, o null para no acotar
+	 * @param limite Número máximo de usuarios
+	 * @return Pares (ID de usuario, préstamos), de más a menos préstamos y por ID en caso de empate
+	 */
+	public List<Map.Entry<String, Long>> getUsuariosConMasPrestamos(LocalDate desde, LocalDate hasta, int limite) {
+		Comparator<Map.Entry<String, Long>> orden = Map.Entry.<String, Long>comparingByValue().reversed()
+				.thenComparing(Map.Entry.comparingByKey());
+		// Montículo con los mejores hasta ahora; en la cima, el peor de ellos
+		PriorityQueue<Map.Entry<String, Long>> mejores = new PriorityQueue<>(orden.reversed());
+		for (Map.Entry<String, Long> entrada : contarPrestamosPorUsuario(desde, hasta).entrySet()) {
+			mejores.add(entrada);
+			if (mejores.size() > limite) mejores.poll();
+		}
+		List<Map.Entry<String, Long>> lista = new ArrayList<>(mejores);
+		lista.sort(orden);
+		return lista;
+	}
+	
+	/**
+	 * Obtiene los préstamos abiertos cuyo plazo ya terminó. La fecha de vencimiento
+	 * depende del tipo de recurso ({@link TipoRecurso#getDiasPrestamo()}).
+	 * 
+	 * @return Préstamos vencidos sin devolver, del que venció antes al último
+	 */
+	public List<Prestamo> getPrestamosVencidos() {
+		return vencimientos.getVencidos();
+	}
+	
+	/**
+	 * @return Número de préstamos vencidos sin devolver, en tiempo constante
+	 */
+	public int contarPrestamosVencidos() {
+		return vencimientos.contarVencidos();
+	}
+	
+	/**
+	 * Marca como vencidos los préstamos abiertos cuyo plazo terminó antes del día
+	 * indicado y avisa de cada uno con un evento {@link Evento.PrestamoVencido}.
+	 * Un hilo en segundo plano lo hace cada día con la fecha actual; llamarlo
+	 * directamente solo hace falta para adelantar la revisión.
+	 * 
+	 * @param hoy Día de referencia
+	 * @return Préstamos que pasaron a estar vencidos
+	 */
+	public int revisarVencimientos(LocalDate hoy) {
+		return vencimientos.revisar(hoy);
+	}
+	
+	/**
+	 * Activa el historial persistente: cada préstamo y devolución se anexa a
+	 * segmentos en disco que sobreviven a los reinicios. Los meses anteriores al
+	 * pasado se archivan en segundo plano al activarlo y cada vez que empieza un mes.
+	 * Desde aquí el heap solo guarda los préstamos abiertos: los cerrados que hubiera
+	 * en memoria se descartan y las consultas del historial se leen de disco.
+	 * 
+	 * @param directorio Directorio donde se guardan los segmentos
+	 */
+	public void activarHistorialPersistente(String directorio) {
+		try {
+			HistorialSegmentado persistente = new HistorialSegmentado(directorio, HistorialSegmentado.TAMANO_SEGMENTO_POR_DEFECTO);
+			historialPersistente = persistente;
+			historial.clear();
+			indiceHistorial.conservarSoloActivos();
+			diaProximoArchivado = 0;
+			reconstruirEstadisticas();
+			comprobarArchivado(persistente, LocalDate.now());
+		} catch (IOException e) {
+			informarError("abrir el historial", e);
+		}
+	}
+	
+	/**
+	 * Lanza en segundo plano el archivado de los meses que dejan de ser recientes
+	 * la primera vez que llega un movimiento de un mes nuevo.
+	 */
+	private void comprobarArchivado(HistorialSegmentado persistente, LocalDate fecha) {
+		if (fecha.toEpochDay() < diaProximoArchivado) return;
+		if (!archivadoEnCurso.compareAndSet(false, true)) return;
+		YearMonth mes = YearMonth.from(fecha);
+		diaProximoArchivado = mes.plusMonths(1).atDay(1).toEpochDay();
+		Thread hilo = new Thread(() -> {
+			try {
+				persistente.archivar(mes.minusMonths(MESES_RECIENTES - 1));
+			} catch (IOException e) {
+				informarError("archivar el historial", e);
+			} finally {
+				archivadoEnCurso.set(false);
+			}
+		}, "historial-archivado");
+		hilo.setDaemon(true);
+		hilo.start();
+	}
+	
+	/**
+	 * Cierra la replicación, el diario, el guardado diferido y el historial
+	 * persistente, si están activos, y entrega los eventos pendientes a los oyentes.
+	 */
+	public void cerrar() {
+		cerrarReplicacion();
+		reservas.cerrar();
+		vencimientos.cerrar();
+		cerrarDiario();
+		cerrarGuardadoDiferido();
+		HistorialSegmentado persistente = historialPersistente;
+		if (persistente != null) {
+			historialPersistente = null;
+			try {
+				persistente.close();
+			} catch (IOException e) {
+				informarError("cerrar el historial", e);
+			}
+		}
+		eventos.cerrar();
+	}
+	
+	/**
+	 * Suscribe un oyente a los eventos de la biblioteca (préstamos, devoluciones,
+	 * cargas, guardados y errores de persistencia).
+	 * 
+	 * @param oyente Oyente a suscribir
+	 */
+	public void suscribir(OyenteEventos oyente) {
+		eventos.suscribir(oyente);
+	}
+	
+	/**
+	 * @param oyente Oyente a dar de baja
+	 */
+	public void cancelarSuscripcion(OyenteEventos oyente) {
+		eventos.cancelarSuscripcion(oyente);
+	}
+	
+	/**
+	 * @return Métricas de latencia y resultados de las operaciones (ver {@link Metricas})
+	 */
+	public Metricas getMetricas() {
+		return metricas;
+	}
+	
+	/**
+	 * Estadísticas de circulación: préstamos y devoluciones por tipo y recursos más
+	 * prestados y usuarios más activos, en total y en los últimos
+	 * {@value #DIAS_RECIENTES} días. Se actualizan con cada préstamo y devolución y
+	 * consultarlas no depende del tamaño del historial.
+	 * 
+	 * @return Las estadísticas actuales (ver {@link EstadisticasCirculacion})
+	 */
+	public EstadisticasCirculacion getEstadisticas() {
+		return estadisticas;
+	}
+	
+	/**
+	 * Recalcula las estadísticas de circulación desde el historial (el persistente si
+	 * está activo) en paralelo y sustituye las actuales. Los movimientos que lleguen
+	 * mientras se recalcula pueden quedar fuera, así que conviene hacerlo sin
+	 * operaciones en curso; se hace solo al activar el historial persistente.
+	 */
+	public void reconstruirEstadisticas() {
+		try {
+			estadisticas = EstadisticasCirculacion.recalcular(particionesHistorial(), CAPACIDAD_ESTADISTICAS,
+					DIAS_RECIENTES, LocalDate.now());
+		} catch (IOException e) {
+			informarError("recalcular las estadísticas", e);
+		}
+	}
+	
+	/**
+	 * Recalcula en paralelo las estadísticas de circulación desde el historial y las
+	 * compara con las que se han ido actualizando, sin sustituirlas. Con operaciones
+	 * en curso puede dar diferencias que no son errores.
+	 * 
+	 * @return true si coinciden (ver {@link EstadisticasCirculacion#coincideCon})
+	 */
+	public boolean verificarEstadisticas() {
+		try {
+			LocalDate hoy = LocalDate.now();
+			return estadisticas.coincideCon(EstadisticasCirculacion.recalcular(particionesHistorial(),
+					CAPACIDAD_ESTADISTICAS, DIAS_RECIENTES, hoy), hoy);
+		} catch (IOException e) {
+			informarError("recalcular las estadísticas", e);
+			return false;
+		}
+	}
+	
+	/**
+	 * @return Partes del historial que se pueden recorrer en paralelo: los meses del
+	 *         persistente, o trozos del de memoria
+	 */
+	private List<EstadisticasCirculacion.Particion> particionesHistorial() throws IOException {
+		List<EstadisticasCirculacion.Particion> particiones = new ArrayList<>();
+		HistorialSegmentado persistente = historialPersistente;
+		if (persistente != null) {
+			for (YearMonth mes : persistente.getMeses()) {
+				particiones.add(consumidor -> persistente.recorrer(mes, mes, consumidor));
+			}
+			return particiones;
+		}
+		List<Prestamo> prestamos = new ArrayList<>(historial);
+		for (int i = 0; i < prestamos.size(); i += PRESTAMOS_POR_PARTICION) {
+			List<Prestamo> trozo = prestamos.subList(i, Math.min(prestamos.size(), i + PRESTAMOS_POR_PARTICION));
+			particiones.add(consumidor -> {
+				for (Prestamo p : trozo) {
+					RecursoBiblioteca recurso = p.getRecurso();
+					consumidor.accept(new RegistroHistorial(TipoMovimiento.PRESTAMO, recurso.getTipo(),
+							p.getFechaPrestamo(), recurso.getId(), p.getUsuario().getId()));
+					// La fecha de devolución no se guarda; solo cuenta en los totales
+					if (p.isDevuelto()) {
+						consumidor.accept(new RegistroHistorial(TipoMovimiento.DEVOLUCION, recurso.getTipo(),
+								p.getFechaPrestamo(), recurso.getId(), p.getUsuario().getId()));
+					}
+				}
+			});
+		}
+		return particiones;
+	}
+	
+	/**
+	 * Espera a que los oyentes hayan recibido todos los eventos publicados hasta ahora.
+	 * Útil antes de escribir en consola para no mezclar la salida con la de los oyentes.
+	 */
+	public void esperarEventos() {
+		eventos.esperarEntrega();
+	}
+	
+	/**
+	 * Activa la persistencia por diario de operaciones.
+	 * Reproduce sobre el estado actual (ya cargado desde las instantáneas de texto)
+	 * los préstamos activos del último punto de control y todos los registros del diario.
+	 * A partir de aquí cada alta, préstamo y devolución se anexa al diario en lugar
+	 * de reescribir los archivos completos.
+	 * 
+	 * @param archivoUsuarios          Instantánea de usuarios (formato ID,Nombre)
+	 * @param archivoRecursos          Instantánea de recursos (formato TIPO,ID,TITULO,EXTRA)
+	 * @param archivoDiario            Archivo del diario de operaciones
+	 * @param politica                 Cuándo sincronizar el diario con el disco
+	 * @param registrosPorPuntoControl Registros tras los que se hace un punto de control automático
+	 */
+	public void activarDiario(String archivoUsuarios, String archivoRecursos, String archivoDiario,
+			PoliticaSincronizacion politica, long registrosPorPuntoControl) {
+		this.archivoUsuarios = archivoUsuarios;
+		this.archivoRecursos = archivoRecursos;
+		this.archivoPrestamos = archivoDiario + ".prestamos";
+		this.registrosPorPuntoControl = registrosPorPuntoControl;
+		
+		try {
+			// Préstamos activos en el último punto de control
+			aplicarArchivo(archivoPrestamos);
+			// Operaciones posteriores al punto de control
+			int descartados = Diario.reproducir(archivoDiario, this::aplicarRegistro);
+			if (descartados > 0 && eventos.hayOyentes()) {
+				eventos.publicar(new Evento.ErrorPersistencia("reproducir el diario",
+						descartados + " registros descartados por longitud o CRC incorrectos"));
+			}
+			this.diario = new Diario(archivoDiario, politica, 1000);
+			if (eventos.hayOyentes()) eventos.publicar(new Evento.DiarioActivado(archivoDiario));
+		} catch (IOException e) {
+			informarError("abrir el diario", e);
+		}
+	}
+	
+	/**
+	 * Hace un punto de control: rota el diario, reescribe las instantáneas de
+	 * usuarios, recursos y préstamos activos de forma atómica y descarta el diario rotado.
+	 */
+	public synchronized void puntoDeControl() {
+		Diario d = diario;
+		if (d == null) return;
+		long inicio = metricas.iniciar();
+		try {
+			d.rotar();
+			escribirArchivosCompletos();
+			d.descartarAnterior();
+			metricas.registrar(OperacionMedida.PUNTO_CONTROL, ResultadoOperacion.REALIZADO, inicio);
+		} catch (IOException e) {
+			informarError("hacer el punto de control", e);
+			metricas.registrar(OperacionMedida.PUNTO_CONTROL, ResultadoOperacion.ERROR, inicio);
+		}
+	}
+	
+	/**
+	 * Activa el guardado en segundo plano de lo que cambia (alternativa al diario).
+	 * Reproduce sobre el estado actual (ya cargado desde las instantáneas de texto)
+	 * los préstamos activos de la última compactación y los archivos de cambios
+	 * posteriores. A partir de aquí cada alta, préstamo y devolución solo marca el
+	 * usuario o el recurso; un hilo guardador escribe lo marcado en lotes, al cumplirse
+	 * el intervalo o al llegar al umbral de marcas, sin que las operaciones esperen
+	 * al disco. Se pierden como mucho los cambios del último intervalo.
+	 * 
+	 * @param archivoUsuarios Instantánea de usuarios (formato ID,Nombre)
+	 * @param archivoRecursos Instantánea de recursos (formato TIPO,ID,TITULO,EXTRA)
+	 * @param directorio      Directorio de los archivos de cambios y de los préstamos activos
+	 * @param intervaloMs     Tiempo máximo que un cambio espera a guardarse
+	 * @param umbral          Marcas pendientes que adelantan el guardado (ver {@link GuardadoDiferido})
+	 */
+	public void activarGuardadoDiferido(String archivoUsuarios, String archivoRecursos, String directorio,
+			long intervaloMs, int umbral) {
+		this.archivoUsuarios = archivoUsuarios;
+		this.archivoRecursos = archivoRecursos;
+		this.archivoPrestamos = Paths.get(directorio, "prestamos.txt").toString();
+		
+		try {
+			aplicarArchivo(archivoPrestamos);
+			GuardadoDiferido.reproducir(directorio, this::aplicarRegistro);
+			guardadoDiferido = new GuardadoDiferido(directorio, new GuardadoDiferido.Origen() {
+				@Override
+				public void usuario(String id, List<String> registros) {
+					Usuario usuario = usuarios.get(id);
+					if (usuario != null) registros.add(FormatoRegistro.unir("U", usuario.getId(), usuario.getNombre()));
+				}
+				
+				@Override
+				public void recurso(String id, List<String> registros) {
+					RecursoBiblioteca recurso = recursos.get(id);
+					if (recurso != null && recurso.getEstado() == EstadoRecurso.RETIRADO) {
+						registros.add(FormatoRegistro.unir("X", id));
+						return;
+					}
+					String linea = recurso == null ? null : lineaRecurso(recurso);
+					if (linea == null) return;
+					registros.add("R," + linea);
+					Prestamo prestamo = indiceHistorial.getActivo(id);
+					registros.add(prestamo != null ? lineaDiario(recurso, prestamo, TipoMovimiento.PRESTAMO)
+							: FormatoRegistro.unir("D", id));
+				}
+				
+				@Override
+				public void compactar() throws IOException {
+					escribirArchivosCompletos();
+				}
+			}, e -> informarError("guardar los cambios", e), intervaloMs, umbral);
+		} catch (IOException e) {
+			informarError("activar el guardado diferido", e);
+		}
+	}
+	
+	/**
+	 * @return Usuarios y recursos con cambios aún sin guardar, o 0 si el guardado diferido no está activo
+	 */
+	public int getCambiosPendientes() {
+		GuardadoDiferido g = guardadoDiferido;
+		return g == null ? 0 : g.getPendientes();
+	}
+	
+	/**
+	 * Hace un último punto de control y cierra el diario.
+	 */
+	public synchronized void cerrarDiario() {
+		Diario d = diario;
+		if (d == null) return;
+		puntoDeControl();
+		diario = null;
+		try {
+			d.close();
+		} catch (IOException e) {
+			informarError("cerrar el diario", e);
+		}
+	}
+	
+	/**
+	 * Guarda lo pendiente, compacta y detiene el guardado diferido.
+	 */
+	private void cerrarGuardadoDiferido() {
+		GuardadoDiferido g = guardadoDiferido;
+		if (g == null) return;
+		guardadoDiferido = null;
+		try {
+			g.close();
+		} catch (IOException e) {
+			informarError("cerrar el guardado diferido", e);
+		}
+	}
+	
+	/**
+	 * Convierte esta biblioteca en primario de replicación: desde aquí cada alta,
+	 * préstamo, devolución y retirada se anexa, en orden, a un registro en memoria que
+	 * se envía por TCP a las réplicas conectadas (ver {@link ServidorReplicacion}).
+	 * Los préstamos no esperan a las réplicas; con el diario activo una réplica puede
+	 * ver un cambio antes de que sea durable en el primario.
+	 *
+	 * @param puerto Puerto en el que escuchar a las réplicas (0 elige uno libre)
+	 */
+	public void activarReplicacionPrimaria(int puerto) {
+		if (replicacion != null || clienteReplicacion != null) return;
+		RegistroReplicacion r = new RegistroReplicacion(CAPACIDAD_REPLICACION);
+		replicacion = r;
+		try {
+			servidorReplicacion = new ServidorReplicacion(r, this::escribirInstantaneaReplicacion, puerto,
+					e -> informarError("enviar la instantánea a una réplica", e));
+			if (eventos.hayOyentes()) {
+				eventos.publicar(new Evento.ReplicacionActivada("primario en el puerto " + servidorReplicacion.getPuerto()));
+			}
+		} catch (IOException e) {
+			replicacion = null;
+			informarError("abrir el puerto de replicación", e);
+		}
+	}
+	
+	/**
+	 * Convierte esta biblioteca en réplica de solo lectura de un primario: carga su
+	 * instantánea y aplica en segundo plano los cambios que le envía (ver
+	 * {@link ClienteReplicacion}). La réplica no guarda nada en disco y no debe
+	 * recibir escrituras: las rechaza quien la expone (p. ej. el servidor HTTP).
+	 * Las reservas no se replican.
+	 *
+	 * @param host   Primario
+	 * @param puerto Puerto de replicación del primario
+	 */
+	public void activarReplicacionSeguidora(String host, int puerto) {
+		if (replicacion != null || clienteReplicacion != null) return;
+		clienteReplicacion = new ClienteReplicacion(host, puerto, new ClienteReplicacion.Aplicador() {
+			@Override
+			public void aplicar(String linea) {
+				aplicarRegistro(linea);
+			}
 
-/**
- * Clase gestora de la biblioteca.
- * Implementa la lógica de préstamo y devolución de recursos,
- * así como el almacenamiento de recursos y usuarios.
- * 
- * Esta clase centraliza todas las operaciones principales de la biblioteca:
- * - Gestión de usuarios (agregar, listar, guardar, cargar)
- * - Gestión de recursos (agregar, obtener, guardar, cargar)
- * - Préstamo y devolución de recursos
- * - Gestión del historial de préstamos
- */ 
-public class BibliotecaManager implements Prestamista {
+			@Override
+			public void cargarInstantanea(String archivo) throws IOException {
+				cargarInstantaneaReplica(archivo);
+			}
+		}, e -> informarError("replicar desde " + host + ":" + puerto, e));
+		if (eventos.hayOyentes()) eventos.publicar(new Evento.ReplicacionActivada("réplica de " + host + ":" + puerto));
+	}
 	
-	// Colecciones para almacenar los datos principales
-	/** Mapa de recursos indexados por su ID */
-	private Map<String, RecursoBiblioteca> recursos;
+	/**
+	 * @return Servidor de replicación si es primario, o null
+	 */
+	public ServidorReplicacion getServidorReplicacion() {
+		return servidorReplicacion;
+	}
+	
+	/**
+	 * @return Conexión con el primario si es réplica, o null
+	 */
+	public ClienteReplicacion getClienteReplicacion() {
+		return clienteReplicacion;
+	}
 	
-	/** Mapa de usuarios indexados por su ID */
-	private Map<String, Usuario> usuarios;
+	/**
+	 * @return true si es réplica de otro primario
+	 */
+	public boolean isReplica() {
+		return clienteReplicacion != null;
+	}
 	
-	/** Historial cronológico de préstamos realizados */
-	private List<Prestamo> historial;
+	/**
+	 * Posición de replicación para leer lo propio escrito: en el primario, la del
+	 * último cambio anexado (ya incluye los cambios de las operaciones terminadas);
+	 * en una réplica, la del último cambio aplicado. Solo se comparan posiciones de
+	 * la misma época del primario ({@link #getEpocaReplicacion()}).
+	 *
+	 * @return La posición, o 0 si la replicación no está activa
+	 */
+	public long getPosicionReplicacion() {
+		RegistroReplicacion r = replicacion;
+		if (r != null) return r.getUltima();
+		ClienteReplicacion c = clienteReplicacion;
+		return c == null ? 0 : c.getPosicionAplicada();
+	}
 	
 	/**
-	 * Constructor por defecto.
-	 * Inicializa las estructuras de datos vacías para recursos, usuarios e historial.
+	 * Época del primario a la que pertenecen las posiciones de replicación: en el
+	 * primario, la de este arranque; en una réplica, la del primario que está siguiendo.
+	 *
+	 * @return La época, o 0 si la replicación no está activa o la réplica aún no recibió nada
 	 */
-	public BibliotecaManager() {
-		this.recursos = new HashMap<>();
-		this.usuarios = new HashMap<>();
-		this.historial = new ArrayList<>();
+	public long getEpocaReplicacion() {
+		RegistroReplicacion r = replicacion;
+		if (r != null) return r.getEpoca();
+		ClienteReplicacion c = clienteReplicacion;
+		return c == null ? 0 : c.getEpoca();
 	}
 	
 	/**
-	 * Agrega un nuevo usuario al sistema.
+	 * En una réplica, espera a haber aplicado los cambios hasta una posición del
+	 * primario (la que devolvieron allí {@link #getEpocaReplicacion()} y
+	 * {@link #getPosicionReplicacion()} tras escribir).
+	 *
+	 * @param epoca    Época del primario en la que se obtuvo la posición
+	 * @param posicion Posición a alcanzar
+	 * @param esperaMs Tiempo máximo de espera
+	 * @return true si ya se llegó o no es réplica; false si se agotó la espera o la
+	 *         réplica sigue otra época del primario
+	 */
+	public boolean esperarPosicionReplicacion(long epoca, long posicion, long esperaMs) {
+		ClienteReplicacion c = clienteReplicacion;
+		if (c == null) return true;
+		try {
+			return c.esperar(epoca, posicion, esperaMs);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+	
+	/**
+	 * Instantánea para una réplica. Se toma sin detener las operaciones: primero se
+	 * lee la última posición del registro y se pasa por todos los cerrojos, de modo
+	 * que los cambios hasta esa posición ya están en memoria; la instantánea puede
+	 * incluir además cambios posteriores, que la réplica vuelve a aplicar sin efecto
+	 * porque los registros son idempotentes.
+	 *
+	 * @return Posición desde la que la réplica debe aplicar registros
+	 */
+	private long escribirInstantaneaReplicacion(String archivo) throws IOException {
+		long posicion = replicacion.getUltima();
+		for (Object cerrojo : cerrojos) {
+			synchronized (cerrojo) {
+				// Solo espera a quien estuviera anexando con este cerrojo tomado
+			}
+		}
+		InstantaneaBinaria.escribir(archivo, usuarios.valores(), recursos.valores(), indiceHistorial.getActivos());
+		return posicion;
+	}
+	
+	/**
+	 * Lleva el estado de la réplica al de una instantánea del primario: pone usuarios
+	 * y recursos, abre los préstamos de la instantánea, cierra los que ya no están y
+	 * retira los recursos que faltan. Con la réplica vacía equivale a {@link #cargarInstantanea(String)}.
+	 */
+	private void cargarInstantaneaReplica(String archivo) throws IOException {
+		Set<String> vistos = new HashSet<>();
+		Set<String> prestados = new HashSet<>();
+		InstantaneaBinaria.leer(archivo, new DestinoInstantanea() {
+			@Override
+			public void usuario(Usuario usuario) {
+				usuarios.poner(usuario);
+			}
+
+			@Override
+			public void recurso(RecursoBiblioteca recurso) {
+				vistos.add(recurso.getId());
+				if (recurso.getEstado() == EstadoRecurso.RESERVADO) recurso.setEstado(EstadoRecurso.DISPONIBLE);
+				RecursoBiblioteca actual = recursos.get(recurso.getId());
+				if (actual == null || actual.getEstado() == EstadoRecurso.RETIRADO) {
+					ponerRecurso(recurso);
+				} else if (actual.getEstado() != recurso.getEstado()) {
+					actual.setEstado(recurso.getEstado());
+					actualizarEstado(actual);
+				}
+			}
+
+			@Override
+			public void prestamoActivo(String idRecurso, String idUsuario, LocalDate fechaPrestamo) {
+				prestados.add(idRecurso);
+				restaurarPrestamo(idRecurso, idUsuario, fechaPrestamo);
+			}
+		});
+		for (Prestamo prestamo : new ArrayList<>(indiceHistorial.getActivos())) {
+			String id = prestamo.getRecurso().getId();
+			RecursoBiblioteca recurso = recursos.get(id);
+			if (recurso != null && !prestados.contains(id)) restaurarDevolucion(recurso);
+		}
+		for (RecursoBiblioteca recurso : recursos.valores()) {
+			if (!vistos.contains(recurso.getId())) restaurarRetirada(recurso);
+		}
+		if (eventos.hayOyentes()) eventos.publicar(new Evento.CargaCompletada("Réplica", archivo, vistos.size()));
+	}
+	
+	/**
+	 * Deja de replicar, como primario o como réplica.
+	 */
+	private void cerrarReplicacion() {
+		ServidorReplicacion servidor = servidorReplicacion;
+		ClienteReplicacion cliente = clienteReplicacion;
+		servidorReplicacion = null;
+		replicacion = null;
+		try {
+			if (servidor != null) servidor.close();
+			if (cliente != null) cliente.close();
+		} catch (IOException e) {
+			informarError("cerrar la replicación", e);
+		}
+	}
+	
+	/**
+	 * Marca el recurso para el guardado diferido, si está activo. No toca el disco.
+	 */
+	private void marcarCambio(RecursoBiblioteca recurso) {
+		GuardadoDiferido g = guardadoDiferido;
+		if (g != null) g.marcarRecurso(recurso.getId());
+	}
+	
+	/**
+	 * Rechaza la operación antes de aplicarla si el hilo escritor del diario se detuvo
+	 * por un error: lo que se cambiara en memoria ya no llegaría al disco.
 	 * 
-	 * @param usuario El usuario a agregar
-	 * @return true si se agregó correctamente, false si ya existía un usuario con el mismo ID
+	 * @throws UncheckedIOException con el error del diario
 	 */
-	public boolean agregarUsuario(Usuario usuario) {
-		if (usuarios.containsKey(usuario.getId())) return false;
-		usuarios.put(usuario.getId(), usuario);
-		return true;
+	private void comprobarDiario(Diario d) {
+		if (d == null) return;
+		try {
+			d.comprobarEscritor();
+		} catch (UncheckedIOException e) {
+			informarError("escribir el diario", e.getCause());
+			throw e;
+		}
 	}
 	
 	/**
-	 * Agrega un nuevo recurso a la biblioteca.
+	 * Espera a que un registro del diario sea durable según la política y lanza un
+	 * punto de control si toca. Si el diario falló antes de escribirlo, lo publica
+	 * como error de persistencia y lanza la excepción: la operación no es durable.
+	 */
+	private void esperarDiario(Diario d, Diario.Entrada entrada) {
+		try {
+			d.esperarDurable(entrada);
+		} catch (UncheckedIOException e) {
+			informarError("escribir el diario", e.getCause());
+			throw e;
+		}
+		comprobarPuntoControl(d);
+	}
+	
+	/**
+	 * Lanza un punto de control en segundo plano cuando el diario supera el umbral.
+	 */
+	private void comprobarPuntoControl(Diario d) {
+		if (d.getRegistrosDesdeRotacion() < registrosPorPuntoControl) return;
+		if (!puntoControlEnCurso.compareAndSet(false, true)) return;
+		Thread hilo = new Thread(() -> {
+			try {
+				puntoDeControl();
+			} finally {
+				puntoControlEnCurso.set(false);
+			}
+		}, "diario-punto-control");
+		hilo.setDaemon(true);
+		hilo.start();
+	}
+	
+	/**
+	 * Aplica un registro del diario sobre el estado en memoria.
+	 * Los registros son idempotentes: reaplicar uno ya reflejado no cambia nada.
+	 * Formatos: U,id,nombre | R,TIPO,id,titulo,extra | P,idRecurso,idUsuario,fecha | D,idRecurso
+	 * | X,idRecurso (recurso retirado), con los campos escapados según {@link FormatoRegistro}
+	 */
+	private void aplicarRegistro(String linea) {
+		int coma = linea.indexOf(',');
+		if (coma < 0) return;
+		try {
+			switch (linea.substring(0, coma)) {
+				case "U": {
+					String[] campos = FormatoRegistro.separar(linea, 3);
+					usuarios.agregar(new Usuario(campos[1], campos[2]));
+					break;
+				}
+				case "R": {
+					String[] campos = FormatoRegistro.separar(linea, 5);
+					RecursoBiblioteca recurso = crearRecurso(campos[1], campos[2], campos[3], campos[4]);
+					if (recurso != null && recursos.agregar(recurso)) {
+						indexarRecurso(recurso);
+					}
+					break;
+				}
+				case "P": {
+					String[] campos = FormatoRegistro.separar(linea, 4);
+					restaurarPrestamo(campos[1], campos[2], LocalDate.parse(campos[3]));
+					break;
+				}
+				case "D": {
+					RecursoBiblioteca recurso = recursos.get(FormatoRegistro.separar(linea, 2)[1]);
+					if (recurso != null) restaurarDevolucion(recurso);
+					break;
+				}
+				case "X": {
+					RecursoBiblioteca recurso = recursos.get(FormatoRegistro.separar(linea, 2)[1]);
+					if (recurso != null) restaurarRetirada(recurso);
+					break;
+				}
+			}
+		} catch (RuntimeException e) {
+			// Registro incompleto (p. ej. escritura interrumpida por una caída): se ignora
+		}
+	}
+	
+	/**
+	 * Deja disponible un recurso leído como devuelto y cierra su préstamo abierto, si lo tiene.
+	 */
+	private void restaurarDevolucion(RecursoBiblioteca recurso) {
+		recurso.setEstado(EstadoRecurso.DISPONIBLE);
+		actualizarEstado(recurso);
+		Prestamo abierto = indiceHistorial.getActivo(recurso.getId());
+		if (abierto != null && indiceHistorial.cerrar(recurso.getId(), abierto)) {
+			vencimientos.cancelar(abierto);
+			estadisticas.registrarDevolucion(recurso.getTipo());
+		}
+	}
+	
+	/**
+	 * Marca como retirado un recurso leído como retirado, si no lo estaba ya.
+	 */
+	private void restaurarRetirada(RecursoBiblioteca recurso) {
+		if (recurso.getEstado() == EstadoRecurso.RETIRADO) return;
+		recurso.setEstado(EstadoRecurso.RETIRADO);
+		actualizarEstado(recurso);
+		desindexarRecurso(recurso);
+	}
+	
+	/**
+	 * Vuelve a abrir un préstamo leído de disco (diario, instantánea o archivo de cambios).
+	 * Si el recurso ya tiene ese préstamo abierto no hace nada; si tiene otro lo cierra
+	 * antes (un archivo de cambios solo guarda el último préstamo de cada recurso).
+	 */
+	private void restaurarPrestamo(String idRecurso, String idUsuario, LocalDate fecha) {
+		RecursoBiblioteca recurso = recursos.get(idRecurso);
+		Usuario usuario = usuarios.get(idUsuario);
+		if (recurso == null || usuario == null) return;
+		Prestamo abierto = indiceHistorial.getActivo(idRecurso);
+		if (abierto != null) {
+			if (abierto.getUsuario().getId().equals(idUsuario) && abierto.getFechaPrestamo().equals(fecha)) return;
+			if (indiceHistorial.cerrar(idRecurso, abierto)) {
+				vencimientos.cancelar(abierto);
+				estadisticas.registrarDevolucion(recurso.getTipo());
+			}
+		}
+		recurso.setEstado(EstadoRecurso.PRESTADO);
+		actualizarEstado(recurso);
+		Prestamo prestamo = new Prestamo(recurso, usuario, fecha);
+		if (historialPersistente == null) historial.add(prestamo);
+		indiceHistorial.registrar(prestamo);
+		vencimientos.programar(prestamo);
+		contarPrestamo(prestamo);
+	}
+	
+	private void contarPrestamo(Prestamo prestamo) {
+		RecursoBiblioteca recurso = prestamo.getRecurso();
+		estadisticas.registrarPrestamo(recurso.getId(), prestamo.getUsuario().getId(), recurso.getTipo(),
+				prestamo.getFechaPrestamo());
+	}
+	
+	/**
+	 * Exporta los recursos fila a fila (ver {@link Exportador}), sin copiar el catálogo.
+	 * Los cambios hechos durante la exportación pueden salir o no.
 	 * 
-	 * @param recurso El recurso a agregar
-	 * @return true si se agregó correctamente, false si ya existía un recurso con el mismo ID
+	 * @param destino Exportador sobre el archivo o el flujo de salida
+	 * @return Filas escritas
+	 * @throws IOException si falla la escritura
 	 */
-	public boolean agregarRecurso(RecursoBiblioteca recurso) {
-		if (recursos.containsKey(recurso.getId())) return false;
-		recursos.put(recurso.getId(), recurso);
-		return true;
+	public long exportarRecursos(Exportador destino) throws IOException {
+		return destino.recursos(recursos.valores());
 	}
 	
 	/**
-	 * Obtiene un recurso por su ID.
+	 * Exporta los usuarios fila a fila (ver {@link Exportador}).
 	 * 
-	 * @param id El identificador del recurso
-	 * @return El recurso encontrado o null si no existe
+	 * @param destino Exportador sobre el archivo o el flujo de salida
+	 * @return Filas escritas
+	 * @throws IOException si falla la escritura
 	 */
-	public RecursoBiblioteca getRecurso(String id) {
-		return recursos.get(id);
+	public long exportarUsuarios(Exportador destino) throws IOException {
+		return destino.usuarios(usuarios.valores());
 	}
-
+	
 	/**
-	 * Obtiene un usuario por su ID.
+	 * Exporta el historial de un rango de fechas fila a fila (ver {@link Exportador}).
+	 * Con el historial persistente se leen de disco los meses del rango, préstamos y
+	 * devoluciones; sin él, los préstamos en memoria de esta ejecución.
 	 * 
-	 * @param id El identificador del usuario
-	 * @return El usuario encontrado o null si no existe
+	 * @param destino Exportador sobre el archivo o el flujo de salida
+	 * @param desde   Primera fecha incluida, o null para no acotar
+	 * @param hasta   Última fecha incluida, o null para no acotar
+	 * @return Filas escritas
+	 * @throws IOException si falla la lectura del historial o la escritura
 	 */
-	public Usuario getUsuario(String id) {
-		return usuarios.get(id);
+	public long exportarHistorial(Exportador destino, LocalDate desde, LocalDate hasta) throws IOException {
+		HistorialSegmentado persistente = historialPersistente;
+		if (persistente != null) return destino.historial(persistente, desde, hasta);
+		return destino.prestamos(historial, desde, hasta);
 	}
-
+	
 	/**
-	 * Obtiene todos los recursos de la biblioteca.
+	 * Guarda usuarios, recursos con su estado y préstamos abiertos en una
+	 * instantánea binaria (ver {@link InstantaneaBinaria}).
 	 * 
-	 * @return Colección con todos los recursos disponibles
+	 * @param nombreArchivo Ruta del archivo donde guardar la instantánea
 	 */
-	public Collection<RecursoBiblioteca> getRecursos() {
-		return recursos.values();
+	public void guardarInstantanea(String nombreArchivo) {
+		long inicio = metricas.iniciar();
+		try {
+			InstantaneaBinaria.escribir(nombreArchivo, usuarios.valores(), recursos.valores(), indiceHistorial.getActivos());
+			informarGuardado("Datos", nombreArchivo);
+			metricas.registrar(OperacionMedida.GUARDAR_INSTANTANEA, ResultadoOperacion.REALIZADO, inicio);
+		} catch (IOException e) {
+			informarError("guardar la instantánea", e);
+			metricas.registrar(OperacionMedida.GUARDAR_INSTANTANEA, ResultadoOperacion.ERROR, inicio);
+		}
 	}
 	
 	/**
-	 * Implementación del método de préstamo de recursos.
-	 * Verifica disponibilidad y registra el préstamo en el historial.
+	 * Carga usuarios, recursos y préstamos abiertos desde una instantánea binaria.
+	 * Es la alternativa rápida a cargar los archivos de texto.
 	 * 
-	 * @param recurso El recurso a prestar
-	 * @param usuario El usuario que solicita el préstamo
-	 * @return true si el préstamo fue exitoso, false en caso contrario
+	 * @param nombreArchivo Ruta de la instantánea
 	 */
-	@Override
-	public boolean prestar(RecursoBiblioteca recurso, Usuario usuario) {
-	    // Validación de parámetros
-	    if (recurso == null || usuario == null) {
-	        System.out.println("ERROR: Recurso o usuario no encontrado.");
-	        return false;
-	    }
+	public void cargarInstantanea(String nombreArchivo) {
+		if (!new File(nombreArchivo).exists()) return; // El archivo no existe, no hacemos nada
+		long inicio = metricas.iniciar();
+		try {
+			long[] cargados = new long[1];
+			InstantaneaBinaria.leer(nombreArchivo, new DestinoInstantanea() {
+				@Override
+				public void usuario(Usuario usuario) {
+					usuarios.poner(usuario);
+					cargados[0]++;
+				}
 
-	    // Verificamos disponibilidad del recurso
-	    if (recurso.getEstado() == EstadoRecurso.DISPONIBLE) {
-	        // Actualizamos estado y registramos el préstamo
-	        recurso.setEstado(EstadoRecurso.PRESTADO);
-	        historial.add(new Prestamo(recurso, usuario));  
-	        System.out.println("✅ Recurso prestado correctamente a " + usuario.getNombre());
-	        return true;
-	    } else {
-	        System.out.println("❌ El recurso no está disponible (estado: " + recurso.getEstado() + ").");
-	        return false;
-	    }
-	}
+				@Override
+				public void recurso(RecursoBiblioteca recurso) {
+					// Las reservas no se guardan: un recurso que estaba retenido vuelve a estar libre
+					if (recurso.getEstado() == EstadoRecurso.RESERVADO) recurso.setEstado(EstadoRecurso.DISPONIBLE);
+					ponerRecurso(recurso);
+					cargados[0]++;
+				}
 
+				@Override
+				public void prestamoActivo(String idRecurso, String idUsuario, LocalDate fechaPrestamo) {
+					restaurarPrestamo(idRecurso, idUsuario, fechaPrestamo);
+				}
+			});
+			if (eventos.hayOyentes()) eventos.publicar(new Evento.CargaCompletada("Datos", nombreArchivo, cargados[0]));
+			metricas.registrar(OperacionMedida.CARGAR_INSTANTANEA, ResultadoOperacion.REALIZADO, inicio);
+		} catch (IOException e) {
+			informarError("cargar la instantánea", e);
+			metricas.registrar(OperacionMedida.CARGAR_INSTANTANEA, ResultadoOperacion.ERROR, inicio);
+		}
+	}
+	
 	/**
-	 * Implementación del método de devolución de recursos.
-	 * Actualiza el estado del recurso a DISPONIBLE.
-	 * 
-	 * @param recurso El recurso a devolver
-	 * @return true si la devolución fue exitosa, false en caso contrario
+	 * Escribe un archivo completo en un temporal y lo renombra sobre el destino,
+	 * de modo que nunca queda un archivo a medio escribir.
 	 */
-	@Override
-	public boolean devolver(RecursoBiblioteca recurso) {
-		// Validación de parámetros
-		if (recurso == null) {
-			System.out.println("ERROR: Recurso no encontrado.");
-			return false;
+	private static void escribirAtomicamente(String nombreArchivo, Consumer<PrintWriter> contenido) throws IOException {
+		String temporal = nombreArchivo + ".tmp";
+		try (PrintWriter writer = new PrintWriter(new FileWriter(temporal))) {
+			contenido.accept(writer);
+			if (writer.checkError()) throw new IOException("No se pudo escribir " + temporal);
 		}
-		
-		// Verificamos que el recurso esté efectivamente prestado
-		if (recurso.getEstado() == EstadoRecurso.PRESTADO) {
-			recurso.setEstado(EstadoRecurso.DISPONIBLE);
-			System.out.println("Recurso devuelto correctamente.");
-			return true;
-		} else {
-			System.out.println("El recurso no estaba prestado (estado: " + recurso.getEstado() + ").");
-			return false;
+		Files.move(Paths.get(temporal), Paths.get(nombreArchivo),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Reescribe de forma atómica las instantáneas de usuarios, recursos y préstamos activos.
+	 */
+	private void escribirArchivosCompletos() throws IOException {
+		escribirAtomicamente(archivoUsuarios, this::escribirUsuarios);
+		escribirAtomicamente(archivoRecursos, this::escribirRecursos);
+		escribirAtomicamente(archivoPrestamos, this::escribirPrestamosActivos);
+	}
+	
+	/**
+	 * Aplica los registros de un archivo (préstamos activos de un punto de control), si existe.
+	 */
+	private void aplicarArchivo(String nombreArchivo) throws IOException {
+		File archivo = new File(nombreArchivo);
+		if (!archivo.exists()) return;
+		try (BufferedReader reader = new BufferedReader(new FileReader(archivo))) {
+			String linea;
+			while ((linea = reader.readLine()) != null) {
+				aplicarRegistro(linea);
+			}
+		}
+	}
+	
+	/**
+	 * Escribe un registro P por cada recurso actualmente prestado.
+	 */
+	private void escribirPrestamosActivos(PrintWriter writer) {
+		for (Prestamo p : indiceHistorial.getActivos()) {
+			writer.println(lineaDiario(p.getRecurso(), p, TipoMovimiento.PRESTAMO));
 		}
 	}
 	
@@ -157,14 +2131,23 @@ public class BibliotecaManager implements Prestamista {
 	 * @param nombreArchivo Ruta del archivo donde guardar los datos
 	 */
 	public void guardarUsuariosEnArchivo(String nombreArchivo) {
+	    long inicio = metricas.iniciar();
 	    try (PrintWriter writer = new PrintWriter(new FileWriter(nombreArchivo))) {
-	        // Iteramos sobre todos los usuarios y los escribimos línea a línea
-	        for (Usuario u : usuarios.values()) {
-	            writer.println(u.getId() + "," + u.getNombre());
-	        }
-	        System.out.println("💾 Usuarios guardados en " + nombreArchivo);
+	        escribirUsuarios(writer);
+	        informarGuardado("Usuarios", nombreArchivo);
+	        metricas.registrar(OperacionMedida.GUARDAR_USUARIOS, ResultadoOperacion.REALIZADO, inicio);
 	    } catch (IOException e) {
-	        System.out.println("❌ Error al guardar usuarios: " + e.getMessage());
+	        informarError("guardar usuarios", e);
+	        metricas.registrar(OperacionMedida.GUARDAR_USUARIOS, ResultadoOperacion.ERROR, inicio);
+	    }
+	}
+
+	/**
+	 * Escribe los usuarios línea a línea en formato ID,Nombre.
+	 */
+	private void escribirUsuarios(PrintWriter writer) {
+	    for (Usuario u : usuarios.valores()) {
+	        writer.println(FormatoRegistro.unir(u.getId(), u.getNombre()));
 	    }
 	}
 
@@ -177,21 +2160,26 @@ public class BibliotecaManager implements Prestamista {
 	public void cargarUsuariosDesdeArchivo(String nombreArchivo) {
 	    File archivo = new File(nombreArchivo);
 	    if (!archivo.exists()) return; // El archivo no existe, no hacemos nada
+	    long inicio = metricas.iniciar();
 
 	    try (BufferedReader reader = new BufferedReader(new FileReader(archivo))) {
 	        String linea;
+	        long cargados = 0;
 	        // Leemos línea por línea y creamos usuarios
 	        while ((linea = reader.readLine()) != null) {
-	            String[] partes = linea.split(",", 2);
+	            String[] partes = FormatoRegistro.separar(linea, 2);
 	            if (partes.length == 2) {
 	                String id = partes[0];
 	                String nombre = partes[1];
-	                usuarios.put(id, new Usuario(id, nombre));
+	                usuarios.poner(new Usuario(id, nombre));
+	                cargados++;
 	            }
 	        }
-	        System.out.println("📂 Usuarios cargados desde " + nombreArchivo);
+	        if (eventos.hayOyentes()) eventos.publicar(new Evento.CargaCompletada("Usuarios", nombreArchivo, cargados));
+	        metricas.registrar(OperacionMedida.CARGAR_USUARIOS, ResultadoOperacion.REALIZADO, inicio);
 	    } catch (IOException e) {
-	        System.out.println("❌ Error al cargar usuarios: " + e.getMessage());
+	        informarError("cargar usuarios", e);
+	        metricas.registrar(OperacionMedida.CARGAR_USUARIOS, ResultadoOperacion.ERROR, inicio);
 	    }
 	}
 	
@@ -199,13 +2187,13 @@ public class BibliotecaManager implements Prestamista {
 	 * Muestra en consola la lista de usuarios registrados.
 	 */
 	public void listarUsuarios() {
-	    if (usuarios.isEmpty()) {
+	    if (usuarios.tamano() == 0) {
 	        System.out.println("📭 No hay usuarios registrados.");
 	        return;
 	    }
 
 	    System.out.println("👥 Lista de usuarios registrados:");
-	    for (Usuario u : usuarios.values()) {
+	    for (Usuario u : usuarios.valores()) {
 	        System.out.println("- ID: " + u.getId() + " | Nombre: " + u.getNombre());
 	    }
 	}
@@ -220,11 +2208,15 @@ public class BibliotecaManager implements Prestamista {
 	public void cargarRecursosDesdeArchivo(String nombreArchivo) {
 	    File archivo = new File(nombreArchivo);
 	    if (!archivo.exists()) return; // El archivo no existe, no hacemos nada
+	    long inicio = metricas.iniciar();
 
 	    try (BufferedReader reader = new BufferedReader(new FileReader(archivo))) {
 	        String linea;
+	        int numeroLinea = 0;
+	        long cargados = 0;
 	        while ((linea = reader.readLine()) != null) {
-	            String[] partes = linea.split(",", 4);
+	            numeroLinea++;
+	            String[] partes = FormatoRegistro.separar(linea, 4);
 	            if (partes.length < 4) continue; // Línea inválida, saltamos
 
 	            // Extraemos los componentes comunes
@@ -233,35 +2225,99 @@ public class BibliotecaManager implements Prestamista {
 	            String titulo = partes[2];
 	            String extra = partes[3];
 
-	            RecursoBiblioteca recurso = null;
-
-	            // Creamos el tipo de recurso según lo especificado
-	            switch (tipo.toUpperCase()) {
-	                case "LIBRO":
-	                    recurso = new Libro(id, titulo, extra); // extra es el autor
-	                    break;
-	                case "REVISTA":
-	                    int numeroEdicion = Integer.parseInt(extra);
-	                    recurso = new Revista(id, titulo, numeroEdicion);
-	                    break;
-	                case "DVD":
-	                    int duracion = Integer.parseInt(extra);
-	                    recurso = new DVD(id, titulo, duracion);
-	                    break;
+	            // Creamos el tipo de recurso según lo especificado; un número mal
+	            // escrito solo descarta esa línea, no el resto del archivo
+	            RecursoBiblioteca recurso;
+	            try {
+	                recurso = crearRecurso(tipo, id, titulo, extra);
+	            } catch (NumberFormatException e) {
+	                if (eventos.hayOyentes()) {
+	                    eventos.publicar(new Evento.LineaDescartada(nombreArchivo,
+	                            new ErrorCarga(numeroLinea, linea, "número no válido en revista o DVD: " + e.getMessage())));
+	                }
+	                continue;
 	            }
 
 	            // Si se creó correctamente, lo agregamos a la colección
 	            if (recurso != null) {
-	                recursos.put(id, recurso);
+	                ponerRecurso(recurso);
+	                cargados++;
 	            }
 	        }
 
-	        System.out.println("📂 Recursos cargados desde " + nombreArchivo);
+	        if (eventos.hayOyentes()) eventos.publicar(new Evento.CargaCompletada("Recursos", nombreArchivo, cargados));
+	        metricas.registrar(OperacionMedida.CARGAR_RECURSOS, ResultadoOperacion.REALIZADO, inicio);
+	    } catch (IOException e) {
+	        informarError("cargar recursos", e);
+	        metricas.registrar(OperacionMedida.CARGAR_RECURSOS, ResultadoOperacion.ERROR, inicio);
+	    }
+	}
+	
+	/**
+	 * Carga los recursos desde un archivo de texto usando el cargador paralelo:
+	 * el archivo se mapea en memoria y se interpreta por trozos en varios hilos.
+	 * Mismo formato que {@link #cargarRecursosDesdeArchivo(String)}; las líneas
+	 * incorrectas se informan una a una y no interrumpen la carga.
+	 * 
+	 * @param nombreArchivo Ruta del archivo de donde cargar los datos
+	 */
+	public void cargarRecursosEnParalelo(String nombreArchivo) {
+	    if (!new File(nombreArchivo).exists()) return; // El archivo no existe, no hacemos nada
+	    long inicio = metricas.iniciar();
+	    try {
+	        ResultadoCarga resultado = CargadorParalelo.cargarRecursos(nombreArchivo, this::ponerRecurso);
+	        informarCarga("Recursos", nombreArchivo, resultado);
+	        metricas.registrar(OperacionMedida.CARGAR_RECURSOS, ResultadoOperacion.REALIZADO, inicio);
+	    } catch (IOException e) {
+	        informarError("cargar recursos", e);
+	        metricas.registrar(OperacionMedida.CARGAR_RECURSOS, ResultadoOperacion.ERROR, inicio);
+	    }
+	}
+	
+	/**
+	 * Carga los usuarios desde un archivo de texto usando el cargador paralelo.
+	 * Mismo formato que {@link #cargarUsuariosDesdeArchivo(String)}.
+	 * 
+	 * @param nombreArchivo Ruta del archivo de donde cargar los datos
+	 */
+	public void cargarUsuariosEnParalelo(String nombreArchivo) {
+	    if (!new File(nombreArchivo).exists()) return; // El archivo no existe, no hacemos nada
+	    long inicio = metricas.iniciar();
+	    try {
+	        ResultadoCarga resultado = CargadorParalelo.cargarUsuarios(nombreArchivo, usuarios::poner);
+	        informarCarga("Usuarios", nombreArchivo, resultado);
+	        metricas.registrar(OperacionMedida.CARGAR_USUARIOS, ResultadoOperacion.REALIZADO, inicio);
 	    } catch (IOException e) {
-	        System.out.println("❌ Error al cargar recursos: " + e.getMessage());
-	    } catch (NumberFormatException e) {
-	        System.out.println("❌ Error al interpretar número en revista o DVD: " + e.getMessage());
+	        informarError("cargar usuarios", e);
+	        metricas.registrar(OperacionMedida.CARGAR_USUARIOS, ResultadoOperacion.ERROR, inicio);
+	    }
+	}
+	
+	/**
+	 * Publica cada línea descartada y el resumen de una carga.
+	 */
+	private void informarCarga(String que, String nombreArchivo, ResultadoCarga resultado) {
+	    if (!eventos.hayOyentes()) return;
+	    for (ErrorCarga error : resultado.getErrores()) {
+	        eventos.publicar(new Evento.LineaDescartada(nombreArchivo, error));
 	    }
+	    eventos.publicar(new Evento.CargaCompletada(que, nombreArchivo, resultado.getCargados()));
+	}
+	
+	/**
+	 * Publica que se terminó de guardar un archivo.
+	 */
+	private void informarGuardado(String que, String nombreArchivo) {
+	    if (eventos.hayOyentes()) eventos.publicar(new Evento.GuardadoCompletado(que, nombreArchivo));
+	}
+	
+	/**
+	 * Publica un error de persistencia.
+	 * 
+	 * @param operacion Operación que falló, en infinitivo ("guardar usuarios")
+	 */
+	private void informarError(String operacion, IOException e) {
+	    if (eventos.hayOyentes()) eventos.publicar(new Evento.ErrorPersistencia(operacion, e.getMessage()));
 	}
 	
 	/**
@@ -271,37 +2327,124 @@ public class BibliotecaManager implements Prestamista {
 	 * @param nombreArchivo Ruta del archivo donde guardar los datos
 	 */
 	public void guardarRecursosEnArchivo(String nombreArchivo) {
+	    long inicio = metricas.iniciar();
 	    try (PrintWriter writer = new PrintWriter(new FileWriter(nombreArchivo))) {
-	        // Iteramos por todos los recursos
-	        for (RecursoBiblioteca r : recursos.values()) {
-	            // Dependiendo del tipo, guardamos diferente información
-	            if (r instanceof Libro) {
-	                Libro libro = (Libro) r;
-	                writer.println("LIBRO," + libro.getId() + "," + libro.getTitulo() + "," + libro.getAutor());
-	            } else if (r instanceof Revista) {
-	                Revista revista = (Revista) r;
-	                writer.println("REVISTA," + revista.getId() + "," + revista.getTitulo() + "," + revista.getNumeroEdicion());
-	            } else if (r instanceof DVD) {
-	                DVD dvd = (DVD) r;
-	                writer.println("DVD," + dvd.getId() + "," + dvd.getTitulo() + "," + dvd.getDuracionMinutos());
-	            }
-	        }
-	        System.out.println("💾 Recursos guardados en " + nombreArchivo);
+	        escribirRecursos(writer);
+	        informarGuardado("Recursos", nombreArchivo);
+	        metricas.registrar(OperacionMedida.GUARDAR_RECURSOS, ResultadoOperacion.REALIZADO, inicio);
 	    } catch (IOException e) {
-	        System.out.println("❌ Error al guardar recursos: " + e.getMessage());
+	        informarError("guardar recursos", e);
+	        metricas.registrar(OperacionMedida.GUARDAR_RECURSOS, ResultadoOperacion.ERROR, inicio);
+	    }
+	}
+	
+	/**
+	 * Escribe los recursos línea a línea en formato TIPO,ID,TITULO,EXTRA.
+	 */
+	private void escribirRecursos(PrintWriter writer) {
+	    for (RecursoBiblioteca r : recursos.valores()) {
+	        if (r.getEstado() == EstadoRecurso.RETIRADO) continue;
+	        String linea = lineaRecurso(r);
+	        if (linea != null) writer.println(linea);
+	    }
+	}
+	
+	/**
+	 * Construye la línea TIPO,ID,TITULO,EXTRA de un recurso, con los campos escapados.
+	 * Dependiendo del tipo, el campo extra guarda diferente información.
+	 * 
+	 * @return La línea, o null si el tipo de recurso no es conocido
+	 */
+	private static String lineaRecurso(RecursoBiblioteca r) {
+	    if (r instanceof Libro) {
+	        Libro libro = (Libro) r;
+	        return FormatoRegistro.unir("LIBRO", libro.getId(), libro.getTitulo(), libro.getAutor());
+	    } else if (r instanceof Revista) {
+	        Revista revista = (Revista) r;
+	        return FormatoRegistro.unir("REVISTA", revista.getId(), revista.getTitulo(),
+	                Integer.toString(revista.getNumeroEdicion()));
+	    } else if (r instanceof DVD) {
+	        DVD dvd = (DVD) r;
+	        return FormatoRegistro.unir("DVD", dvd.getId(), dvd.getTitulo(), Integer.toString(dvd.getDuracionMinutos()));
+	    }
+	    return null;
+	}
+	
+	/**
+	 * Crea el recurso correspondiente a un tipo textual (LIBRO, REVISTA o DVD).
+	 * 
+	 * @return El recurso creado, o null si el tipo no es conocido
+	 * @throws NumberFormatException si el campo extra de una revista o DVD no es un número
+	 */
+	private static RecursoBiblioteca crearRecurso(String tipo, String id, String titulo, String extra) {
+	    switch (tipo.toUpperCase()) {
+	        case "LIBRO":
+	            return new Libro(id, titulo, extra); // extra es el autor
+	        case "REVISTA":
+	            return new Revista(id, titulo, Integer.parseInt(extra));
+	        case "DVD":
+	            return new DVD(id, titulo, Integer.parseInt(extra));
+	        default:
+	            return null;
 	    }
 	}
 	
 	/**
-	 * Muestra en consola el historial de préstamos realizados.
+	 * Muestra en consola los últimos {@value #MOVIMIENTOS_VISIBLES} préstamos y
+	 * cuántos hay en total; el resto se consulta con los recuentos por mes, tipo o
+	 * usuario. Si el historial persistente está activo, se leen de disco los meses
+	 * más recientes e incluye los movimientos de ejecuciones anteriores.
 	 */
 	public void verHistorialPrestamos() {
-	    if (historial.isEmpty()) {
+	    HistorialSegmentado persistente = historialPersistente;
+	    if (persistente != null) {
+	        verHistorialPersistente(persistente);
+	        return;
+	    }
+	    ArrayDeque<Prestamo> ultimos = new ArrayDeque<>(MOVIMIENTOS_VISIBLES);
+	    long total = 0;
+	    for (Prestamo p : historial) {
+	        if (ultimos.size() == MOVIMIENTOS_VISIBLES) ultimos.removeFirst();
+	        ultimos.addLast(p);
+	        total++;
+	    }
+	    if (total == 0) {
 	        System.out.println("📭 No hay préstamos registrados.");
-	    } else {
-	        System.out.println("📚 Historial de préstamos:");
-	        for (Prestamo p : historial) {
-	            System.out.println("- " + p.resumen());
+	        return;
+	    }
+	    System.out.println("📚 Historial de préstamos (últimos " + ultimos.size() + " de " + total + "):");
+	    for (Prestamo p : ultimos) {
+	        System.out.println("- " + p.resumen());
+	    }
+	}
+	
+	/**
+	 * Muestra los últimos movimientos del historial persistente sin cargar el resto en memoria.
+	 */
+	private void verHistorialPersistente(HistorialSegmentado persistente) {
+	    List<RegistroHistorial> ultimos;
+	    long total = 0;
+	    try {
+	        ultimos = persistente.ultimos(MOVIMIENTOS_VISIBLES);
+	        for (long n : persistente.contarPorMes(null, null, null).values()) total += n;
+	    } catch (IOException e) {
+	        System.out.println("❌ Error al leer el historial: " + e.getMessage());
+	        return;
+	    }
+	    if (ultimos.isEmpty()) {
+	        System.out.println("📭 No hay préstamos registrados.");
+	        return;
+	    }
+	    System.out.println("📚 Historial de préstamos (últimos " + ultimos.size() + " movimientos de " + total + "):");
+	    for (RegistroHistorial r : ultimos) {
+	        RecursoBiblioteca recurso = recursos.get(r.getIdRecurso());
+	        String titulo = recurso != null ? recurso.getTitulo() : r.getIdRecurso();
+	        if (r.getMovimiento() == TipoMovimiento.PRESTAMO) {
+	            Usuario usuario = usuarios.get(r.getIdUsuario());
+	            String nombre = usuario != null ? usuario.getNombre() : r.getIdUsuario();
+	            System.out.println("- " + titulo + " prestado a " + nombre + " el " + r.getFecha());
+	        } else {
+	            System.out.println("- " + titulo + " devuelto el " + r.getFecha());
 	        }
 	    }
 	}
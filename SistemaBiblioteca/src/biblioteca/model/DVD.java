@@ -1,5 +1,7 @@
 package biblioteca.model;
 
+import biblioteca.enums.TipoRecurso;
+
 /**
  * Clase que representa un DVD como recurso de la biblioteca.
  * Contiene la duracion en minutos como atributo adicional.
@@ -27,8 +29,12 @@ public class DVD extends RecursoBiblioteca {
 	
 	@Override
 	public String descripcion() {
-		  return "DVD - ID: " + id + ", Título: " + titulo + ", Duración: " + duracionMinutos +
-	               " min, Estado: " + estado;
+		  return "DVD - ID: " + getId() + ", Título: " + getTitulo() + ", Duración: " + getDuracionMinutos() +
+	               " min, Estado: " + getEstado();
+	}
+	
+	@Override
+	public TipoRecurso getTipo() {
+		return TipoRecurso.DVD;
 	}
 }
-
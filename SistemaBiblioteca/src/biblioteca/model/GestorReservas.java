@@ -0,0 +1,262 @@
+package biblioteca.model;
+
+import biblioteca.enums.EstadoRecurso;
+import biblioteca.enums.EstadoReserva;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Reservas de los recursos: una lista de espera FIFO por recurso y la retención
+ * del recurso para el primero de la lista cuando queda libre.
+ *
+ * Todas las transiciones en las que interviene RESERVADO se hacen sincronizando
+ * sobre la lista de espera del recurso, así que reservar, devolver y caducar una
+ * retención no pueden cruzarse. Los recursos sin lista no pagan nada: prestar y
+ * devolver siguen siendo un CAS.
+ *
+ * Las retenciones caducan en un hilo temporizador; al caducar, el recurso pasa
+ * al siguiente de la lista o queda DISPONIBLE. Las reservas solo viven en memoria.
+ */
+class GestorReservas {
+
+	/** Retención por defecto de un recurso para el usuario que lo reservó */
+	static final Duration RETENCION_POR_DEFECTO = Duration.ofDays(3);
+
+	private final Map<String, ListaEspera> listas = new ConcurrentHashMap<>();
+	private final Consumer<Reserva> alRetener;
+	private final Consumer<Reserva> alCaducar;
+	private final Consumer<RecursoBiblioteca> alCambiarEstado;
+	private volatile Duration retencion = RETENCION_POR_DEFECTO;
+	private ScheduledThreadPoolExecutor temporizador;
+
+	/**
+	 * @param alRetener Se llama cuando un recurso queda retenido para una reserva
+	 * @param alCaducar Se llama cuando una retención caduca sin que se recoja el recurso
+	 * @param alCambiarEstado Se llama cuando el temporizador cambia el estado de un recurso
+	 *                        (el resto de transiciones las pide quien usa el gestor)
+	 */
+	GestorReservas(Consumer<Reserva> alRetener, Consumer<Reserva> alCaducar, Consumer<RecursoBiblioteca> alCambiarEstado) {
+		this.alRetener = alRetener;
+		this.alCaducar = alCaducar;
+		this.alCambiarEstado = alCambiarEstado;
+	}
+
+	/**
+	 * Pone al usuario en la lista de espera del recurso. Si el recurso está
+	 * disponible y nadie espera, queda retenido para él en ese momento.
+	 *
+	 * @return La reserva, o la que el usuario ya tuviera para ese recurso; null si el recurso está retirado
+	 */
+	Reserva reservar(RecursoBiblioteca recurso, Usuario usuario) {
+		ListaEspera lista = listas.computeIfAbsent(recurso.getId(), k -> new ListaEspera());
+		synchronized (lista) {
+			if (recurso.getEstado() == EstadoRecurso.RETIRADO) return null;
+			Reserva reserva = lista.encolar(recurso, usuario);
+			promover(lista, recurso);
+			return reserva;
+		}
+	}
+
+	/**
+	 * Retira un recurso DISPONIBLE que nadie espera. Con la lista sincronizada, una
+	 * reserva no puede colarse entre la comprobación y el cambio de estado, y las que
+	 * lleguen después ven el recurso retirado.
+	 *
+	 * @return true si el recurso pasó a RETIRADO
+	 */
+	boolean retirar(RecursoBiblioteca recurso) {
+		ListaEspera lista = listas.get(recurso.getId());
+		if (lista == null) return recurso.compararYEstablecerEstado(EstadoRecurso.DISPONIBLE, EstadoRecurso.RETIRADO);
+		synchronized (lista) {
+			if (lista.retenida != null || lista.primera() != null) return false;
+			return recurso.compararYEstablecerEstado(EstadoRecurso.DISPONIBLE, EstadoRecurso.RETIRADO);
+		}
+	}
+
+	/**
+	 * Cancela una reserva en espera o libera la retención de una reserva retenida.
+	 *
+	 * @return true si la reserva seguía activa
+	 */
+	boolean cancelar(Reserva reserva) {
+		ListaEspera lista = listas.get(reserva.getRecurso().getId());
+		if (lista == null) return false;
+		synchronized (lista) {
+			if (lista.quitar(reserva)) {
+				reserva.terminar(EstadoReserva.CANCELADA);
+				return true;
+			}
+			if (lista.retenida != reserva) return false;
+			soltarRetencion(lista, reserva, EstadoReserva.CANCELADA);
+			return true;
+		}
+	}
+
+	/**
+	 * Transición RESERVADO -> PRESTADO para el usuario que tiene la retención.
+	 *
+	 * @return true si el usuario tenía el recurso retenido y ahora es suyo
+	 */
+	boolean cumplir(RecursoBiblioteca recurso, Usuario usuario) {
+		ListaEspera lista = listas.get(recurso.getId());
+		if (lista == null) return false;
+		synchronized (lista) {
+			Reserva reserva = lista.retenida;
+			if (reserva == null || !reserva.getUsuario().getId().equals(usuario.getId())) return false;
+			if (!recurso.compararYEstablecerEstado(EstadoRecurso.RESERVADO, EstadoRecurso.PRESTADO)) return false;
+			lista.retenida = null;
+			lista.olvidar(reserva);
+			reserva.terminar(EstadoReserva.CUMPLIDA);
+			return true;
+		}
+	}
+
+	/**
+	 * Transición de un recurso recién devuelto: PRESTADO -> RESERVADO para el
+	 * primero de la lista de espera, en O(1), o PRESTADO -> DISPONIBLE si no espera nadie.
+	 */
+	void liberar(RecursoBiblioteca recurso) {
+		ListaEspera lista = listas.get(recurso.getId());
+		if (lista == null) {
+			recurso.compararYEstablecerEstado(EstadoRecurso.PRESTADO, EstadoRecurso.DISPONIBLE);
+			// Una reserva pudo crear la lista y ver el recurso aún PRESTADO justo antes
+			// del CAS; entonces se le da el recurso aquí
+			lista = listas.get(recurso.getId());
+			if (lista == null) return;
+			synchronized (lista) {
+				promover(lista, recurso);
+			}
+			return;
+		}
+		synchronized (lista) {
+			Reserva primera = lista.primera();
+			if (primera != null && recurso.compararYEstablecerEstado(EstadoRecurso.PRESTADO, EstadoRecurso.RESERVADO)) {
+				retener(lista, lista.sacarPrimera());
+			} else {
+				recurso.compararYEstablecerEstado(EstadoRecurso.PRESTADO, EstadoRecurso.DISPONIBLE);
+			}
+		}
+	}
+
+	/**
+	 * @return Posición en la lista de espera empezando en 1, o 0 si la reserva no está en espera
+	 */
+	int posicion(Reserva reserva) {
+		ListaEspera lista = listas.get(reserva.getRecurso().getId());
+		if (lista == null) return 0;
+		synchronized (lista) {
+			return lista.posicion(reserva);
+		}
+	}
+
+	/**
+	 * @return Usuarios en la lista de espera del recurso (sin contar la retención)
+	 */
+	int longitud(String idRecurso) {
+		ListaEspera lista = listas.get(idRecurso);
+		return lista == null ? 0 : lista.enEspera();
+	}
+
+	/**
+	 * @return La reserva en espera o retenida del usuario para el recurso, o null
+	 */
+	Reserva buscar(String idRecurso, String idUsuario) {
+		ListaEspera lista = listas.get(idRecurso);
+		if (lista == null) return null;
+		synchronized (lista) {
+			return lista.buscar(idUsuario);
+		}
+	}
+
+	/**
+	 * @return La reserva que tiene el recurso retenido, o null
+	 */
+	Reserva getRetenida(String idRecurso) {
+		ListaEspera lista = listas.get(idRecurso);
+		if (lista == null) return null;
+		synchronized (lista) {
+			return lista.retenida;
+		}
+	}
+
+	void setRetencion(Duration retencion) {
+		if (retencion.isNegative() || retencion.isZero()) {
+			throw new IllegalArgumentException("La retención debe ser positiva");
+		}
+		this.retencion = retencion;
+	}
+
+	/**
+	 * Detiene el temporizador de caducidades. Las retenciones en curso ya no caducan.
+	 */
+	synchronized void cerrar() {
+		if (temporizador != null) temporizador.shutdownNow();
+		temporizador = null;
+	}
+
+	/**
+	 * Si el recurso está DISPONIBLE sin retención y alguien espera, lo retiene
+	 * para el primero. Se llama con la lista sincronizada.
+	 */
+	private void promover(ListaEspera lista, RecursoBiblioteca recurso) {
+		if (lista.retenida != null || lista.primera() == null) return;
+		if (recurso.compararYEstablecerEstado(EstadoRecurso.DISPONIBLE, EstadoRecurso.RESERVADO)) {
+			retener(lista, lista.sacarPrimera());
+		}
+	}
+
+	/**
+	 * Termina la retención actual y pasa el recurso al siguiente de la lista, o lo
+	 * deja DISPONIBLE. Se llama con la lista sincronizada.
+	 */
+	private void soltarRetencion(ListaEspera lista, Reserva reserva, EstadoReserva estadoFinal) {
+		lista.retenida = null;
+		lista.olvidar(reserva);
+		reserva.terminar(estadoFinal);
+		if (estadoFinal == EstadoReserva.CADUCADA) alCaducar.accept(reserva);
+		Reserva siguiente = lista.sacarPrimera();
+		if (siguiente != null) {
+			retener(lista, siguiente);
+		} else {
+			reserva.getRecurso().compararYEstablecerEstado(EstadoRecurso.RESERVADO, EstadoRecurso.DISPONIBLE);
+		}
+	}
+
+	/**
+	 * Retiene el recurso (ya RESERVADO) para la reserva y programa su caducidad.
+	 */
+	private void retener(ListaEspera lista, Reserva reserva) {
+		Duration duracion = retencion;
+		reserva.retener(Instant.now().plus(duracion));
+		lista.retenida = reserva;
+		reserva.caducidad = temporizador().schedule(() -> caducar(reserva), duracion.toMillis(), TimeUnit.MILLISECONDS);
+		alRetener.accept(reserva);
+	}
+
+	private void caducar(Reserva reserva) {
+		ListaEspera lista = listas.get(reserva.getRecurso().getId());
+		synchronized (lista) {
+			if (lista.retenida != reserva) return;
+			reserva.caducidad = null;
+			soltarRetencion(lista, reserva, EstadoReserva.CADUCADA);
+			alCambiarEstado.accept(reserva.getRecurso());
+		}
+	}
+
+	private synchronized ScheduledThreadPoolExecutor temporizador() {
+		if (temporizador == null) {
+			temporizador = new ScheduledThreadPoolExecutor(1, r -> {
+				Thread hilo = new Thread(r, "reservas-caducidad");
+				hilo.setDaemon(true);
+				return hilo;
+			});
+			temporizador.setRemoveOnCancelPolicy(true);
+		}
+		return temporizador;
+	}
+}
@@ -0,0 +1,184 @@
+package biblioteca.model;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Vencimientos de los préstamos abiertos.
+ *
+ * Cada préstamo abierto y en plazo tiene un temporizador en una
+ * {@link RuedaTemporizadores} cuyo tick es el día (en días desde la época) en que
+ * pasa a estar vencido. Hay {@value #FRANJAS} ruedas, cada una con su propio
+ * cerrojo, y cada préstamo va a la de su recurso: abrir y cerrar préstamos desde
+ * muchos hilos no compite por un único cerrojo. Programar y cancelar cuestan O(1)
+ * y revisar solo toca los préstamos que vencen, no todos los abiertos.
+ *
+ * Un hilo temporizador revisa las ruedas cada minuto para detectar el cambio de día.
+ * No se guarda nada en disco: la fecha de vencimiento sale de la del préstamo y
+ * del plazo de su tipo, así que al cargar los préstamos se vuelven a programar. Los
+ * que vencieron con la aplicación parada se marcan como vencidos al cargarlos, sin aviso.
+ */
+class GestorVencimientos {
+
+	/** Ruedas independientes (potencia de dos) */
+	private static final int FRANJAS = 16;
+
+	/** Cada cuánto se comprueba si cambió el día */
+	private static final long PERIODO_REVISION_MS = 60_000;
+
+	private final RuedaTemporizadores<Prestamo>[] ruedas;
+
+	/** Préstamos abiertos con el plazo terminado, por ID de recurso */
+	private final Map<String, Prestamo> vencidos = new ConcurrentHashMap<>();
+
+	private final Consumer<Prestamo> alVencer;
+	private volatile ScheduledThreadPoolExecutor temporizador;
+
+	/**
+	 * @param alVencer Se llama cuando vence un préstamo que sigue abierto
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	GestorVencimientos(Consumer<Prestamo> alVencer) {
+		this.alVencer = alVencer;
+		this.ruedas = new RuedaTemporizadores[FRANJAS];
+		// El día de hoy se da por revisado: lo que ya está vencido no se avisa
+		long manana = LocalDate.now().toEpochDay() + 1;
+		for (int i = 0; i < FRANJAS; i++) ruedas[i] = new RuedaTemporizadores<>(manana);
+	}
+
+	/**
+	 * Programa el aviso de vencimiento de un préstamo recién abierto o cargado de
+	 * disco. Si ya está vencido se marca directamente.
+	 */
+	void programar(Prestamo prestamo) {
+		long dia = prestamo.getFechaVencimiento().toEpochDay() + 1;
+		RuedaTemporizadores<Prestamo> rueda = rueda(prestamo);
+		boolean yaVencido;
+		synchronized (rueda) {
+			if (prestamo.isDevuelto()) return;
+			yaVencido = dia < rueda.actual();
+			if (!yaVencido) prestamo.vencimiento = rueda.programar(prestamo, dia);
+		}
+		if (yaVencido) {
+			marcar(prestamo);
+		} else if (temporizador == null) {
+			iniciarTemporizador();
+		}
+	}
+
+	/**
+	 * Quita el aviso de un préstamo que se acaba de cerrar (ya marcado como devuelto).
+	 */
+	void cancelar(Prestamo prestamo) {
+		RuedaTemporizadores<Prestamo> rueda = rueda(prestamo);
+		synchronized (rueda) {
+			if (prestamo.vencimiento != null) {
+				rueda.cancelar(prestamo.vencimiento);
+				prestamo.vencimiento = null;
+			}
+		}
+		vencidos.remove(prestamo.getRecurso().getId(), prestamo);
+	}
+
+	/**
+	 * Avanza las ruedas hasta el día indicado y marca como vencidos los préstamos
+	 * cuyo plazo terminó antes de ese día.
+	 *
+	 * @return Préstamos que pasaron a estar vencidos
+	 */
+	int revisar(LocalDate hoy) {
+		long dia = hoy.toEpochDay();
+		List<Prestamo> vencen = new ArrayList<>();
+		int total = 0;
+		for (RuedaTemporizadores<Prestamo> rueda : ruedas) {
+			synchronized (rueda) {
+				rueda.avanzar(dia, vencen);
+				for (Prestamo prestamo : vencen) prestamo.vencimiento = null;
+			}
+			// Los avisos se dan sin el cerrojo de la rueda
+			for (Prestamo prestamo : vencen) {
+				if (marcar(prestamo)) {
+					alVencer.accept(prestamo);
+					total++;
+				}
+			}
+			vencen.clear();
+		}
+		return total;
+	}
+
+	/**
+	 * @return Préstamos vencidos que siguen abiertos, del que venció antes al último
+	 */
+	List<Prestamo> getVencidos() {
+		List<Prestamo> lista = new ArrayList<>(vencidos.values());
+		lista.sort(Comparator.comparing(Prestamo::getFechaVencimiento)
+				.thenComparing(p -> p.getRecurso().getId()));
+		return lista;
+	}
+
+	int contarVencidos() {
+		return vencidos.size();
+	}
+
+	/**
+	 * @return Avisos de vencimiento programados
+	 */
+	int contarProgramados() {
+		int total = 0;
+		for (RuedaTemporizadores<Prestamo> rueda : ruedas) {
+			synchronized (rueda) {
+				total += rueda.programados();
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Detiene el temporizador de revisiones. Los préstamos siguen programados y se
+	 * pueden revisar llamando a {@link #revisar(LocalDate)}.
+	 */
+	synchronized void cerrar() {
+		if (temporizador != null) temporizador.shutdownNow();
+		temporizador = null;
+	}
+
+	/**
+	 * @return true si el préstamo queda marcado (seguía abierto)
+	 */
+	private boolean marcar(Prestamo prestamo) {
+		if (prestamo.isDevuelto()) return false;
+		String id = prestamo.getRecurso().getId();
+		vencidos.put(id, prestamo);
+		// Si se devolvió entretanto, quien lo cerró pudo quitarlo antes de que se añadiera
+		if (prestamo.isDevuelto()) {
+			vencidos.remove(id, prestamo);
+			return false;
+		}
+		return true;
+	}
+
+	private RuedaTemporizadores<Prestamo> rueda(Prestamo prestamo) {
+		int h = prestamo.getRecurso().getId().hashCode();
+		return ruedas[(h ^ (h >>> 16)) & (FRANJAS - 1)];
+	}
+
+	private synchronized void iniciarTemporizador() {
+		if (temporizador == null) {
+			temporizador = new ScheduledThreadPoolExecutor(1, r -> {
+				Thread hilo = new Thread(r, "prestamos-vencimiento");
+				hilo.setDaemon(true);
+				return hilo;
+			});
+			temporizador.scheduleAtFixedRate(() -> revisar(LocalDate.now()),
+					PERIODO_REVISION_MS, PERIODO_REVISION_MS, TimeUnit.MILLISECONDS);
+		}
+	}
+}
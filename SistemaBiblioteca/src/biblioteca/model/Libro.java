@@ -1,5 +1,7 @@
 package biblioteca.model;
 
+import biblioteca.enums.TipoRecurso;
+
 /**
 *Clase que representa un libro comor ecurso de la biblioteca.
 *contiene el autor como atributo adicional
@@ -25,6 +27,11 @@ public class Libro extends RecursoBiblioteca {
 	
 	@Override
 	public String descripcion() {
-		return "LIBRO - ID: " + id + ", Título: " + titulo + ", Autor: " + autor + ", Estado: " + estado;
+		return "LIBRO - ID: " + getId() + ", Título: " + getTitulo() + ", Autor: " + getAutor() + ", Estado: " + getEstado();
+	}
+	
+	@Override
+	public TipoRecurso getTipo() {
+		return TipoRecurso.LIBRO;
 	}
 }
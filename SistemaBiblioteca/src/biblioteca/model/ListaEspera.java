@@ -0,0 +1,163 @@
+package biblioteca.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lista de espera FIFO de un recurso. No es segura por sí misma: quien la usa
+ * sincroniza sobre la propia lista ({@link GestorReservas}).
+ *
+ * Cada reserva ocupa la ranura de su turno. Las cancelaciones dejan huecos que
+ * se saltan al avanzar la cabeza, y un árbol de Fenwick cuenta las reservas
+ * vivas por ranura, de modo que la posición de una reserva cuesta O(log n),
+ * la longitud O(1) y añadir o atender O(1) amortizado, aunque haya miles.
+ */
+final class ListaEspera {
+
+	private static final int CAPACIDAD_INICIAL = 8;
+
+	/** Reserva en espera de cada turno desde {@link #base}, o null si ya no espera */
+	private Reserva[] ranuras = new Reserva[CAPACIDAD_INICIAL];
+
+	/** Árbol de Fenwick (índices desde 1) con 1 por cada ranura ocupada */
+	private int[] arbol = new int[CAPACIDAD_INICIAL + 1];
+
+	/** Turno de ranuras[0] */
+	private long base;
+
+	/** Primer turno que puede seguir en espera */
+	private long cabeza;
+
+	/** Turno de la próxima reserva */
+	private long siguiente;
+
+	/** Reservas en espera; se puede leer sin sincronizar */
+	private volatile int enEspera;
+
+	/** Reserva en espera o retenida de cada usuario, para no duplicarlas */
+	private final Map<String, Reserva> porUsuario = new HashMap<>();
+
+	/** Reserva que tiene el recurso retenido, o null */
+	Reserva retenida;
+
+	/**
+	 * Añade una reserva al final de la lista. Si el usuario ya tenía una reserva
+	 * en espera o retenida, devuelve esa.
+	 */
+	Reserva encolar(RecursoBiblioteca recurso, Usuario usuario) {
+		Reserva existente = porUsuario.get(usuario.getId());
+		if (existente != null) return existente;
+		if (siguiente - base == ranuras.length) reorganizar();
+		Reserva reserva = new Reserva(recurso, usuario, siguiente++);
+		int ranura = (int) (reserva.getTurno() - base);
+		ranuras[ranura] = reserva;
+		sumar(ranura, 1);
+		enEspera++;
+		porUsuario.put(usuario.getId(), reserva);
+		return reserva;
+	}
+
+	/**
+	 * @return La primera reserva en espera, sin sacarla, o null si no hay
+	 */
+	Reserva primera() {
+		while (cabeza < siguiente && ranuras[(int) (cabeza - base)] == null) {
+			cabeza++;
+		}
+		return cabeza < siguiente ? ranuras[(int) (cabeza - base)] : null;
+	}
+
+	/**
+	 * Saca la primera reserva en espera. Sigue contando como reserva del usuario
+	 * hasta que se llame a {@link #olvidar}.
+	 *
+	 * @return La reserva, o null si no hay ninguna en espera
+	 */
+	Reserva sacarPrimera() {
+		Reserva reserva = primera();
+		if (reserva != null) quitarRanura((int) (cabeza++ - base));
+		return reserva;
+	}
+
+	/**
+	 * Quita de la lista una reserva en espera (cancelación).
+	 *
+	 * @return true si estaba en espera
+	 */
+	boolean quitar(Reserva reserva) {
+		long ranura = reserva.getTurno() - base;
+		if (ranura < 0 || ranura >= ranuras.length || ranuras[(int) ranura] != reserva) return false;
+		quitarRanura((int) ranura);
+		olvidar(reserva);
+		return true;
+	}
+
+	/**
+	 * @return La reserva en espera o retenida del usuario, o null
+	 */
+	Reserva buscar(String idUsuario) {
+		return porUsuario.get(idUsuario);
+	}
+
+	/**
+	 * Deja de considerar la reserva como la del usuario (ya terminó).
+	 */
+	void olvidar(Reserva reserva) {
+		porUsuario.remove(reserva.getUsuario().getId(), reserva);
+	}
+
+	/**
+	 * @return Posición de la reserva empezando en 1, o 0 si no está en espera
+	 */
+	int posicion(Reserva reserva) {
+		long ranura = reserva.getTurno() - base;
+		if (ranura < 0 || ranura >= ranuras.length || ranuras[(int) ranura] != reserva) return 0;
+		// Las ranuras anteriores a la cabeza están vacías: el prefijo cuenta las que van delante
+		int posicion = 0;
+		for (int i = (int) ranura + 1; i > 0; i -= i & -i) {
+			posicion += arbol[i];
+		}
+		return posicion;
+	}
+
+	/**
+	 * @return Reservas en espera (sin contar la retenida)
+	 */
+	int enEspera() {
+		return enEspera;
+	}
+
+	private void quitarRanura(int ranura) {
+		ranuras[ranura] = null;
+		sumar(ranura, -1);
+		enEspera--;
+	}
+
+	private void sumar(int ranura, int valor) {
+		for (int i = ranura + 1; i < arbol.length; i += i & -i) {
+			arbol[i] += valor;
+		}
+	}
+
+	/**
+	 * Mueve los turnos desde la cabeza al principio de unos arrays del tamaño
+	 * justo (potencia de dos) y reconstruye el árbol en O(n).
+	 */
+	private void reorganizar() {
+		int ocupadas = (int) (siguiente - cabeza);
+		int capacidad = Math.max(CAPACIDAD_INICIAL, Integer.highestOneBit(Math.max(1, ocupadas)) << 1);
+		Reserva[] nuevas = new Reserva[capacidad];
+		System.arraycopy(ranuras, (int) (cabeza - base), nuevas, 0, ocupadas);
+		int[] nuevoArbol = new int[capacidad + 1];
+		for (int i = 0; i < ocupadas; i++) {
+			if (nuevas[i] != null) nuevoArbol[i + 1]++;
+		}
+		for (int i = 1; i <= capacidad; i++) {
+			int padre = i + (i & -i);
+			if (padre <= capacidad) nuevoArbol[padre] += nuevoArbol[i];
+		}
+		ranuras = nuevas;
+		arbol = nuevoArbol;
+		base = cabeza;
+	}
+}
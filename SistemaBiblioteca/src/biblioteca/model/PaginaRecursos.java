@@ -0,0 +1,33 @@
+package biblioteca.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *  Clase que representa una página del listado ordenado de recursos y el cursor
+ *  opaco con el que se pide la siguiente.
+ */
+public class PaginaRecursos {
+	private final List<RecursoBiblioteca> recursos;
+	private final String cursorSiguiente;
+
+	/**
+	 *  @param recursos        Recursos de la página, en orden.
+	 *  @param cursorSiguiente Cursor de la página siguiente, o null si es la última.
+	 */
+	public PaginaRecursos(List<RecursoBiblioteca> recursos, String cursorSiguiente) {
+		this.recursos = Collections.unmodifiableList(recursos);
+		this.cursorSiguiente = cursorSiguiente;
+	}
+
+	public List<RecursoBiblioteca> getRecursos() {
+		return recursos;
+	}
+
+	/**
+	 *  @return Cursor para pedir la página siguiente, o null si esta es la última.
+	 */
+	public String getCursorSiguiente() {
+		return cursorSiguiente;
+	}
+}
@@ -4,18 +4,36 @@ import java.time.LocalDate;
 /**
  * Clase que representa un préstamo de un recurso de la biblioteca a un usuario.
  * Almacena la información relacionada con el préstamo como el recurso, el usuario,
- * la fecha en que se realizó y si ya fue devuelto.
+ * la fecha en que se realizó y si ya fue devuelto. La fecha de vencimiento se
+ * deduce de la del préstamo y del plazo del tipo de recurso.
  */
 public class Prestamo {
     private RecursoBiblioteca recurso;
     private Usuario usuario;
     private LocalDate fechaPrestamo;
-    private boolean devuelto;
+    private LocalDate fechaVencimiento;
+    private volatile boolean devuelto;
+
+    /** Aviso de vencimiento programado mientras el préstamo está abierto y en plazo */
+    RuedaTemporizadores.Temporizador<Prestamo> vencimiento;
 
     public Prestamo(RecursoBiblioteca recurso, Usuario usuario) {
+        this(recurso, usuario, LocalDate.now());
+    }
+
+    /**
+     * Crea un préstamo con una fecha concreta, por ejemplo al reconstruirlo
+     * desde el diario de operaciones.
+     *
+     * @param recurso       Recurso prestado
+     * @param usuario       Usuario que lo tiene
+     * @param fechaPrestamo Fecha en que se realizó el préstamo
+     */
+    public Prestamo(RecursoBiblioteca recurso, Usuario usuario, LocalDate fechaPrestamo) {
         this.recurso = recurso;
         this.usuario = usuario;
-        this.fechaPrestamo = LocalDate.now();
+        this.fechaPrestamo = fechaPrestamo;
+        this.fechaVencimiento = fechaPrestamo.plusDays(recurso.getTipo().getDiasPrestamo());
         this.devuelto = false;
     }
 
@@ -31,6 +49,21 @@ public class Prestamo {
         return fechaPrestamo;
     }
 
+    /**
+     * @return Último día en que el recurso puede devolverse sin retraso
+     */
+    public LocalDate getFechaVencimiento() {
+        return fechaVencimiento;
+    }
+
+    /**
+     * @param hoy Fecha de referencia
+     * @return true si el préstamo sigue abierto y su plazo terminó antes de esa fecha
+     */
+    public boolean isVencido(LocalDate hoy) {
+        return !devuelto && fechaVencimiento.isBefore(hoy);
+    }
+
     public boolean isDevuelto() {
         return devuelto;
     }
@@ -40,12 +73,12 @@ public class Prestamo {
     }
     /**
      * Genera un resumen textual del préstamo.
-     * Incluye información del recurso, usuario, fecha y estado del préstamo.
+     * Incluye información del recurso, usuario, fechas y estado del préstamo.
      *
      * @return Cadena con el resumen del préstamo formateado para mostrar
      */
     public String resumen() {
         return recurso.getTitulo() + " prestado a " + usuario.getNombre()
-             + " el " + fechaPrestamo + (devuelto ? " ✅ (Devuelto)" : " ⏳ (Pendiente)");
+             + " el " + fechaPrestamo + (devuelto ? " ✅ (Devuelto)" : " ⏳ (Pendiente, vence el " + fechaVencimiento + ")");
     }
 }
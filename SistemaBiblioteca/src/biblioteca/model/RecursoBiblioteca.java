@@ -1,6 +1,9 @@
 package biblioteca.model;
 
 import biblioteca.enums.EstadoRecurso;
+import biblioteca.enums.TipoRecurso;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 
 /**
  * Clase Abstracta que representa un recurso genérico den la biblioteca.
@@ -9,7 +12,17 @@ import biblioteca.enums.EstadoRecurso;
 public abstract class RecursoBiblioteca {
 	protected String id;
 	protected String titulo;
-	protected EstadoRecurso estado;
+	private volatile EstadoRecurso estado;
+	
+	/** Acceso atómico al campo estado para las transiciones sin bloqueo */
+	private static final VarHandle ESTADO;
+	static {
+		try {
+			ESTADO = MethodHandles.lookup().findVarHandle(RecursoBiblioteca.class, "estado", EstadoRecurso.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
 	
 	
 	/**
@@ -40,11 +53,29 @@ public abstract class RecursoBiblioteca {
 		this.estado = estado;
 	}
 	
+	/**
+	 * Cambia el estado del recurso de forma atómica solo si el estado actual
+	 * coincide con el esperado. Permite que varios hilos compitan por el mismo
+	 * recurso sin que dos de ellos lo presten a la vez.
+	 * 
+	 * @param esperado Estado que debe tener el recurso para aplicar el cambio
+	 * @param nuevo    Estado nuevo del recurso
+	 * @return true si el cambio se aplicó, false si otro hilo cambió el estado antes
+	 */
+	public boolean compararYEstablecerEstado(EstadoRecurso esperado, EstadoRecurso nuevo) {
+		return ESTADO.compareAndSet(this, esperado, nuevo);
+	}
+	
 	/**
 	 * Metodo abstracto que deber ser implemetando por cada tipo de recurso.
 	 * @return Una descripcion detallada del recurso
 	 */
 	public abstract String descripcion();
 	
+	/**
+	 * @return El tipo concreto del recurso
+	 */
+	public abstract TipoRecurso getTipo();
+	
 	
 }
@@ -0,0 +1,63 @@
+package biblioteca.model;
+
+import biblioteca.enums.EstadoReserva;
+import java.time.Instant;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Reserva de un recurso por parte de un usuario.
+ * El turno fija su orden en la lista de espera del recurso: se atienden de menor a mayor.
+ */
+public class Reserva {
+	private final RecursoBiblioteca recurso;
+	private final Usuario usuario;
+	private final long turno;
+	private volatile EstadoReserva estado;
+	private volatile Instant finRetencion;
+	
+	/** Caducidad programada mientras la reserva está RETENIDA */
+	ScheduledFuture<?> caducidad;
+
+	Reserva(RecursoBiblioteca recurso, Usuario usuario, long turno) {
+		this.recurso = recurso;
+		this.usuario = usuario;
+		this.turno = turno;
+		this.estado = EstadoReserva.EN_ESPERA;
+	}
+
+	public RecursoBiblioteca getRecurso() {
+		return recurso;
+	}
+
+	public Usuario getUsuario() {
+		return usuario;
+	}
+
+	public long getTurno() {
+		return turno;
+	}
+
+	public EstadoReserva getEstado() {
+		return estado;
+	}
+
+	/**
+	 * @return Instante en que caduca la retención, o null si la reserva no está RETENIDA
+	 */
+	public Instant getFinRetencion() {
+		return estado == EstadoReserva.RETENIDA ? finRetencion : null;
+	}
+
+	void retener(Instant finRetencion) {
+		this.finRetencion = finRetencion;
+		this.estado = EstadoReserva.RETENIDA;
+	}
+
+	void terminar(EstadoReserva estado) {
+		this.estado = estado;
+		if (caducidad != null) {
+			caducidad.cancel(false);
+			caducidad = null;
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package biblioteca.model;
 
+import biblioteca.enums.TipoRecurso;
+
 /**
 *Clase que representa una revista como recurso de la biblioteca.
 * Contiene el numero de edicion como atributo adicional.
@@ -26,7 +28,12 @@ public class Revista extends RecursoBiblioteca {
 	
 	@Override
 	public String descripcion() {
-		 return "REVISTA - ID: " + id + ", Título: " + titulo + ", Nº Edición: " + numeroEdicion +
-	               ", Estado: " + estado;
+		 return "REVISTA - ID: " + getId() + ", Título: " + getTitulo() + ", Nº Edición: " + getNumeroEdicion() +
+	               ", Estado: " + getEstado();
+	}
+	
+	@Override
+	public TipoRecurso getTipo() {
+		return TipoRecurso.REVISTA;
 	}
 }
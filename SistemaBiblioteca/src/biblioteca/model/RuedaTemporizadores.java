@@ -0,0 +1,157 @@
+package biblioteca.model;
+
+import java.util.List;
+
+/**
+ * Rueda jerárquica de temporizadores sobre un reloj de ticks enteros.
+ *
+ * Hay {@value #NIVELES} niveles de 64 ranuras: el nivel 0 tiene una ranura por tick,
+ * el 1 una por cada 64 ticks, el 2 una por cada 4096, etc. Un temporizador se
+ * guarda en el nivel más bajo cuyo horizonte lo alcanza; cuando el reloj llega al
+ * principio del intervalo de una ranura de nivel alto, sus temporizadores bajan de
+ * nivel. Programar y cancelar cuestan O(1) (cada ranura es una lista doblemente
+ * enlazada) y avanzar un tick solo toca los temporizadores que vencen o bajan de
+ * nivel en ese tick, no todos los programados.
+ *
+ * No es segura para uso concurrente: quien la usa la protege.
+ *
+ * @param <T> Valor asociado a cada temporizador
+ */
+final class RuedaTemporizadores<T> {
+
+	private static final int BITS_NIVEL = 6;
+	private static final int RANURAS = 1 << BITS_NIVEL;
+	private static final int MASCARA = RANURAS - 1;
+	private static final int NIVELES = 4;
+
+	/** Temporizador programado; es a la vez el nodo de la lista de su ranura */
+	static final class Temporizador<T> {
+		final T valor;
+		final long tick;
+		private Temporizador<T> anterior;
+		private Temporizador<T> siguiente;
+
+		private Temporizador(T valor, long tick) {
+			this.valor = valor;
+			this.tick = tick;
+		}
+	}
+
+	/** Cabeceras (centinelas) de las listas de cada ranura, por nivel */
+	private final Temporizador<T>[][] ranuras;
+
+	/** Siguiente tick por procesar: los anteriores ya vencieron */
+	private long actual;
+
+	private int programados;
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	RuedaTemporizadores(long inicio) {
+		this.actual = inicio;
+		this.ranuras = new Temporizador[NIVELES][RANURAS];
+		for (Temporizador<T>[] nivel : ranuras) {
+			for (int i = 0; i < RANURAS; i++) {
+				Temporizador<T> centinela = new Temporizador<>(null, -1);
+				centinela.anterior = centinela;
+				centinela.siguiente = centinela;
+				nivel[i] = centinela;
+			}
+		}
+	}
+
+	/**
+	 * @return Siguiente tick por procesar
+	 */
+	long actual() {
+		return actual;
+	}
+
+	int programados() {
+		return programados;
+	}
+
+	/**
+	 * Programa un temporizador. Uno con un tick ya pasado vence en el siguiente avance.
+	 *
+	 * @return El temporizador, para poder cancelarlo
+	 */
+	Temporizador<T> programar(T valor, long tick) {
+		Temporizador<T> temporizador = new Temporizador<>(valor, tick);
+		colocar(temporizador);
+		programados++;
+		return temporizador;
+	}
+
+	/**
+	 * @return true si el temporizador estaba programado
+	 */
+	boolean cancelar(Temporizador<T> temporizador) {
+		if (temporizador.anterior == null) return false;
+		desenlazar(temporizador);
+		programados--;
+		return true;
+	}
+
+	/**
+	 * Procesa los ticks hasta el indicado (incluido) y añade a la lista los valores
+	 * de los temporizadores que vencen, en orden de tick.
+	 */
+	void avanzar(long hasta, List<T> vencidos) {
+		while (actual <= hasta) {
+			// Primero bajan los niveles altos: lo que baja de uno puede caer en la
+			// ranura del nivel inferior que toca procesar en este mismo tick
+			for (int nivel = NIVELES - 1; nivel > 0; nivel--) {
+				if ((actual & ((1L << (BITS_NIVEL * nivel)) - 1)) == 0) {
+					bajar(ranuras[nivel][(int) (actual >>> (BITS_NIVEL * nivel)) & MASCARA]);
+				}
+			}
+			Temporizador<T> centinela = ranuras[0][(int) actual & MASCARA];
+			for (Temporizador<T> t = centinela.siguiente; t != centinela; ) {
+				Temporizador<T> siguiente = t.siguiente;
+				desenlazar(t);
+				programados--;
+				vencidos.add(t.valor);
+				t = siguiente;
+			}
+			actual++;
+		}
+	}
+
+	/**
+	 * Vuelve a colocar los temporizadores de una ranura respecto al tick actual.
+	 */
+	private void bajar(Temporizador<T> centinela) {
+		Temporizador<T> t = centinela.siguiente;
+		centinela.anterior = centinela;
+		centinela.siguiente = centinela;
+		while (t != centinela) {
+			Temporizador<T> siguiente = t.siguiente;
+			colocar(t);
+			t = siguiente;
+		}
+	}
+
+	private void colocar(Temporizador<T> temporizador) {
+		long tick = Math.max(temporizador.tick, actual);
+		long distancia = tick - actual;
+		int nivel = 0;
+		while (nivel < NIVELES - 1 && distancia >= 1L << (BITS_NIVEL * (nivel + 1))) nivel++;
+		if (distancia >= 1L << (BITS_NIVEL * NIVELES)) {
+			// Más allá del horizonte de la rueda: se deja en la última ranura alcanzable
+			// y se recoloca cuando el reloj llegue a ella
+			tick = actual + (1L << (BITS_NIVEL * NIVELES)) - 1;
+		}
+		Temporizador<T> centinela = ranuras[nivel][(int) (tick >>> (BITS_NIVEL * nivel)) & MASCARA];
+		temporizador.anterior = centinela.anterior;
+		temporizador.siguiente = centinela;
+		centinela.anterior.siguiente = temporizador;
+		centinela.anterior = temporizador;
+	}
+
+	private static <T> void desenlazar(Temporizador<T> temporizador) {
+		temporizador.anterior.siguiente = temporizador.siguiente;
+		temporizador.siguiente.anterior = temporizador.anterior;
+		temporizador.anterior = null;
+		temporizador.siguiente = null;
+	}
+}
@@ -0,0 +1,27 @@
+package biblioteca.model;
+
+/**
+ *  Clase que representa un elemento de un préstamo por lotes:
+ *  el recurso que se quiere prestar y el usuario que lo solicita.
+ */
+public class SolicitudPrestamo {
+	private final RecursoBiblioteca recurso;
+	private final Usuario usuario;
+
+	/**
+	 *  @param recurso Recurso a prestar.
+	 *  @param usuario Usuario que lo solicita.
+	 */
+	public SolicitudPrestamo(RecursoBiblioteca recurso, Usuario usuario) {
+		this.recurso = recurso;
+		this.usuario = usuario;
+	}
+
+	public RecursoBiblioteca getRecurso() {
+		return recurso;
+	}
+
+	public Usuario getUsuario() {
+		return usuario;
+	}
+}
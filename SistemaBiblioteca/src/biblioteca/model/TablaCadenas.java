@@ -0,0 +1,187 @@
+package biblioteca.model;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Tabla de cadenas sin repeticiones. Cada cadena distinta se guarda una sola vez,
+ * en UTF-8 y dentro de trozos grandes de bytes (sin un objeto por cadena), y recibe
+ * un código entero denso (0, 1, 2...) por orden de alta que sirve de clave sustituta.
+ *
+ * Las altas se serializan con el monitor de la tabla. Las búsquedas y lecturas no
+ * bloquean: un alta escribe primero los bytes y la posición de la cadena y después
+ * publica su código en la tabla hash con semántica release; los lectores leen las
+ * ranuras con acquire, así que un código encontrado siempre tiene sus bytes visibles.
+ */
+final class TablaCadenas {
+
+	/** Los bytes se reservan en trozos de 64 KiB; una cadena nunca cruza dos trozos */
+	private static final int BITS_TROZO = 16;
+	private static final int TAMANO_TROZO = 1 << BITS_TROZO;
+
+	/** Las posiciones de las cadenas se guardan en trozos de 16384 códigos */
+	private static final int BITS_POSICIONES = 14;
+	private static final int MASCARA_POSICIONES = (1 << BITS_POSICIONES) - 1;
+
+	/** Bytes como máximo de una cadena (la longitud se guarda en uno o dos bytes) */
+	private static final int MAXIMO_BYTES = (1 << 15) - 1;
+
+	/** Acceso release/acquire a las ranuras de la tabla hash */
+	private static final VarHandle RANURA = MethodHandles.arrayElementVarHandle(long[].class);
+
+	/** Trozos de bytes: longitud en varint seguida de la cadena en UTF-8 */
+	private volatile byte[][] trozos = new byte[0][];
+
+	/** Posición de cada código: (trozo << BITS_TROZO) | desplazamiento */
+	private volatile int[][] posiciones = new int[0][];
+
+	/** Tabla hash abierta: (hashCode << 32) | (código + 1), o 0 si la ranura está libre */
+	private volatile long[] ranuras = new long[16];
+
+	/** Códigos asignados */
+	private volatile int tamano;
+
+	/** Siguiente byte libre del último trozo; solo lo usan las altas */
+	private int libre = TAMANO_TROZO;
+
+	/**
+	 * @return El código de la cadena, o -1 si no está en la tabla
+	 */
+	int buscar(String cadena) {
+		int hash = cadena.hashCode();
+		long[] tabla = ranuras;
+		int mascara = tabla.length - 1;
+		for (int i = dispersar(hash) & mascara; ; i = (i + 1) & mascara) {
+			long ranura = (long) RANURA.getAcquire(tabla, i);
+			if (ranura == 0) return -1;
+			int codigo = (int) ranura - 1;
+			if ((int) (ranura >>> 32) == hash && iguales(codigo, cadena)) return codigo;
+		}
+	}
+
+	/**
+	 * Devuelve el código de la cadena, dándola de alta si no estaba.
+	 *
+	 * @throws IllegalArgumentException si la cadena ocupa más de 32 KiB en UTF-8
+	 */
+	synchronized int codigo(String cadena) {
+		int codigo = buscar(cadena);
+		if (codigo >= 0) return codigo;
+		byte[] bytes = cadena.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > MAXIMO_BYTES) {
+			throw new IllegalArgumentException("Cadena demasiado larga (" + bytes.length + " bytes)");
+		}
+		codigo = tamano;
+		ponerPosicion(codigo, escribir(bytes));
+		if ((codigo + 1) * 4L > ranuras.length * 3L) ampliar();
+		insertar(ranuras, cadena.hashCode(), codigo);
+		tamano = codigo + 1;
+		return codigo;
+	}
+
+	/**
+	 * @param codigo Código devuelto por {@link #codigo(String)} o {@link #buscar(String)}
+	 * @return La cadena (un objeto nuevo en cada llamada)
+	 */
+	String cadena(int codigo) {
+		int posicion = posiciones[codigo >>> BITS_POSICIONES][codigo & MASCARA_POSICIONES];
+		byte[] trozo = trozos[posicion >>> BITS_TROZO];
+		int desplazamiento = posicion & (TAMANO_TROZO - 1);
+		int longitud = trozo[desplazamiento++];
+		if (longitud < 0) longitud = (longitud & 0x7F) | (trozo[desplazamiento++] & 0xFF) << 7;
+		return new String(trozo, desplazamiento, longitud, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return Número de cadenas distintas
+	 */
+	int tamano() {
+		return tamano;
+	}
+
+	/**
+	 * Compara la cadena guardada con la buscada sin crear objetos si es ASCII:
+	 * en UTF-8 una cadena ocupa tantos bytes como caracteres solo si todos son ASCII.
+	 */
+	private boolean iguales(int codigo, String cadena) {
+		int posicion = posiciones[codigo >>> BITS_POSICIONES][codigo & MASCARA_POSICIONES];
+		byte[] trozo = trozos[posicion >>> BITS_TROZO];
+		int desplazamiento = posicion & (TAMANO_TROZO - 1);
+		int longitud = trozo[desplazamiento++];
+		if (longitud < 0) longitud = (longitud & 0x7F) | (trozo[desplazamiento++] & 0xFF) << 7;
+		int caracteres = cadena.length();
+		if (longitud < caracteres) return false;
+		if (longitud == caracteres) {
+			for (int i = 0; i < caracteres; i++) {
+				if (trozo[desplazamiento + i] != cadena.charAt(i)) return false;
+			}
+			return true;
+		}
+		byte[] bytes = cadena.getBytes(StandardCharsets.UTF_8);
+		return Arrays.equals(bytes, 0, bytes.length, trozo, desplazamiento, desplazamiento + longitud);
+	}
+
+	/**
+	 * Copia la longitud y los bytes al final del último trozo, o a uno nuevo si no caben.
+	 *
+	 * @return Posición codificada de la cadena
+	 */
+	private int escribir(byte[] bytes) {
+		int cabecera = bytes.length < 0x80 ? 1 : 2;
+		byte[][] actuales = trozos;
+		if (libre + cabecera + bytes.length > TAMANO_TROZO) {
+			actuales = Arrays.copyOf(actuales, actuales.length + 1);
+			actuales[actuales.length - 1] = new byte[TAMANO_TROZO];
+			libre = 0;
+		}
+		byte[] trozo = actuales[actuales.length - 1];
+		int posicion = (actuales.length - 1) << BITS_TROZO | libre;
+		if (cabecera == 1) {
+			trozo[libre++] = (byte) bytes.length;
+		} else {
+			trozo[libre++] = (byte) (bytes.length | 0x80);
+			trozo[libre++] = (byte) (bytes.length >>> 7);
+		}
+		System.arraycopy(bytes, 0, trozo, libre, bytes.length);
+		libre += bytes.length;
+		trozos = actuales;
+		return posicion;
+	}
+
+	private void ponerPosicion(int codigo, int posicion) {
+		int[][] actuales = posiciones;
+		if (codigo >>> BITS_POSICIONES == actuales.length) {
+			actuales = Arrays.copyOf(actuales, actuales.length + 1);
+			actuales[actuales.length - 1] = new int[1 << BITS_POSICIONES];
+			posiciones = actuales;
+		}
+		actuales[codigo >>> BITS_POSICIONES][codigo & MASCARA_POSICIONES] = posicion;
+	}
+
+	/**
+	 * Duplica la tabla hash. Los lectores siguen con la anterior hasta que ven la nueva.
+	 */
+	private void ampliar() {
+		long[] anterior = ranuras;
+		long[] nueva = new long[anterior.length * 2];
+		for (long ranura : anterior) {
+			if (ranura != 0) insertar(nueva, (int) (ranura >>> 32), (int) ranura - 1);
+		}
+		ranuras = nueva;
+	}
+
+	private static void insertar(long[] tabla, int hash, int codigo) {
+		int mascara = tabla.length - 1;
+		int i = dispersar(hash) & mascara;
+		while (tabla[i] != 0) {
+			i = (i + 1) & mascara;
+		}
+		RANURA.setRelease(tabla, i, (long) hash << 32 | (codigo + 1L));
+	}
+
+	private static int dispersar(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+}
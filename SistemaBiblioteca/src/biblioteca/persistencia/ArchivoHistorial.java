@@ -0,0 +1,463 @@
+package biblioteca.persistencia;
+
+import biblioteca.enums.TipoMovimiento;
+import biblioteca.enums.TipoRecurso;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Archivo del historial de un mes ya cerrado, en columnas y comprimido.
+ *
+ * Los movimientos se guardan en grupos de hasta {@value #FILAS_GRUPO} filas. Cada
+ * grupo escribe sus columnas una detrás de otra (movimiento, tipo, día, recurso y
+ * usuario) y las comprime juntas con Deflater: los valores de una misma columna se
+ * parecen y comprimen mucho mejor que las filas mezcladas. Los días se guardan como
+ * diferencia con el primero del grupo y los IDs como códigos de un diccionario
+ * propio del grupo, todo en enteros de longitud variable.
+ *
+ * La cabecera del archivo y la de cada grupo llevan el primer y el último día, y la
+ * de cada grupo además los recuentos por movimiento y tipo: una consulta salta sin
+ * descomprimir los grupos fuera de su rango y cuenta por mes o por tipo con solo
+ * las cabeceras de los que caen enteros dentro. Leer necesita la memoria de un grupo.
+ *
+ * Formato: cabecera (magia, versión, filas, primer día, último día, grupos, último
+ * segmento incluido) y grupos (filas, primer día, último día, recuentos, longitud
+ * comprimida, longitud original y datos).
+ */
+final class ArchivoHistorial {
+
+	/** Filas por grupo: lo que una lectura tiene en memoria a la vez */
+	static final int FILAS_GRUPO = 1 << 16;
+
+	private static final int MAGIA = 0x48415243; // "HARC"
+	private static final byte VERSION = 1;
+	private static final int TAMANO_CABECERA = 4 + 1 + 8 + 4 + 4 + 4 + 4;
+
+	private static final TipoMovimiento[] MOVIMIENTOS = TipoMovimiento.values();
+	private static final TipoRecurso[] TIPOS = TipoRecurso.values();
+
+	/** Recuentos de un grupo, por (movimiento * TIPOS + tipo) */
+	static final int RECUENTOS = MOVIMIENTOS.length * TIPOS.length;
+
+	private static final int TAMANO_CABECERA_GRUPO = 4 * (3 + RECUENTOS + 2);
+
+	private ArchivoHistorial() {
+	}
+
+	/**
+	 * Recibe lo que se lee de un archivo o de un segmento del historial.
+	 */
+	interface Visitante {
+		/**
+		 * Un grupo cuyas filas caen todas en el rango, antes de leerlas.
+		 *
+		 * @param recuentos Filas del grupo por (movimiento * tipos + tipo)
+		 * @return true si bastan los recuentos y no hace falta leer las filas
+		 */
+		default boolean grupo(int[] recuentos) {
+			return false;
+		}
+
+		/**
+		 * Una fila en el rango. Los IDs son null si se leyó sin ellos.
+		 */
+		void fila(int movimiento, int tipo, int dia, String idRecurso, String idUsuario);
+	}
+
+	/**
+	 * Datos de la cabecera de un archivo.
+	 */
+	static final class Cabecera {
+		final long filas;
+		final int primerDia;
+		final int ultimoDia;
+		/** Secuencia del último segmento del mes incluido en el archivo */
+		final int ultimoSegmento;
+
+		private Cabecera(long filas, int primerDia, int ultimoDia, int ultimoSegmento) {
+			this.filas = filas;
+			this.primerDia = primerDia;
+			this.ultimoDia = ultimoDia;
+			this.ultimoSegmento = ultimoSegmento;
+		}
+	}
+
+	/**
+	 * Escribe un archivo fila a fila, con la memoria de un grupo.
+	 */
+	static final class Escritor implements Closeable {
+		private final FileChannel canal;
+		private final int ultimoSegmento;
+		private final Deflater deflater = new Deflater();
+
+		private final byte[] movimientos = new byte[FILAS_GRUPO];
+		private final byte[] tipos = new byte[FILAS_GRUPO];
+		private final int[] dias = new int[FILAS_GRUPO];
+		private final int[] recursos = new int[FILAS_GRUPO];
+		private final int[] usuarios = new int[FILAS_GRUPO];
+		private final Diccionario diccionarioRecursos = new Diccionario();
+		private final Diccionario diccionarioUsuarios = new Diccionario();
+		private final int[] recuentos = new int[RECUENTOS];
+		private int filasGrupo;
+
+		private long filas;
+		private int grupos;
+		private int primerDia = Integer.MAX_VALUE;
+		private int ultimoDia = Integer.MIN_VALUE;
+
+		private final ByteArrayOutputStream original = new ByteArrayOutputStream(1 << 20);
+		private byte[] comprimido = new byte[1 << 16];
+
+		/**
+		 * @param destino        Archivo a crear (se sobrescribe)
+		 * @param ultimoSegmento Secuencia del último segmento del mes que se incluye
+		 */
+		Escritor(Path destino, int ultimoSegmento) throws IOException {
+			this.canal = FileChannel.open(destino, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			this.ultimoSegmento = ultimoSegmento;
+			canal.position(TAMANO_CABECERA);
+		}
+
+		void agregar(int movimiento, int tipo, int dia, String idRecurso, String idUsuario) throws IOException {
+			int i = filasGrupo++;
+			movimientos[i] = (byte) movimiento;
+			tipos[i] = (byte) tipo;
+			dias[i] = dia;
+			recursos[i] = diccionarioRecursos.codigo(idRecurso);
+			usuarios[i] = diccionarioUsuarios.codigo(idUsuario);
+			recuentos[movimiento * TIPOS.length + tipo]++;
+			if (filasGrupo == FILAS_GRUPO) vaciarGrupo();
+		}
+
+		/**
+		 * Escribe el último grupo y la cabecera y sincroniza el archivo.
+		 */
+		@Override
+		public void close() throws IOException {
+			try {
+				if (filasGrupo > 0) vaciarGrupo();
+				ByteBuffer cabecera = ByteBuffer.allocate(TAMANO_CABECERA);
+				cabecera.putInt(MAGIA).put(VERSION).putLong(filas)
+						.putInt(filas == 0 ? 0 : primerDia).putInt(filas == 0 ? 0 : ultimoDia)
+						.putInt(grupos).putInt(ultimoSegmento).flip();
+				while (cabecera.hasRemaining()) canal.write(cabecera, cabecera.position());
+				canal.force(false);
+			} finally {
+				canal.close();
+				deflater.end();
+			}
+		}
+
+		private void vaciarGrupo() throws IOException {
+			int n = filasGrupo;
+			int minimo = Integer.MAX_VALUE;
+			int maximo = Integer.MIN_VALUE;
+			for (int i = 0; i < n; i++) {
+				minimo = Math.min(minimo, dias[i]);
+				maximo = Math.max(maximo, dias[i]);
+			}
+			original.reset();
+			original.write(movimientos, 0, n);
+			original.write(tipos, 0, n);
+			for (int i = 0; i < n; i++) escribirVariable(original, dias[i] - minimo);
+			diccionarioRecursos.escribir(original);
+			for (int i = 0; i < n; i++) escribirVariable(original, recursos[i]);
+			diccionarioUsuarios.escribir(original);
+			for (int i = 0; i < n; i++) escribirVariable(original, usuarios[i]);
+
+			byte[] datos = original.toByteArray();
+			deflater.reset();
+			deflater.setInput(datos);
+			deflater.finish();
+			int longitud = 0;
+			while (!deflater.finished()) {
+				if (longitud == comprimido.length) comprimido = Arrays.copyOf(comprimido, comprimido.length * 2);
+				longitud += deflater.deflate(comprimido, longitud, comprimido.length - longitud);
+			}
+
+			ByteBuffer cabecera = ByteBuffer.allocate(TAMANO_CABECERA_GRUPO);
+			cabecera.putInt(n).putInt(minimo).putInt(maximo);
+			for (int r : recuentos) cabecera.putInt(r);
+			cabecera.putInt(longitud).putInt(datos.length).flip();
+			escribirTodo(cabecera);
+			escribirTodo(ByteBuffer.wrap(comprimido, 0, longitud));
+
+			filas += n;
+			grupos++;
+			primerDia = Math.min(primerDia, minimo);
+			ultimoDia = Math.max(ultimoDia, maximo);
+			filasGrupo = 0;
+			Arrays.fill(recuentos, 0);
+			diccionarioRecursos.vaciar();
+			diccionarioUsuarios.vaciar();
+		}
+
+		private void escribirTodo(ByteBuffer buffer) throws IOException {
+			while (buffer.hasRemaining()) canal.write(buffer);
+		}
+	}
+
+	/**
+	 * Diccionario de IDs de un grupo: cada ID distinto recibe el siguiente código.
+	 */
+	private static final class Diccionario {
+		private final Map<String, Integer> codigos = new HashMap<>();
+		private final List<String> valores = new ArrayList<>();
+
+		int codigo(String valor) {
+			Integer codigo = codigos.get(valor);
+			if (codigo == null) {
+				codigo = valores.size();
+				codigos.put(valor, codigo);
+				valores.add(valor);
+			}
+			return codigo;
+		}
+
+		void escribir(ByteArrayOutputStream salida) {
+			escribirVariable(salida, valores.size());
+			for (String valor : valores) {
+				byte[] bytes = valor.getBytes(StandardCharsets.UTF_8);
+				escribirVariable(salida, bytes.length);
+				salida.write(bytes, 0, bytes.length);
+			}
+		}
+
+		void vaciar() {
+			codigos.clear();
+			valores.clear();
+		}
+	}
+
+	/**
+	 * Lee la cabecera de un archivo.
+	 *
+	 * @throws IOException si no es un archivo del historial
+	 */
+	static Cabecera cabecera(Path archivo) throws IOException {
+		try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+			return leerCabecera(canal, archivo);
+		}
+	}
+
+	/**
+	 * Recorre las filas de un archivo con el día en un rango. Los grupos fuera del
+	 * rango no se descomprimen; los que caen enteros dentro se ofrecen antes al
+	 * visitante por si le bastan los recuentos.
+	 *
+	 * @param desdeDia Primer día incluido (días desde la época)
+	 * @param hastaDia Último día incluido
+	 * @param conIds   false para no decodificar los IDs (el visitante los recibe null)
+	 */
+	static void recorrer(Path archivo, int desdeDia, int hastaDia, boolean conIds, Visitante visitante) throws IOException {
+		recorrer(archivo, desdeDia, hastaDia, conIds, null, visitante);
+	}
+
+	/**
+	 * Como {@link #recorrer(Path, int, int, boolean, Visitante)}, pero solo con los
+	 * grupos indicados: el resto ni se descomprime.
+	 *
+	 * @param grupos Números de grupo en orden creciente (desde 0), o null para todos
+	 */
+	static void recorrer(Path archivo, int desdeDia, int hastaDia, boolean conIds, int[] grupos, Visitante visitante)
+			throws IOException {
+		try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+			Cabecera cabecera = leerCabecera(canal, archivo);
+			if (cabecera.filas == 0 || cabecera.ultimoDia < desdeDia || cabecera.primerDia > hastaDia) return;
+			Inflater inflater = new Inflater();
+			try {
+				ByteBuffer cabeceraGrupo = ByteBuffer.allocate(TAMANO_CABECERA_GRUPO);
+				int[] recuentos = new int[RECUENTOS];
+				byte[] comprimido = new byte[0];
+				byte[] datos = new byte[0];
+				long posicion = TAMANO_CABECERA;
+				long tamano = canal.size();
+				int siguienteGrupo = 0;
+				for (int grupo = 0; posicion < tamano; grupo++) {
+					if (grupos != null) {
+						while (siguienteGrupo < grupos.length && grupos[siguienteGrupo] < grupo) siguienteGrupo++;
+						if (siguienteGrupo == grupos.length) return;
+					}
+					cabeceraGrupo.clear();
+					leerCompleto(canal, cabeceraGrupo, posicion, archivo);
+					cabeceraGrupo.flip();
+					int filas = cabeceraGrupo.getInt();
+					int primerDia = cabeceraGrupo.getInt();
+					int ultimoDia = cabeceraGrupo.getInt();
+					for (int i = 0; i < RECUENTOS; i++) recuentos[i] = cabeceraGrupo.getInt();
+					int longitud = cabeceraGrupo.getInt();
+					int longitudOriginal = cabeceraGrupo.getInt();
+					long datosGrupo = posicion + TAMANO_CABECERA_GRUPO;
+					posicion = datosGrupo + longitud;
+
+					if (grupos != null && grupos[siguienteGrupo] != grupo) continue;
+					if (ultimoDia < desdeDia || primerDia > hastaDia) continue;
+					if (primerDia >= desdeDia && ultimoDia <= hastaDia && visitante.grupo(recuentos)) continue;
+
+					if (comprimido.length < longitud) comprimido = new byte[longitud];
+					if (datos.length < longitudOriginal) datos = new byte[longitudOriginal];
+					leerCompleto(canal, ByteBuffer.wrap(comprimido, 0, longitud), datosGrupo, archivo);
+					inflater.reset();
+					inflater.setInput(comprimido, 0, longitud);
+					try {
+						if (inflater.inflate(datos, 0, longitudOriginal) != longitudOriginal) {
+							throw new IOException("Grupo incompleto en " + archivo);
+						}
+					} catch (DataFormatException e) {
+						throw new IOException("Grupo dañado en " + archivo, e);
+					}
+					decodificar(datos, filas, primerDia, desdeDia, hastaDia, conIds, visitante);
+				}
+			} finally {
+				inflater.end();
+			}
+		}
+	}
+
+	/**
+	 * Anota en un índice, para cada grupo, los recursos y usuarios de su diccionario.
+	 * Solo descomprime y recorre los diccionarios, no las filas.
+	 */
+	static void indexar(Path archivo, IndiceIds.Constructor indice) throws IOException {
+		try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+			leerCabecera(canal, archivo);
+			Inflater inflater = new Inflater();
+			try {
+				ByteBuffer cabeceraGrupo = ByteBuffer.allocate(TAMANO_CABECERA_GRUPO);
+				byte[] comprimido = new byte[0];
+				byte[] datos = new byte[0];
+				long posicion = TAMANO_CABECERA;
+				long tamano = canal.size();
+				for (int grupo = 0; posicion < tamano; grupo++) {
+					cabeceraGrupo.clear();
+					leerCompleto(canal, cabeceraGrupo, posicion, archivo);
+					int filas = cabeceraGrupo.getInt(0);
+					int longitud = cabeceraGrupo.getInt(4 * (3 + RECUENTOS));
+					int longitudOriginal = cabeceraGrupo.getInt(4 * (3 + RECUENTOS + 1));
+					long datosGrupo = posicion + TAMANO_CABECERA_GRUPO;
+					posicion = datosGrupo + longitud;
+
+					if (comprimido.length < longitud) comprimido = new byte[longitud];
+					if (datos.length < longitudOriginal) datos = new byte[longitudOriginal];
+					leerCompleto(canal, ByteBuffer.wrap(comprimido, 0, longitud), datosGrupo, archivo);
+					inflater.reset();
+					inflater.setInput(comprimido, 0, longitud);
+					try {
+						if (inflater.inflate(datos, 0, longitudOriginal) != longitudOriginal) {
+							throw new IOException("Grupo incompleto en " + archivo);
+						}
+					} catch (DataFormatException e) {
+						throw new IOException("Grupo dañado en " + archivo, e);
+					}
+					int[] pos = { 2 * filas };
+					for (int i = 0; i < filas; i++) leerVariable(datos, pos);
+					indexarDiccionario(datos, pos, IndiceIds.RECURSO, grupo, indice);
+					for (int i = 0; i < filas; i++) leerVariable(datos, pos);
+					indexarDiccionario(datos, pos, IndiceIds.USUARIO, grupo, indice);
+				}
+			} finally {
+				inflater.end();
+			}
+		}
+	}
+
+	private static void indexarDiccionario(byte[] datos, int[] posicion, byte clase, int grupo, IndiceIds.Constructor indice) {
+		int valores = leerVariable(datos, posicion);
+		for (int i = 0; i < valores; i++) {
+			int longitud = leerVariable(datos, posicion);
+			indice.agregar(IndiceIds.clave(clase, datos, posicion[0], longitud), grupo);
+			posicion[0] += longitud;
+		}
+	}
+
+	/**
+	 * Decodifica las columnas de un grupo y entrega las filas del rango.
+	 */
+	private static void decodificar(byte[] datos, int filas, int primerDia, int desdeDia, int hastaDia,
+			boolean conIds, Visitante visitante) {
+		int[] dias = new int[filas];
+		int[] posicion = { 2 * filas };
+		for (int i = 0; i < filas; i++) dias[i] = primerDia + leerVariable(datos, posicion);
+		if (!conIds) {
+			for (int i = 0; i < filas; i++) {
+				if (dias[i] >= desdeDia && dias[i] <= hastaDia) visitante.fila(datos[i], datos[filas + i], dias[i], null, null);
+			}
+			return;
+		}
+		String[] recursos = leerDiccionario(datos, posicion);
+		int[] codigosRecursos = new int[filas];
+		for (int i = 0; i < filas; i++) codigosRecursos[i] = leerVariable(datos, posicion);
+		String[] usuarios = leerDiccionario(datos, posicion);
+		for (int i = 0; i < filas; i++) {
+			int usuario = leerVariable(datos, posicion);
+			if (dias[i] >= desdeDia && dias[i] <= hastaDia) {
+				visitante.fila(datos[i], datos[filas + i], dias[i], recursos[codigosRecursos[i]], usuarios[usuario]);
+			}
+		}
+	}
+
+	private static String[] leerDiccionario(byte[] datos, int[] posicion) {
+		String[] valores = new String[leerVariable(datos, posicion)];
+		for (int i = 0; i < valores.length; i++) {
+			int longitud = leerVariable(datos, posicion);
+			valores[i] = new String(datos, posicion[0], longitud, StandardCharsets.UTF_8);
+			posicion[0] += longitud;
+		}
+		return valores;
+	}
+
+	private static Cabecera leerCabecera(FileChannel canal, Path archivo) throws IOException {
+		ByteBuffer cabecera = ByteBuffer.allocate(TAMANO_CABECERA);
+		leerCompleto(canal, cabecera, 0, archivo);
+		cabecera.flip();
+		if (cabecera.getInt() != MAGIA || cabecera.get() != VERSION) {
+			throw new IOException("Archivo de historial no válido: " + archivo);
+		}
+		long filas = cabecera.getLong();
+		int primerDia = cabecera.getInt();
+		int ultimoDia = cabecera.getInt();
+		cabecera.getInt(); // grupos
+		return new Cabecera(filas, primerDia, ultimoDia, cabecera.getInt());
+	}
+
+	private static void leerCompleto(FileChannel canal, ByteBuffer buffer, long posicion, Path archivo) throws IOException {
+		while (buffer.hasRemaining()) {
+			int leidos = canal.read(buffer, posicion);
+			if (leidos < 0) throw new IOException("Archivo de historial truncado: " + archivo);
+			posicion += leidos;
+		}
+	}
+
+	/** Entero no negativo en grupos de 7 bits, el menos significativo primero */
+	private static void escribirVariable(ByteArrayOutputStream salida, int valor) {
+		while ((valor & ~0x7F) != 0) {
+			salida.write((valor & 0x7F) | 0x80);
+			valor >>>= 7;
+		}
+		salida.write(valor);
+	}
+
+	private static int leerVariable(byte[] datos, int[] posicion) {
+		int valor = 0;
+		for (int desplazamiento = 0; ; desplazamiento += 7) {
+			byte b = datos[posicion[0]++];
+			valor |= (b & 0x7F) << desplazamiento;
+			if (b >= 0) return valor;
+		}
+	}
+}
@@ -0,0 +1,317 @@
+package biblioteca.persistencia;
+
+import biblioteca.model.DVD;
+import biblioteca.model.Libro;
+import biblioteca.model.RecursoBiblioteca;
+import biblioteca.model.Revista;
+import biblioteca.model.Usuario;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+/**
+ * Cargador paralelo de los archivos de texto de recursos y usuarios.
+ *
+ * El archivo se divide en trozos alineados a salto de línea; cada trozo se mapea
+ * en memoria y se interpreta en el pool fork-join recorriendo directamente los
+ * bytes, sin {@code String.split} ni {@code Integer.parseInt}. Las líneas que no
+ * se pueden interpretar se informan una a una y no detienen la carga.
+ *
+ * Los trozos se interpretan en paralelo, pero el destino recibe los elementos
+ * desde el hilo que llama y en el orden del archivo: si un ID se repite gana la
+ * última línea, igual que con la carga secuencial.
+ */
+public class CargadorParalelo {
+
+	/** Tamaño mínimo de un trozo; por debajo no compensa repartir el trabajo */
+	private static final long TAMANO_MINIMO_TROZO = 1L << 20;
+
+	/** Tamaño máximo de un trozo, para mapear siempre regiones razonables */
+	private static final long TAMANO_MAXIMO_TROZO = 256L << 20;
+
+	private CargadorParalelo() {
+	}
+
+	/**
+	 * Convierte una línea en un elemento del modelo.
+	 * Debe lanzar IllegalArgumentException si la línea no es válida.
+	 */
+	private interface Analizador<T> {
+		T analizar(Linea linea);
+	}
+
+	/**
+	 * Carga un archivo de recursos con formato TIPO,ID,TITULO,EXTRA.
+	 *
+	 * @param archivo Ruta del archivo
+	 * @param destino Receptor de los recursos creados, en el orden del archivo
+	 * @return Número de recursos cargados y líneas descartadas
+	 * @throws IOException si no se puede leer el archivo
+	 */
+	public static ResultadoCarga cargarRecursos(String archivo, Consumer<RecursoBiblioteca> destino) throws IOException {
+		return cargar(Paths.get(archivo), CargadorParalelo::analizarRecurso, destino);
+	}
+
+	/**
+	 * Carga un archivo de usuarios con formato ID,Nombre.
+	 *
+	 * @param archivo Ruta del archivo
+	 * @param destino Receptor de los usuarios creados, en el orden del archivo
+	 * @return Número de usuarios cargados y líneas descartadas
+	 * @throws IOException si no se puede leer el archivo
+	 */
+	public static ResultadoCarga cargarUsuarios(String archivo, Consumer<Usuario> destino) throws IOException {
+		return cargar(Paths.get(archivo), CargadorParalelo::analizarUsuario, destino);
+	}
+
+	private static RecursoBiblioteca analizarRecurso(Linea linea) {
+		int coma1 = linea.coma(linea.inicio);
+		int coma2 = coma1 < 0 ? -1 : linea.coma(coma1 + 1);
+		int coma3 = coma2 < 0 ? -1 : linea.coma(coma2 + 1);
+		if (coma3 < 0) throw new IllegalArgumentException("se esperaban 4 campos TIPO,ID,TITULO,EXTRA");
+
+		String id = linea.texto(coma1 + 1, coma2);
+		String titulo = linea.texto(coma2 + 1, coma3);
+		if (linea.esIgual(linea.inicio, coma1, "LIBRO")) {
+			return new Libro(id, titulo, linea.texto(coma3 + 1, linea.fin));
+		} else if (linea.esIgual(linea.inicio, coma1, "REVISTA")) {
+			return new Revista(id, titulo, linea.entero(coma3 + 1, linea.fin));
+		} else if (linea.esIgual(linea.inicio, coma1, "DVD")) {
+			return new DVD(id, titulo, linea.entero(coma3 + 1, linea.fin));
+		}
+		throw new IllegalArgumentException("tipo de recurso desconocido");
+	}
+
+	private static Usuario analizarUsuario(Linea linea) {
+		int coma = linea.coma(linea.inicio);
+		if (coma < 0) throw new IllegalArgumentException("se esperaban 2 campos ID,Nombre");
+		return new Usuario(linea.texto(linea.inicio, coma), linea.texto(coma + 1, linea.fin));
+	}
+
+	private static <T> ResultadoCarga cargar(Path ruta, Analizador<T> analizador, Consumer<? super T> destino)
+			throws IOException {
+		try (FileChannel canal = FileChannel.open(ruta, StandardOpenOption.READ)) {
+			long tamano = canal.size();
+			if (tamano == 0) return new ResultadoCarga(0, new ArrayList<>());
+
+			ForkJoinPool pool = ForkJoinPool.commonPool();
+			long porTrozo = Math.max(TAMANO_MINIMO_TROZO, tamano / (pool.getParallelism() * 4L));
+			porTrozo = Math.min(porTrozo, TAMANO_MAXIMO_TROZO);
+			int numeroTrozos = (int) ((tamano + porTrozo - 1) / porTrozo);
+
+			// Los límites nominales se ajustan al final de la línea en curso, de modo
+			// que cada línea pertenece exactamente al trozo en el que empieza
+			long[] limites = new long[numeroTrozos + 1];
+			for (int i = 1; i < numeroTrozos; i++) {
+				limites[i] = finDeLinea(canal, i * porTrozo - 1, tamano);
+			}
+			limites[numeroTrozos] = tamano;
+
+			List<ResultadoTrozo<T>> trozos;
+			try {
+				trozos = pool.invoke(new TareaTrozos<>(canal, limites, 0, numeroTrozos, analizador));
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+
+			// Se entregan en el orden del archivo y se traducen los números de línea
+			// locales de cada trozo a números globales
+			long cargados = 0;
+			long lineasPrevias = 0;
+			List<ErrorCarga> errores = new ArrayList<>();
+			for (ResultadoTrozo<T> trozo : trozos) {
+				for (T elemento : trozo.elementos) {
+					destino.accept(elemento);
+				}
+				cargados += trozo.elementos.size();
+				for (ErrorCarga e : trozo.errores) {
+					errores.add(new ErrorCarga(lineasPrevias + e.getLinea(), e.getContenido(), e.getMotivo()));
+				}
+				lineasPrevias += trozo.lineas;
+			}
+			return new ResultadoCarga(cargados, errores);
+		}
+	}
+
+	/**
+	 * @return Posición siguiente al primer salto de línea en {@code desde} o después, o el tamaño del archivo
+	 */
+	private static long finDeLinea(FileChannel canal, long desde, long tamano) throws IOException {
+		ByteBuffer bloque = ByteBuffer.allocate(8192);
+		long posicion = desde;
+		while (posicion < tamano) {
+			bloque.clear();
+			int leidos = canal.read(bloque, posicion);
+			if (leidos <= 0) break;
+			for (int i = 0; i < leidos; i++) {
+				if (bloque.get(i) == '\n') return posicion + i + 1;
+			}
+			posicion += leidos;
+		}
+		return tamano;
+	}
+
+	/**
+	 * Divide recursivamente el rango de trozos y procesa cada uno en el pool.
+	 */
+	private static final class TareaTrozos<T> extends RecursiveTask<List<ResultadoTrozo<T>>> {
+		private static final long serialVersionUID = 1L;
+
+		// La tarea solo vive dentro del pool; el canal y el analizador no se serializan
+		private final transient FileChannel canal;
+		private final long[] limites;
+		private final int desde;
+		private final int hasta;
+		private final transient Analizador<T> analizador;
+
+		TareaTrozos(FileChannel canal, long[] limites, int desde, int hasta, Analizador<T> analizador) {
+			this.canal = canal;
+			this.limites = limites;
+			this.desde = desde;
+			this.hasta = hasta;
+			this.analizador = analizador;
+		}
+
+		@Override
+		protected List<ResultadoTrozo<T>> compute() {
+			if (hasta - desde == 1) {
+				List<ResultadoTrozo<T>> unico = new ArrayList<>(1);
+				unico.add(procesarTrozo());
+				return unico;
+			}
+			int medio = (desde + hasta) >>> 1;
+			TareaTrozos<T> izquierda = new TareaTrozos<>(canal, limites, desde, medio, analizador);
+			TareaTrozos<T> derecha = new TareaTrozos<>(canal, limites, medio, hasta, analizador);
+			izquierda.fork();
+			List<ResultadoTrozo<T>> resultado = new ArrayList<>(derecha.compute());
+			resultado.addAll(0, izquierda.join());
+			return resultado;
+		}
+
+		private ResultadoTrozo<T> procesarTrozo() {
+			ResultadoTrozo<T> resultado = new ResultadoTrozo<>();
+			long inicio = limites[desde];
+			long fin = limites[hasta];
+			if (fin <= inicio) return resultado;
+
+			MappedByteBuffer mapa;
+			try {
+				mapa = canal.map(FileChannel.MapMode.READ_ONLY, inicio, fin - inicio);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+			Linea linea = new Linea(mapa);
+			int limite = mapa.limit();
+			int posicion = 0;
+			while (posicion < limite) {
+				int salto = posicion;
+				while (salto < limite && mapa.get(salto) != '\n') salto++;
+				resultado.lineas++;
+
+				int finLinea = salto;
+				if (finLinea > posicion && mapa.get(finLinea - 1) == '\r') finLinea--;
+				if (finLinea > posicion) {
+					linea.inicio = posicion;
+					linea.fin = finLinea;
+					try {
+						resultado.elementos.add(analizador.analizar(linea));
+					} catch (IllegalArgumentException e) {
+						resultado.errores.add(new ErrorCarga(resultado.lineas, linea.texto(posicion, finLinea), e.getMessage()));
+					}
+				}
+				posicion = salto + 1;
+			}
+			return resultado;
+		}
+	}
+
+	/** Resultado parcial de un trozo; los números de línea son locales al trozo */
+	private static final class ResultadoTrozo<T> {
+		long lineas;
+		final List<T> elementos = new ArrayList<>();
+		final List<ErrorCarga> errores = new ArrayList<>();
+	}
+
+	/**
+	 * Vista reutilizable de una línea dentro del buffer mapeado.
+	 * Los índices son absolutos dentro del buffer.
+	 */
+	private static final class Linea {
+		private final ByteBuffer buffer;
+		private byte[] copia = new byte[256];
+		int inicio;
+		int fin;
+
+		Linea(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		/**
+		 * @return Índice de la siguiente coma sin escapar desde {@code desde}, o -1 si no
+		 *         hay más en la línea (ver {@link FormatoRegistro})
+		 */
+		int coma(int desde) {
+			for (int i = desde; i < fin; i++) {
+				byte b = buffer.get(i);
+				if (b == '\\') i++;
+				else if (b == ',') return i;
+			}
+			return -1;
+		}
+
+		/** Decodifica como UTF-8 el rango [a, b) quitando los escapes de {@link FormatoRegistro} */
+		String texto(int a, int b) {
+			int longitud = b - a;
+			if (copia.length < longitud) copia = new byte[longitud];
+			buffer.get(a, copia, 0, longitud);
+			int escrito = 0;
+			for (int i = 0; i < longitud; i++) {
+				byte c = copia[i];
+				if (c == '\\' && i + 1 < longitud) c = (byte) FormatoRegistro.desescapar((char) copia[++i]);
+				copia[escrito++] = c;
+			}
+			return new String(copia, 0, escrito, StandardCharsets.UTF_8);
+		}
+
+		/** Compara el rango [a, b) con una palabra ASCII sin distinguir mayúsculas */
+		boolean esIgual(int a, int b, String palabra) {
+			if (b - a != palabra.length()) return false;
+			for (int i = 0; i < palabra.length(); i++) {
+				int c = buffer.get(a + i);
+				if (c >= 'a' && c <= 'z') c -= 'a' - 'A';
+				if (c != palabra.charAt(i)) return false;
+			}
+			return true;
+		}
+
+		/** Interpreta el rango [a, b) como entero decimal */
+		int entero(int a, int b) {
+			if (a >= b) throw new NumberFormatException("número vacío");
+			boolean negativo = buffer.get(a) == '-';
+			int i = negativo ? a + 1 : a;
+			if (i >= b) throw new NumberFormatException("número no válido: " + texto(a, b));
+			long valor = 0;
+			for (; i < b; i++) {
+				int digito = buffer.get(i) - '0';
+				if (digito < 0 || digito > 9) throw new NumberFormatException("número no válido: " + texto(a, b));
+				valor = valor * 10 + digito;
+				if (valor > Integer.MAX_VALUE + 1L) throw new NumberFormatException("número fuera de rango: " + texto(a, b));
+			}
+			valor = negativo ? -valor : valor;
+			if (valor > Integer.MAX_VALUE) throw new NumberFormatException("número fuera de rango: " + texto(a, b));
+			return (int) valor;
+		}
+	}
+}
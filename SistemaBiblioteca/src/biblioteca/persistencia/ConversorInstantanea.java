@@ -0,0 +1,25 @@
+package biblioteca.persistencia;
+
+import biblioteca.eventos.OyenteConsola;
+import biblioteca.model.BibliotecaManager;
+
+/**
+ * Convierte los archivos de texto de usuarios y recursos en una instantánea binaria.
+ *
+ * Uso: java biblioteca.persistencia.ConversorInstantanea &lt;usuarios.txt&gt; &lt;recursos.txt&gt; &lt;destino.bin&gt;
+ */
+public class ConversorInstantanea {
+
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.out.println("Uso: ConversorInstantanea <usuarios.txt> <recursos.txt> <destino.bin>");
+			return;
+		}
+		BibliotecaManager biblioteca = new BibliotecaManager();
+		biblioteca.suscribir(new OyenteConsola());
+		biblioteca.cargarUsuariosEnParalelo(args[0]);
+		biblioteca.cargarRecursosEnParalelo(args[1]);
+		biblioteca.guardarInstantanea(args[2]);
+		biblioteca.cerrar();
+	}
+}
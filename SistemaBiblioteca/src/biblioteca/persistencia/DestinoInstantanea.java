@@ -0,0 +1,30 @@
+package biblioteca.persistencia;
+
+import biblioteca.model.RecursoBiblioteca;
+import biblioteca.model.Usuario;
+import java.time.LocalDate;
+
+/**
+ * Receptor de los datos leídos de una instantánea binaria, en el orden en que
+ * aparecen en el archivo: primero los usuarios, después los recursos (ya con su
+ * estado) y por último los préstamos abiertos.
+ */
+public interface DestinoInstantanea {
+
+	/**
+	 * @param usuario Usuario leído
+	 */
+	void usuario(Usuario usuario);
+
+	/**
+	 * @param recurso Recurso leído, con su estado ya asignado
+	 */
+	void recurso(RecursoBiblioteca recurso);
+
+	/**
+	 * @param idRecurso     ID del recurso prestado
+	 * @param idUsuario     ID del usuario que lo tiene
+	 * @param fechaPrestamo Fecha en que se prestó
+	 */
+	void prestamoActivo(String idRecurso, String idUsuario, LocalDate fechaPrestamo);
+}
@@ -0,0 +1,387 @@
+package biblioteca.persistencia;
+
+import biblioteca.enums.PoliticaSincronizacion;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Diario de escritura anticipada (write-ahead log) de solo anexado.
+ *
+ * Cada operación que modifica la biblioteca se registra como una línea de texto
+ * {@code <longitud> <crc32> <registro>}: la longitud en bytes UTF-8 y el CRC32 (ocho
+ * dígitos hexadecimales) del registro, cuyos campos van escapados con
+ * {@link FormatoRegistro} y no contienen saltos de línea. Al reproducir se descarta
+ * la línea cuya longitud o CRC no cuadran, como la última a medio escribir tras una caída.
+ * Un hilo escritor agrupa las líneas pendientes en lotes (group commit), las escribe
+ * con una sola llamada al canal y sincroniza según la {@link PoliticaSincronizacion}.
+ * Así el coste de cada escritura no depende del tamaño del catálogo.
+ *
+ * En cada punto de control el diario se rota: el archivo actual pasa a
+ * {@code <ruta>.1} y se empieza uno nuevo vacío.
+ *
+ * Si una escritura falla el hilo escritor se detiene y guarda el error: a partir
+ * de ahí {@link #registrar(String)} rechaza registros nuevos y
+ * {@link #esperarDurable(Entrada)} lanza el error en lugar de dar por durable lo
+ * que no llegó a escribirse.
+ */
+public class Diario implements Closeable {
+
+	/** Número máximo de registros escritos en un mismo lote */
+	private static final int TAMANO_MAXIMO_LOTE = 4096;
+
+	/**
+	 * Registro pendiente de escribir. Sirve también como comprobante para
+	 * esperar a que el registro sea durable.
+	 */
+	public static final class Entrada {
+		private final String[] lineas;
+		private final Thread esperando;
+		private volatile boolean duradera;
+
+		private Entrada(String[] lineas, Thread esperando) {
+			this.lineas = lineas;
+			this.esperando = esperando;
+		}
+	}
+
+	private final Path ruta;
+	private final Path rutaAnterior;
+	private final PoliticaSincronizacion politica;
+	private final long intervaloSincronizacionNanos;
+	private final BlockingQueue<Entrada> pendientes = new LinkedBlockingQueue<>();
+	private final AtomicLong registrosDesdeRotacion = new AtomicLong();
+
+	/** Protege el canal frente a rotaciones concurrentes con el hilo escritor */
+	private final Object cerrojoCanal = new Object();
+	private FileChannel canal;
+	private long ultimaSincronizacion;
+
+	private final Thread escritor;
+	private volatile boolean cerrado;
+	/** Error que detuvo al hilo escritor, o null mientras escribe con normalidad */
+	private volatile IOException fallo;
+
+	/**
+	 * Abre (o crea) el diario y arranca el hilo escritor.
+	 *
+	 * @param ruta                       Ruta del archivo de diario
+	 * @param politica                   Política de sincronización a disco
+	 * @param intervaloSincronizacionMs  Intervalo máximo entre sincronizaciones en modo PERIODICA
+	 * @throws IOException si no se puede abrir el archivo
+	 */
+	public Diario(String ruta, PoliticaSincronizacion politica, long intervaloSincronizacionMs) throws IOException {
+		this.ruta = Paths.get(ruta);
+		this.rutaAnterior = rutaAnterior(ruta);
+		this.politica = politica;
+		this.intervaloSincronizacionNanos = TimeUnit.MILLISECONDS.toNanos(intervaloSincronizacionMs);
+		this.canal = abrirCanal(this.ruta);
+		this.ultimaSincronizacion = System.nanoTime();
+
+		this.escritor = new Thread(this::bucleEscritura, "diario-escritor");
+		this.escritor.setDaemon(true);
+		this.escritor.start();
+	}
+
+	/**
+	 * Encola un registro para su escritura. No bloquea.
+	 *
+	 * @param linea Registro a anexar, con los campos escapados (sin salto de línea)
+	 * @return Comprobante para esperar a que el registro sea durable
+	 * @throws UncheckedIOException     si el hilo escritor se detuvo por un error
+	 * @throws IllegalArgumentException si el registro contiene un salto de línea
+	 */
+	public Entrada registrar(String linea) {
+		return encolar(new String[] { linea });
+	}
+
+	/**
+	 * Encola varios registros como una sola entrada, de modo que se escriben
+	 * juntos y basta con esperar a un único comprobante. No bloquea.
+	 *
+	 * @param lineas Registros a anexar, en orden (sin salto de línea)
+	 * @return Comprobante del conjunto, o null si no hay registros
+	 */
+	public Entrada registrarTodos(List<String> lineas) {
+		if (lineas.isEmpty()) return null;
+		return encolar(lineas.toArray(new String[0]));
+	}
+
+	private Entrada encolar(String[] lineas) {
+		comprobarEscritor();
+		if (cerrado) throw new IllegalStateException("El diario está cerrado");
+		for (String linea : lineas) {
+			if (linea.indexOf('\n') >= 0 || linea.indexOf('\r') >= 0) {
+				throw new IllegalArgumentException("Registro con salto de línea: " + linea);
+			}
+		}
+		Entrada entrada = new Entrada(lineas,
+				politica == PoliticaSincronizacion.CADA_LOTE ? Thread.currentThread() : null);
+		pendientes.add(entrada);
+		registrosDesdeRotacion.addAndGet(lineas.length);
+		return entrada;
+	}
+
+	/**
+	 * Espera a que un registro esté escrito y sincronizado en disco.
+	 * Solo bloquea con la política CADA_LOTE; con el resto vuelve inmediatamente.
+	 *
+	 * @param entrada Comprobante devuelto por {@link #registrar(String)}; puede ser null
+	 * @throws UncheckedIOException  si el hilo escritor se detuvo por un error antes de escribirlo
+	 * @throws IllegalStateException si el hilo escritor terminó sin escribirlo
+	 */
+	public void esperarDurable(Entrada entrada) {
+		if (entrada == null || entrada.esperando == null) return;
+		while (!entrada.duradera) {
+			comprobarEscritor();
+			if (!escritor.isAlive()) {
+				// Puede haber terminado justo después de marcarla
+				if (entrada.duradera) return;
+				comprobarEscritor();
+				throw new IllegalStateException("El diario se detuvo sin escribir el registro");
+			}
+			LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+		}
+	}
+
+	/**
+	 * Comprueba que el hilo escritor siga funcionando.
+	 *
+	 * @throws UncheckedIOException con el error que lo detuvo, si falló
+	 */
+	public void comprobarEscritor() {
+		IOException error = fallo;
+		if (error != null) throw new UncheckedIOException("El diario " + ruta + " dejó de escribir", error);
+	}
+
+	/**
+	 * @return Número de registros anexados desde la última rotación
+	 */
+	public long getRegistrosDesdeRotacion() {
+		return registrosDesdeRotacion.get();
+	}
+
+	/**
+	 * Cierra el archivo actual, lo renombra a {@code <ruta>.1} y abre uno nuevo vacío.
+	 * Los registros encolados después de la rotación van al archivo nuevo.
+	 *
+	 * @throws IOException si falla el renombrado o la apertura
+	 */
+	public void rotar() throws IOException {
+		synchronized (cerrojoCanal) {
+			canal.force(false);
+			canal.close();
+			Files.move(ruta, rutaAnterior, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			canal = abrirCanal(ruta);
+			registrosDesdeRotacion.set(pendientes.size());
+		}
+	}
+
+	/**
+	 * Elimina el archivo rotado una vez que su contenido está reflejado en la instantánea.
+	 *
+	 * @throws IOException si no se puede borrar
+	 */
+	public void descartarAnterior() throws IOException {
+		Files.deleteIfExists(rutaAnterior);
+	}
+
+	/**
+	 * Escribe todo lo pendiente, sincroniza y detiene el hilo escritor.
+	 *
+	 * @throws IOException el error que detuvo al hilo escritor, si falló
+	 */
+	@Override
+	public void close() throws IOException {
+		cerrado = true;
+		try {
+			escritor.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (cerrojoCanal) {
+			if (canal.isOpen()) {
+				canal.force(false);
+				canal.close();
+			}
+		}
+		if (fallo != null) throw fallo;
+	}
+
+	/**
+	 * Bucle del hilo escritor: agrupa los registros pendientes en lotes,
+	 * los escribe de una vez y sincroniza según la política.
+	 */
+	private void bucleEscritura() {
+		List<Entrada> lote = new ArrayList<>();
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		CRC32 crc = new CRC32();
+		try {
+			while (!cerrado || !pendientes.isEmpty()) {
+				Entrada primera = pendientes.poll(100, TimeUnit.MILLISECONDS);
+				if (primera == null) {
+					sincronizarSiToca();
+					continue;
+				}
+				lote.add(primera);
+				pendientes.drainTo(lote, TAMANO_MAXIMO_LOTE - 1);
+
+				synchronized (cerrojoCanal) {
+					for (Entrada e : lote) {
+						for (String linea : e.lineas) {
+							byte[] bytes = enmarcar(linea, crc);
+							if (buffer.remaining() < bytes.length) {
+								vaciar(buffer);
+								if (buffer.capacity() < bytes.length) buffer = ByteBuffer.allocate(bytes.length);
+							}
+							buffer.put(bytes);
+						}
+					}
+					vaciar(buffer);
+					if (politica == PoliticaSincronizacion.CADA_LOTE) {
+						canal.force(false);
+					}
+				}
+				sincronizarSiToca();
+
+				for (Entrada e : lote) {
+					e.duradera = true;
+					if (e.esperando != null) LockSupport.unpark(e.esperando);
+				}
+				lote.clear();
+			}
+		} catch (IOException e) {
+			fallo = e;
+			// Quien espera el lote que falló o algo encolado detrás se entera al despertar
+			pendientes.drainTo(lote);
+			for (Entrada pendiente : lote) {
+				if (pendiente.esperando != null) LockSupport.unpark(pendiente.esperando);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void vaciar(ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			canal.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private void sincronizarSiToca() throws IOException {
+		if (politica != PoliticaSincronizacion.PERIODICA) return;
+		long ahora = System.nanoTime();
+		if (ahora - ultimaSincronizacion >= intervaloSincronizacionNanos) {
+			synchronized (cerrojoCanal) {
+				canal.force(false);
+			}
+			ultimaSincronizacion = ahora;
+		}
+	}
+
+	/**
+	 * @return La línea {@code <longitud> <crc32> <registro>\n} en UTF-8
+	 */
+	private static byte[] enmarcar(String linea, CRC32 crc) {
+		byte[] registro = linea.getBytes(StandardCharsets.UTF_8);
+		crc.reset();
+		crc.update(registro);
+		byte[] longitud = Integer.toString(registro.length).getBytes(StandardCharsets.US_ASCII);
+		byte[] bytes = new byte[longitud.length + 10 + registro.length + 1];
+		System.arraycopy(longitud, 0, bytes, 0, longitud.length);
+		int i = longitud.length;
+		bytes[i++] = ' ';
+		long valor = crc.getValue();
+		for (int desplazamiento = 28; desplazamiento >= 0; desplazamiento -= 4) {
+			bytes[i++] = (byte) Character.forDigit((int) (valor >>> desplazamiento) & 0xf, 16);
+		}
+		bytes[i++] = ' ';
+		System.arraycopy(registro, 0, bytes, i, registro.length);
+		bytes[bytes.length - 1] = '\n';
+		return bytes;
+	}
+
+	/**
+	 * @return El registro de una línea del diario, o null si la línea está mal
+	 *         formada o su longitud o su CRC no cuadran
+	 */
+	static String desenmarcar(String linea, CRC32 crc) {
+		int espacio1 = linea.indexOf(' ');
+		int espacio2 = espacio1 < 0 ? -1 : linea.indexOf(' ', espacio1 + 1);
+		if (espacio2 != espacio1 + 9) return null;
+		long longitud;
+		long esperado;
+		try {
+			longitud = Long.parseLong(linea, 0, espacio1, 10);
+			esperado = Long.parseLong(linea, espacio1 + 1, espacio2, 16);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		String registro = linea.substring(espacio2 + 1);
+		byte[] bytes = registro.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length != longitud) return null;
+		crc.reset();
+		crc.update(bytes);
+		return crc.getValue() == esperado ? registro : null;
+	}
+
+	private static FileChannel abrirCanal(Path ruta) throws IOException {
+		return FileChannel.open(ruta, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	private static Path rutaAnterior(String ruta) {
+		return Paths.get(ruta + ".1");
+	}
+
+	/**
+	 * Lee los registros de un diario en orden, primero los del archivo rotado
+	 * (si quedó tras una caída durante un punto de control) y después los del actual.
+	 * Las líneas cuya longitud o CRC no cuadran se saltan.
+	 *
+	 * @param ruta      Ruta del archivo de diario
+	 * @param consumidor Acción a aplicar sobre cada registro
+	 * @return Número de líneas descartadas
+	 * @throws IOException si falla la lectura
+	 */
+	public static int reproducir(String ruta, Consumer<String> consumidor) throws IOException {
+		CRC32 crc = new CRC32();
+		int descartadas = 0;
+		for (Path archivo : new Path[] { rutaAnterior(ruta), Paths.get(ruta) }) {
+			if (!Files.exists(archivo)) continue;
+			// Un lector que reemplaza los bytes mal formados en lugar de fallar: un
+			// carácter cortado por la mitad solo hace que no cuadre el CRC de su línea
+			try (BufferedReader reader = new BufferedReader(
+					new InputStreamReader(Files.newInputStream(archivo), StandardCharsets.UTF_8))) {
+				String linea;
+				while ((linea = reader.readLine()) != null) {
+					if (linea.isEmpty()) continue;
+					String registro = desenmarcar(linea, crc);
+					if (registro == null) descartadas++;
+					else consumidor.accept(registro);
+				}
+			}
+		}
+		return descartadas;
+	}
+}
@@ -0,0 +1,38 @@
+package biblioteca.persistencia;
+
+/**
+ * Línea de un archivo de datos que no se pudo interpretar durante una carga.
+ */
+public class ErrorCarga {
+	private final long linea;
+	private final String contenido;
+	private final String motivo;
+
+	/**
+	 * @param linea     Número de línea (empezando en 1)
+	 * @param contenido Texto de la línea
+	 * @param motivo    Descripción del problema
+	 */
+	public ErrorCarga(long linea, String contenido, String motivo) {
+		this.linea = linea;
+		this.contenido = contenido;
+		this.motivo = motivo;
+	}
+
+	public long getLinea() {
+		return linea;
+	}
+
+	public String getContenido() {
+		return contenido;
+	}
+
+	public String getMotivo() {
+		return motivo;
+	}
+
+	@Override
+	public String toString() {
+		return "línea " + linea + " (" + motivo + "): " + contenido;
+	}
+}
@@ -0,0 +1,465 @@
+package biblioteca.persistencia;
+
+import biblioteca.enums.FormatoExportacion;
+import biblioteca.enums.TipoMovimiento;
+import biblioteca.enums.TipoRecurso;
+import biblioteca.model.DVD;
+import biblioteca.model.Libro;
+import biblioteca.model.Prestamo;
+import biblioteca.model.RecursoBiblioteca;
+import biblioteca.model.Revista;
+import biblioteca.model.Usuario;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exporta recursos, usuarios e historial a CSV o JSON Lines, en streaming.
+ *
+ * Las filas se codifican directamente en UTF-8 sobre un único buffer de bytes que
+ * se reutiliza y se vuelca a la salida al llenarse: no se construye ningún String
+ * por fila ni por campo, así que la memoria no crece con el número de filas. Los
+ * textos se escapan al copiarlos (comillas dobladas en CSV, secuencias de escape
+ * en JSON) y los números y fechas se escriben cifra a cifra.
+ *
+ * Cada método de exportación escribe una tabla completa (en CSV, con su cabecera),
+ * así que lo normal es exportar una sola tabla por salida. La salida se puede
+ * comprimir con gzip. No es seguro para uso concurrente.
+ */
+public class Exportador implements Closeable {
+
+	/** Tamaño del buffer de filas y del de gzip */
+	private static final int TAMANO_BUFFER = 64 * 1024;
+
+	/** Espacio que se deja libre antes de cada carácter: lo que ocupa como mucho codificado */
+	private static final int MAXIMO_CARACTER = 6;
+
+	private static final String[] CAMPOS_RECURSOS = { "id", "tipo", "titulo", "estado", "autor", "numeroEdicion",
+			"duracionMinutos" };
+	private static final String[] CAMPOS_USUARIOS = { "id", "nombre" };
+	private static final String[] CAMPOS_HISTORIAL = { "movimiento", "tipo", "fecha", "recurso", "usuario" };
+
+	private static final byte[] HEXADECIMAL = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+	private static final TipoMovimiento[] MOVIMIENTOS = TipoMovimiento.values();
+	private static final TipoRecurso[] TIPOS = TipoRecurso.values();
+
+	private final OutputStream salida;
+	private final FormatoExportacion formato;
+	private final byte[] buffer = new byte[TAMANO_BUFFER];
+	private int posicion;
+
+	/** Nombres de los campos de la tabla en curso, ya codificados como {@code "nombre":} */
+	private byte[][] nombres;
+	/** Campos escritos en la fila en curso */
+	private int campos;
+	private long filas;
+
+	/** Último día escrito (desde la época) y sus diez caracteres AAAA-MM-DD */
+	private int ultimoDia = Integer.MIN_VALUE;
+	private final byte[] fecha = new byte[10];
+
+	/**
+	 * @param salida  Destino de las filas; se cierra al cerrar el exportador
+	 * @param formato Formato de las filas
+	 */
+	public Exportador(OutputStream salida, FormatoExportacion formato) {
+		this.salida = salida;
+		this.formato = formato;
+	}
+
+	/**
+	 * Crea (o vacía) un archivo y prepara la exportación en él.
+	 *
+	 * @param archivo   Ruta del archivo
+	 * @param formato   Formato de las filas
+	 * @param comprimir true para comprimirlo con gzip
+	 * @return El exportador sobre el archivo
+	 * @throws IOException si no se puede crear el archivo
+	 */
+	public static Exportador abrir(String archivo, FormatoExportacion formato, boolean comprimir) throws IOException {
+		OutputStream salida = Files.newOutputStream(Paths.get(archivo));
+		return new Exportador(comprimir ? comprimir(salida) : salida, formato);
+	}
+
+	/**
+	 * Envuelve la salida en un compresor gzip. Se usa el nivel más rápido: con el
+	 * nivel por defecto comprimir cuesta varias veces lo que generar las filas y el
+	 * archivo solo sale algo más pequeño.
+	 *
+	 * @return La salida envuelta en un compresor gzip del tamaño del buffer de filas
+	 * @throws IOException si no se puede escribir la cabecera gzip
+	 */
+	public static OutputStream comprimir(OutputStream salida) throws IOException {
+		return new GZIPOutputStream(salida, TAMANO_BUFFER) {
+			{
+				def.setLevel(Deflater.BEST_SPEED);
+			}
+		};
+	}
+
+	/**
+	 * Exporta recursos: id, tipo, título, estado y el dato propio de su tipo
+	 * (autor, número de edición o duración); en CSV los de los otros tipos van vacíos.
+	 *
+	 * @return Filas escritas
+	 * @throws IOException si falla la escritura
+	 */
+	public long recursos(Iterable<RecursoBiblioteca> recursos) throws IOException {
+		long antes = filas;
+		empezarTabla(CAMPOS_RECURSOS);
+		for (RecursoBiblioteca r : recursos) {
+			texto(r.getId());
+			texto(r.getTipo().name());
+			texto(r.getTitulo());
+			texto(r.getEstado().name());
+			if (r instanceof Libro) {
+				texto(((Libro) r).getAutor());
+				omitir(2);
+			} else if (r instanceof Revista) {
+				omitir(1);
+				numero(((Revista) r).getNumeroEdicion());
+				omitir(1);
+			} else if (r instanceof DVD) {
+				omitir(2);
+				numero(((DVD) r).getDuracionMinutos());
+			} else {
+				omitir(3);
+			}
+			terminarFila();
+		}
+		return filas - antes;
+	}
+
+	/**
+	 * Exporta usuarios: id y nombre.
+	 *
+	 * @return Filas escritas
+	 * @throws IOException si falla la escritura
+	 */
+	public long usuarios(Iterable<Usuario> usuarios) throws IOException {
+		long antes = filas;
+		empezarTabla(CAMPOS_USUARIOS);
+		for (Usuario u : usuarios) {
+			texto(u.getId());
+			texto(u.getNombre());
+			terminarFila();
+		}
+		return filas - antes;
+	}
+
+	/**
+	 * Exporta los movimientos del historial persistente de un rango de fechas, en
+	 * orden cronológico: movimiento, tipo de recurso, fecha, recurso y usuario. Los
+	 * meses fuera del rango no se leen.
+	 *
+	 * @param desde Primer día incluido, o null para no acotar
+	 * @param hasta Último día incluido, o null para no acotar
+	 * @return Filas escritas
+	 * @throws IOException si falla la lectura del historial o la escritura
+	 */
+	public long historial(HistorialSegmentado historial, LocalDate desde, LocalDate hasta) throws IOException {
+		long antes = filas;
+		empezarTabla(CAMPOS_HISTORIAL);
+		IOException[] fallo = new IOException[1];
+		historial.recorrer(desde, hasta, true, mes -> (movimiento, tipo, dia, idRecurso, idUsuario) -> {
+			if (fallo[0] != null) return;
+			try {
+				movimiento(MOVIMIENTOS[movimiento], TIPOS[tipo], dia, idRecurso, idUsuario);
+			} catch (IOException e) {
+				fallo[0] = e;
+			}
+		});
+		if (fallo[0] != null) throw fallo[0];
+		return filas - antes;
+	}
+
+	/**
+	 * Exporta préstamos del historial en memoria con las mismas columnas que el
+	 * persistente, uno por fila como movimiento PRESTAMO (en memoria no se guarda
+	 * la fecha de las devoluciones).
+	 *
+	 * @param desde Primer día incluido, o null para no acotar
+	 * @param hasta Último día incluido, o null para no acotar
+	 * @return Filas escritas
+	 * @throws IOException si falla la escritura
+	 */
+	public long prestamos(Iterable<Prestamo> prestamos, LocalDate desde, LocalDate hasta) throws IOException {
+		long antes = filas;
+		empezarTabla(CAMPOS_HISTORIAL);
+		int desdeDia = desde == null ? Integer.MIN_VALUE : (int) desde.toEpochDay();
+		int hastaDia = hasta == null ? Integer.MAX_VALUE : (int) hasta.toEpochDay();
+		for (Prestamo p : prestamos) {
+			int dia = (int) p.getFechaPrestamo().toEpochDay();
+			if (dia < desdeDia || dia > hastaDia) continue;
+			RecursoBiblioteca recurso = p.getRecurso();
+			movimiento(TipoMovimiento.PRESTAMO, recurso.getTipo(), dia, recurso.getId(), p.getUsuario().getId());
+		}
+		return filas - antes;
+	}
+
+	/**
+	 * @return Filas escritas desde que se creó el exportador
+	 */
+	public long getFilas() {
+		return filas;
+	}
+
+	/**
+	 * Vuelca el buffer a la salida y la vacía.
+	 *
+	 * @throws IOException si falla la escritura
+	 */
+	public void flush() throws IOException {
+		vaciar();
+		salida.flush();
+	}
+
+	/**
+	 * Vuelca el buffer y cierra la salida (con gzip, escribe también el final del
+	 * archivo comprimido).
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			vaciar();
+		} finally {
+			salida.close();
+		}
+	}
+
+	// ---------------------------------------------------------------- filas
+
+	private void movimiento(TipoMovimiento movimiento, TipoRecurso tipo, int dia, String idRecurso, String idUsuario)
+			throws IOException {
+		texto(movimiento.name());
+		texto(tipo.name());
+		fecha(dia);
+		texto(idRecurso);
+		texto(idUsuario);
+		terminarFila();
+	}
+
+	/**
+	 * Prepara los nombres de los campos y, en CSV, escribe la cabecera.
+	 */
+	private void empezarTabla(String[] campos) throws IOException {
+		nombres = new byte[campos.length][];
+		for (int i = 0; i < campos.length; i++) {
+			nombres[i] = ("\"" + campos[i] + "\":").getBytes(StandardCharsets.UTF_8);
+		}
+		if (formato == FormatoExportacion.CSV) {
+			for (int i = 0; i < campos.length; i++) {
+				reservar(campos[i].length() + 1);
+				if (i > 0) buffer[posicion++] = ',';
+				for (int j = 0; j < campos[i].length(); j++) buffer[posicion++] = (byte) campos[i].charAt(j);
+			}
+			reservar(1);
+			buffer[posicion++] = '\n';
+		}
+	}
+
+	/**
+	 * Escribe el separador y, en JSON, el nombre del siguiente campo.
+	 */
+	private void empezarCampo() throws IOException {
+		byte[] nombre = nombres[campos];
+		reservar(nombre.length + 2);
+		if (formato == FormatoExportacion.CSV) {
+			if (campos > 0) buffer[posicion++] = ',';
+		} else {
+			buffer[posicion++] = (byte) (campos == 0 ? '{' : ',');
+			System.arraycopy(nombre, 0, buffer, posicion, nombre.length);
+			posicion += nombre.length;
+		}
+		campos++;
+	}
+
+	/**
+	 * Salta campos que la fila no tiene: vacíos en CSV, ausentes en JSON.
+	 */
+	private void omitir(int n) throws IOException {
+		if (formato == FormatoExportacion.CSV) {
+			reservar(n);
+			for (int i = 0; i < n; i++) {
+				if (campos > 0) buffer[posicion++] = ',';
+				campos++;
+			}
+		} else {
+			campos += n;
+		}
+	}
+
+	private void terminarFila() throws IOException {
+		reservar(2);
+		if (formato == FormatoExportacion.JSONL) buffer[posicion++] = '}';
+		buffer[posicion++] = '\n';
+		campos = 0;
+		filas++;
+	}
+
+	// ---------------------------------------------------------------- valores
+
+	/**
+	 * Escribe un texto en UTF-8. En CSV va entre comillas solo si contiene comas,
+	 * comillas o saltos de línea; en JSON siempre, con los caracteres de control escapados.
+	 */
+	private void texto(String valor) throws IOException {
+		empezarCampo();
+		if (valor == null) {
+			if (formato == FormatoExportacion.JSONL) ascii("null");
+			return;
+		}
+		boolean csv = formato == FormatoExportacion.CSV;
+		boolean comillas = !csv || necesitaComillas(valor);
+		if (comillas) {
+			reservar(1);
+			buffer[posicion++] = '"';
+		}
+		for (int i = 0; i < valor.length(); i++) {
+			if (posicion > buffer.length - MAXIMO_CARACTER) vaciar();
+			char c = valor.charAt(i);
+			if (c < 0x80) {
+				if (c == '"') {
+					buffer[posicion++] = (byte) (csv ? '"' : '\\');
+					buffer[posicion++] = '"';
+				} else if (!csv && c == '\\') {
+					buffer[posicion++] = '\\';
+					buffer[posicion++] = '\\';
+				} else if (!csv && c < 0x20) {
+					escaparControl(c);
+				} else {
+					buffer[posicion++] = (byte) c;
+				}
+			} else if (c < 0x800) {
+				buffer[posicion++] = (byte) (0xC0 | (c >> 6));
+				buffer[posicion++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < valor.length()
+					&& Character.isLowSurrogate(valor.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, valor.charAt(++i));
+				buffer[posicion++] = (byte) (0xF0 | (cp >> 18));
+				buffer[posicion++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				buffer[posicion++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				buffer[posicion++] = (byte) (0x80 | (cp & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				// Sustituto suelto: se escribe '?', como hace String.getBytes
+				buffer[posicion++] = '?';
+			} else {
+				buffer[posicion++] = (byte) (0xE0 | (c >> 12));
+				buffer[posicion++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buffer[posicion++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		if (comillas) {
+			reservar(1);
+			buffer[posicion++] = '"';
+		}
+	}
+
+	private static boolean necesitaComillas(String valor) {
+		for (int i = 0; i < valor.length(); i++) {
+			char c = valor.charAt(i);
+			if (c == ',' || c == '"' || c == '\n' || c == '\r') return true;
+		}
+		return false;
+	}
+
+	/** Escribe un carácter de control como {@code \n}, {@code \t}... o una secuencia de cuatro cifras hexadecimales */
+	private void escaparControl(char c) {
+		buffer[posicion++] = '\\';
+		switch (c) {
+			case '\n': buffer[posicion++] = 'n'; break;
+			case '\r': buffer[posicion++] = 'r'; break;
+			case '\t': buffer[posicion++] = 't'; break;
+			case '\b': buffer[posicion++] = 'b'; break;
+			case '\f': buffer[posicion++] = 'f'; break;
+			default:
+				buffer[posicion++] = 'u';
+				buffer[posicion++] = '0';
+				buffer[posicion++] = '0';
+				buffer[posicion++] = HEXADECIMAL[c >> 4];
+				buffer[posicion++] = HEXADECIMAL[c & 0xF];
+		}
+	}
+
+	private void ascii(String s) throws IOException {
+		reservar(s.length());
+		for (int i = 0; i < s.length(); i++) buffer[posicion++] = (byte) s.charAt(i);
+	}
+
+	private void numero(int valor) throws IOException {
+		empezarCampo();
+		reservar(11);
+		if (valor < 0) {
+			if (valor == Integer.MIN_VALUE) {
+				ascii(Integer.toString(valor));
+				return;
+			}
+			buffer[posicion++] = '-';
+			valor = -valor;
+		}
+		int fin = posicion + cifras(valor);
+		posicion = fin;
+		do {
+			buffer[--fin] = (byte) ('0' + valor % 10);
+			valor /= 10;
+		} while (valor != 0);
+	}
+
+	private static int cifras(int valor) {
+		int n = 1;
+		while (valor >= 10) {
+			valor /= 10;
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Escribe una fecha AAAA-MM-DD (entre comillas en JSON). El historial sale en
+	 * orden, así que casi siempre es la misma que la anterior y se copia sin calcular.
+	 */
+	private void fecha(int dia) throws IOException {
+		empezarCampo();
+		if (dia != ultimoDia) {
+			LocalDate d = LocalDate.ofEpochDay(dia);
+			int anio = d.getYear();
+			for (int i = 3; i >= 0; i--) {
+				fecha[i] = (byte) ('0' + anio % 10);
+				anio /= 10;
+			}
+			fecha[4] = '-';
+			fecha[5] = (byte) ('0' + d.getMonthValue() / 10);
+			fecha[6] = (byte) ('0' + d.getMonthValue() % 10);
+			fecha[7] = '-';
+			fecha[8] = (byte) ('0' + d.getDayOfMonth() / 10);
+			fecha[9] = (byte) ('0' + d.getDayOfMonth() % 10);
+			ultimoDia = dia;
+		}
+		boolean json = formato == FormatoExportacion.JSONL;
+		reservar(fecha.length + 2);
+		if (json) buffer[posicion++] = '"';
+		System.arraycopy(fecha, 0, buffer, posicion, fecha.length);
+		posicion += fecha.length;
+		if (json) buffer[posicion++] = '"';
+	}
+
+	// ---------------------------------------------------------------- buffer
+
+	/** Se asegura de que caben n bytes más en el buffer, vaciándolo si no */
+	private void reservar(int n) throws IOException {
+		if (posicion + n > buffer.length) vaciar();
+	}
+
+	private void vaciar() throws IOException {
+		if (posicion > 0) {
+			salida.write(buffer, 0, posicion);
+			posicion = 0;
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package biblioteca.persistencia;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Campos separados por comas de los registros (diario, réplicas, archivos de cambios)
+ * y de las líneas de usuarios.txt y recursos.txt.
+ *
+ * Dentro de un campo la barra invertida escapa la coma ({@code \,}), el salto de
+ * línea ({@code \n}), el retorno de carro ({@code \r}) y a sí misma ({@code \\}),
+ * así que un título con comas o un nombre con saltos de línea no se confunde con
+ * otro campo ni con otro registro. Las líneas sin barras invertidas se leen igual
+ * que antes de escapar, de modo que los archivos existentes siguen siendo válidos.
+ */
+public final class FormatoRegistro {
+
+	private FormatoRegistro() {
+	}
+
+	/**
+	 * Une los campos escapando cada uno.
+	 *
+	 * @param campos Campos en orden
+	 * @return La línea, sin salto de línea final
+	 */
+	public static String unir(String... campos) {
+		StringBuilder sb = new StringBuilder(64);
+		for (int i = 0; i < campos.length; i++) {
+			if (i > 0) sb.append(',');
+			escapar(sb, campos[i]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Añade un campo escapado.
+	 */
+	public static void escapar(StringBuilder sb, String campo) {
+		for (int i = 0; i < campo.length(); i++) {
+			char c = campo.charAt(i);
+			switch (c) {
+				case '\\':
+					sb.append("\\\\");
+					break;
+				case ',':
+					sb.append("\\,");
+					break;
+				case '\n':
+					sb.append("\\n");
+					break;
+				case '\r':
+					sb.append("\\r");
+					break;
+				default:
+					sb.append(c);
+			}
+		}
+	}
+
+	/**
+	 * Separa una línea en como mucho {@code limite} campos. El último conserva tal
+	 * cual las comas sin escapar que queden (como {@code String.split} con límite),
+	 * para leer líneas antiguas con comas en el último campo.
+	 *
+	 * @param linea  Línea sin salto de línea
+	 * @param limite Número máximo de campos
+	 * @return Los campos sin escapar
+	 */
+	public static String[] separar(String linea, int limite) {
+		if (linea.indexOf('\\') < 0) return linea.split(",", limite);
+		List<String> campos = new ArrayList<>(limite);
+		StringBuilder campo = new StringBuilder(linea.length());
+		for (int i = 0; i < linea.length(); i++) {
+			char c = linea.charAt(i);
+			if (c == '\\' && i + 1 < linea.length()) {
+				campo.append(desescapar(linea.charAt(++i)));
+			} else if (c == ',' && campos.size() < limite - 1) {
+				campos.add(campo.toString());
+				campo.setLength(0);
+			} else {
+				campo.append(c);
+			}
+		}
+		campos.add(campo.toString());
+		return campos.toArray(new String[0]);
+	}
+
+	/**
+	 * @return El carácter que representa la secuencia de escape {@code \c}
+	 */
+	static char desescapar(char c) {
+		switch (c) {
+			case 'n':
+				return '\n';
+			case 'r':
+				return '\r';
+			default:
+				return c;
+		}
+	}
+
+	/**
+	 * @return true si el texto tiene caracteres de control (saltos de línea, tabuladores, NUL...)
+	 */
+	public static boolean tieneControl(String texto) {
+		for (int i = 0; i < texto.length(); i++) {
+			if (Character.isISOControl(texto.charAt(i))) return true;
+		}
+		return false;
+	}
+}
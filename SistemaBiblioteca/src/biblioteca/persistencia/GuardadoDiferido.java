@@ -0,0 +1,354 @@
+package biblioteca.persistencia;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Guardado en segundo plano de los usuarios y recursos que cambiaron.
+ *
+ * Quien modifica la biblioteca solo marca el ID del usuario o del recurso (un
+ * préstamo o una devolución marcan su recurso), sin tocar el disco. Un hilo
+ * guardador recoge las marcas cada intervalo, o antes si se acumulan tantas como
+ * el umbral, y escribe el estado actual de cada elemento marcado en un archivo de
+ * cambios nuevo ({@code cambios-NNNNNNNN.txt}) con los mismos registros que el
+ * diario. Los cambios repetidos de un elemento entre dos guardados se escriben una
+ * sola vez. Cada archivo se escribe en un temporal, se sincroniza y se renombra,
+ * así que nunca queda uno a medias.
+ *
+ * Cuando se juntan {@value #MAXIMO_ARCHIVOS} archivos de cambios se compactan: se
+ * reescriben los archivos completos y se borran, del más antiguo al más nuevo,
+ * los de cambios ya incluidos. Al cargar, los archivos de cambios que queden se
+ * reproducen en orden sobre los completos.
+ *
+ * Si el guardador no da abasto y las marcas pendientes llegan al máximo, quien
+ * marca espera a que se guarde un lote: la memoria pendiente está acotada.
+ */
+public class GuardadoDiferido implements Closeable {
+
+	/** Archivos de cambios a partir de los que se compacta */
+	private static final int MAXIMO_ARCHIVOS = 32;
+
+	private static final String PREFIJO = "cambios-";
+	private static final String EXTENSION = ".txt";
+
+	/**
+	 * Lo que el guardado necesita de quien lo usa.
+	 */
+	public interface Origen {
+		/** Añade los registros con el estado actual del usuario (ninguno si ya no existe) */
+		void usuario(String id, List<String> registros);
+
+		/** Añade los registros con el estado actual del recurso y de su préstamo */
+		void recurso(String id, List<String> registros);
+
+		/** Reescribe de forma atómica los archivos completos con el estado actual */
+		void compactar() throws IOException;
+	}
+
+	private final Path directorio;
+	private final Origen origen;
+	private final Consumer<IOException> alFallar;
+	private final long intervaloNanos;
+	private final int umbral;
+	private final int maximoPendientes;
+
+	private final Set<String> usuarios = ConcurrentHashMap.newKeySet();
+	private final Set<String> recursos = ConcurrentHashMap.newKeySet();
+
+	/** Marcas sin guardar (las de usuarios más las de recursos) */
+	private final AtomicInteger pendientes = new AtomicInteger();
+
+	/** Monitor en el que esperan los que marcan cuando se llega al máximo */
+	private final Object hueco = new Object();
+
+	/** Primer archivo de cambios sin compactar y número del siguiente (solo los usa el guardador) */
+	private long primerArchivo;
+	private long siguienteArchivo;
+
+	private final AtomicLong archivosEscritos = new AtomicLong();
+	private final AtomicLong elementosGuardados = new AtomicLong();
+
+	private final Thread guardador;
+	private volatile boolean cerrado;
+
+	/**
+	 * Prepara el directorio y arranca el hilo guardador. Los archivos de cambios que
+	 * ya hubiera deben haberse reproducido antes ({@link #reproducir}).
+	 *
+	 * @param directorio  Directorio de los archivos de cambios
+	 * @param origen      Estado actual de lo que hay que guardar
+	 * @param alFallar    Recibe los errores de escritura; las marcas se conservan y se reintenta
+	 * @param intervaloMs Tiempo máximo que un cambio espera a guardarse
+	 * @param umbral      Marcas pendientes que adelantan el guardado; con cuatro veces
+	 *                    más, quien marca espera
+	 * @throws IOException si no se puede crear o leer el directorio
+	 */
+	public GuardadoDiferido(String directorio, Origen origen, Consumer<IOException> alFallar,
+			long intervaloMs, int umbral) throws IOException {
+		this.directorio = Paths.get(directorio);
+		this.origen = origen;
+		this.alFallar = alFallar;
+		this.intervaloNanos = TimeUnit.MILLISECONDS.toNanos(intervaloMs);
+		this.umbral = Math.max(1, umbral);
+		this.maximoPendientes = this.umbral * 4;
+
+		Files.createDirectories(this.directorio);
+		TreeMap<Long, Path> existentes = archivos(this.directorio);
+		this.primerArchivo = existentes.isEmpty() ? 0 : existentes.firstKey();
+		this.siguienteArchivo = existentes.isEmpty() ? 0 : existentes.lastKey() + 1;
+
+		this.guardador = new Thread(this::bucleGuardado, "guardado-diferido");
+		this.guardador.setDaemon(true);
+		this.guardador.start();
+	}
+
+	/**
+	 * Marca un usuario como cambiado. No toca el disco.
+	 */
+	public void marcarUsuario(String id) {
+		marcar(usuarios, id);
+	}
+
+	/**
+	 * Marca un recurso (su estado o su préstamo) como cambiado. No toca el disco.
+	 */
+	public void marcarRecurso(String id) {
+		marcar(recursos, id);
+	}
+
+	/**
+	 * @return Marcas pendientes de guardar
+	 */
+	public int getPendientes() {
+		return pendientes.get();
+	}
+
+	/**
+	 * @return Archivos de cambios escritos desde que se abrió
+	 */
+	public long getArchivosEscritos() {
+		return archivosEscritos.get();
+	}
+
+	/**
+	 * @return Usuarios y recursos escritos desde que se abrió
+	 */
+	public long getElementosGuardados() {
+		return elementosGuardados.get();
+	}
+
+	/**
+	 * Guarda lo pendiente, compacta y detiene el hilo guardador.
+	 */
+	@Override
+	public void close() throws IOException {
+		cerrado = true;
+		LockSupport.unpark(guardador);
+		try {
+			guardador.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (hueco) {
+			hueco.notifyAll();
+		}
+	}
+
+	private void marcar(Set<String> conjunto, String id) {
+		if (!conjunto.add(id)) return;
+		int n = pendientes.incrementAndGet();
+		if (n == umbral) LockSupport.unpark(guardador);
+		if (n >= maximoPendientes) esperarHueco();
+	}
+
+	/**
+	 * Contrapresión: espera a que el guardador termine un lote.
+	 */
+	private void esperarHueco() {
+		LockSupport.unpark(guardador);
+		synchronized (hueco) {
+			while (pendientes.get() >= maximoPendientes && !cerrado) {
+				try {
+					hueco.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Bucle del hilo guardador: espera al intervalo o al umbral y guarda lo marcado.
+	 * Al cerrar guarda lo que quede y compacta.
+	 */
+	private void bucleGuardado() {
+		long ultimo = System.nanoTime();
+		while (true) {
+			boolean fin = cerrado;
+			long espera = intervaloNanos - (System.nanoTime() - ultimo);
+			if (!fin && espera > 0 && pendientes.get() < umbral) {
+				LockSupport.parkNanos(espera);
+				continue;
+			}
+			ultimo = System.nanoTime();
+			try {
+				if (pendientes.get() > 0) guardarCambios();
+				if (fin ? siguienteArchivo > primerArchivo : siguienteArchivo - primerArchivo >= MAXIMO_ARCHIVOS) {
+					compactar();
+				}
+			} catch (IOException e) {
+				// Las marcas siguen pendientes: se reintenta en el siguiente intervalo
+				alFallar.accept(e);
+				if (fin) return;
+				LockSupport.parkNanos(intervaloNanos);
+				ultimo = System.nanoTime();
+			}
+			if (fin) return;
+		}
+	}
+
+	/**
+	 * Escribe un archivo de cambios con el estado actual de lo marcado.
+	 * Cada marca se quita antes de leer el estado: un cambio posterior vuelve a
+	 * marcar el elemento y se guarda en el siguiente archivo.
+	 */
+	private void guardarCambios() throws IOException {
+		List<String> idsUsuarios = recoger(usuarios);
+		List<String> idsRecursos = recoger(recursos);
+		int total = idsUsuarios.size() + idsRecursos.size();
+		if (total == 0) return;
+		Path destino = directorio.resolve(nombre(siguienteArchivo));
+		Path temporal = directorio.resolve(nombre(siguienteArchivo) + ".tmp");
+		try {
+			try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+					Writer writer = new BufferedWriter(Channels.newWriter(canal, StandardCharsets.UTF_8), 64 * 1024)) {
+				List<String> registros = new ArrayList<>();
+				for (String id : idsUsuarios) {
+					origen.usuario(id, registros);
+					escribir(writer, registros);
+				}
+				for (String id : idsRecursos) {
+					origen.recurso(id, registros);
+					escribir(writer, registros);
+				}
+				writer.flush();
+				canal.force(false);
+			}
+			Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Files.deleteIfExists(temporal);
+			for (String id : idsUsuarios) marcarDeNuevo(usuarios, id);
+			for (String id : idsRecursos) marcarDeNuevo(recursos, id);
+			throw e;
+		} finally {
+			pendientes.addAndGet(-total);
+			synchronized (hueco) {
+				hueco.notifyAll();
+			}
+		}
+		siguienteArchivo++;
+		archivosEscritos.incrementAndGet();
+		elementosGuardados.addAndGet(total);
+	}
+
+	/**
+	 * Reescribe los archivos completos y borra los de cambios que ya incluyen. Si
+	 * se interrumpe, los que queden se reproducen sobre los completos y llevan cada
+	 * elemento al estado de su último guardado.
+	 */
+	private void compactar() throws IOException {
+		origen.compactar();
+		for (; primerArchivo < siguienteArchivo; primerArchivo++) {
+			Files.deleteIfExists(directorio.resolve(nombre(primerArchivo)));
+		}
+	}
+
+	private List<String> recoger(Set<String> conjunto) {
+		List<String> ids = new ArrayList<>();
+		for (String id : conjunto) {
+			if (conjunto.remove(id)) ids.add(id);
+		}
+		return ids;
+	}
+
+	private void marcarDeNuevo(Set<String> conjunto, String id) {
+		if (conjunto.add(id)) pendientes.incrementAndGet();
+	}
+
+	private static void escribir(Writer writer, List<String> registros) throws IOException {
+		for (String registro : registros) {
+			writer.write(registro);
+			writer.write('\n');
+		}
+		registros.clear();
+	}
+
+	private static String nombre(long numero) {
+		return String.format("%s%08d%s", PREFIJO, numero, EXTENSION);
+	}
+
+	/**
+	 * @return Archivos de cambios del directorio por número; borra los temporales a medio escribir
+	 */
+	private static TreeMap<Long, Path> archivos(Path directorio) throws IOException {
+		TreeMap<Long, Path> archivos = new TreeMap<>();
+		if (!Files.isDirectory(directorio)) return archivos;
+		try (DirectoryStream<Path> contenido = Files.newDirectoryStream(directorio, PREFIJO + "*")) {
+			for (Path ruta : contenido) {
+				String nombre = ruta.getFileName().toString();
+				if (nombre.endsWith(".tmp")) {
+					Files.deleteIfExists(ruta);
+				} else if (nombre.endsWith(EXTENSION)) {
+					try {
+						archivos.put(Long.parseLong(nombre.substring(PREFIJO.length(), nombre.length() - EXTENSION.length())), ruta);
+					} catch (NumberFormatException e) {
+						// No es un archivo de cambios
+					}
+				}
+			}
+		}
+		return archivos;
+	}
+
+	/**
+	 * Lee en orden los registros de los archivos de cambios de un directorio.
+	 *
+	 * @param directorio  Directorio de los archivos de cambios
+	 * @param consumidor  Recibe cada registro
+	 * @throws IOException si no se puede leer algún archivo
+	 */
+	public static void reproducir(String directorio, Consumer<String> consumidor) throws IOException {
+		for (Path ruta : archivos(Paths.get(directorio)).values()) {
+			try (BufferedReader reader = Files.newBufferedReader(ruta, StandardCharsets.UTF_8)) {
+				String linea;
+				while ((linea = reader.readLine()) != null) {
+					if (!linea.isEmpty()) consumidor.accept(linea);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,1137 @@
+package biblioteca.persistencia;
+
+import biblioteca.enums.TipoMovimiento;
+import biblioteca.enums.TipoRecurso;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Historial de préstamos persistente formado por segmentos de tamaño fijo
+ * particionados por mes.
+ *
+ * Los movimientos se anexan de forma secuencial al segmento activo. Quien anexa
+ * solo encola el movimiento: un hilo escritor, como el del {@link Diario}, los
+ * agrupa y los escribe, y sincroniza el segmento con el disco como mucho cada
+ * segundo. Cuando el segmento se llena o cambia el mes se sella (pasa a ser de
+ * solo lectura) y se abre uno nuevo. La lectura recorre los segmentos mediante buffers mapeados en
+ * memoria, de modo que se pueden recorrer millones de movimientos sin cargarlos
+ * en el heap. Los segmentos sellados pueden comprimirse con gzip.
+ *
+ * Cada segmento sellado y cada mes archivado llevan un {@link IndiceIds} con las
+ * posiciones de cada recurso y cada usuario; el del segmento activo se mantiene en
+ * memoria mientras se escribe y se guarda al sellarlo. Las consultas de un recurso
+ * o de un usuario solo leen sus filas y saltan las particiones donde no aparece, así
+ * que no dependen del tamaño total del historial. Un índice que falte (p. ej. tras
+ * una caída al sellar) se reconstruye en la primera consulta que lo necesita.
+ *
+ * Los meses ya cerrados se archivan: sus segmentos se funden en un único
+ * {@link ArchivoHistorial} por columnas y comprimido, que guarda en sus cabeceras
+ * el primer y el último día y los recuentos por movimiento y tipo. Las consultas
+ * por rango de fechas solo abren los meses del rango y cuentan por mes o por tipo
+ * sin descomprimir los grupos que caen enteros dentro.
+ *
+ * Nombres de archivo: {@code historial-AAAAMM-NNNNNN.seg} (activo),
+ * {@code .sellado} (sellado), {@code .sellado.gz} (sellado y comprimido),
+ * {@code historial-AAAAMM.arch} (mes archivado) y {@code .idx} (índice de IDs de un
+ * segmento o de un mes archivado, con el nombre de su partición hasta el primer punto).
+ */
+public class HistorialSegmentado implements Closeable {
+
+	/** Tamaño máximo por defecto de un segmento: 8 MB */
+	public static final int TAMANO_SEGMENTO_POR_DEFECTO = 8 * 1024 * 1024;
+
+	private static final int MAGIA = 0x48495354; // "HIST"
+	private static final byte VERSION = 1;
+	private static final int TAMANO_CABECERA = 5;
+
+	private static final String PREFIJO = "historial-";
+	private static final String EXT_ACTIVO = ".seg";
+	private static final String EXT_SELLADO = ".sellado";
+	private static final String EXT_COMPRIMIDO = ".sellado.gz";
+	private static final String EXT_ARCHIVO = ".arch";
+	private static final String EXT_TEMPORAL = ".tmp";
+	private static final String EXT_INDICE = ".idx";
+	private static final DateTimeFormatter FORMATO_MES = DateTimeFormatter.ofPattern("yyyyMM");
+
+	private static final TipoMovimiento[] MOVIMIENTOS = TipoMovimiento.values();
+	private static final TipoRecurso[] TIPOS = TipoRecurso.values();
+
+	/** Movimientos escritos como mucho en un mismo lote */
+	private static final int TAMANO_MAXIMO_LOTE = 4096;
+
+	/** Tiempo máximo que un movimiento escrito espera a sincronizarse con el disco */
+	private static final long INTERVALO_SINCRONIZACION_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final Path directorio;
+	private final int tamanoSegmento;
+
+	/** Movimientos encolados que el hilo escritor aún no ha escrito */
+	private final BlockingQueue<RegistroHistorial> pendientes = new LinkedBlockingQueue<>();
+	/** Movimientos encolados desde la apertura; se cuenta antes de encolar */
+	private final AtomicLong encolados = new AtomicLong();
+	/** Movimientos ya escritos en el segmento (protegido por {@link #avance}) */
+	private long escritos;
+	private final Object avance = new Object();
+
+	// Segmento activo: lo usa el hilo escritor y lo sella el mantenimiento
+	private final Object cerrojoSegmento = new Object();
+	private FileChannel canal;
+	private Path rutaActiva;
+	private YearMonth mesActivo;
+	private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+	/** Bytes del segmento activo ya escritos en el canal */
+	private long tamanoActivo;
+	private boolean sinSincronizar;
+
+	/** Índice en memoria del segmento activo; las consultas lo leen sin el cerrojo del segmento */
+	private volatile IndiceActivo indiceActivo;
+	private long ultimaSincronizacion = System.nanoTime();
+
+	private final Thread escritor;
+	private volatile boolean cerrado;
+	/** Error que detuvo al hilo escritor, o null mientras escribe con normalidad */
+	private volatile IOException fallo;
+
+	/**
+	 * Las lecturas toman el cerrojo de lectura; archivar y comprimir toman el de
+	 * escritura solo para sustituir unos archivos por otros, de modo que una lectura
+	 * nunca ve a la vez un mes archivado y los segmentos que lo formaron.
+	 */
+	private final ReadWriteLock particiones = new ReentrantReadWriteLock();
+
+	/** Evita que dos archivados o compresiones trabajen a la vez sobre los mismos segmentos */
+	private final Object mantenimiento = new Object();
+
+	/**
+	 * Abre el historial en un directorio, creándolo si no existe, y arranca el hilo
+	 * escritor. Los segmentos activos se recortan hasta el último movimiento completo
+	 * (tras una caída puede quedar uno a medias al final). Si quedaron varios, se
+	 * sellan todos menos el más reciente, que sigue recibiendo movimientos.
+	 *
+	 * @param directorio     Directorio de los segmentos
+	 * @param tamanoSegmento Tamaño máximo en bytes de cada segmento
+	 * @throws IOException si no se puede crear o abrir el directorio
+	 */
+	public HistorialSegmentado(String directorio, int tamanoSegmento) throws IOException {
+		this.directorio = Paths.get(directorio);
+		this.tamanoSegmento = tamanoSegmento;
+		Files.createDirectories(this.directorio);
+		// Archivados o compresiones que quedaron a medias
+		List<Path> temporales;
+		try (Stream<Path> archivos = Files.list(this.directorio)) {
+			temporales = archivos
+					.filter(p -> p.getFileName().toString().startsWith(PREFIJO) && p.getFileName().toString().endsWith(EXT_TEMPORAL))
+					.collect(Collectors.toList());
+		}
+		for (Path temporal : temporales) {
+			Files.delete(temporal);
+		}
+
+		List<Path> activos = segmentos().stream()
+				.filter(p -> p.getFileName().toString().endsWith(EXT_ACTIVO))
+				.collect(Collectors.toList());
+		for (Path activo : activos) {
+			recortarIncompleto(activo);
+			// Uno escrito al sellar justo antes de una caída ya no describe el segmento
+			Files.deleteIfExists(rutaIndice(activo));
+		}
+		for (int i = 0; i < activos.size() - 1; i++) {
+			sellar(activos.get(i));
+		}
+		borrarIndicesHuerfanos();
+		if (!activos.isEmpty()) {
+			rutaActiva = activos.get(activos.size() - 1);
+			mesActivo = mesDe(rutaActiva);
+			canal = FileChannel.open(rutaActiva, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			tamanoActivo = canal.size();
+			IndiceIds.Constructor indice = new IndiceIds.Constructor();
+			indexarSegmento(rutaActiva, indice);
+			indiceActivo = new IndiceActivo(rutaActiva, indice);
+		}
+
+		this.escritor = new Thread(this::bucleEscritura, "historial-escritor");
+		this.escritor.setDaemon(true);
+		this.escritor.start();
+	}
+
+	/**
+	 * Encola un movimiento para anexarlo al segmento activo. No bloquea ni toca
+	 * el disco. Los movimientos se escriben en el orden en que se encolan.
+	 *
+	 * @param registro Movimiento a guardar
+	 * @throws IOException si el hilo escritor se detuvo por un error
+	 */
+	public void anexar(RegistroHistorial registro) throws IOException {
+		comprobarEscritor();
+		encolados.incrementAndGet();
+		pendientes.add(registro);
+	}
+
+	/**
+	 * Encola varios movimientos en orden, igual que {@link #anexar(RegistroHistorial)}.
+	 *
+	 * @param registros Movimientos a guardar
+	 * @throws IOException si el hilo escritor se detuvo por un error
+	 */
+	public void anexarTodos(List<RegistroHistorial> registros) throws IOException {
+		comprobarEscritor();
+		encolados.addAndGet(registros.size());
+		pendientes.addAll(registros);
+	}
+
+	/**
+	 * Espera a que estén escritos (aunque aún no sincronizados) todos los
+	 * movimientos encolados hasta ahora, para que una lectura los vea.
+	 *
+	 * @throws IOException si el hilo escritor se detuvo por un error
+	 */
+	public void esperarEscritos() throws IOException {
+		long objetivo = encolados.get();
+		synchronized (avance) {
+			while (escritos < objetivo) {
+				comprobarEscritor();
+				if (!escritor.isAlive()) break;
+				try {
+					avance.wait(10);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrumpido esperando al historial", e);
+				}
+			}
+		}
+		comprobarEscritor();
+	}
+
+	private void comprobarEscritor() throws IOException {
+		IOException error = fallo;
+		if (error != null) throw new IOException("El historial " + directorio + " dejó de escribir: " + error.getMessage(), error);
+	}
+
+	/**
+	 * Bucle del hilo escritor: agrupa los movimientos pendientes en lotes, los
+	 * escribe y sincroniza el segmento activo si pasó el intervalo.
+	 */
+	private void bucleEscritura() {
+		List<RegistroHistorial> lote = new ArrayList<>();
+		try {
+			while (!cerrado || !pendientes.isEmpty()) {
+				RegistroHistorial primero = pendientes.poll(100, TimeUnit.MILLISECONDS);
+				if (primero != null) {
+					lote.add(primero);
+					pendientes.drainTo(lote, TAMANO_MAXIMO_LOTE - 1);
+				}
+				synchronized (cerrojoSegmento) {
+					if (!lote.isEmpty()) escribir(lote);
+					long ahora = System.nanoTime();
+					if (sinSincronizar && canal != null && ahora - ultimaSincronizacion >= INTERVALO_SINCRONIZACION_NANOS) {
+						canal.force(false);
+						sinSincronizar = false;
+						ultimaSincronizacion = ahora;
+					}
+				}
+				if (lote.isEmpty()) continue;
+				synchronized (avance) {
+					escritos += lote.size();
+					avance.notifyAll();
+				}
+				lote.clear();
+			}
+		} catch (IOException e) {
+			fallo = e;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Escribe un lote en el segmento activo, abriendo uno nuevo si hace falta. Los
+	 * movimientos se acumulan en el buffer y se escriben con una escritura por
+	 * segmento en lugar de una por movimiento. Solo lo llama el hilo escritor.
+	 */
+	private void escribir(List<RegistroHistorial> registros) throws IOException {
+		buffer.clear();
+		for (RegistroHistorial registro : registros) {
+			byte[] recurso = registro.getIdRecurso().getBytes(StandardCharsets.UTF_8);
+			byte[] usuario = registro.getIdUsuario().getBytes(StandardCharsets.UTF_8);
+			int longitud = 1 + 1 + 4 + 2 + recurso.length + 2 + usuario.length;
+
+			YearMonth mes = YearMonth.from(registro.getFecha());
+			if (canal == null || !mes.equals(mesActivo) || tamanoActivo + buffer.position() + longitud > tamanoSegmento) {
+				vaciarBuffer();
+				abrirNuevoSegmento(mes);
+			}
+			if (buffer.remaining() < longitud) {
+				vaciarBuffer();
+				if (buffer.capacity() < longitud) buffer = ByteBuffer.allocate(longitud);
+			}
+			int posicion = (int) (tamanoActivo + buffer.position());
+			IndiceIds.Constructor indice = indiceActivo.indice;
+			indice.agregar(IndiceIds.clave(IndiceIds.RECURSO, recurso, 0, recurso.length), posicion);
+			indice.agregar(IndiceIds.clave(IndiceIds.USUARIO, usuario, 0, usuario.length), posicion);
+
+			buffer.put((byte) registro.getMovimiento().ordinal());
+			buffer.put((byte) registro.getTipoRecurso().ordinal());
+			buffer.putInt((int) registro.getFecha().toEpochDay());
+			buffer.putShort((short) recurso.length).put(recurso);
+			buffer.putShort((short) usuario.length).put(usuario);
+		}
+		vaciarBuffer();
+		sinSincronizar = true;
+	}
+
+	/**
+	 * Escribe en el segmento activo lo acumulado en el buffer y lo deja vacío.
+	 */
+	private void vaciarBuffer() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			tamanoActivo += canal.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Recorre todos los movimientos en orden cronológico.
+	 *
+	 * @param consumidor Acción a aplicar sobre cada movimiento
+	 * @throws IOException si falla la lectura de algún segmento
+	 */
+	public void recorrer(Consumer<RegistroHistorial> consumidor) throws IOException {
+		recorrer(null, null, consumidor);
+	}
+
+	/**
+	 * Recorre los movimientos de los meses en el rango indicado, en orden
+	 * cronológico. Los archivos de los meses fuera del rango no se abren.
+	 *
+	 * @param desde      Primer mes incluido, o null para no acotar
+	 * @param hasta      Último mes incluido, o null para no acotar
+	 * @param consumidor Acción a aplicar sobre cada movimiento
+	 * @throws IOException si falla la lectura de algún segmento
+	 */
+	public void recorrer(YearMonth desde, YearMonth hasta, Consumer<RegistroHistorial> consumidor) throws IOException {
+		recorrer(desde == null ? null : desde.atDay(1), hasta == null ? null : hasta.atEndOfMonth(), true,
+				mes -> (movimiento, tipo, dia, idRecurso, idUsuario) -> consumidor.accept(new RegistroHistorial(
+						MOVIMIENTOS[movimiento], TIPOS[tipo], LocalDate.ofEpochDay(dia), idRecurso, idUsuario)));
+	}
+
+	/**
+	 * Recorre en orden cronológico los movimientos de un rango de días, solo los de
+	 * un recurso o un usuario si se indican. Los que no coinciden se descartan sin
+	 * crear el movimiento.
+	 *
+	 * @param desde      Primer día incluido, o null para no acotar
+	 * @param hasta      Último día incluido, o null para no acotar
+	 * @param idRecurso  Recurso cuyos movimientos se quieren, o null para todos
+	 * @param idUsuario  Usuario cuyos movimientos se quieren, o null para todos
+	 * @param consumidor Acción a aplicar sobre cada movimiento
+	 * @throws IOException si falla la lectura de algún segmento
+	 */
+	public void recorrer(LocalDate desde, LocalDate hasta, String idRecurso, String idUsuario,
+			Consumer<RegistroHistorial> consumidor) throws IOException {
+		ArchivoHistorial.Visitante visitante = (movimiento, tipo, dia, recurso, usuario) -> {
+			if (idRecurso != null && !idRecurso.equals(recurso)) return;
+			if (idUsuario != null && !idUsuario.equals(usuario)) return;
+			consumidor.accept(new RegistroHistorial(MOVIMIENTOS[movimiento], TIPOS[tipo], LocalDate.ofEpochDay(dia),
+					recurso, usuario));
+		};
+		if (idRecurso == null && idUsuario == null) {
+			recorrer(desde, hasta, true, mes -> visitante);
+			return;
+		}
+		long clave = idRecurso != null ? IndiceIds.clave(IndiceIds.RECURSO, idRecurso)
+				: IndiceIds.clave(IndiceIds.USUARIO, idUsuario);
+		int desdeDia = desde == null ? Integer.MIN_VALUE : (int) desde.toEpochDay();
+		int hastaDia = hasta == null ? Integer.MAX_VALUE : (int) hasta.toEpochDay();
+		recorrerParticiones(desde, hasta, (ruta, mes) -> leerIndexado(ruta, clave, desdeDia, hastaDia, visitante));
+	}
+
+	/**
+	 * Devuelve los últimos movimientos. Lee los meses del más reciente hacia atrás
+	 * hasta reunirlos y no guarda en memoria más que los que devuelve.
+	 *
+	 * @param cantidad Número máximo de movimientos
+	 * @return Los movimientos en orden cronológico
+	 * @throws IOException si falla la lectura de algún segmento
+	 */
+	public List<RegistroHistorial> ultimos(int cantidad) throws IOException {
+		esperarEscritos();
+		ArrayDeque<RegistroHistorial> ultimos = new ArrayDeque<>();
+		List<YearMonth> meses = getMeses();
+		for (int i = meses.size() - 1; i >= 0 && ultimos.size() < cantidad; i--) {
+			int faltan = cantidad - ultimos.size();
+			ArrayDeque<RegistroHistorial> delMes = new ArrayDeque<>();
+			recorrer(meses.get(i), meses.get(i), registro -> {
+				if (delMes.size() == faltan) delMes.removeFirst();
+				delMes.addLast(registro);
+			});
+			while (!delMes.isEmpty()) ultimos.addFirst(delMes.removeLast());
+		}
+		return new ArrayList<>(ultimos);
+	}
+
+	/**
+	 * Cuenta los movimientos de cada mes en un rango de fechas.
+	 *
+	 * @param movimiento Movimiento a contar, o null para todos
+	 * @param desde      Primer día incluido, o null para no acotar
+	 * @param hasta      Último día incluido, o null para no acotar
+	 * @return Movimientos por mes, en orden, sin los meses sin ninguno
+	 * @throws IOException si falla la lectura de algún segmento
+	 */
+	public Map<YearMonth, Long> contarPorMes(TipoMovimiento movimiento, LocalDate desde, LocalDate hasta) throws IOException {
+		Map<YearMonth, long[]> cuentas = new TreeMap<>();
+		recorrer(desde, hasta, false, mes -> {
+			long[] cuenta = cuentas.computeIfAbsent(mes, m -> new long[1]);
+			return new ArchivoHistorial.Visitante() {
+				@Override
+				public boolean grupo(int[] recuentos) {
+					for (int i = 0; i < recuentos.length; i++) {
+						if (movimiento == null || i / TIPOS.length == movimiento.ordinal()) cuenta[0] += recuentos[i];
+					}
+					return true;
+				}
+
+				@Override
+				public void fila(int mov, int tipo, int dia, String idRecurso, String idUsuario) {
+					if (movimiento == null || mov == movimiento.ordinal()) cuenta[0]++;
+				}
+			};
+		});
+		Map<YearMonth, Long> resultado = new TreeMap<>();
+		cuentas.forEach((mes, cuenta) -> {
+			if (cuenta[0] > 0) resultado.put(mes, cuenta[0]);
+		});
+		return resultado;
+	}
+
+	/**
+	 * Cuenta los movimientos de cada tipo de recurso en un rango de fechas.
+	 *
+	 * @param movimiento Movimiento a contar, o null para todos
+	 * @param desde      Primer día incluido, o null para no acotar
+	 * @param hasta      Último día incluido, o null para no acotar
+	 * @return Movimientos por tipo, sin los tipos sin ninguno
+	 * @throws IOException si falla la lectura de algún segmento
+	 */
+	public Map<TipoRecurso, Long> contarPorTipo(TipoMovimiento movimiento, LocalDate desde, LocalDate hasta) throws IOException {
+		long[] cuentas = new long[TIPOS.length];
+		ArchivoHistorial.Visitante visitante = new ArchivoHistorial.Visitante() {
+			@Override
+			public boolean grupo(int[] recuentos) {
+				for (int i = 0; i < recuentos.length; i++) {
+					if (movimiento == null || i / TIPOS.length == movimiento.ordinal()) cuentas[i % TIPOS.length] += recuentos[i];
+				}
+				return true;
+			}
+
+			@Override
+			public void fila(int mov, int tipo, int dia, String idRecurso, String idUsuario) {
+				if (movimiento == null || mov == movimiento.ordinal()) cuentas[tipo]++;
+			}
+		};
+		recorrer(desde, hasta, false, mes -> visitante);
+		Map<TipoRecurso, Long> resultado = new EnumMap<>(TipoRecurso.class);
+		for (TipoRecurso tipo : TIPOS) {
+			if (cuentas[tipo.ordinal()] > 0) resultado.put(tipo, cuentas[tipo.ordinal()]);
+		}
+		return resultado;
+	}
+
+	/**
+	 * Cuenta los movimientos de cada usuario en un rango de fechas. La memoria
+	 * depende de los usuarios distintos del rango, no de los movimientos.
+	 *
+	 * @param movimiento Movimiento a contar, o null para todos
+	 * @param desde      Primer día incluido, o null para no acotar
+	 * @param hasta      Último día incluido, o null para no acotar
+	 * @return Movimientos por ID de usuario, sin orden
+	 * @throws IOException si falla la lectura de algún segmento
+	 */
+	public Map<String, Long> contarPorUsuario(TipoMovimiento movimiento, LocalDate desde, LocalDate hasta) throws IOException {
+		Map<String, long[]> cuentas = new HashMap<>();
+		ArchivoHistorial.Visitante visitante = (mov, tipo, dia, idRecurso, idUsuario) -> {
+			if (movimiento == null || mov == movimiento.ordinal()) cuentas.computeIfAbsent(idUsuario, u -> new long[1])[0]++;
+		};
+		recorrer(desde, hasta, true, mes -> visitante);
+		Map<String, Long> resultado = new HashMap<>(cuentas.size() * 4 / 3 + 1);
+		cuentas.forEach((usuario, cuenta) -> resultado.put(usuario, cuenta[0]));
+		return resultado;
+	}
+
+	/**
+	 * Recorre con el cerrojo de lectura los archivos de los meses del rango: en
+	 * cada mes, primero su archivo y después los segmentos posteriores a él.
+	 *
+	 * @param conIds      false si el visitante no necesita los IDs
+	 * @param visitantes  Da el visitante de cada mes
+	 */
+	void recorrer(LocalDate desde, LocalDate hasta, boolean conIds,
+			Function<YearMonth, ArchivoHistorial.Visitante> visitantes) throws IOException {
+		int desdeDia = desde == null ? Integer.MIN_VALUE : (int) desde.toEpochDay();
+		int hastaDia = hasta == null ? Integer.MAX_VALUE : (int) hasta.toEpochDay();
+		recorrerParticiones(desde, hasta, (ruta, mes) -> {
+			ArchivoHistorial.Visitante visitante = visitantes.apply(mes);
+			if (esArchivo(ruta)) {
+				ArchivoHistorial.recorrer(ruta, desdeDia, hastaDia, conIds, visitante);
+			} else if (ruta.getFileName().toString().endsWith(EXT_COMPRIMIDO)) {
+				leerComprimido(ruta, desdeDia, hastaDia, conIds, visitante);
+			} else {
+				leerMapeado(ruta, desdeDia, hastaDia, conIds, visitante);
+			}
+		});
+	}
+
+	/**
+	 * Lee una partición: su archivo o uno de sus segmentos.
+	 */
+	private interface LectorParticion {
+		void leer(Path ruta, YearMonth mes) throws IOException;
+	}
+
+	/**
+	 * Recorre con el cerrojo de lectura los archivos de los meses del rango: en
+	 * cada mes, primero su archivo y después los segmentos posteriores a él.
+	 */
+	private void recorrerParticiones(LocalDate desde, LocalDate hasta, LectorParticion lector) throws IOException {
+		YearMonth primerMes = desde == null ? null : YearMonth.from(desde);
+		YearMonth ultimoMes = hasta == null ? null : YearMonth.from(hasta);
+
+		esperarEscritos();
+		particiones.readLock().lock();
+		try {
+			YearMonth mesArchivado = null;
+			int ultimoArchivado = 0;
+			for (Path ruta : particiones()) {
+				YearMonth mes = mesDe(ruta);
+				if (primerMes != null && mes.isBefore(primerMes)) continue;
+				if (ultimoMes != null && mes.isAfter(ultimoMes)) continue;
+
+				if (esArchivo(ruta)) {
+					mesArchivado = mes;
+					ultimoArchivado = ArchivoHistorial.cabecera(ruta).ultimoSegmento;
+					lector.leer(ruta, mes);
+				} else if (!mes.equals(mesArchivado) || secuenciaDe(ruta) > ultimoArchivado) {
+					// Los segmentos ya incluidos en el archivo (caída al archivar) se ignoran
+					lector.leer(ruta, mes);
+				}
+			}
+		} finally {
+			particiones.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Archiva los meses anteriores al indicado: funde el archivo que ya tuviera cada
+	 * mes con sus segmentos en un archivo nuevo, lo pone en su sitio y borra los
+	 * segmentos. El archivo lleva la secuencia del último segmento que incluye, así
+	 * que una caída entre el cambio y el borrado no duplica movimientos.
+	 *
+	 * @param antesDe Primer mes que no se archiva
+	 * @return Meses archivados
+	 * @throws IOException si falla la lectura o la escritura
+	 */
+	public int archivar(YearMonth antesDe) throws IOException {
+		synchronized (mantenimiento) {
+			synchronized (cerrojoSegmento) {
+				if (mesActivo != null && mesActivo.isBefore(antesDe)) sellarSegmentoActivo();
+			}
+			Map<YearMonth, List<Path>> porMes = new TreeMap<>();
+			for (Path ruta : particiones()) {
+				YearMonth mes = mesDe(ruta);
+				if (mes.isBefore(antesDe)) porMes.computeIfAbsent(mes, m -> new ArrayList<>()).add(ruta);
+			}
+
+			int archivados = 0;
+			for (Map.Entry<YearMonth, List<Path>> entrada : porMes.entrySet()) {
+				List<Path> rutas = entrada.getValue();
+				Path destino = directorio.resolve(PREFIJO + entrada.getKey().format(FORMATO_MES) + EXT_ARCHIVO);
+				Path anterior = esArchivo(rutas.get(0)) ? rutas.remove(0) : null;
+				int ultimoArchivado = anterior == null ? 0 : ArchivoHistorial.cabecera(anterior).ultimoSegmento;
+				List<Path> incluidos = new ArrayList<>();
+				List<Path> sobrantes = new ArrayList<>();
+				for (Path segmento : rutas) {
+					(secuenciaDe(segmento) > ultimoArchivado ? incluidos : sobrantes).add(segmento);
+				}
+				if (incluidos.isEmpty() && sobrantes.isEmpty()) continue;
+
+				if (!incluidos.isEmpty()) {
+					Path temporal = destino.resolveSibling(destino.getFileName() + EXT_TEMPORAL);
+					try (ArchivoHistorial.Escritor escritor = new ArchivoHistorial.Escritor(temporal,
+							secuenciaDe(incluidos.get(incluidos.size() - 1)))) {
+						ArchivoHistorial.Visitante copia = (movimiento, tipo, dia, idRecurso, idUsuario) -> {
+							try {
+								escritor.agregar(movimiento, tipo, dia, idRecurso, idUsuario);
+							} catch (IOException e) {
+								throw new UncheckedIOException(e);
+							}
+						};
+						try {
+							if (anterior != null) {
+								ArchivoHistorial.recorrer(anterior, Integer.MIN_VALUE, Integer.MAX_VALUE, true, copia);
+							}
+							for (Path segmento : incluidos) {
+								if (segmento.getFileName().toString().endsWith(EXT_COMPRIMIDO)) {
+									leerComprimido(segmento, Integer.MIN_VALUE, Integer.MAX_VALUE, true, copia);
+								} else {
+									leerMapeado(segmento, Integer.MIN_VALUE, Integer.MAX_VALUE, true, copia);
+								}
+							}
+						} catch (UncheckedIOException e) {
+							throw e.getCause();
+						}
+					}
+					archivados++;
+				}
+
+				particiones.writeLock().lock();
+				try {
+					if (!incluidos.isEmpty()) {
+						// El índice del archivo anterior no vale para el nuevo: se rehace al consultar
+						Files.deleteIfExists(rutaIndice(destino));
+						Files.move(destino.resolveSibling(destino.getFileName() + EXT_TEMPORAL), destino,
+								StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+					}
+					for (Path segmento : incluidos) borrarSegmento(segmento);
+					for (Path segmento : sobrantes) borrarSegmento(segmento);
+				} finally {
+					particiones.writeLock().unlock();
+				}
+			}
+			return archivados;
+		}
+	}
+
+	/**
+	 * Sella el segmento activo; el siguiente movimiento abrirá uno nuevo.
+	 *
+	 * @throws IOException si falla el cierre o el renombrado
+	 */
+	public void sellarActivo() throws IOException {
+		synchronized (cerrojoSegmento) {
+			sellarSegmentoActivo();
+		}
+	}
+
+	/**
+	 * Sella el segmento activo con {@link #cerrojoSegmento} ya tomado.
+	 */
+	private void sellarSegmentoActivo() throws IOException {
+		if (canal == null) return;
+		canal.force(false);
+		canal.close();
+		try {
+			indiceActivo.indice.escribir(rutaIndice(rutaActiva));
+		} catch (IOException e) {
+			// Sin índice el segmento se sigue leyendo; la primera consulta lo rehace
+			Files.deleteIfExists(rutaIndice(rutaActiva));
+		}
+		sellar(rutaActiva);
+		canal = null;
+		rutaActiva = null;
+		mesActivo = null;
+		indiceActivo = null;
+		sinSincronizar = false;
+	}
+
+	/**
+	 * Comprime con gzip todos los segmentos sellados que aún no lo estén.
+	 *
+	 * @return Número de segmentos comprimidos
+	 * @throws IOException si falla la compresión
+	 */
+	public int comprimirSellados() throws IOException {
+		synchronized (mantenimiento) {
+			int comprimidos = 0;
+			for (Path segmento : segmentos()) {
+				String nombre = segmento.getFileName().toString();
+				if (!nombre.endsWith(EXT_SELLADO)) continue;
+
+				Path destino = segmento.resolveSibling(nombre + ".gz");
+				Path temporal = segmento.resolveSibling(nombre + ".gz" + EXT_TEMPORAL);
+				try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temporal))) {
+					Files.copy(segmento, out);
+				}
+				particiones.writeLock().lock();
+				try {
+					Files.move(temporal, destino);
+					Files.delete(segmento);
+				} finally {
+					particiones.writeLock().unlock();
+				}
+				comprimidos++;
+			}
+			return comprimidos;
+		}
+	}
+
+	/**
+	 * Escribe lo pendiente, detiene el hilo escritor y fuerza a disco y cierra el
+	 * segmento activo sin sellarlo.
+	 *
+	 * @throws IOException el error que detuvo al hilo escritor, si falló
+	 */
+	@Override
+	public void close() throws IOException {
+		cerrado = true;
+		try {
+			escritor.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (cerrojoSegmento) {
+			if (canal != null) {
+				canal.force(false);
+				canal.close();
+				canal = null;
+			}
+		}
+		if (fallo != null) throw fallo;
+	}
+
+	/**
+	 * @return Directorio donde se guardan los segmentos
+	 */
+	public Path getDirectorio() {
+		return directorio;
+	}
+
+	private void abrirNuevoSegmento(YearMonth mes) throws IOException {
+		sellarSegmentoActivo();
+		String base = PREFIJO + mes.format(FORMATO_MES) + "-";
+		int secuencia = 0;
+		for (Path segmento : segmentos()) {
+			if (segmento.getFileName().toString().startsWith(base)) secuencia = Math.max(secuencia, secuenciaDe(segmento));
+		}
+		// Un mes ya archivado sigue la numeración después del último segmento archivado
+		Path archivo = directorio.resolve(PREFIJO + mes.format(FORMATO_MES) + EXT_ARCHIVO);
+		if (Files.exists(archivo)) secuencia = Math.max(secuencia, ArchivoHistorial.cabecera(archivo).ultimoSegmento);
+		rutaActiva = directorio.resolve(base + String.format("%06d", secuencia + 1) + EXT_ACTIVO);
+		mesActivo = mes;
+		canal = FileChannel.open(rutaActiva, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+		ByteBuffer cabecera = ByteBuffer.allocate(TAMANO_CABECERA).putInt(MAGIA).put(VERSION);
+		cabecera.flip();
+		canal.write(cabecera);
+		tamanoActivo = TAMANO_CABECERA;
+		indiceActivo = new IndiceActivo(rutaActiva, new IndiceIds.Constructor());
+	}
+
+	private List<Path> segmentos() throws IOException {
+		try (Stream<Path> archivos = Files.list(directorio)) {
+			return archivos
+					.filter(p -> {
+						String nombre = p.getFileName().toString();
+						return nombre.startsWith(PREFIJO) && (nombre.endsWith(EXT_ACTIVO)
+								|| nombre.endsWith(EXT_SELLADO) || nombre.endsWith(EXT_COMPRIMIDO));
+					})
+					.sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * @return Archivos de los meses y segmentos, por mes; en cada mes el archivo va
+	 *         primero y después los segmentos por orden de secuencia
+	 */
+	private List<Path> particiones() throws IOException {
+		try (Stream<Path> archivos = Files.list(directorio)) {
+			return archivos
+					.filter(p -> {
+						String nombre = p.getFileName().toString();
+						return nombre.startsWith(PREFIJO) && (nombre.endsWith(EXT_ACTIVO) || nombre.endsWith(EXT_SELLADO)
+								|| nombre.endsWith(EXT_COMPRIMIDO) || nombre.endsWith(EXT_ARCHIVO));
+					})
+					.sorted(Comparator.comparing(HistorialSegmentado::mesDe)
+							.thenComparing(p -> !esArchivo(p))
+							.thenComparing(Comparator.naturalOrder()))
+					.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * @return Meses con movimientos, en orden
+	 * @throws IOException si no se puede listar el directorio
+	 */
+	public List<YearMonth> getMeses() throws IOException {
+		return particiones().stream().map(HistorialSegmentado::mesDe).distinct().collect(Collectors.toList());
+	}
+
+	/**
+	 * Índice en memoria del segmento activo de una ruta.
+	 */
+	private static final class IndiceActivo {
+		final Path ruta;
+		final IndiceIds.Constructor indice;
+
+		IndiceActivo(Path ruta, IndiceIds.Constructor indice) {
+			this.ruta = ruta;
+			this.indice = indice;
+		}
+	}
+
+	/**
+	 * @return Índice de IDs de una partición: su nombre hasta el primer punto con {@code .idx}
+	 */
+	private static Path rutaIndice(Path particion) {
+		String nombre = particion.getFileName().toString();
+		return particion.resolveSibling(nombre.substring(0, nombre.indexOf('.')) + EXT_INDICE);
+	}
+
+	private static void borrarSegmento(Path segmento) throws IOException {
+		Files.delete(segmento);
+		Files.deleteIfExists(rutaIndice(segmento));
+	}
+
+	/**
+	 * Borra los índices cuya partición ya no existe (caída entre borrar un segmento y su índice).
+	 */
+	private void borrarIndicesHuerfanos() throws IOException {
+		List<Path> indices;
+		try (Stream<Path> archivos = Files.list(directorio)) {
+			indices = archivos
+					.filter(p -> p.getFileName().toString().startsWith(PREFIJO) && p.getFileName().toString().endsWith(EXT_INDICE))
+					.collect(Collectors.toList());
+		}
+		if (indices.isEmpty()) return;
+		List<Path> conParticion = particiones().stream().map(HistorialSegmentado::rutaIndice).collect(Collectors.toList());
+		for (Path indice : indices) {
+			if (!conParticion.contains(indice)) Files.delete(indice);
+		}
+	}
+
+	/**
+	 * Lee de una partición solo las filas de una clave: las del segmento activo con
+	 * su índice en memoria y las de las demás con su índice guardado, que se
+	 * construye si falta. Sin índice utilizable la partición se lee entera.
+	 */
+	private void leerIndexado(Path ruta, long clave, int desdeDia, int hastaDia, ArchivoHistorial.Visitante visitante)
+			throws IOException {
+		String nombre = ruta.getFileName().toString();
+		int[] posiciones;
+		if (nombre.endsWith(EXT_ACTIVO)) {
+			IndiceActivo activo = indiceActivo;
+			if (activo == null || !activo.ruta.equals(ruta)) {
+				leerMapeado(ruta, desdeDia, hastaDia, true, visitante);
+				return;
+			}
+			posiciones = activo.indice.buscar(clave);
+		} else {
+			Path indice = rutaIndice(ruta);
+			posiciones = IndiceIds.buscar(indice, clave);
+			if (posiciones == null) {
+				IndiceIds.Constructor nuevo = new IndiceIds.Constructor();
+				if (esArchivo(ruta)) {
+					ArchivoHistorial.indexar(ruta, nuevo);
+				} else {
+					indexarSegmento(ruta, nuevo);
+				}
+				nuevo.escribir(indice);
+				posiciones = nuevo.buscar(clave);
+			}
+		}
+		if (posiciones.length == 0) return;
+		if (esArchivo(ruta)) {
+			ArchivoHistorial.recorrer(ruta, desdeDia, hastaDia, true, posiciones, visitante);
+		} else if (nombre.endsWith(EXT_COMPRIMIDO)) {
+			leerFilasComprimido(ruta, posiciones, desdeDia, hastaDia, visitante);
+		} else {
+			leerFilasMapeado(ruta, posiciones, desdeDia, hastaDia, visitante);
+		}
+	}
+
+	/**
+	 * Anota en un índice el desplazamiento de cada fila completa de un segmento,
+	 * comprimido o no, bajo la clave de su recurso y la de su usuario.
+	 */
+	private static void indexarSegmento(Path segmento, IndiceIds.Constructor indice) throws IOException {
+		try (InputStream archivo = Files.newInputStream(segmento);
+				DataInputStream in = new DataInputStream(new BufferedInputStream(
+						segmento.getFileName().toString().endsWith(EXT_COMPRIMIDO) ? new GZIPInputStream(archivo) : archivo))) {
+			comprobarCabecera(in.readInt(), in.readByte(), segmento);
+			int posicion = TAMANO_CABECERA;
+			byte[] recurso = new byte[256];
+			byte[] usuario = new byte[256];
+			while (true) {
+				int longitudRecurso;
+				int longitudUsuario;
+				try {
+					in.skipNBytes(1 + 1 + 4);
+					longitudRecurso = in.readUnsignedShort();
+					if (recurso.length < longitudRecurso) recurso = new byte[longitudRecurso];
+					in.readFully(recurso, 0, longitudRecurso);
+					longitudUsuario = in.readUnsignedShort();
+					if (usuario.length < longitudUsuario) usuario = new byte[longitudUsuario];
+					in.readFully(usuario, 0, longitudUsuario);
+				} catch (EOFException fin) {
+					return;
+				}
+				indice.agregar(IndiceIds.clave(IndiceIds.RECURSO, recurso, 0, longitudRecurso), posicion);
+				indice.agregar(IndiceIds.clave(IndiceIds.USUARIO, usuario, 0, longitudUsuario), posicion);
+				posicion += 1 + 1 + 4 + 2 + longitudRecurso + 2 + longitudUsuario;
+			}
+		}
+	}
+
+	private static void sellar(Path segmento) throws IOException {
+		String nombre = segmento.getFileName().toString();
+		String base = nombre.substring(0, nombre.length() - EXT_ACTIVO.length());
+		Files.move(segmento, segmento.resolveSibling(base + EXT_SELLADO));
+	}
+
+	/**
+	 * Recorta un segmento activo tras el último movimiento completo y válido. Lo
+	 * que haya detrás es una escritura que la caída dejó a medias (o bytes a cero
+	 * de un archivo ampliado sin llegar a escribirse) y, si se dejara, los
+	 * movimientos anexados después no se podrían leer.
+	 */
+	private static void recortarIncompleto(Path segmento) throws IOException {
+		try (FileChannel archivo = FileChannel.open(segmento, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long tamano = archivo.size();
+			if (tamano < TAMANO_CABECERA) {
+				// Ni siquiera llegó a escribirse la cabecera
+				archivo.truncate(0);
+				ByteBuffer cabecera = ByteBuffer.allocate(TAMANO_CABECERA).putInt(MAGIA).put(VERSION);
+				cabecera.flip();
+				while (cabecera.hasRemaining()) archivo.write(cabecera, cabecera.position());
+				archivo.force(false);
+				return;
+			}
+			MappedByteBuffer mapa = archivo.map(FileChannel.MapMode.READ_ONLY, 0, tamano);
+			comprobarCabecera(mapa.getInt(), mapa.get(), segmento);
+			long valido = mapa.position();
+			while (mapa.remaining() >= 8) {
+				int movimiento = mapa.get();
+				int tipo = mapa.get();
+				mapa.getInt();
+				int longitudRecurso = Short.toUnsignedInt(mapa.getShort());
+				if (movimiento < 0 || movimiento >= MOVIMIENTOS.length || tipo < 0 || tipo >= TIPOS.length
+						|| longitudRecurso == 0 || mapa.remaining() < longitudRecurso + 2) {
+					break;
+				}
+				if (!identificadorValido(mapa, longitudRecurso)) break;
+				int longitudUsuario = Short.toUnsignedInt(mapa.getShort());
+				if (longitudUsuario == 0 || mapa.remaining() < longitudUsuario) break;
+				if (!identificadorValido(mapa, longitudUsuario)) break;
+				valido = mapa.position();
+			}
+			if (valido < tamano) {
+				archivo.truncate(valido);
+				archivo.force(false);
+			}
+		}
+	}
+
+	/**
+	 * Avanza sobre un ID comprobando que no tenga bytes nulos, que no aparecen en
+	 * ningún ID pero sí en la parte de un archivo ampliado que no llegó a escribirse.
+	 */
+	private static boolean identificadorValido(ByteBuffer mapa, int longitud) {
+		for (int i = 0; i < longitud; i++) {
+			if (mapa.get() == 0) return false;
+		}
+		return true;
+	}
+
+	private static YearMonth mesDe(Path segmento) {
+		String nombre = segmento.getFileName().toString();
+		return YearMonth.parse(nombre.substring(PREFIJO.length(), PREFIJO.length() + 6), FORMATO_MES);
+	}
+
+	private static int secuenciaDe(Path segmento) {
+		String nombre = segmento.getFileName().toString();
+		int inicio = PREFIJO.length() + 7;
+		return Integer.parseInt(nombre.substring(inicio, inicio + 6));
+	}
+
+	private static boolean esArchivo(Path ruta) {
+		return ruta.getFileName().toString().endsWith(EXT_ARCHIVO);
+	}
+
+	/**
+	 * Lee un segmento sin comprimir a través de un buffer mapeado en memoria.
+	 * Se lee hasta el tamaño del archivo al abrirlo; un registro cortado al
+	 * final (escritura en curso o caída) se ignora. Sin IDs, se saltan sin
+	 * decodificarlos.
+	 */
+	private static void leerMapeado(Path segmento, int desdeDia, int hastaDia, boolean conIds,
+			ArchivoHistorial.Visitante visitante) throws IOException {
+		try (FileChannel lectura = FileChannel.open(segmento, StandardOpenOption.READ)) {
+			long tamano = lectura.size();
+			if (tamano < TAMANO_CABECERA) return;
+			MappedByteBuffer mapa = lectura.map(FileChannel.MapMode.READ_ONLY, 0, tamano);
+			comprobarCabecera(mapa.getInt(), mapa.get(), segmento);
+
+			byte[] bytes = new byte[256];
+			while (mapa.remaining() >= 8) {
+				int movimiento = mapa.get();
+				int tipo = mapa.get();
+				int dia = mapa.getInt();
+				int longitudRecurso = Short.toUnsignedInt(mapa.getShort());
+				if (mapa.remaining() < longitudRecurso + 2) return;
+				boolean enRango = dia >= desdeDia && dia <= hastaDia;
+				if (!enRango || !conIds) {
+					mapa.position(mapa.position() + longitudRecurso);
+					int longitudUsuario = Short.toUnsignedInt(mapa.getShort());
+					if (mapa.remaining() < longitudUsuario) return;
+					mapa.position(mapa.position() + longitudUsuario);
+					if (enRango) visitante.fila(movimiento, tipo, dia, null, null);
+					continue;
+				}
+				if (bytes.length < longitudRecurso) bytes = new byte[longitudRecurso];
+				mapa.get(bytes, 0, longitudRecurso);
+				String idRecurso = new String(bytes, 0, longitudRecurso, StandardCharsets.UTF_8);
+				int longitudUsuario = Short.toUnsignedInt(mapa.getShort());
+				if (mapa.remaining() < longitudUsuario) return;
+				if (bytes.length < longitudUsuario) bytes = new byte[longitudUsuario];
+				mapa.get(bytes, 0, longitudUsuario);
+				String idUsuario = new String(bytes, 0, longitudUsuario, StandardCharsets.UTF_8);
+
+				visitante.fila(movimiento, tipo, dia, idRecurso, idUsuario);
+			}
+		}
+	}
+
+	/**
+	 * Lee de un segmento sin comprimir solo las filas que empiezan en las posiciones
+	 * indicadas (en orden). Las que no están completas en el archivo se ignoran.
+	 */
+	private static void leerFilasMapeado(Path segmento, int[] posiciones, int desdeDia, int hastaDia,
+			ArchivoHistorial.Visitante visitante) throws IOException {
+		try (FileChannel lectura = FileChannel.open(segmento, StandardOpenOption.READ)) {
+			long tamano = lectura.size();
+			if (tamano < TAMANO_CABECERA) return;
+			MappedByteBuffer mapa = lectura.map(FileChannel.MapMode.READ_ONLY, 0, tamano);
+			comprobarCabecera(mapa.getInt(), mapa.get(), segmento);
+			for (int posicion : posiciones) {
+				if (posicion < TAMANO_CABECERA || posicion + 8 > tamano) return;
+				mapa.position(posicion);
+				int movimiento = mapa.get();
+				int tipo = mapa.get();
+				int dia = mapa.getInt();
+				int longitudRecurso = Short.toUnsignedInt(mapa.getShort());
+				if (mapa.remaining() < longitudRecurso + 2) return;
+				byte[] recurso = new byte[longitudRecurso];
+				mapa.get(recurso);
+				int longitudUsuario = Short.toUnsignedInt(mapa.getShort());
+				if (mapa.remaining() < longitudUsuario) return;
+				if (dia < desdeDia || dia > hastaDia) continue;
+				byte[] usuario = new byte[longitudUsuario];
+				mapa.get(usuario);
+				visitante.fila(movimiento, tipo, dia,
+						new String(recurso, StandardCharsets.UTF_8), new String(usuario, StandardCharsets.UTF_8));
+			}
+		}
+	}
+
+	/**
+	 * Lee de un segmento comprimido solo las filas que empiezan en las posiciones
+	 * indicadas (en orden, sobre el contenido sin comprimir), saltando el resto.
+	 */
+	private static void leerFilasComprimido(Path segmento, int[] posiciones, int desdeDia, int hastaDia,
+			ArchivoHistorial.Visitante visitante) throws IOException {
+		try (InputStream archivo = Files.newInputStream(segmento);
+				DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(archivo)))) {
+			comprobarCabecera(in.readInt(), in.readByte(), segmento);
+			long leido = TAMANO_CABECERA;
+			for (int posicion : posiciones) {
+				if (posicion < leido) continue;
+				try {
+					in.skipNBytes(posicion - leido);
+					int movimiento = in.readByte();
+					int tipo = in.readByte();
+					int dia = in.readInt();
+					byte[] recurso = new byte[in.readUnsignedShort()];
+					in.readFully(recurso);
+					byte[] usuario = new byte[in.readUnsignedShort()];
+					in.readFully(usuario);
+					leido = posicion + 1 + 1 + 4 + 2 + recurso.length + 2 + usuario.length;
+					if (dia < desdeDia || dia > hastaDia) continue;
+					visitante.fila(movimiento, tipo, dia,
+							new String(recurso, StandardCharsets.UTF_8), new String(usuario, StandardCharsets.UTF_8));
+				} catch (EOFException fin) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Lee un segmento comprimido en streaming.
+	 */
+	private static void leerComprimido(Path segmento, int desdeDia, int hastaDia, boolean conIds,
+			ArchivoHistorial.Visitante visitante) throws IOException {
+		try (InputStream archivo = Files.newInputStream(segmento);
+				DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(archivo)))) {
+			comprobarCabecera(in.readInt(), in.readByte(), segmento);
+			while (true) {
+				int movimiento;
+				try {
+					movimiento = in.readByte();
+				} catch (EOFException fin) {
+					return;
+				}
+				int tipo = in.readByte();
+				int dia = in.readInt();
+				if (dia < desdeDia || dia > hastaDia || !conIds) {
+					in.skipNBytes(in.readUnsignedShort());
+					in.skipNBytes(in.readUnsignedShort());
+					if (dia >= desdeDia && dia <= hastaDia) visitante.fila(movimiento, tipo, dia, null, null);
+					continue;
+				}
+				byte[] recurso = new byte[in.readUnsignedShort()];
+				in.readFully(recurso);
+				byte[] usuario = new byte[in.readUnsignedShort()];
+				in.readFully(usuario);
+
+				visitante.fila(movimiento, tipo, dia,
+						new String(recurso, StandardCharsets.UTF_8), new String(usuario, StandardCharsets.UTF_8));
+			}
+		}
+	}
+
+	private static void comprobarCabecera(int magia, byte version, Path segmento) throws IOException {
+		if (magia != MAGIA || version != VERSION) {
+			throw new IOException("Segmento de historial no válido: " + segmento);
+		}
+	}
+}
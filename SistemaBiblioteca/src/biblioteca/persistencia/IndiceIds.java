@@ -0,0 +1,241 @@
+package biblioteca.persistencia;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Índice de IDs de un segmento o de un archivo del historial: para cada recurso y
+ * cada usuario, las posiciones donde aparece (el desplazamiento de cada fila en un
+ * segmento, el número de grupo en un archivo). Con él una consulta por recurso o por
+ * usuario lee solo sus filas y no abre las particiones donde no aparece.
+ *
+ * Los IDs se guardan como claves de 64 bits (FNV-1a de la clase y el ID), no como
+ * texto: dos IDs con la misma clave comparten posiciones, así que quien lee comprueba
+ * el ID de cada fila. El archivo se lee mapeado y se busca por bisección, sin cargarlo.
+ *
+ * Formato: magia, versión, número de claves, las claves ordenadas (clave, primera
+ * posición, cantidad) y después todas las posiciones, en orden dentro de cada clave.
+ */
+final class IndiceIds {
+
+	/** Clase de ID de un recurso */
+	static final byte RECURSO = 'R';
+	/** Clase de ID de un usuario */
+	static final byte USUARIO = 'U';
+
+	private static final int MAGIA = 0x48494458; // "HIDX"
+	private static final byte VERSION = 1;
+	private static final int TAMANO_CABECERA = 4 + 1 + 4;
+	private static final int TAMANO_CLAVE = 8 + 4 + 4;
+
+	private static final long BASE_FNV = 0xcbf29ce484222325L;
+	private static final long PRIMO_FNV = 0x100000001b3L;
+
+	private IndiceIds() {
+	}
+
+	/**
+	 * @return Clave de un ID de la clase indicada
+	 */
+	static long clave(byte clase, String id) {
+		byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+		return clave(clase, bytes, 0, bytes.length);
+	}
+
+	/**
+	 * @return Clave del ID codificado en UTF-8 en {@code bytes[desde, desde + longitud)}
+	 */
+	static long clave(byte clase, byte[] bytes, int desde, int longitud) {
+		long hash = (BASE_FNV ^ clase) * PRIMO_FNV;
+		for (int i = desde; i < desde + longitud; i++) {
+			hash = (hash ^ (bytes[i] & 0xff)) * PRIMO_FNV;
+		}
+		return hash;
+	}
+
+	/**
+	 * Busca las posiciones de una clave en un índice guardado.
+	 *
+	 * @return Posiciones en orden (vacío si la clave no aparece), o null si el índice
+	 *         no existe o no es válido
+	 * @throws IOException si falla la lectura
+	 */
+	static int[] buscar(Path indice, long clave) throws IOException {
+		try (FileChannel canal = FileChannel.open(indice, StandardOpenOption.READ)) {
+			long tamano = canal.size();
+			if (tamano < TAMANO_CABECERA) return null;
+			MappedByteBuffer mapa = canal.map(FileChannel.MapMode.READ_ONLY, 0, tamano);
+			if (mapa.getInt(0) != MAGIA || mapa.get(4) != VERSION) return null;
+			int claves = mapa.getInt(5);
+			long inicioPosiciones = TAMANO_CABECERA + (long) claves * TAMANO_CLAVE;
+			if (claves < 0 || inicioPosiciones > tamano) return null;
+			int bajo = 0;
+			int alto = claves - 1;
+			while (bajo <= alto) {
+				int medio = (bajo + alto) >>> 1;
+				int entrada = TAMANO_CABECERA + medio * TAMANO_CLAVE;
+				long actual = mapa.getLong(entrada);
+				if (actual < clave) {
+					bajo = medio + 1;
+				} else if (actual > clave) {
+					alto = medio - 1;
+				} else {
+					int primera = mapa.getInt(entrada + 8);
+					int cantidad = mapa.getInt(entrada + 12);
+					if (inicioPosiciones + 4L * ((long) primera + cantidad) > tamano) return null;
+					int[] posiciones = new int[cantidad];
+					for (int i = 0; i < cantidad; i++) {
+						posiciones[i] = mapa.getInt((int) (inicioPosiciones + 4L * (primera + i)));
+					}
+					return posiciones;
+				}
+			}
+			return new int[0];
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Índice en memoria que se va llenando con las filas de una partición. Lo usa a
+	 * la vez el hilo que escribe el segmento activo y las consultas que lo leen.
+	 *
+	 * Es una tabla de direccionamiento abierto sobre arrays de primitivos: cada clave
+	 * apunta a una lista enlazada de posiciones en otros dos arrays, así que ocupa
+	 * unos 24 bytes por clave y 8 por posición, sin un objeto por entrada.
+	 */
+	static final class Constructor {
+		private long[] claves = new long[1024];
+		/** Primer y último nodo de cada clave; -1 si la ranura está libre */
+		private int[] primeros = nuevasRanuras(1024);
+		private int[] ultimos = new int[1024];
+		private int[] cantidades = new int[1024];
+		private int ocupadas;
+
+		private int[] valores = new int[1024];
+		private int[] siguientes = new int[1024];
+		private int nodos;
+
+		/**
+		 * Anota una posición de una clave. Las de una misma clave llegan en orden; la
+		 * repetida seguida (un ID que aparece dos veces en la misma fila o grupo) se ignora.
+		 */
+		synchronized void agregar(long clave, int posicion) {
+			int ranura = ranura(clave);
+			if (primeros[ranura] < 0) {
+				claves[ranura] = clave;
+				primeros[ranura] = ultimos[ranura] = nuevoNodo(posicion);
+				cantidades[ranura] = 1;
+				if (++ocupadas * 2 > claves.length) ampliar();
+				return;
+			}
+			if (valores[ultimos[ranura]] == posicion) return;
+			int nodo = nuevoNodo(posicion);
+			siguientes[ultimos[ranura]] = nodo;
+			ultimos[ranura] = nodo;
+			cantidades[ranura]++;
+		}
+
+		/**
+		 * @return Posiciones de la clave en orden, vacío si no aparece
+		 */
+		synchronized int[] buscar(long clave) {
+			int ranura = ranura(clave);
+			if (primeros[ranura] < 0) return new int[0];
+			int[] posiciones = new int[cantidades[ranura]];
+			for (int i = 0, nodo = primeros[ranura]; i < posiciones.length; i++, nodo = siguientes[nodo]) {
+				posiciones[i] = valores[nodo];
+			}
+			return posiciones;
+		}
+
+		/**
+		 * Guarda el índice: lo escribe en un temporal, lo sincroniza y lo renombra.
+		 */
+		synchronized void escribir(Path destino) throws IOException {
+			long[] ordenadas = new long[ocupadas];
+			int n = 0;
+			for (int i = 0; i < claves.length; i++) {
+				if (primeros[i] >= 0) ordenadas[n++] = claves[i];
+			}
+			Arrays.sort(ordenadas);
+			ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(TAMANO_CABECERA + (long) n * TAMANO_CLAVE + 4L * nodos));
+			buffer.putInt(MAGIA).put(VERSION).putInt(n);
+			int primera = 0;
+			for (long clave : ordenadas) {
+				int cantidad = cantidades[ranura(clave)];
+				buffer.putLong(clave).putInt(primera).putInt(cantidad);
+				primera += cantidad;
+			}
+			for (long clave : ordenadas) {
+				int ranura = ranura(clave);
+				for (int i = 0, nodo = primeros[ranura]; i < cantidades[ranura]; i++, nodo = siguientes[nodo]) {
+					buffer.putInt(valores[nodo]);
+				}
+			}
+			buffer.flip();
+
+			Path temporal = Files.createTempFile(destino.getParent(), destino.getFileName().toString(), ".tmp");
+			try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.WRITE)) {
+				while (buffer.hasRemaining()) canal.write(buffer);
+				canal.force(false);
+			}
+			Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+
+		/**
+		 * @return Ranura de la clave, o la libre donde iría (sondeo lineal)
+		 */
+		private int ranura(long clave) {
+			int mascara = claves.length - 1;
+			int i = ((int) (clave >>> 32) ^ (int) clave) & mascara;
+			while (primeros[i] >= 0 && claves[i] != clave) i = (i + 1) & mascara;
+			return i;
+		}
+
+		private int nuevoNodo(int posicion) {
+			if (nodos == valores.length) {
+				valores = Arrays.copyOf(valores, nodos * 2);
+				siguientes = Arrays.copyOf(siguientes, nodos * 2);
+			}
+			valores[nodos] = posicion;
+			siguientes[nodos] = -1;
+			return nodos++;
+		}
+
+		private void ampliar() {
+			long[] viejasClaves = claves;
+			int[] viejosPrimeros = primeros;
+			int[] viejosUltimos = ultimos;
+			int[] viejasCantidades = cantidades;
+			int tamano = viejasClaves.length * 2;
+			claves = new long[tamano];
+			primeros = nuevasRanuras(tamano);
+			ultimos = new int[tamano];
+			cantidades = new int[tamano];
+			for (int i = 0; i < viejasClaves.length; i++) {
+				if (viejosPrimeros[i] < 0) continue;
+				int ranura = ranura(viejasClaves[i]);
+				claves[ranura] = viejasClaves[i];
+				primeros[ranura] = viejosPrimeros[i];
+				ultimos[ranura] = viejosUltimos[i];
+				cantidades[ranura] = viejasCantidades[i];
+			}
+		}
+
+		private static int[] nuevasRanuras(int tamano) {
+			int[] ranuras = new int[tamano];
+			Arrays.fill(ranuras, -1);
+			return ranuras;
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package biblioteca.persistencia;
+
+import biblioteca.enums.EstadoRecurso;
+import biblioteca.enums.TipoRecurso;
+import biblioteca.model.DVD;
+import biblioteca.model.Libro;
+import biblioteca.model.Prestamo;
+import biblioteca.model.RecursoBiblioteca;
+import biblioteca.model.Revista;
+import biblioteca.model.Usuario;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Instantánea binaria versionada de la biblioteca: usuarios, recursos con su
+ * estado y préstamos abiertos, en un único archivo que se escribe y se lee en
+ * una sola pasada secuencial.
+ *
+ * Formato (enteros en big-endian):
+ * <pre>
+ * cabecera      int magia "BIBS", short versión
+ * cadenas       int n, n x (int longitud, bytes)   longitud con el bit alto a 1 = Latin-1, si no UTF-8
+ * usuarios      int n, columna id[n], columna nombre[n]          (índices de cadena)
+ * por tipo      int n, id[n], título[n], byte estado[n], extra[n] (LIBRO, REVISTA, DVD)
+ * préstamos     int n, recurso[n], usuario[n], int díaEpoch[n]
+ * pie           int CRC32 de todo lo anterior
+ * </pre>
+ * La columna extra es el índice de cadena del autor para los libros, el número
+ * de edición para las revistas y la duración para los DVD. Las cadenas repetidas
+ * (p. ej. autores) se guardan una sola vez en la tabla de cadenas, y como los
+ * textos no se separan por comas un título puede contener cualquier carácter.
+ * Los textos representables en Latin-1 (casi todo el español) se guardan así
+ * porque se convierten a String copiando los bytes, sin decodificar UTF-8.
+ */
+public class InstantaneaBinaria {
+
+	private static final int MAGIA = 0x42494253; // "BIBS"
+
+	/** Marca en la longitud de una cadena guardada en Latin-1 */
+	private static final int LATIN1 = 0x80000000;
+
+	/** Versión del formato que escribe esta clase */
+	public static final short VERSION = 1;
+
+	private InstantaneaBinaria() {
+	}
+
+	/**
+	 * Escribe una instantánea completa. Se escribe en un temporal que después
+	 * se renombra sobre el destino, por lo que nunca queda a medio escribir.
+	 *
+	 * @param archivo  Ruta del archivo destino
+	 * @param usuarios Usuarios a guardar
+	 * @param recursos Recursos a guardar
+	 * @param activos  Préstamos abiertos a guardar
+	 * @throws IOException si falla la escritura
+	 */
+	public static void escribir(String archivo, Collection<Usuario> usuarios, Collection<RecursoBiblioteca> recursos,
+			Collection<Prestamo> activos) throws IOException {
+		// Se agrupan los recursos por tipo y se construye la tabla de cadenas en memoria
+		List<List<RecursoBiblioteca>> porTipo = new ArrayList<>();
+		for (int i = 0; i < TipoRecurso.values().length; i++) {
+			porTipo.add(new ArrayList<>());
+		}
+		TablaCadenas cadenas = new TablaCadenas();
+		List<Usuario> listaUsuarios = new ArrayList<>(usuarios);
+		for (Usuario u : listaUsuarios) {
+			cadenas.indice(u.getId());
+			cadenas.indice(u.getNombre());
+		}
+		for (RecursoBiblioteca r : recursos) {
+			if (r.getEstado() == EstadoRecurso.RETIRADO) continue;
+			porTipo.get(r.getTipo().ordinal()).add(r);
+			cadenas.indice(r.getId());
+			cadenas.indice(r.getTitulo());
+			if (r instanceof Libro) cadenas.indice(((Libro) r).getAutor());
+		}
+		List<Prestamo> listaActivos = new ArrayList<>(activos);
+		for (Prestamo p : listaActivos) {
+			cadenas.indice(p.getRecurso().getId());
+			cadenas.indice(p.getUsuario().getId());
+		}
+
+		String temporal = archivo + ".tmp";
+		CRC32 crc = new CRC32();
+		try (FileOutputStream archivoSalida = new FileOutputStream(temporal)) {
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new CheckedOutputStream(archivoSalida, crc), 1 << 16));
+			out.writeInt(MAGIA);
+			out.writeShort(VERSION);
+
+			out.writeInt(cadenas.lista.size());
+			for (String s : cadenas.lista) {
+				if (esLatin1(s)) {
+					out.writeInt(s.length() | LATIN1);
+					out.write(s.getBytes(StandardCharsets.ISO_8859_1));
+				} else {
+					byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+					out.writeInt(bytes.length);
+					out.write(bytes);
+				}
+			}
+
+			out.writeInt(listaUsuarios.size());
+			for (Usuario u : listaUsuarios) out.writeInt(cadenas.indice(u.getId()));
+			for (Usuario u : listaUsuarios) out.writeInt(cadenas.indice(u.getNombre()));
+
+			for (TipoRecurso tipo : TipoRecurso.values()) {
+				List<RecursoBiblioteca> lista = porTipo.get(tipo.ordinal());
+				out.writeInt(lista.size());
+				for (RecursoBiblioteca r : lista) out.writeInt(cadenas.indice(r.getId()));
+				for (RecursoBiblioteca r : lista) out.writeInt(cadenas.indice(r.getTitulo()));
+				for (RecursoBiblioteca r : lista) out.writeByte(r.getEstado().ordinal());
+				for (RecursoBiblioteca r : lista) out.writeInt(extra(r, cadenas));
+			}
+
+			out.writeInt(listaActivos.size());
+			for (Prestamo p : listaActivos) out.writeInt(cadenas.indice(p.getRecurso().getId()));
+			for (Prestamo p : listaActivos) out.writeInt(cadenas.indice(p.getUsuario().getId()));
+			for (Prestamo p : listaActivos) out.writeInt((int) p.getFechaPrestamo().toEpochDay());
+			out.flush();
+
+			// El CRC no se incluye a sí mismo: se escribe directamente en el archivo
+			new DataOutputStream(archivoSalida).writeInt((int) crc.getValue());
+			archivoSalida.getFD().sync();
+		}
+		Files.move(Paths.get(temporal), Paths.get(archivo),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Lee una instantánea en una sola pasada sobre el archivo mapeado en memoria
+	 * y entrega su contenido al destino. El CRC se comprueba antes de entregar nada.
+	 *
+	 * @param archivo Ruta de la instantánea
+	 * @param destino Receptor de usuarios, recursos y préstamos
+	 * @throws IOException si el archivo no es válido, está dañado o es de una versión posterior
+	 */
+	public static void leer(String archivo, DestinoInstantanea destino) throws IOException {
+		try (FileChannel canal = FileChannel.open(Paths.get(archivo), StandardOpenOption.READ)) {
+			long tamano = canal.size();
+			if (tamano > Integer.MAX_VALUE) throw new IOException("Instantánea demasiado grande: " + archivo);
+			if (tamano < 10) throw new IOException("Instantánea incompleta: " + archivo);
+			MappedByteBuffer mapa = canal.map(FileChannel.MapMode.READ_ONLY, 0, tamano);
+
+			int datos = (int) tamano - 4;
+			CRC32 crc = new CRC32();
+			crc.update(mapa.slice(0, datos));
+			if ((int) crc.getValue() != mapa.getInt(datos)) {
+				throw new IOException("Instantánea dañada (CRC incorrecto): " + archivo);
+			}
+
+			if (mapa.getInt() != MAGIA) throw new IOException("No es una instantánea de biblioteca: " + archivo);
+			short version = mapa.getShort();
+			if (version > VERSION) throw new IOException("Versión de instantánea no soportada: " + version);
+
+			String[] cadenas = new String[mapa.getInt()];
+			byte[] bytes = new byte[256];
+			for (int i = 0; i < cadenas.length; i++) {
+				int cabecera = mapa.getInt();
+				int longitud = cabecera & ~LATIN1;
+				if (bytes.length < longitud) bytes = new byte[longitud];
+				mapa.get(bytes, 0, longitud);
+				cadenas[i] = new String(bytes, 0, longitud,
+						(cabecera & LATIN1) != 0 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+			}
+
+			int numeroUsuarios = mapa.getInt();
+			int[] ids = leerColumna(mapa, numeroUsuarios);
+			int[] nombres = leerColumna(mapa, numeroUsuarios);
+			for (int i = 0; i < numeroUsuarios; i++) {
+				destino.usuario(new Usuario(cadenas[ids[i]], cadenas[nombres[i]]));
+			}
+
+			EstadoRecurso[] estados = EstadoRecurso.values();
+			for (TipoRecurso tipo : TipoRecurso.values()) {
+				int n = mapa.getInt();
+				int[] idsRecurso = leerColumna(mapa, n);
+				int[] titulos = leerColumna(mapa, n);
+				byte[] estadosRecurso = new byte[n];
+				mapa.get(estadosRecurso);
+				int[] extras = leerColumna(mapa, n);
+				for (int i = 0; i < n; i++) {
+					String id = cadenas[idsRecurso[i]];
+					String titulo = cadenas[titulos[i]];
+					RecursoBiblioteca recurso;
+					switch (tipo) {
+						case LIBRO:
+							recurso = new Libro(id, titulo, cadenas[extras[i]]);
+							break;
+						case REVISTA:
+							recurso = new Revista(id, titulo, extras[i]);
+							break;
+						default:
+							recurso = new DVD(id, titulo, extras[i]);
+							break;
+					}
+					recurso.setEstado(estados[estadosRecurso[i]]);
+					destino.recurso(recurso);
+				}
+			}
+
+			int numeroPrestamos = mapa.getInt();
+			int[] recursosPrestados = leerColumna(mapa, numeroPrestamos);
+			int[] usuariosPrestamo = leerColumna(mapa, numeroPrestamos);
+			int[] dias = leerColumna(mapa, numeroPrestamos);
+			for (int i = 0; i < numeroPrestamos; i++) {
+				destino.prestamoActivo(cadenas[recursosPrestados[i]], cadenas[usuariosPrestamo[i]],
+						LocalDate.ofEpochDay(dias[i]));
+			}
+		}
+	}
+
+	private static int[] leerColumna(ByteBuffer buffer, int n) {
+		int[] columna = new int[n];
+		buffer.asIntBuffer().get(columna);
+		buffer.position(buffer.position() + n * 4);
+		return columna;
+	}
+
+	private static boolean esLatin1(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) > 0xFF) return false;
+		}
+		return true;
+	}
+
+	private static int extra(RecursoBiblioteca r, TablaCadenas cadenas) {
+		if (r instanceof Libro) return cadenas.indice(((Libro) r).getAutor());
+		if (r instanceof Revista) return ((Revista) r).getNumeroEdicion();
+		return ((DVD) r).getDuracionMinutos();
+	}
+
+	/**
+	 * Tabla de cadenas sin repetidos: cada texto distinto recibe un índice.
+	 */
+	private static final class TablaCadenas {
+		private final Map<String, Integer> indices = new HashMap<>();
+		private final List<String> lista = new ArrayList<>();
+
+		int indice(String s) {
+			Integer indice = indices.get(s);
+			if (indice == null) {
+				indice = lista.size();
+				indices.put(s, indice);
+				lista.add(s);
+			}
+			return indice;
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package biblioteca.persistencia;
+
+import biblioteca.enums.TipoMovimiento;
+import biblioteca.enums.TipoRecurso;
+import java.time.LocalDate;
+
+/**
+ * Movimiento del historial persistente tal como se guarda en los segmentos:
+ * solo identificadores, sin referencias a los objetos del modelo.
+ */
+public class RegistroHistorial {
+	private final TipoMovimiento movimiento;
+	private final TipoRecurso tipoRecurso;
+	private final LocalDate fecha;
+	private final String idRecurso;
+	private final String idUsuario;
+
+	/**
+	 * @param movimiento  Préstamo o devolución
+	 * @param tipoRecurso Tipo del recurso afectado
+	 * @param fecha       Fecha del movimiento
+	 * @param idRecurso   Identificador del recurso
+	 * @param idUsuario   Identificador del usuario
+	 */
+	public RegistroHistorial(TipoMovimiento movimiento, TipoRecurso tipoRecurso, LocalDate fecha,
+			String idRecurso, String idUsuario) {
+		this.movimiento = movimiento;
+		this.tipoRecurso = tipoRecurso;
+		this.fecha = fecha;
+		this.idRecurso = idRecurso;
+		this.idUsuario = idUsuario;
+	}
+
+	public TipoMovimiento getMovimiento() {
+		return movimiento;
+	}
+
+	public TipoRecurso getTipoRecurso() {
+		return tipoRecurso;
+	}
+
+	public LocalDate getFecha() {
+		return fecha;
+	}
+
+	public String getIdRecurso() {
+		return idRecurso;
+	}
+
+	public String getIdUsuario() {
+		return idUsuario;
+	}
+}
@@ -0,0 +1,25 @@
+package biblioteca.persistencia;
+
+import java.util.List;
+
+/**
+ * Resultado de cargar un archivo de datos: cuántos elementos se cargaron
+ * y qué líneas se descartaron y por qué.
+ */
+public class ResultadoCarga {
+	private final long cargados;
+	private final List<ErrorCarga> errores;
+
+	public ResultadoCarga(long cargados, List<ErrorCarga> errores) {
+		this.cargados = cargados;
+		this.errores = errores;
+	}
+
+	public long getCargados() {
+		return cargados;
+	}
+
+	public List<ErrorCarga> getErrores() {
+		return errores;
+	}
+}
@@ -0,0 +1,287 @@
+package biblioteca.replicacion;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * Lado de la réplica: se conecta al primario, carga la instantánea si se la envía y
+ * aplica los registros en orden a medida que llegan (ver {@link ProtocoloReplicacion}).
+ *
+ * Si se corta la conexión vuelve a intentarlo cada cierto tiempo, diciendo al primario
+ * hasta dónde llegó para que siga desde ahí sin otra instantánea si es posible.
+ *
+ * La posición aplicada sirve para leer lo propio escrito: quien escribió en el
+ * primario y conoce la época y la posición de su cambio puede esperar con
+ * {@link #esperar} a que la réplica llegue a ella antes de leer. Las posiciones
+ * solo se comparan dentro de una época: las de otro arranque del primario no dicen
+ * nada del estado de la réplica.
+ */
+public class ClienteReplicacion implements Closeable {
+
+	/** Espera entre intentos de conexión */
+	private static final long REINTENTO_MS = 500;
+
+	/**
+	 * Aplica lo que llega del primario al estado de la réplica.
+	 */
+	public interface Aplicador {
+		/**
+		 * Aplica un registro. Se llama desde un solo hilo, en el orden del primario.
+		 */
+		void aplicar(String linea);
+
+		/**
+		 * Sustituye el estado por el de una instantánea binaria.
+		 */
+		void cargarInstantanea(String archivo) throws IOException;
+	}
+
+	private final String host;
+	private final int puerto;
+	private final Aplicador aplicador;
+	private final Consumer<IOException> errores;
+	private final Thread hilo;
+	private final Object avance = new Object();
+
+	private volatile boolean cerrado;
+	private volatile Socket socket;
+	private volatile boolean conectado;
+	private volatile long epoca;
+	private volatile long aplicada;
+	private volatile long posicionPrimario;
+	private volatile long retrasoMs;
+	private volatile int instantaneasCargadas;
+	private volatile long registrosAplicados;
+
+	/**
+	 * Empieza a replicar en segundo plano.
+	 *
+	 * @param host      Primario
+	 * @param puerto    Puerto de replicación del primario
+	 * @param aplicador Estado de la réplica
+	 * @param errores   Recibe los errores de conexión y de carga
+	 */
+	public ClienteReplicacion(String host, int puerto, Aplicador aplicador, Consumer<IOException> errores) {
+		this.host = host;
+		this.puerto = puerto;
+		this.aplicador = aplicador;
+		this.errores = errores;
+		this.hilo = new Thread(this::replicar, "replicacion-cliente " + host + ":" + puerto);
+		hilo.setDaemon(true);
+		hilo.start();
+	}
+
+	public boolean isConectado() {
+		return conectado;
+	}
+
+	/**
+	 * @return Época del primario cuyos registros se están aplicando (0 si aún ninguna)
+	 */
+	public long getEpoca() {
+		return epoca;
+	}
+
+	/**
+	 * @return Posición del último registro aplicado
+	 */
+	public long getPosicionAplicada() {
+		return aplicada;
+	}
+
+	/**
+	 * @return Última posición del primario según el último mensaje recibido
+	 */
+	public long getPosicionPrimario() {
+		return posicionPrimario;
+	}
+
+	/**
+	 * @return Registros del primario conocidos y aún sin aplicar
+	 */
+	public long getRetrasoRegistros() {
+		return Math.max(0, posicionPrimario - aplicada);
+	}
+
+	/**
+	 * @return Tiempo entre que el primario anexó el último registro aplicado y que se
+	 *         aplicó aquí; 0 si la réplica está al día
+	 */
+	public long getRetrasoMs() {
+		return retrasoMs;
+	}
+
+	public int getInstantaneasCargadas() {
+		return instantaneasCargadas;
+	}
+
+	public long getRegistrosAplicados() {
+		return registrosAplicados;
+	}
+
+	/**
+	 * Espera a que la réplica haya aplicado hasta una posición del primario.
+	 *
+	 * @param epoca    Época del primario en la que se obtuvo la posición
+	 * @param posicion Posición del cambio que se quiere ver
+	 * @param esperaMs Tiempo máximo de espera
+	 * @return true si se llegó a la posición; false si se agotó la espera o la
+	 *         réplica sigue (o pasa a seguir) otra época. Mientras no haya recibido
+	 *         ninguna época espera a la primera instantánea.
+	 */
+	public boolean esperar(long epoca, long posicion, long esperaMs) throws InterruptedException {
+		long limite = System.nanoTime() + esperaMs * 1_000_000;
+		// Bajo el cerrojo: la época y la posición cambian juntas al cargar una instantánea
+		synchronized (avance) {
+			while (this.epoca == 0 || (this.epoca == epoca && aplicada < posicion)) {
+				long restante = (limite - System.nanoTime()) / 1_000_000;
+				if (restante <= 0) return false;
+				avance.wait(restante);
+			}
+			return this.epoca == epoca;
+		}
+	}
+
+	/**
+	 * Deja de replicar y cierra la conexión.
+	 */
+	@Override
+	public void close() throws IOException {
+		cerrado = true;
+		Socket actual = socket;
+		if (actual != null) actual.close();
+		hilo.interrupt();
+		try {
+			hilo.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void replicar() {
+		while (!cerrado) {
+			try (Socket s = new Socket()) {
+				socket = s;
+				s.connect(new InetSocketAddress(host, puerto), (int) REINTENTO_MS * 4);
+				s.setTcpNoDelay(true);
+				conectado = true;
+				sesion(new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16)),
+						new DataOutputStream(new BufferedOutputStream(s.getOutputStream())));
+			} catch (EOFException e) {
+				if (!cerrado) errores.accept(new IOException("El primario cerró la conexión", e));
+			} catch (IOException e) {
+				if (!cerrado && conectado) errores.accept(e);
+			} finally {
+				conectado = false;
+				socket = null;
+			}
+			if (cerrado) break;
+			try {
+				Thread.sleep(REINTENTO_MS);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Una conexión: saludo y mensajes hasta que se corte.
+	 */
+	private void sesion(DataInputStream entrada, DataOutputStream salida) throws IOException {
+		salida.writeInt(ProtocoloReplicacion.MAGIA);
+		salida.writeLong(epoca);
+		salida.writeLong(aplicada);
+		salida.flush();
+		while (!cerrado) {
+			byte tipo = entrada.readByte();
+			switch (tipo) {
+				case ProtocoloReplicacion.INSTANTANEA:
+					recibirInstantanea(entrada);
+					break;
+				case ProtocoloReplicacion.REGISTROS:
+					recibirRegistros(entrada);
+					break;
+				case ProtocoloReplicacion.LATIDO:
+					posicionPrimario = entrada.readLong();
+					entrada.readLong();
+					if (aplicada >= posicionPrimario) retrasoMs = 0;
+					break;
+				default:
+					throw new IOException("Mensaje de replicación desconocido: " + tipo);
+			}
+			salida.writeByte(ProtocoloReplicacion.CONFIRMACION);
+			salida.writeLong(aplicada);
+			salida.flush();
+		}
+	}
+
+	private void recibirInstantanea(DataInputStream entrada) throws IOException {
+		long nuevaEpoca = entrada.readLong();
+		long posicion = entrada.readLong();
+		long tamano = entrada.readLong();
+		Path temporal = Files.createTempFile("replica", ".bin");
+		try {
+			try (OutputStream archivo = Files.newOutputStream(temporal)) {
+				copiar(entrada, archivo, tamano);
+			}
+			aplicador.cargarInstantanea(temporal.toString());
+		} finally {
+			Files.deleteIfExists(temporal);
+		}
+		instantaneasCargadas++;
+		synchronized (avance) {
+			epoca = nuevaEpoca;
+			aplicada = posicion;
+			avance.notifyAll();
+		}
+	}
+
+	private void recibirRegistros(DataInputStream entrada) throws IOException {
+		long primera = entrada.readLong();
+		int n = entrada.readInt();
+		long instanteUltima = entrada.readLong();
+		posicionPrimario = entrada.readLong();
+		long hasta = aplicada;
+		for (int i = 0; i < n; i++) {
+			String linea = ProtocoloReplicacion.leerCadena(entrada);
+			long posicion = primera + i;
+			// Tras una reconexión pueden repetirse registros ya aplicados
+			if (posicion <= hasta) continue;
+			aplicador.aplicar(linea);
+			hasta = posicion;
+			registrosAplicados++;
+		}
+		retrasoMs = Math.max(0, System.currentTimeMillis() - instanteUltima);
+		avanzar(hasta);
+	}
+
+	private void avanzar(long posicion) {
+		synchronized (avance) {
+			aplicada = posicion;
+			avance.notifyAll();
+		}
+	}
+
+	private static void copiar(InputStream entrada, OutputStream salida, long tamano) throws IOException {
+		byte[] buffer = new byte[1 << 16];
+		long restante = tamano;
+		while (restante > 0) {
+			int leidos = entrada.read(buffer, 0, (int) Math.min(buffer.length, restante));
+			if (leidos < 0) throw new IOException("Instantánea incompleta");
+			salida.write(buffer, 0, leidos);
+			restante -= leidos;
+		}
+	}
+}
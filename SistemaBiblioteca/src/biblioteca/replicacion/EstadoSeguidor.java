@@ -0,0 +1,60 @@
+package biblioteca.replicacion;
+
+/**
+ * Cómo va una réplica conectada al primario, visto desde el primario.
+ */
+public final class EstadoSeguidor {
+	private final String direccion;
+	private final long posicionConfirmada;
+	private final long retrasoRegistros;
+	private final long retrasoMs;
+	private final int instantaneas;
+
+	EstadoSeguidor(String direccion, long posicionConfirmada, long retrasoRegistros, long retrasoMs, int instantaneas) {
+		this.direccion = direccion;
+		this.posicionConfirmada = posicionConfirmada;
+		this.retrasoRegistros = retrasoRegistros;
+		this.retrasoMs = retrasoMs;
+		this.instantaneas = instantaneas;
+	}
+
+	/**
+	 * @return Dirección y puerto de la réplica
+	 */
+	public String getDireccion() {
+		return direccion;
+	}
+
+	/**
+	 * @return Última posición que la réplica confirmó haber aplicado
+	 */
+	public long getPosicionConfirmada() {
+		return posicionConfirmada;
+	}
+
+	/**
+	 * @return Registros del primario que la réplica aún no ha confirmado
+	 */
+	public long getRetrasoRegistros() {
+		return retrasoRegistros;
+	}
+
+	/**
+	 * @return Tiempo que lleva esperando el registro más antiguo sin confirmar; 0 si no hay ninguno
+	 */
+	public long getRetrasoMs() {
+		return retrasoMs;
+	}
+
+	/**
+	 * @return Instantáneas enviadas a la réplica en esta conexión
+	 */
+	public int getInstantaneas() {
+		return instantaneas;
+	}
+
+	@Override
+	public String toString() {
+		return direccion + " en " + posicionConfirmada + " (" + retrasoRegistros + " registros, " + retrasoMs + " ms)";
+	}
+}
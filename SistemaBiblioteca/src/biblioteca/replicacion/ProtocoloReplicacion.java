@@ -0,0 +1,57 @@
+package biblioteca.replicacion;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Protocolo entre el primario y sus réplicas, sobre una conexión TCP por réplica.
+ *
+ * Mensajes (enteros en big-endian, cadenas como int longitud + bytes UTF-8):
+ * <pre>
+ * réplica -&gt; primario
+ *   saludo        int magia "BIBR", long época, long posición aplicada
+ *   confirmación  byte 'A', long posición aplicada
+ * primario -&gt; réplica
+ *   instantánea   byte 'S', long época, long posición, long tamaño, bytes de la instantánea binaria
+ *   registros     byte 'L', long posición del primero, int n, long instante del último (ms),
+ *                 long última posición del primario, n x cadena
+ *   latido        byte 'H', long última posición del primario, long instante (ms)
+ * </pre>
+ * Con el saludo la réplica dice hasta dónde llegó. Si es de la misma época (el
+ * mismo arranque del primario) y lo que le falta sigue en el registro, recibe los
+ * registros desde ahí; si no, una instantánea y los registros a partir de su posición.
+ */
+final class ProtocoloReplicacion {
+
+	static final int MAGIA = 0x42494252; // "BIBR"
+
+	static final byte INSTANTANEA = 'S';
+	static final byte REGISTROS = 'L';
+	static final byte LATIDO = 'H';
+	static final byte CONFIRMACION = 'A';
+
+	/** Registros como máximo en un mensaje */
+	static final int MAXIMO_REGISTROS = 4096;
+
+	/** Cada cuánto se envía un latido si no hay registros nuevos */
+	static final long LATIDO_MS = 500;
+
+	private ProtocoloReplicacion() {
+	}
+
+	static void escribirCadena(DataOutputStream salida, String cadena) throws IOException {
+		byte[] bytes = cadena.getBytes(StandardCharsets.UTF_8);
+		salida.writeInt(bytes.length);
+		salida.write(bytes);
+	}
+
+	static String leerCadena(DataInputStream entrada) throws IOException {
+		int longitud = entrada.readInt();
+		if (longitud < 0) throw new IOException("Longitud de cadena no válida: " + longitud);
+		byte[] bytes = new byte[longitud];
+		entrada.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
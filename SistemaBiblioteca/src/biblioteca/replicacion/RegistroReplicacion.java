@@ -0,0 +1,252 @@
+package biblioteca.replicacion;
+
+import biblioteca.enums.TipoMovimiento;
+import biblioteca.model.Prestamo;
+import biblioteca.persistencia.FormatoRegistro;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Registro ordenado de los cambios del primario que se envía a las réplicas.
+ *
+ * Cada cambio (las mismas líneas que el diario: U, R, P, D, X) recibe una posición
+ * consecutiva desde 1 y se guarda en un anillo de capacidad fija junto con el
+ * instante en que se anexó. Anexar no toma ningún cerrojo ni hace E/S: reserva la
+ * posición con un incremento atómico y publica en su ranura un registro inmutable
+ * que lleva su posición (como {@link biblioteca.eventos.BusEventos}). Los hilos que
+ * envían a las réplicas leen del anillo a su ritmo y se detienen en la primera
+ * posición reservada que aún no se ha publicado.
+ * Los préstamos y devoluciones se guardan como referencia al préstamo y la línea se
+ * compone al leer, en el hilo que envía, para no cargar esa tarea al préstamo.
+ * Si una réplica se queda más atrás que la capacidad, lo que le falta ya se ha
+ * sobrescrito y tiene que empezar desde una instantánea.
+ *
+ * Quien anexa es responsable del orden: los cambios de un mismo recurso deben
+ * anexarse en el orden en que se hicieron (la biblioteca los anexa con el cerrojo
+ * del recurso tomado).
+ *
+ * La época distingue cada arranque del primario: las posiciones solo tienen sentido
+ * dentro de la misma época.
+ */
+public final class RegistroReplicacion {
+
+	/**
+	 * Contenido de una ranura. Es inmutable: una ranura se reemplaza entera, así que
+	 * quien la lee ve siempre una posición con su registro.
+	 */
+	private static final class Ranura {
+		final long posicion;
+		/** Línea ya compuesta, o el préstamo de un movimiento */
+		final Object registro;
+		/** Movimiento del préstamo, o null si es una línea */
+		final TipoMovimiento movimiento;
+		final long instante;
+
+		Ranura(long posicion, Object registro, TipoMovimiento movimiento, long instante) {
+			this.posicion = posicion;
+			this.registro = registro;
+			this.movimiento = movimiento;
+			this.instante = instante;
+		}
+	}
+
+	private final long epoca;
+	private final AtomicReferenceArray<Ranura> ranuras;
+	private final int mascara;
+
+	/** Posición del último registro reservado (0 si ninguno) */
+	private final AtomicLong reservada = new AtomicLong();
+
+	/** Hilos esperando registros nuevos; solo se despierta a alguno si los hay */
+	private final Set<Thread> lectores = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Fragmento del registro: las líneas desde una posición, en orden.
+	 */
+	static final class Tramo {
+		final long primera;
+		final String[] lineas;
+		final long instanteUltima;
+		final long ultimaRegistro;
+
+		Tramo(long primera, String[] lineas, long instanteUltima, long ultimaRegistro) {
+			this.primera = primera;
+			this.lineas = lineas;
+			this.instanteUltima = instanteUltima;
+			this.ultimaRegistro = ultimaRegistro;
+		}
+	}
+
+	/**
+	 * @param capacidad Registros que se conservan (se redondea a potencia de dos)
+	 */
+	public RegistroReplicacion(int capacidad) {
+		int tamano = Integer.highestOneBit(Math.max(2, capacidad - 1)) << 1;
+		this.ranuras = new AtomicReferenceArray<>(tamano);
+		this.mascara = tamano - 1;
+		long aleatoria;
+		do {
+			aleatoria = ThreadLocalRandom.current().nextLong();
+		} while (aleatoria == 0);
+		this.epoca = aleatoria;
+	}
+
+	/**
+	 * Anexa un registro.
+	 *
+	 * @return Su posición
+	 */
+	public long anexar(String linea) {
+		return anexar(linea, null);
+	}
+
+	/**
+	 * Anexa un préstamo (registro P) o una devolución (registro D).
+	 *
+	 * @return Su posición
+	 */
+	public long anexar(Prestamo prestamo, TipoMovimiento movimiento) {
+		return anexar((Object) prestamo, movimiento);
+	}
+
+	private long anexar(Object registro, TipoMovimiento movimiento) {
+		long posicion = reservada.incrementAndGet();
+		publicar(new Ranura(posicion, registro, movimiento, System.currentTimeMillis()));
+		despertarLectores();
+		return posicion;
+	}
+
+	/**
+	 * Anexa varios préstamos o devoluciones seguidos, sin que se intercale ningún
+	 * registro de otro hilo: sus posiciones se reservan de una vez.
+	 *
+	 * @return Posición del último, o la última del registro si no había ninguno
+	 */
+	public long anexarTodos(List<Prestamo> prestamos, TipoMovimiento movimiento) {
+		if (prestamos.isEmpty()) return reservada.get();
+		long ultima = reservada.addAndGet(prestamos.size());
+		long posicion = ultima - prestamos.size();
+		long ahora = System.currentTimeMillis();
+		for (Prestamo prestamo : prestamos) {
+			publicar(new Ranura(++posicion, prestamo, movimiento, ahora));
+		}
+		despertarLectores();
+		return ultima;
+	}
+
+	/**
+	 * Deja la ranura en su sitio salvo que ya la ocupe una posición posterior (quien
+	 * anexa se retrasó más de una vuelta del anillo): lo que publicaría ya no se leería.
+	 */
+	private void publicar(Ranura ranura) {
+		int i = (int) ranura.posicion & mascara;
+		while (true) {
+			Ranura actual = ranuras.get(i);
+			if (actual != null && actual.posicion > ranura.posicion) return;
+			if (ranuras.compareAndSet(i, actual, ranura)) return;
+		}
+	}
+
+	private void despertarLectores() {
+		if (lectores.isEmpty()) return;
+		for (Thread lector : lectores) {
+			LockSupport.unpark(lector);
+		}
+	}
+
+	/**
+	 * @return Posición del último registro anexado, o 0 si no hay ninguno. Quien ya
+	 *         volvió de anexar tiene su registro en esta posición o antes.
+	 */
+	public long getUltima() {
+		return reservada.get();
+	}
+
+	public long getEpoca() {
+		return epoca;
+	}
+
+	public int getCapacidad() {
+		return ranuras.length();
+	}
+
+	/**
+	 * @return true si siguen en el anillo todos los registros posteriores a la posición
+	 */
+	boolean contiene(long posicion) {
+		long ultima = reservada.get();
+		return posicion >= 0 && posicion <= ultima && ultima - posicion <= ranuras.length();
+	}
+
+	/**
+	 * @return Instante (ms) en que se anexó el registro siguiente a la posición, o -1
+	 *         si no está publicado o ya no está en el anillo
+	 */
+	long instanteSiguiente(long posicion) {
+		Ranura ranura = ranuras.get((int) (posicion + 1) & mascara);
+		return ranura != null && ranura.posicion == posicion + 1 ? ranura.instante : -1;
+	}
+
+	/**
+	 * Copia los registros posteriores a una posición, esperando a que haya alguno.
+	 *
+	 * @param desde    Última posición que ya tiene quien lee
+	 * @param maximo   Registros como máximo
+	 * @param esperaMs Tiempo máximo de espera si no hay registros nuevos
+	 * @return Los registros; sin líneas si se agotó la espera; null si alguno de los
+	 *         que faltan ya se sobrescribió
+	 */
+	Tramo leer(long desde, int maximo, long esperaMs) throws InterruptedException {
+		long siguiente = desde + 1;
+		long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(esperaMs);
+		Thread actual = Thread.currentThread();
+		Ranura ranura;
+		while ((ranura = ranuras.get((int) siguiente & mascara)) == null || ranura.posicion != siguiente) {
+			if (ranura != null && ranura.posicion > siguiente) return null;
+			long restante = limite - System.nanoTime();
+			if (restante <= 0) return new Tramo(siguiente, new String[0], 0, reservada.get());
+			lectores.add(actual);
+			try {
+				// Se vuelve a mirar tras apuntarse: quien publique después ya despierta a este hilo
+				ranura = ranuras.get((int) siguiente & mascara);
+				if (ranura == null || ranura.posicion < siguiente) LockSupport.parkNanos(this, restante);
+			} finally {
+				lectores.remove(actual);
+			}
+			if (Thread.interrupted()) throw new InterruptedException();
+		}
+
+		// Registros publicados seguidos; las líneas se componen aquí, no al anexar
+		String[] lineas = new String[(int) Math.min(maximo, Math.max(1, reservada.get() - desde))];
+		int n = 0;
+		long instanteUltima = 0;
+		while (n < lineas.length) {
+			if (ranura == null || ranura.posicion < siguiente + n) break;
+			if (ranura.posicion > siguiente + n) return null;
+			lineas[n++] = ranura.movimiento == null ? (String) ranura.registro
+					: linea((Prestamo) ranura.registro, ranura.movimiento);
+			instanteUltima = ranura.instante;
+			ranura = ranuras.get((int) (siguiente + n) & mascara);
+		}
+		if (n < lineas.length) lineas = Arrays.copyOf(lineas, n);
+		return new Tramo(siguiente, lineas, instanteUltima, Math.max(reservada.get(), desde + n));
+	}
+
+	/**
+	 * Línea de un préstamo (P,idRecurso,idUsuario,fecha) o una devolución (D,idRecurso),
+	 * con el mismo formato que el diario ({@link FormatoRegistro}).
+	 */
+	private static String linea(Prestamo prestamo, TipoMovimiento movimiento) {
+		return movimiento == TipoMovimiento.PRESTAMO
+				? FormatoRegistro.unir("P", prestamo.getRecurso().getId(), prestamo.getUsuario().getId(),
+						prestamo.getFechaPrestamo().toString())
+				: FormatoRegistro.unir("D", prestamo.getRecurso().getId());
+	}
+}
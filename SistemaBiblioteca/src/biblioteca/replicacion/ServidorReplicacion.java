@@ -0,0 +1,249 @@
+package biblioteca.replicacion;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Lado del primario de la replicación: acepta conexiones TCP de réplicas y envía
+ * a cada una los registros de un {@link RegistroReplicacion} (ver
+ * {@link ProtocoloReplicacion}).
+ *
+ * Cada réplica tiene un hilo que le envía los registros en trozos según se anexan
+ * (o un latido si no hay ninguno) y otro que lee sus confirmaciones. Los préstamos
+ * no esperan a las réplicas: la replicación es asíncrona y cada réplica va con el
+ * retraso que muestra {@link #getSeguidores()}.
+ *
+ * Si la réplica es nueva, es de otro arranque del primario o se quedó más atrás que
+ * lo que guarda el registro, primero recibe una instantánea: la escribe la
+ * {@link FuenteInstantanea}, que dice también desde qué posición hay que seguir.
+ */
+public class ServidorReplicacion implements Closeable {
+
+	/**
+	 * Escribe una instantánea del estado del primario.
+	 */
+	public interface FuenteInstantanea {
+		/**
+		 * @param archivo Archivo donde escribirla
+		 * @return Posición del registro a partir de la cual la réplica debe aplicar
+		 *         los registros sobre la instantánea
+		 */
+		long escribir(String archivo) throws IOException;
+	}
+
+	private final RegistroReplicacion registro;
+	private final FuenteInstantanea fuente;
+	private final Consumer<IOException> errores;
+	private final ServerSocket socket;
+	private final Thread aceptador;
+	private final List<Conexion> conexiones = new CopyOnWriteArrayList<>();
+	private volatile boolean cerrado;
+
+	/**
+	 * Abre el puerto y empieza a aceptar réplicas.
+	 *
+	 * @param registro Registro de cambios a enviar
+	 * @param fuente   Instantáneas para las réplicas que no pueden seguir desde su posición
+	 * @param puerto   Puerto TCP (0 elige uno libre)
+	 * @param errores  Recibe los errores de envío de instantáneas
+	 * @throws IOException si no se puede abrir el puerto
+	 */
+	public ServidorReplicacion(RegistroReplicacion registro, FuenteInstantanea fuente, int puerto,
+			Consumer<IOException> errores) throws IOException {
+		this.registro = registro;
+		this.fuente = fuente;
+		this.errores = errores;
+		this.socket = new ServerSocket();
+		socket.setReuseAddress(true);
+		socket.bind(new InetSocketAddress(puerto));
+		this.aceptador = new Thread(this::aceptar, "replicacion-aceptador");
+		aceptador.setDaemon(true);
+		aceptador.start();
+	}
+
+	/**
+	 * @return Puerto en el que escucha
+	 */
+	public int getPuerto() {
+		return socket.getLocalPort();
+	}
+
+	public RegistroReplicacion getRegistro() {
+		return registro;
+	}
+
+	/**
+	 * @return Estado de cada réplica conectada
+	 */
+	public List<EstadoSeguidor> getSeguidores() {
+		long ultima = registro.getUltima();
+		long ahora = System.currentTimeMillis();
+		List<EstadoSeguidor> estados = new ArrayList<>();
+		for (Conexion conexion : conexiones) {
+			long confirmada = conexion.confirmada;
+			long instante = registro.instanteSiguiente(confirmada);
+			estados.add(new EstadoSeguidor(conexion.direccion, confirmada, Math.max(0, ultima - confirmada),
+					instante < 0 ? 0 : Math.max(0, ahora - instante), conexion.instantaneas));
+		}
+		return estados;
+	}
+
+	/**
+	 * Deja de aceptar réplicas y corta las conexiones abiertas.
+	 */
+	@Override
+	public void close() throws IOException {
+		cerrado = true;
+		socket.close();
+		for (Conexion conexion : conexiones) {
+			conexion.cerrar();
+		}
+		try {
+			aceptador.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void aceptar() {
+		while (!cerrado) {
+			try {
+				Socket cliente = socket.accept();
+				cliente.setTcpNoDelay(true);
+				Conexion conexion = new Conexion(cliente);
+				conexiones.add(conexion);
+				conexion.emisor.start();
+			} catch (IOException e) {
+				// El socket se cerró (close) o falló una conexión concreta
+			}
+		}
+	}
+
+	/**
+	 * Conexión con una réplica.
+	 */
+	private final class Conexion {
+		final Socket socket;
+		final String direccion;
+		final Thread emisor;
+		volatile long confirmada;
+		volatile int instantaneas;
+
+		Conexion(Socket socket) {
+			this.socket = socket;
+			this.direccion = socket.getRemoteSocketAddress().toString();
+			this.emisor = new Thread(this::enviar, "replicacion-envio " + direccion);
+			emisor.setDaemon(true);
+		}
+
+		void cerrar() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// Ya estaba cerrada
+			}
+		}
+
+		/**
+		 * Saludo, instantánea si hace falta y después registros hasta que se corte la conexión.
+		 */
+		private void enviar() {
+			try {
+				DataInputStream entrada = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				DataOutputStream salida = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+				if (entrada.readInt() != ProtocoloReplicacion.MAGIA) return;
+				long epoca = entrada.readLong();
+				long desde = entrada.readLong();
+				if (epoca != registro.getEpoca() || !registro.contiene(desde)) {
+					desde = enviarInstantanea(salida);
+				}
+				confirmada = desde;
+				Thread lector = new Thread(() -> leerConfirmaciones(entrada), "replicacion-confirmaciones " + direccion);
+				lector.setDaemon(true);
+				lector.start();
+
+				while (!cerrado) {
+					RegistroReplicacion.Tramo tramo = registro.leer(desde, ProtocoloReplicacion.MAXIMO_REGISTROS,
+							ProtocoloReplicacion.LATIDO_MS);
+					if (tramo == null) {
+						// La réplica se quedó más atrás que el registro
+						desde = enviarInstantanea(salida);
+						continue;
+					}
+					if (tramo.lineas.length == 0) {
+						salida.writeByte(ProtocoloReplicacion.LATIDO);
+						salida.writeLong(tramo.ultimaRegistro);
+						salida.writeLong(System.currentTimeMillis());
+					} else {
+						salida.writeByte(ProtocoloReplicacion.REGISTROS);
+						salida.writeLong(tramo.primera);
+						salida.writeInt(tramo.lineas.length);
+						salida.writeLong(tramo.instanteUltima);
+						salida.writeLong(tramo.ultimaRegistro);
+						for (String linea : tramo.lineas) {
+							ProtocoloReplicacion.escribirCadena(salida, linea);
+						}
+						desde = tramo.primera + tramo.lineas.length - 1;
+					}
+					salida.flush();
+				}
+			} catch (EOFException | SocketException e) {
+				// La réplica se desconectó o se está cerrando el servidor
+			} catch (IOException e) {
+				if (!cerrado) errores.accept(e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				conexiones.remove(this);
+				cerrar();
+			}
+		}
+
+		/**
+		 * @return Posición desde la que seguir con los registros
+		 */
+		private long enviarInstantanea(DataOutputStream salida) throws IOException {
+			Path temporal = Files.createTempFile("replica", ".bin");
+			try {
+				long posicion = fuente.escribir(temporal.toString());
+				salida.writeByte(ProtocoloReplicacion.INSTANTANEA);
+				salida.writeLong(registro.getEpoca());
+				salida.writeLong(posicion);
+				salida.writeLong(Files.size(temporal));
+				Files.copy(temporal, salida);
+				salida.flush();
+				instantaneas++;
+				return posicion;
+			} finally {
+				Files.deleteIfExists(temporal);
+			}
+		}
+
+		private void leerConfirmaciones(DataInputStream entrada) {
+			try {
+				while (true) {
+					if (entrada.readByte() != ProtocoloReplicacion.CONFIRMACION) break;
+					confirmada = entrada.readLong();
+				}
+			} catch (IOException e) {
+				// Conexión cerrada
+			}
+			cerrar();
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package biblioteca.servidor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lectura y escritura mínimas de JSON para la API HTTP, sin dependencias externas.
+ *
+ * Solo lee lo que la API acepta: un objeto plano cuyos valores son cadenas,
+ * números, booleanos o null, o una lista de esos objetos. Los valores se
+ * devuelven como texto; los números y booleanos tal como aparecen.
+ */
+final class Json {
+
+	private final String texto;
+	private int posicion;
+
+	private Json(String texto) {
+		this.texto = texto;
+	}
+
+	/**
+	 * @param texto Documento JSON con un objeto plano
+	 * @return Campos del objeto en su orden; null para los valores null
+	 * @throws IllegalArgumentException si el documento no es un objeto plano válido
+	 */
+	static Map<String, String> leerObjeto(String texto) {
+		Json json = new Json(texto);
+		Map<String, String> objeto = json.objeto();
+		json.fin();
+		return objeto;
+	}
+
+	/**
+	 * @param texto Documento JSON con una lista de objetos planos
+	 * @return Objetos de la lista en su orden
+	 * @throws IllegalArgumentException si el documento no es una lista de objetos planos
+	 */
+	static List<Map<String, String>> leerLista(String texto) {
+		Json json = new Json(texto);
+		List<Map<String, String>> lista = new ArrayList<>();
+		json.esperar('[');
+		if (!json.consumir(']')) {
+			do {
+				lista.add(json.objeto());
+			} while (json.consumir(','));
+			json.esperar(']');
+		}
+		json.fin();
+		return lista;
+	}
+
+	/**
+	 * Escribe una cadena JSON entre comillas, escapando lo necesario.
+	 *
+	 * @param sb    Destino
+	 * @param valor Cadena a escribir; null escribe null
+	 */
+	static void cadena(StringBuilder sb, String valor) {
+		if (valor == null) {
+			sb.append("null");
+			return;
+		}
+		sb.append('"');
+		for (int i = 0; i < valor.length(); i++) {
+			char c = valor.charAt(i);
+			switch (c) {
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if (c < 0x20) {
+						sb.append(String.format("\\u%04x", (int) c));
+					} else {
+						sb.append(c);
+					}
+			}
+		}
+		sb.append('"');
+	}
+
+	/**
+	 * Escribe un campo "nombre":"valor" precedido de coma si no es el primero del objeto.
+	 */
+	static void campo(StringBuilder sb, String nombre, String valor) {
+		separar(sb);
+		cadena(sb, nombre);
+		sb.append(':');
+		cadena(sb, valor);
+	}
+
+	/**
+	 * Escribe un campo numérico o booleano precedido de coma si no es el primero del objeto.
+	 */
+	static void campo(StringBuilder sb, String nombre, Object valor) {
+		separar(sb);
+		cadena(sb, nombre);
+		sb.append(':').append(valor);
+	}
+
+	private static void separar(StringBuilder sb) {
+		char anterior = sb.charAt(sb.length() - 1);
+		if (anterior != '{' && anterior != '[') sb.append(',');
+	}
+
+	private Map<String, String> objeto() {
+		Map<String, String> objeto = new LinkedHashMap<>();
+		esperar('{');
+		if (consumir('}')) return objeto;
+		do {
+			espacios();
+			String nombre = cadena();
+			esperar(':');
+			objeto.put(nombre, valor());
+		} while (consumir(','));
+		esperar('}');
+		return objeto;
+	}
+
+	private String valor() {
+		espacios();
+		if (posicion < texto.length() && texto.charAt(posicion) == '"') return cadena();
+		int inicio = posicion;
+		while (posicion < texto.length() && "{}[],: \t\r\n\"".indexOf(texto.charAt(posicion)) < 0) {
+			posicion++;
+		}
+		String literal = texto.substring(inicio, posicion);
+		if (literal.equals("null")) return null;
+		if (literal.equals("true") || literal.equals("false") || literal.matches("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?")) {
+			return literal;
+		}
+		throw error("valor no válido '" + literal + "'");
+	}
+
+	private String cadena() {
+		if (posicion >= texto.length() || texto.charAt(posicion) != '"') throw error("se esperaba una cadena");
+		StringBuilder sb = new StringBuilder();
+		posicion++;
+		while (posicion < texto.length()) {
+			char c = texto.charAt(posicion++);
+			if (c == '"') return sb.toString();
+			if (c != '\\') {
+				sb.append(c);
+				continue;
+			}
+			if (posicion >= texto.length()) break;
+			char escape = texto.charAt(posicion++);
+			switch (escape) {
+				case 'n': sb.append('\n'); break;
+				case 'r': sb.append('\r'); break;
+				case 't': sb.append('\t'); break;
+				case 'b': sb.append('\b'); break;
+				case 'f': sb.append('\f'); break;
+				case 'u':
+					if (posicion + 4 > texto.length()) throw error("escape \\u incompleto");
+					try {
+						sb.append((char) Integer.parseInt(texto.substring(posicion, posicion + 4), 16));
+					} catch (NumberFormatException e) {
+						throw error("escape \\u no válido");
+					}
+					posicion += 4;
+					break;
+				default: sb.append(escape);
+			}
+		}
+		throw error("cadena sin cerrar");
+	}
+
+	private void espacios() {
+		while (posicion < texto.length() && Character.isWhitespace(texto.charAt(posicion))) {
+			posicion++;
+		}
+	}
+
+	private boolean consumir(char c) {
+		espacios();
+		if (posicion < texto.length() && texto.charAt(posicion) == c) {
+			posicion++;
+			return true;
+		}
+		return false;
+	}
+
+	private void esperar(char c) {
+		if (!consumir(c)) throw error("se esperaba '" + c + "'");
+	}
+
+	private void fin() {
+		espacios();
+		if (posicion != texto.length()) throw error("contenido sobrante");
+	}
+
+	private IllegalArgumentException error(String mensaje) {
+		return new IllegalArgumentException("JSON no válido (posición " + posicion + "): " + mensaje);
+	}
+}
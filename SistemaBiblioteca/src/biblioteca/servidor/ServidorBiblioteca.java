@@ -0,0 +1,839 @@
+package biblioteca.servidor;
+
+import biblioteca.enums.EstadoRecurso;
+import biblioteca.enums.FormatoExportacion;
+import biblioteca.enums.OrdenRecursos;
+import biblioteca.enums.ResultadoOperacion;
+import biblioteca.enums.TipoRecurso;
+import biblioteca.metricas.EstadisticasCirculacion;
+import biblioteca.metricas.Frecuente;
+import biblioteca.model.BibliotecaManager;
+import biblioteca.model.DVD;
+import biblioteca.model.Libro;
+import biblioteca.model.PaginaRecursos;
+import biblioteca.model.Prestamo;
+import biblioteca.model.RecursoBiblioteca;
+import biblioteca.model.Reserva;
+import biblioteca.model.Revista;
+import biblioteca.model.SolicitudPrestamo;
+import biblioteca.model.Usuario;
+import biblioteca.persistencia.Exportador;
+import biblioteca.persistencia.FormatoRegistro;
+import biblioteca.replicacion.ClienteReplicacion;
+import biblioteca.replicacion.EstadoSeguidor;
+import biblioteca.replicacion.RegistroReplicacion;
+import biblioteca.replicacion.ServidorReplicacion;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Servidor HTTP con una API JSON sobre {@link BibliotecaManager}.
+ *
+ * Usa el servidor HTTP incluido en el JDK y atiende cada petición en su propio
+ * hilo virtual, de modo que miles de conexiones simultáneas no necesitan miles
+ * de hilos del sistema: una petición que espera al diario solo ocupa un hilo
+ * virtual aparcado.
+ *
+ * Rutas:
+ * <pre>
+ * GET  /usuarios?limite=N                       lista de usuarios
+ * GET  /usuarios?desde=P&amp;limite=N              usuarios por orden de alta desde la posición P
+ * POST /usuarios            {"id","nombre"}     alta de usuario
+ * GET  /usuarios/{id}                           usuario
+ * GET  /usuarios/{id}/prestamos?activos=true    préstamos del usuario
+ * GET  /recursos?q=texto&amp;todas=true&amp;limite=N    búsqueda o lista de recursos
+ * GET  /recursos?estado=DISPONIBLE&amp;tipo=LIBRO&amp;limite=N   recursos en un estado y de un tipo
+ * GET  /recursos?orden=TITULO&amp;cursor=C&amp;limite=N    página del listado ordenado:
+ *                                               {"recursos":[...],"siguiente":"cursor o ausente"}
+ * GET  /recursos?desde=P&amp;limite=N              recursos por orden de alta desde la posición P
+ * POST /recursos            {"tipo","id","titulo","autor"|"numeroEdicion"|"duracionMinutos"}
+ * GET  /recursos/{id}                           recurso
+ * DELETE /recursos/{id}                         retira un recurso disponible (pasa a RETIRADO)
+ * GET  /recursos/{id}/prestamos                 préstamos del recurso
+ * GET  /recursos/{id}/reservas                  lista de espera y retención del recurso
+ * GET  /prestamos?desde=AAAA-MM-DD&amp;hasta=AAAA-MM-DD&amp;limite=N   historial
+ * GET  /prestamos/vencidos?limite=N             préstamos abiertos con el plazo terminado
+ * GET  /prestamos/resumen?desde=AAAA-MM-DD&amp;hasta=AAAA-MM-DD&amp;limite=N   préstamos por mes,
+ *                                               por tipo y usuarios con más préstamos
+ * POST /prestamos           {"recurso","usuario"} o una lista de ellos
+ * POST /devoluciones        {"recurso"} o una lista de ellos
+ * POST /reservas            {"recurso","usuario"}  reserva (o la que ya tenía el usuario)
+ * GET  /reservas/{recurso}/{usuario}            reserva con su posición en la lista
+ * DELETE /reservas/{recurso}/{usuario}          cancela la reserva
+ * GET  /recuentos                               recursos por estado y por tipo
+ * GET  /estadisticas?limite=N                   préstamos por tipo, más prestados y usuarios más
+ *                                               activos (en total y en los últimos días)
+ * GET  /exportar/{recursos|usuarios|historial}?formato=csv|jsonl&amp;gzip=true&amp;desde=&amp;hasta=
+ *                                               todas las filas, en streaming
+ * GET  /replicacion                             papel en la replicación, posición y retraso de
+ *                                               cada réplica (o de esta réplica)
+ * </pre>
+ * Los préstamos y devoluciones responden con el {@link ResultadoOperacion}:
+ * 201/200 si se realizó, 404 si el recurso o el usuario no existe y 409 si el
+ * recurso no estaba en el estado necesario. Las listas responden 200 con el
+ * resultado de cada elemento y se procesan como un lote.
+ *
+ * Con la replicación activa cada respuesta lleva la cabecera
+ * {@value #CABECERA_POSICION} con {@code época:posición} (la época en hexadecimal,
+ * como en {@code /replicacion}): en el primario, la posición de replicación que ya
+ * incluye lo que hizo la petición; en una réplica, la posición aplicada. Si una
+ * petición a la réplica envía esa cabecera con lo que devolvió el primario, la
+ * réplica espera a haber aplicado la posición antes de responder (503 si tarda más
+ * de {@value #ESPERA_REPLICACION_MS} ms o si sigue otra época del primario), de
+ * modo que se lee lo propio escrito.
+ * Una réplica solo admite GET: el resto de métodos responde 403.
+ */
+public class ServidorBiblioteca {
+
+	/** Conexiones pendientes de aceptar que admite el sistema operativo */
+	private static final int CONEXIONES_PENDIENTES = 4096;
+
+	/** Límite de los elementos devueltos por las listas si no se indica otro */
+	private static final int LIMITE_POR_DEFECTO = 100;
+
+	/** Tamaño máximo del cuerpo de una petición */
+	private static final int MAXIMO_CUERPO = 1 << 20;
+
+	/** Cabecera con la época y la posición de replicación, en las respuestas y en las lecturas de una réplica */
+	public static final String CABECERA_POSICION = "X-Posicion-Replicacion";
+
+	/** Tiempo máximo que una réplica espera a alcanzar la posición pedida */
+	private static final long ESPERA_REPLICACION_MS = 1000;
+
+	static {
+		// Ajustes del servidor del JDK, que solo se leen una vez por JVM:
+		// - cierra las conexiones inactivas por encima de maxIdleConnections (200 por
+		//   defecto), lo que obliga a reconectar a los clientes con keep-alive;
+		// - escribe cabeceras y cuerpo por separado, y sin nodelay el algoritmo de
+		//   Nagle retiene el cuerpo hasta el ACK retardado del cliente (unos 40 ms).
+		if (System.getProperty("sun.net.httpserver.maxIdleConnections") == null) {
+			System.setProperty("sun.net.httpserver.maxIdleConnections", "20000");
+		}
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+	private final BibliotecaManager biblioteca;
+	private final HttpServer servidor;
+	private final ExecutorService hilos;
+
+	/**
+	 * Crea el servidor y abre el puerto, sin empezar a atender peticiones.
+	 *
+	 * @param biblioteca Biblioteca a publicar
+	 * @param puerto     Puerto TCP (0 elige uno libre)
+	 * @throws IOException si no se puede abrir el puerto
+	 */
+	public ServidorBiblioteca(BibliotecaManager biblioteca, int puerto) throws IOException {
+		this.biblioteca = biblioteca;
+		this.servidor = HttpServer.create(new InetSocketAddress(puerto), CONEXIONES_PENDIENTES);
+		this.hilos = Executors.newVirtualThreadPerTaskExecutor();
+		servidor.setExecutor(hilos);
+		servidor.createContext("/usuarios", ex -> atender(ex, this::usuarios));
+		servidor.createContext("/recursos", ex -> atender(ex, this::recursos));
+		servidor.createContext("/prestamos", ex -> atender(ex, this::prestamos));
+		servidor.createContext("/devoluciones", ex -> atender(ex, this::devoluciones));
+		servidor.createContext("/reservas", ex -> atender(ex, this::reservas));
+		servidor.createContext("/recuentos", ex -> atender(ex, this::recuentos));
+		servidor.createContext("/estadisticas", ex -> atender(ex, this::estadisticas));
+		servidor.createContext("/exportar", this::exportar);
+		servidor.createContext("/replicacion", ex -> atender(ex, this::replicacion));
+	}
+
+	/**
+	 * Empieza a atender peticiones.
+	 */
+	public void iniciar() {
+		servidor.start();
+	}
+
+	/**
+	 * Deja de aceptar conexiones y espera a que terminen las peticiones en curso.
+	 *
+	 * @param segundosEspera Tiempo máximo de espera para las peticiones en curso
+	 */
+	public void detener(int segundosEspera) {
+		servidor.stop(segundosEspera);
+		hilos.close();
+	}
+
+	/**
+	 * @return Puerto en el que escucha el servidor
+	 */
+	public int getPuerto() {
+		return servidor.getAddress().getPort();
+	}
+
+	/**
+	 * Manejador de una ruta: recibe el método, los segmentos de la ruta tras el
+	 * prefijo, los parámetros de la consulta y el cuerpo.
+	 */
+	private interface Ruta {
+		Respuesta atender(String metodo, String[] segmentos, Map<String, String> parametros, String cuerpo);
+	}
+
+	/** Estado HTTP y cuerpo JSON de una respuesta */
+	private static final class Respuesta {
+		final int estado;
+		final String cuerpo;
+
+		Respuesta(int estado, String cuerpo) {
+			this.estado = estado;
+			this.cuerpo = cuerpo;
+		}
+	}
+
+	/**
+	 * Lee la petición, la pasa a la ruta y escribe la respuesta. Los errores de
+	 * la petición (JSON o parámetros no válidos) responden 400; cualquier otro
+	 * fallo responde 500 sin cerrar el servidor.
+	 */
+	private void atender(HttpExchange intercambio, Ruta ruta) throws IOException {
+		Respuesta respuesta;
+		try {
+			String cuerpo = leerCuerpo(intercambio);
+			String posicion = intercambio.getRequestHeaders().getFirst(CABECERA_POSICION);
+			long[] token = posicion == null ? null : posicion(posicion);
+			if (cuerpo == null) {
+				respuesta = error(413, "El cuerpo de la petición supera " + MAXIMO_CUERPO + " bytes");
+			} else if (biblioteca.isReplica() && !intercambio.getRequestMethod().equals("GET")) {
+				respuesta = error(403, "Réplica de solo lectura: las escrituras van al primario");
+			} else if (token != null && biblioteca.isReplica() && token[0] != biblioteca.getEpocaReplicacion()) {
+				respuesta = error(503, "La réplica sigue otra época del primario ("
+						+ Long.toHexString(biblioteca.getEpocaReplicacion()) + ", no " + Long.toHexString(token[0]) + ")");
+			} else if (token != null && !biblioteca.esperarPosicionReplicacion(token[0], token[1], ESPERA_REPLICACION_MS)) {
+				respuesta = error(503, "La réplica no ha alcanzado la posición " + posicion);
+			} else {
+				String prefijo = intercambio.getHttpContext().getPath();
+				String resto = intercambio.getRequestURI().getRawPath().substring(prefijo.length());
+				respuesta = ruta.atender(intercambio.getRequestMethod(), segmentos(resto),
+						parametros(intercambio.getRequestURI().getRawQuery()), cuerpo);
+			}
+		} catch (IllegalArgumentException e) {
+			respuesta = error(400, e.getMessage());
+		} catch (RuntimeException e) {
+			registrarError("atender", intercambio, e);
+			respuesta = error(500, "Error interno");
+		}
+		if (biblioteca.isReplica() || biblioteca.getServidorReplicacion() != null) {
+			intercambio.getResponseHeaders().set(CABECERA_POSICION,
+					Long.toHexString(biblioteca.getEpocaReplicacion()) + ":" + biblioteca.getPosicionReplicacion());
+		}
+		responder(intercambio, respuesta);
+	}
+
+	/**
+	 * Escribe en la salida de errores un fallo inesperado al atender una petición, con
+	 * su traza completa. Se escribe de una vez para que no se mezcle con la de otra
+	 * petición.
+	 */
+	private static void registrarError(String accion, HttpExchange intercambio, Throwable e) {
+		StringWriter traza = new StringWriter();
+		e.printStackTrace(new PrintWriter(traza));
+		System.err.print("❌ Error al " + accion + " " + intercambio.getRequestURI() + ": " + traza);
+	}
+
+	private static void responder(HttpExchange intercambio, Respuesta respuesta) throws IOException {
+		byte[] bytes = respuesta.cuerpo.getBytes(StandardCharsets.UTF_8);
+		intercambio.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		intercambio.sendResponseHeaders(respuesta.estado, bytes.length);
+		try (OutputStream salida = intercambio.getResponseBody()) {
+			salida.write(bytes);
+		}
+	}
+
+	/**
+	 * Exporta recursos, usuarios o el historial escribiendo las filas en la respuesta
+	 * según se generan (codificación por trozos), sin componer el cuerpo en memoria.
+	 * Los errores de la petición responden con JSON como el resto de rutas; un fallo
+	 * a mitad de la exportación solo puede cortar la respuesta.
+	 */
+	private void exportar(HttpExchange intercambio) throws IOException {
+		String[] segmentos;
+		Map<String, String> parametros;
+		FormatoExportacion formato;
+		LocalDate desde;
+		LocalDate hasta;
+		try {
+			String prefijo = intercambio.getHttpContext().getPath();
+			segmentos = segmentos(intercambio.getRequestURI().getRawPath().substring(prefijo.length()));
+			parametros = parametros(intercambio.getRequestURI().getRawQuery());
+			formato = enumerado(parametros, "formato", FormatoExportacion.class);
+			desde = fecha(parametros, "desde", null);
+			hasta = fecha(parametros, "hasta", null);
+		} catch (IllegalArgumentException e) {
+			responder(intercambio, error(400, e.getMessage()));
+			return;
+		}
+		if (segmentos.length != 1 || !List.of("recursos", "usuarios", "historial").contains(segmentos[0])) {
+			responder(intercambio, error(404, "Ruta no encontrada"));
+			return;
+		}
+		if (!intercambio.getRequestMethod().equals("GET")) {
+			responder(intercambio, metodoNoPermitido());
+			return;
+		}
+		if (formato == null) formato = FormatoExportacion.CSV;
+		boolean comprimir = Boolean.parseBoolean(parametros.get("gzip"));
+
+		intercambio.getResponseHeaders().set("Content-Type", formato == FormatoExportacion.CSV
+				? "text/csv; charset=utf-8" : "application/x-ndjson; charset=utf-8");
+		if (comprimir) intercambio.getResponseHeaders().set("Content-Encoding", "gzip");
+		intercambio.sendResponseHeaders(200, 0);
+		OutputStream cuerpo = intercambio.getResponseBody();
+		try (Exportador exportador = new Exportador(comprimir ? Exportador.comprimir(cuerpo) : cuerpo, formato)) {
+			switch (segmentos[0]) {
+				case "recursos":
+					biblioteca.exportarRecursos(exportador);
+					break;
+				case "usuarios":
+					biblioteca.exportarUsuarios(exportador);
+					break;
+				default:
+					biblioteca.exportarHistorial(exportador, desde, hasta);
+			}
+		} catch (IOException | RuntimeException e) {
+			registrarError("exportar", intercambio, e);
+			intercambio.close();
+		}
+	}
+
+	// ---------------------------------------------------------------- rutas
+
+	private Respuesta usuarios(String metodo, String[] segmentos, Map<String, String> parametros, String cuerpo) {
+		if (segmentos.length == 0) {
+			if (metodo.equals("GET")) {
+				int limite = entero(parametros, "limite", LIMITE_POR_DEFECTO);
+				Collection<Usuario> lista = parametros.containsKey("desde")
+						? biblioteca.getUsuariosPorAlta(entero(parametros, "desde", 0), limite)
+						: biblioteca.getUsuarios();
+				StringBuilder sb = new StringBuilder("[");
+				int n = 0;
+				for (Usuario usuario : lista) {
+					if (n++ == limite) break;
+					separar(sb);
+					usuario(sb, usuario);
+				}
+				return ok(200, sb.append(']'));
+			}
+			if (metodo.equals("POST")) {
+				Map<String, String> datos = Json.leerObjeto(cuerpo);
+				Usuario usuario = new Usuario(requerido(datos, "id"), requerido(datos, "nombre"));
+				if (!biblioteca.agregarUsuario(usuario)) return error(409, "Ya existe un usuario con ese ID");
+				return ok(201, usuario(new StringBuilder(), usuario));
+			}
+			return metodoNoPermitido();
+		}
+		if (!metodo.equals("GET")) return metodoNoPermitido();
+		if (segmentos.length == 1) {
+			Usuario usuario = biblioteca.getUsuario(segmentos[0]);
+			if (usuario == null) return error(404, "Usuario no encontrado");
+			return ok(200, usuario(new StringBuilder(), usuario));
+		}
+		if (segmentos.length == 2 && segmentos[1].equals("prestamos")) {
+			if (biblioteca.getUsuario(segmentos[0]) == null) return error(404, "Usuario no encontrado");
+			boolean activos = Boolean.parseBoolean(parametros.get("activos"));
+			return ok(200, prestamos(activos ? biblioteca.getPrestamosActivosDeUsuario(segmentos[0])
+					: biblioteca.getPrestamosDeUsuario(segmentos[0]), entero(parametros, "limite", Integer.MAX_VALUE)));
+		}
+		return error(404, "Ruta no encontrada");
+	}
+
+	private Respuesta recursos(String metodo, String[] segmentos, Map<String, String> parametros, String cuerpo) {
+		if (segmentos.length == 0) {
+			if (metodo.equals("GET")) {
+				int limite = entero(parametros, "limite", LIMITE_POR_DEFECTO);
+				String consulta = parametros.get("q");
+				if (consulta == null && (parametros.containsKey("orden") || parametros.containsKey("cursor"))) {
+					return paginaRecursos(parametros, limite);
+				}
+				EstadoRecurso estado = enumerado(parametros, "estado", EstadoRecurso.class);
+				TipoRecurso tipo = enumerado(parametros, "tipo", TipoRecurso.class);
+				Collection<RecursoBiblioteca> lista = consulta != null
+						? biblioteca.buscar(consulta, !"false".equals(parametros.get("todas")), limite)
+						: estado != null || tipo != null ? biblioteca.getRecursos(estado, tipo, limite)
+						: parametros.containsKey("desde") ? biblioteca.getRecursosPorAlta(entero(parametros, "desde", 0), limite)
+						: biblioteca.getRecursos();
+				StringBuilder sb = new StringBuilder("[");
+				int n = 0;
+				for (RecursoBiblioteca recurso : lista) {
+					if (n++ == limite) break;
+					separar(sb);
+					recurso(sb, recurso);
+				}
+				return ok(200, sb.append(']'));
+			}
+			if (metodo.equals("POST")) {
+				RecursoBiblioteca recurso = crearRecurso(Json.leerObjeto(cuerpo));
+				if (!biblioteca.agregarRecurso(recurso)) return error(409, "Ya existe un recurso con ese ID");
+				return ok(201, recurso(new StringBuilder(), recurso));
+			}
+			return metodoNoPermitido();
+		}
+		if (segmentos.length == 1 && metodo.equals("DELETE")) {
+			RecursoBiblioteca recurso = biblioteca.getRecurso(segmentos[0]);
+			if (recurso == null || recurso.getEstado() == EstadoRecurso.RETIRADO) return error(404, "Recurso no encontrado");
+			if (!biblioteca.retirarRecurso(recurso)) return error(409, "El recurso no está disponible o tiene reservas");
+			return ok(200, recurso(new StringBuilder(), recurso));
+		}
+		if (!metodo.equals("GET")) return metodoNoPermitido();
+		RecursoBiblioteca recurso = biblioteca.getRecurso(segmentos[0]);
+		if (recurso == null) return error(404, "Recurso no encontrado");
+		if (segmentos.length == 1) return ok(200, recurso(new StringBuilder(), recurso));
+		if (segmentos.length == 2 && segmentos[1].equals("prestamos")) {
+			return ok(200, prestamos(biblioteca.getPrestamosDeRecurso(recurso.getId()),
+					entero(parametros, "limite", Integer.MAX_VALUE)));
+		}
+		if (segmentos.length == 2 && segmentos[1].equals("reservas")) {
+			StringBuilder sb = new StringBuilder("{");
+			Json.campo(sb, "enEspera", (Object) biblioteca.getLongitudEspera(recurso.getId()));
+			Reserva retenida = biblioteca.getReservaRetenida(recurso.getId());
+			if (retenida != null) reserva(sb.append(",\"retenida\":"), retenida);
+			return ok(200, sb.append('}'));
+		}
+		return error(404, "Ruta no encontrada");
+	}
+
+	private Respuesta prestamos(String metodo, String[] segmentos, Map<String, String> parametros, String cuerpo) {
+		if (segmentos.length == 1 && segmentos[0].equals("vencidos")) {
+			if (!metodo.equals("GET")) return metodoNoPermitido();
+			return ok(200, prestamos(biblioteca.getPrestamosVencidos(), entero(parametros, "limite", LIMITE_POR_DEFECTO)));
+		}
+		if (segmentos.length == 1 && segmentos[0].equals("resumen")) {
+			if (!metodo.equals("GET")) return metodoNoPermitido();
+			return resumenPrestamos(fecha(parametros, "desde", null), fecha(parametros, "hasta", null),
+					entero(parametros, "limite", LIMITE_POR_DEFECTO));
+		}
+		if (segmentos.length != 0) return error(404, "Ruta no encontrada");
+		if (metodo.equals("GET")) {
+			int limite = entero(parametros, "limite", LIMITE_POR_DEFECTO);
+			if (parametros.containsKey("desde") || parametros.containsKey("hasta")) {
+				LocalDate desde = fecha(parametros, "desde", LocalDate.MIN);
+				LocalDate hasta = fecha(parametros, "hasta", LocalDate.MAX);
+				return ok(200, prestamos(biblioteca.getPrestamosEntre(desde, hasta), limite));
+			}
+			return ok(200, prestamos(biblioteca.getHistorial(), limite));
+		}
+		if (!metodo.equals("POST")) return metodoNoPermitido();
+		if (esLista(cuerpo)) {
+			List<SolicitudPrestamo> solicitudes = new ArrayList<>();
+			for (Map<String, String> datos : Json.leerLista(cuerpo)) {
+				solicitudes.add(new SolicitudPrestamo(biblioteca.getRecurso(requerido(datos, "recurso")),
+						biblioteca.getUsuario(requerido(datos, "usuario"))));
+			}
+			return resultados(biblioteca.prestarLote(solicitudes));
+		}
+		Map<String, String> datos = Json.leerObjeto(cuerpo);
+		RecursoBiblioteca recurso = biblioteca.getRecurso(requerido(datos, "recurso"));
+		Usuario usuario = biblioteca.getUsuario(requerido(datos, "usuario"));
+		if (recurso == null || usuario == null) return resultado(404, ResultadoOperacion.INVALIDO);
+		if (biblioteca.prestar(recurso, usuario)) return resultado(201, ResultadoOperacion.REALIZADO);
+		// Un recurso retirado ya no es de esta biblioteca (p. ej. pasó a otra sucursal)
+		return recurso.getEstado() == EstadoRecurso.RETIRADO ? resultado(404, ResultadoOperacion.INVALIDO)
+				: resultado(409, ResultadoOperacion.NO_DISPONIBLE);
+	}
+
+	private Respuesta devoluciones(String metodo, String[] segmentos, Map<String, String> parametros, String cuerpo) {
+		if (segmentos.length != 0) return error(404, "Ruta no encontrada");
+		if (!metodo.equals("POST")) return metodoNoPermitido();
+		if (esLista(cuerpo)) {
+			List<RecursoBiblioteca> lote = new ArrayList<>();
+			for (Map<String, String> datos : Json.leerLista(cuerpo)) {
+				lote.add(biblioteca.getRecurso(requerido(datos, "recurso")));
+			}
+			return resultados(biblioteca.devolverLote(lote));
+		}
+		RecursoBiblioteca recurso = biblioteca.getRecurso(requerido(Json.leerObjeto(cuerpo), "recurso"));
+		if (recurso == null) return resultado(404, ResultadoOperacion.INVALIDO);
+		if (biblioteca.devolver(recurso)) return resultado(200, ResultadoOperacion.REALIZADO);
+		return recurso.getEstado() == EstadoRecurso.RETIRADO ? resultado(404, ResultadoOperacion.INVALIDO)
+				: resultado(409, ResultadoOperacion.NO_PRESTADO);
+	}
+
+	private Respuesta reservas(String metodo, String[] segmentos, Map<String, String> parametros, String cuerpo) {
+		if (segmentos.length == 0) {
+			if (!metodo.equals("POST")) return metodoNoPermitido();
+			Map<String, String> datos = Json.leerObjeto(cuerpo);
+			Reserva reserva = biblioteca.reservar(biblioteca.getRecurso(requerido(datos, "recurso")),
+					biblioteca.getUsuario(requerido(datos, "usuario")));
+			if (reserva == null) return error(404, "Recurso o usuario no encontrado");
+			return ok(201, reserva(new StringBuilder(), reserva));
+		}
+		if (segmentos.length != 2) return error(404, "Ruta no encontrada");
+		Reserva reserva = biblioteca.getReserva(segmentos[0], segmentos[1]);
+		if (reserva == null) return error(404, "Reserva no encontrada");
+		if (metodo.equals("GET")) return ok(200, reserva(new StringBuilder(), reserva));
+		if (metodo.equals("DELETE")) {
+			if (!biblioteca.cancelarReserva(reserva)) return error(404, "Reserva no encontrada");
+			return ok(200, reserva(new StringBuilder(), reserva));
+		}
+		return metodoNoPermitido();
+	}
+
+	// ---------------------------------------------------------------- JSON de salida
+
+	private static StringBuilder usuario(StringBuilder sb, Usuario usuario) {
+		sb.append('{');
+		Json.campo(sb, "id", usuario.getId());
+		Json.campo(sb, "nombre", usuario.getNombre());
+		return sb.append('}');
+	}
+
+	private Respuesta paginaRecursos(Map<String, String> parametros, int limite) {
+		OrdenRecursos orden = enumerado(parametros, "orden", OrdenRecursos.class);
+		PaginaRecursos pagina = biblioteca.getPaginaRecursos(orden == null ? OrdenRecursos.ID : orden,
+				parametros.get("cursor"), Math.max(1, limite));
+		StringBuilder sb = new StringBuilder("{\"recursos\":[");
+		int inicio = sb.length();
+		for (RecursoBiblioteca recurso : pagina.getRecursos()) {
+			if (sb.length() > inicio) sb.append(',');
+			recurso(sb, recurso);
+		}
+		sb.append(']');
+		if (pagina.getCursorSiguiente() != null) Json.campo(sb, "siguiente", pagina.getCursorSiguiente());
+		return ok(200, sb.append('}'));
+	}
+
+	private Respuesta resumenPrestamos(LocalDate desde, LocalDate hasta, int limite) {
+		StringBuilder sb = new StringBuilder("{\"meses\":{");
+		for (Map.Entry<YearMonth, Long> mes : biblioteca.contarPrestamosPorMes(desde, hasta).entrySet()) {
+			Json.campo(sb, mes.getKey().toString(), (Object) mes.getValue());
+		}
+		sb.append("},\"tipos\":{");
+		for (Map.Entry<TipoRecurso, Long> tipo : biblioteca.contarPrestamosPorTipo(desde, hasta).entrySet()) {
+			Json.campo(sb, tipo.getKey().name(), (Object) tipo.getValue());
+		}
+		sb.append("},\"usuarios\":[");
+		for (Map.Entry<String, Long> usuario : biblioteca.getUsuariosConMasPrestamos(desde, hasta, limite)) {
+			if (sb.charAt(sb.length() - 1) != '[') sb.append(',');
+			sb.append('{');
+			Json.campo(sb, "usuario", usuario.getKey());
+			Json.campo(sb, "prestamos", (Object) usuario.getValue());
+			sb.append('}');
+		}
+		return ok(200, sb.append("]}"));
+	}
+
+	private Respuesta recuentos(String metodo, String[] segmentos, Map<String, String> parametros, String cuerpo) {
+		if (segmentos.length != 0) return error(404, "Ruta no encontrada");
+		if (!metodo.equals("GET")) return metodoNoPermitido();
+		StringBuilder sb = new StringBuilder("{");
+		Json.campo(sb, "total", (Object) biblioteca.contarRecursos(null, null));
+		for (EstadoRecurso estado : EstadoRecurso.values()) {
+			sb.append(',');
+			Json.cadena(sb, estado.name());
+			sb.append(":{");
+			Json.campo(sb, "total", (Object) biblioteca.contarRecursos(estado, null));
+			for (TipoRecurso tipo : TipoRecurso.values()) {
+				Json.campo(sb, tipo.name(), (Object) biblioteca.contarRecursos(estado, tipo));
+			}
+			sb.append('}');
+		}
+		return ok(200, sb.append('}'));
+	}
+
+	private Respuesta estadisticas(String metodo, String[] segmentos, Map<String, String> parametros, String cuerpo) {
+		if (segmentos.length != 0) return error(404, "Ruta no encontrada");
+		if (!metodo.equals("GET")) return metodoNoPermitido();
+		int limite = entero(parametros, "limite", LIMITE_POR_DEFECTO);
+		EstadisticasCirculacion estadisticas = biblioteca.getEstadisticas();
+		LocalDate hoy = LocalDate.now();
+		StringBuilder sb = new StringBuilder("{");
+		Json.campo(sb, "dias", (Object) estadisticas.getDiasVentana());
+		for (TipoRecurso tipo : TipoRecurso.values()) {
+			sb.append(',');
+			Json.cadena(sb, tipo.name());
+			sb.append(":{");
+			Json.campo(sb, "prestamos", (Object) estadisticas.getPrestamos(tipo));
+			Json.campo(sb, "devoluciones", (Object) estadisticas.getDevoluciones(tipo));
+			Json.campo(sb, "recientes", (Object) estadisticas.getPrestamosRecientes(tipo, hoy));
+			sb.append('}');
+		}
+		frecuentes(sb, "recursos", estadisticas.getRecursosMasPrestados(limite));
+		frecuentes(sb, "recursosRecientes", estadisticas.getRecursosMasPrestadosRecientes(limite, hoy));
+		frecuentes(sb, "usuarios", estadisticas.getUsuariosMasActivos(limite));
+		frecuentes(sb, "usuariosRecientes", estadisticas.getUsuariosMasActivosRecientes(limite, hoy));
+		return ok(200, sb.append('}'));
+	}
+
+	private Respuesta replicacion(String metodo, String[] segmentos, Map<String, String> parametros, String cuerpo) {
+		if (segmentos.length != 0) return error(404, "Ruta no encontrada");
+		if (!metodo.equals("GET")) return metodoNoPermitido();
+		StringBuilder sb = new StringBuilder("{");
+		ServidorReplicacion servidorReplicacion = biblioteca.getServidorReplicacion();
+		ClienteReplicacion cliente = biblioteca.getClienteReplicacion();
+		if (servidorReplicacion != null) {
+			RegistroReplicacion registro = servidorReplicacion.getRegistro();
+			Json.campo(sb, "rol", "primario");
+			Json.campo(sb, "epoca", Long.toHexString(registro.getEpoca()));
+			Json.campo(sb, "posicion", (Object) registro.getUltima());
+			Json.campo(sb, "puerto", (Object) servidorReplicacion.getPuerto());
+			sb.append(",\"replicas\":[");
+			for (EstadoSeguidor seguidor : servidorReplicacion.getSeguidores()) {
+				if (sb.charAt(sb.length() - 1) != '[') sb.append(',');
+				sb.append('{');
+				Json.campo(sb, "direccion", seguidor.getDireccion());
+				Json.campo(sb, "posicion", (Object) seguidor.getPosicionConfirmada());
+				Json.campo(sb, "retrasoRegistros", (Object) seguidor.getRetrasoRegistros());
+				Json.campo(sb, "retrasoMs", (Object) seguidor.getRetrasoMs());
+				Json.campo(sb, "instantaneas", (Object) seguidor.getInstantaneas());
+				sb.append('}');
+			}
+			sb.append(']');
+		} else if (cliente != null) {
+			Json.campo(sb, "rol", "replica");
+			Json.campo(sb, "conectada", (Object) cliente.isConectado());
+			Json.campo(sb, "epoca", Long.toHexString(cliente.getEpoca()));
+			Json.campo(sb, "posicion", (Object) cliente.getPosicionAplicada());
+			Json.campo(sb, "posicionPrimario", (Object) cliente.getPosicionPrimario());
+			Json.campo(sb, "retrasoRegistros", (Object) cliente.getRetrasoRegistros());
+			Json.campo(sb, "retrasoMs", (Object) cliente.getRetrasoMs());
+			Json.campo(sb, "instantaneas", (Object) cliente.getInstantaneasCargadas());
+			Json.campo(sb, "registrosAplicados", (Object) cliente.getRegistrosAplicados());
+		} else {
+			Json.campo(sb, "rol", "ninguno");
+		}
+		return ok(200, sb.append('}'));
+	}
+
+	private static void frecuentes(StringBuilder sb, String nombre, List<Frecuente> lista) {
+		sb.append(',');
+		Json.cadena(sb, nombre);
+		sb.append(":[");
+		for (Frecuente f : lista) {
+			if (sb.charAt(sb.length() - 1) != '[') sb.append(',');
+			sb.append('{');
+			Json.campo(sb, "id", f.getClave());
+			Json.campo(sb, "prestamos", (Object) f.getCuenta());
+			Json.campo(sb, "error", (Object) f.getError());
+			sb.append('}');
+		}
+		sb.append(']');
+	}
+
+	private static StringBuilder recurso(StringBuilder sb, RecursoBiblioteca recurso) {
+		sb.append('{');
+		Json.campo(sb, "id", recurso.getId());
+		Json.campo(sb, "tipo", recurso.getTipo().name());
+		Json.campo(sb, "titulo", recurso.getTitulo());
+		Json.campo(sb, "estado", recurso.getEstado().name());
+		if (recurso instanceof Libro) {
+			Json.campo(sb, "autor", ((Libro) recurso).getAutor());
+		} else if (recurso instanceof Revista) {
+			Json.campo(sb, "numeroEdicion", (Object) ((Revista) recurso).getNumeroEdicion());
+		} else if (recurso instanceof DVD) {
+			Json.campo(sb, "duracionMinutos", (Object) ((DVD) recurso).getDuracionMinutos());
+		}
+		return sb.append('}');
+	}
+
+	private StringBuilder reserva(StringBuilder sb, Reserva reserva) {
+		sb.append('{');
+		Json.campo(sb, "recurso", reserva.getRecurso().getId());
+		Json.campo(sb, "usuario", reserva.getUsuario().getId());
+		Json.campo(sb, "estado", reserva.getEstado().name());
+		Json.campo(sb, "posicion", (Object) biblioteca.getPosicionEnEspera(reserva));
+		Instant fin = reserva.getFinRetencion();
+		if (fin != null) Json.campo(sb, "hasta", fin.toString());
+		return sb.append('}');
+	}
+
+	private static StringBuilder prestamos(Collection<Prestamo> prestamos, int limite) {
+		StringBuilder sb = new StringBuilder("[");
+		int n = 0;
+		for (Prestamo prestamo : prestamos) {
+			if (n++ == limite) break;
+			separar(sb);
+			sb.append('{');
+			Json.campo(sb, "recurso", prestamo.getRecurso().getId());
+			Json.campo(sb, "titulo", prestamo.getRecurso().getTitulo());
+			Json.campo(sb, "usuario", prestamo.getUsuario().getId());
+			Json.campo(sb, "nombre", prestamo.getUsuario().getNombre());
+			Json.campo(sb, "fecha", prestamo.getFechaPrestamo().toString());
+			Json.campo(sb, "vence", prestamo.getFechaVencimiento().toString());
+			Json.campo(sb, "devuelto", (Object) prestamo.isDevuelto());
+			sb.append('}');
+		}
+		return sb.append(']');
+	}
+
+	private static Respuesta resultado(int estado, ResultadoOperacion resultado) {
+		StringBuilder sb = new StringBuilder("{");
+		Json.campo(sb, "resultado", resultado.name());
+		return ok(estado, sb.append('}'));
+	}
+
+	private static Respuesta resultados(List<ResultadoOperacion> resultados) {
+		StringBuilder sb = new StringBuilder("{\"resultados\":[");
+		for (int i = 0; i < resultados.size(); i++) {
+			if (i > 0) sb.append(',');
+			Json.cadena(sb, resultados.get(i).name());
+		}
+		return ok(200, sb.append("]}"));
+	}
+
+	private static void separar(StringBuilder sb) {
+		if (sb.length() > 1) sb.append(',');
+	}
+
+	private static Respuesta ok(int estado, StringBuilder cuerpo) {
+		return new Respuesta(estado, cuerpo.toString());
+	}
+
+	private static Respuesta error(int estado, String mensaje) {
+		StringBuilder sb = new StringBuilder("{");
+		Json.campo(sb, "error", mensaje);
+		return new Respuesta(estado, sb.append('}').toString());
+	}
+
+	private static Respuesta metodoNoPermitido() {
+		return error(405, "Método no permitido");
+	}
+
+	// ---------------------------------------------------------------- entrada
+
+	static RecursoBiblioteca crearRecurso(Map<String, String> datos) {
+		String tipo = requerido(datos, "tipo");
+		String id = requerido(datos, "id");
+		String titulo = requerido(datos, "titulo");
+		TipoRecurso tipoRecurso;
+		try {
+			tipoRecurso = TipoRecurso.valueOf(tipo.toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Tipo de recurso desconocido: " + tipo);
+		}
+		switch (tipoRecurso) {
+			case LIBRO:
+				return new Libro(id, titulo, requerido(datos, "autor"));
+			case REVISTA:
+				return new Revista(id, titulo, entero(datos, "numeroEdicion"));
+			default:
+				return new DVD(id, titulo, entero(datos, "duracionMinutos"));
+		}
+	}
+
+	/**
+	 * Lee el cuerpo completo (también cuando no se usa, para poder reutilizar la conexión).
+	 *
+	 * @return El cuerpo como texto, o null si supera {@link #MAXIMO_CUERPO}
+	 */
+	private static String leerCuerpo(HttpExchange intercambio) throws IOException {
+		try (InputStream entrada = intercambio.getRequestBody()) {
+			// Las consultas no traen cuerpo; así no se reserva el buffer de lectura
+			if ("0".equals(intercambio.getRequestHeaders().getFirst("Content-Length"))) return "";
+			byte[] bytes = entrada.readNBytes(MAXIMO_CUERPO + 1);
+			if (bytes.length > MAXIMO_CUERPO) return null;
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+
+	private static boolean esLista(String cuerpo) {
+		return cuerpo.stripLeading().startsWith("[");
+	}
+
+	private static String[] segmentos(String ruta) {
+		List<String> segmentos = new ArrayList<>();
+		for (String segmento : ruta.split("/")) {
+			if (!segmento.isEmpty()) segmentos.add(URLDecoder.decode(segmento, StandardCharsets.UTF_8));
+		}
+		return segmentos.toArray(new String[0]);
+	}
+
+	private static Map<String, String> parametros(String consulta) {
+		Map<String, String> parametros = new HashMap<>();
+		if (consulta == null) return parametros;
+		for (String par : consulta.split("&")) {
+			int igual = par.indexOf('=');
+			String nombre = igual < 0 ? par : par.substring(0, igual);
+			String valor = igual < 0 ? "" : par.substring(igual + 1);
+			parametros.put(URLDecoder.decode(nombre, StandardCharsets.UTF_8), URLDecoder.decode(valor, StandardCharsets.UTF_8));
+		}
+		return parametros;
+	}
+
+	/**
+	 * @return El campo, que no puede faltar ni tener caracteres de control (saltos de línea incluidos)
+	 */
+	private static String requerido(Map<String, String> datos, String campo) {
+		String valor = datos.get(campo);
+		if (valor == null || valor.isEmpty()) throw new IllegalArgumentException("Falta el campo '" + campo + "'");
+		if (FormatoRegistro.tieneControl(valor)) {
+			throw new IllegalArgumentException("El campo '" + campo + "' contiene caracteres de control");
+		}
+		return valor;
+	}
+
+	private static int entero(Map<String, String> datos, String campo) {
+		String valor = requerido(datos, campo);
+		try {
+			return Integer.parseInt(valor);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("El campo '" + campo + "' debe ser un número entero");
+		}
+	}
+
+	private static int entero(Map<String, String> parametros, String nombre, int porDefecto) {
+		if (!parametros.containsKey(nombre)) return porDefecto;
+		int valor = entero(parametros, nombre);
+		if (valor < 0) throw new IllegalArgumentException("El parámetro '" + nombre + "' no puede ser negativo");
+		return valor;
+	}
+
+	/**
+	 * @return El valor del parámetro (sin distinguir mayúsculas), o null si no viene
+	 */
+	/**
+	 * @return Época y posición de una cabecera {@code época:posición}, con la época en hexadecimal
+	 */
+	private static long[] posicion(String valor) {
+		int dos = valor.indexOf(':');
+		try {
+			if (dos < 0) throw new NumberFormatException();
+			return new long[] {Long.parseUnsignedLong(valor.substring(0, dos).trim(), 16),
+					Long.parseLong(valor.substring(dos + 1).trim())};
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Cabecera " + CABECERA_POSICION + " no válida (época:posición): " + valor);
+		}
+	}
+
+	private static <E extends Enum<E>> E enumerado(Map<String, String> parametros, String nombre, Class<E> clase) {
+		String valor = parametros.get(nombre);
+		if (valor == null || valor.isEmpty()) return null;
+		try {
+			return Enum.valueOf(clase, valor.toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Valor desconocido para '" + nombre + "': " + valor);
+		}
+	}
+
+	private static LocalDate fecha(Map<String, String> parametros, String nombre, LocalDate porDefecto) {
+		String valor = parametros.get(nombre);
+		if (valor == null || valor.isEmpty()) return porDefecto;
+		try {
+			return LocalDate.parse(valor);
+		} catch (DateTimeParseException e) {
+			throw new IllegalArgumentException("El parámetro '" + nombre + "' debe tener el formato AAAA-MM-DD");
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package biblioteca.servidor;
+
+import biblioteca.enums.EstadoRecurso;
+import biblioteca.enums.ResultadoOperacion;
+import biblioteca.model.DVD;
+import biblioteca.model.Libro;
+import biblioteca.model.RecursoBiblioteca;
+import biblioteca.model.Revista;
+import biblioteca.model.Usuario;
+import biblioteca.sucursales.Sucursal;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sucursal en otro proceso (o en otra máquina) que se maneja a través de la API HTTP
+ * de su {@link ServidorBiblioteca}, arrancado con {@code Main servidor <puerto>}.
+ *
+ * El cliente HTTP mantiene las conexiones abiertas entre peticiones y se puede usar
+ * desde muchos hilos a la vez. Los recursos y usuarios que devuelve son copias
+ * leídas del JSON: cambiarlos no cambia nada en la sucursal.
+ */
+public class SucursalRemota implements Sucursal {
+
+	private static final Duration ESPERA_CONEXION = Duration.ofSeconds(5);
+	private static final Duration ESPERA_RESPUESTA = Duration.ofSeconds(30);
+
+	private final String nombre;
+	private final String base;
+	private final HttpClient cliente;
+
+	/**
+	 * @param host   Máquina del servidor de la sucursal
+	 * @param puerto Puerto del servidor; el nombre de la sucursal es host:puerto
+	 */
+	public SucursalRemota(String host, int puerto) {
+		this(host + ":" + puerto, host, puerto);
+	}
+
+	public SucursalRemota(String nombre, String host, int puerto) {
+		this.nombre = nombre;
+		this.base = "http://" + host + ":" + puerto;
+		this.cliente = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_1_1)
+				.connectTimeout(ESPERA_CONEXION)
+				.build();
+	}
+
+	@Override
+	public String getNombre() {
+		return nombre;
+	}
+
+	@Override
+	public boolean agregarUsuario(Usuario usuario) throws IOException {
+		StringBuilder sb = new StringBuilder("{");
+		Json.campo(sb, "id", usuario.getId());
+		Json.campo(sb, "nombre", usuario.getNombre());
+		return alta(enviar("POST", "/usuarios", sb.append('}').toString()));
+	}
+
+	@Override
+	public boolean agregarRecurso(RecursoBiblioteca recurso) throws IOException {
+		StringBuilder sb = new StringBuilder("{");
+		Json.campo(sb, "tipo", recurso.getTipo().name());
+		Json.campo(sb, "id", recurso.getId());
+		Json.campo(sb, "titulo", recurso.getTitulo());
+		if (recurso instanceof Libro) {
+			Json.campo(sb, "autor", ((Libro) recurso).getAutor());
+		} else if (recurso instanceof Revista) {
+			Json.campo(sb, "numeroEdicion", (Object) ((Revista) recurso).getNumeroEdicion());
+		} else if (recurso instanceof DVD) {
+			Json.campo(sb, "duracionMinutos", (Object) ((DVD) recurso).getDuracionMinutos());
+		}
+		return alta(enviar("POST", "/recursos", sb.append('}').toString()));
+	}
+
+	@Override
+	public Usuario getUsuario(String id) throws IOException {
+		HttpResponse<String> respuesta = enviar("GET", "/usuarios/" + codificar(id), null);
+		if (respuesta.statusCode() == 404) return null;
+		return usuario(Json.leerObjeto(cuerpo(respuesta, 200)));
+	}
+
+	@Override
+	public RecursoBiblioteca getRecurso(String id) throws IOException {
+		HttpResponse<String> respuesta = enviar("GET", "/recursos/" + codificar(id), null);
+		if (respuesta.statusCode() == 404) return null;
+		RecursoBiblioteca recurso = recurso(Json.leerObjeto(cuerpo(respuesta, 200)));
+		return recurso.getEstado() == EstadoRecurso.RETIRADO ? null : recurso;
+	}
+
+	@Override
+	public ResultadoOperacion prestar(String idRecurso, String idUsuario) throws IOException {
+		StringBuilder sb = new StringBuilder("{");
+		Json.campo(sb, "recurso", idRecurso);
+		Json.campo(sb, "usuario", idUsuario);
+		return resultado(enviar("POST", "/prestamos", sb.append('}').toString()));
+	}
+
+	@Override
+	public ResultadoOperacion devolver(String idRecurso) throws IOException {
+		StringBuilder sb = new StringBuilder("{");
+		Json.campo(sb, "recurso", idRecurso);
+		return resultado(enviar("POST", "/devoluciones", sb.append('}').toString()));
+	}
+
+	@Override
+	public boolean retirarRecurso(String idRecurso) throws IOException {
+		HttpResponse<String> respuesta = enviar("DELETE", "/recursos/" + codificar(idRecurso), null);
+		if (respuesta.statusCode() == 404 || respuesta.statusCode() == 409) return false;
+		cuerpo(respuesta, 200);
+		return true;
+	}
+
+	@Override
+	public List<RecursoBiblioteca> getRecursosPorAlta(int desde, int limite) throws IOException {
+		String cuerpo = cuerpo(enviar("GET", "/recursos?desde=" + desde + "&limite=" + limite, null), 200);
+		List<RecursoBiblioteca> recursos = new ArrayList<>();
+		for (Map<String, String> datos : Json.leerLista(cuerpo)) {
+			recursos.add(recurso(datos));
+		}
+		return recursos;
+	}
+
+	@Override
+	public List<Usuario> getUsuariosPorAlta(int desde, int limite) throws IOException {
+		String cuerpo = cuerpo(enviar("GET", "/usuarios?desde=" + desde + "&limite=" + limite, null), 200);
+		List<Usuario> usuarios = new ArrayList<>();
+		for (Map<String, String> datos : Json.leerLista(cuerpo)) {
+			usuarios.add(usuario(datos));
+		}
+		return usuarios;
+	}
+
+	@Override
+	public void close() {
+		cliente.close();
+	}
+
+	@Override
+	public String toString() {
+		return nombre;
+	}
+
+	// ---------------------------------------------------------------- internos
+
+	private HttpResponse<String> enviar(String metodo, String ruta, String cuerpo) throws IOException {
+		HttpRequest.Builder peticion = HttpRequest.newBuilder(URI.create(base + ruta)).timeout(ESPERA_RESPUESTA);
+		if (cuerpo == null) {
+			peticion.method(metodo, HttpRequest.BodyPublishers.noBody());
+		} else {
+			peticion.header("Content-Type", "application/json")
+					.method(metodo, HttpRequest.BodyPublishers.ofString(cuerpo, StandardCharsets.UTF_8));
+		}
+		try {
+			return cliente.send(peticion.build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Petición interrumpida: " + metodo + " " + ruta);
+		}
+	}
+
+	/**
+	 * @return El cuerpo de la respuesta si trae el código esperado
+	 * @throws IOException con el código y el cuerpo si trae otro
+	 */
+	private String cuerpo(HttpResponse<String> respuesta, int esperado) throws IOException {
+		if (respuesta.statusCode() != esperado) {
+			throw new IOException("La sucursal " + nombre + " respondió " + respuesta.statusCode()
+					+ " a " + respuesta.request().method() + " " + respuesta.request().uri().getPath()
+					+ ": " + respuesta.body());
+		}
+		return respuesta.body();
+	}
+
+	/**
+	 * @return true si se dio de alta (201); false si ya existía (409)
+	 */
+	private boolean alta(HttpResponse<String> respuesta) throws IOException {
+		if (respuesta.statusCode() == 409) return false;
+		cuerpo(respuesta, 201);
+		return true;
+	}
+
+	/**
+	 * Los préstamos y devoluciones responden con el resultado también cuando no se
+	 * hacen (404 o 409).
+	 */
+	private ResultadoOperacion resultado(HttpResponse<String> respuesta) throws IOException {
+		int codigo = respuesta.statusCode();
+		String resultado = codigo == 200 || codigo == 201 || codigo == 404 || codigo == 409
+				? Json.leerObjeto(respuesta.body()).get("resultado") : null;
+		if (resultado == null) {
+			throw new IOException("La sucursal " + nombre + " respondió " + codigo + " sin resultado: " + respuesta.body());
+		}
+		return ResultadoOperacion.valueOf(resultado);
+	}
+
+	private static Usuario usuario(Map<String, String> datos) {
+		return new Usuario(datos.get("id"), datos.get("nombre"));
+	}
+
+	private static RecursoBiblioteca recurso(Map<String, String> datos) {
+		RecursoBiblioteca recurso = ServidorBiblioteca.crearRecurso(datos);
+		recurso.setEstado(EstadoRecurso.valueOf(datos.get("estado")));
+		return recurso;
+	}
+
+	private static String codificar(String segmento) {
+		return URLEncoder.encode(segmento, StandardCharsets.UTF_8).replace("+", "%20");
+	}
+}
@@ -0,0 +1,87 @@
+package biblioteca.sucursales;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Anillo de hash consistente que reparte claves (IDs) entre sucursales.
+ *
+ * Cada sucursal ocupa {@value BibliotecaSucursales#NODOS_VIRTUALES} puntos del
+ * anillo, calculados a partir de su nombre, y cada clave es de la sucursal del
+ * primer punto que encuentra al avanzar desde su propio hash. Como los puntos de
+ * una sucursal no dependen de las demás, añadir una sucursal solo le pasa las
+ * claves que caen en sus tramos (alrededor de 1/n del total) y el resto sigue donde
+ * estaba; los nodos virtuales hacen que esos tramos estén repartidos por todo el
+ * anillo y que cada sucursal reciba una parte parecida.
+ *
+ * Es inmutable: al cambiar las sucursales se construye otro.
+ *
+ * @param <T> Tipo de las sucursales
+ */
+final class AnilloHash<T> {
+
+	/** Posiciones de los puntos, de menor a mayor */
+	private final long[] puntos;
+
+	/** Sucursal de cada punto */
+	private final Object[] duenas;
+
+	/**
+	 * @param sucursales     Sucursales del anillo (al menos una)
+	 * @param nombres        Nombre de cada sucursal, en el mismo orden
+	 * @param nodosVirtuales Puntos por sucursal
+	 */
+	AnilloHash(List<T> sucursales, List<String> nombres, int nodosVirtuales) {
+		if (sucursales.isEmpty()) throw new IllegalArgumentException("El anillo necesita al menos una sucursal");
+		Map<Long, T> ordenados = new TreeMap<>();
+		for (int i = 0; i < sucursales.size(); i++) {
+			for (int v = 0; v < nodosVirtuales; v++) {
+				// Si dos puntos coinciden (muy improbable) gana siempre el de la misma sucursal
+				ordenados.putIfAbsent(hash(nombres.get(i) + "#" + v), sucursales.get(i));
+			}
+		}
+		puntos = new long[ordenados.size()];
+		duenas = new Object[ordenados.size()];
+		int n = 0;
+		for (Map.Entry<Long, T> punto : ordenados.entrySet()) {
+			puntos[n] = punto.getKey();
+			duenas[n++] = punto.getValue();
+		}
+	}
+
+	/**
+	 * @return Sucursal a la que corresponde la clave
+	 */
+	@SuppressWarnings("unchecked")
+	T duena(String clave) {
+		long h = hash(clave);
+		// Búsqueda binaria del primer punto >= h; después del último se vuelve al primero
+		int bajo = 0;
+		int alto = puntos.length;
+		while (bajo < alto) {
+			int medio = (bajo + alto) >>> 1;
+			if (puntos[medio] < h) bajo = medio + 1; else alto = medio;
+		}
+		return (T) duenas[bajo == puntos.length ? 0 : bajo];
+	}
+
+	/**
+	 * Hash de 64 bits: FNV-1a sobre los caracteres seguido del mezclador final de
+	 * MurmurHash3, que reparte bien los bits aunque las claves solo se diferencien en
+	 * el final (l1, l2, l3...).
+	 */
+	static long hash(String clave) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < clave.length(); i++) {
+			h ^= clave.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
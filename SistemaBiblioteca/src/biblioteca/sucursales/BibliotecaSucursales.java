@@ -0,0 +1,525 @@
+package biblioteca.sucursales;
+
+import biblioteca.enums.EstadoRecurso;
+import biblioteca.enums.ResultadoOperacion;
+import biblioteca.model.DVD;
+import biblioteca.model.Libro;
+import biblioteca.model.RecursoBiblioteca;
+import biblioteca.model.Revista;
+import biblioteca.model.Usuario;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Biblioteca repartida entre varias sucursales, cada una con su propia
+ * {@link biblioteca.model.BibliotecaManager} (en este proceso o en otro).
+ *
+ * Cada recurso y cada usuario tiene una sucursal dueña, que decide un
+ * {@link AnilloHash} a partir de su ID, así que las operaciones de recursos
+ * distintos van a sucursales distintas y no compiten entre sí. El préstamo lo hace
+ * la sucursal del recurso; si el usuario es de otra, se le da de alta allí como
+ * invitado (una copia, que sigue dada de alta en la suya) y se reintenta.
+ *
+ * Al añadir una sucursal el anillo cambia y le corresponde parte de los recursos de
+ * las demás. Un hilo de fondo los recorre por partes y los mueve uno a uno (se
+ * retiran en la sucursal vieja y se da de alta una copia en la nueva) mientras
+ * la biblioteca sigue atendiendo. Mientras dura el reparto, si un recurso no está
+ * en la sucursal que dice el anillo se busca en las demás y se recuerda dónde se
+ * encontró. Los que están prestados o reservados no se pueden mover: siguen en su
+ * sucursal, apuntados como desplazados, y se mueven al devolverlos. Un préstamo que
+ * se cruza con el movimiento de su recurso (retirado ya en la vieja y aún sin alta en
+ * la nueva) no se rechaza: se reintenta en la sucursal donde acabe el recurso. Si el
+ * reparto se detiene por un error, queda en {@link #getErrorReparto()}.
+ *
+ * El enrutado no toma cerrojos: lee el anillo y los desplazados y va directo a la
+ * sucursal. Solo la búsqueda de un recurso que no estaba donde se esperaba y el
+ * movimiento de un recurso se hacen bajo uno de {@value #CERROJOS} cerrojos por ID.
+ *
+ * Los desplazados solo se guardan en memoria. Si se crea el coordinador con
+ * sucursales que ya tienen datos y no se sabe si el reparto terminó, hay que llamar
+ * a {@link #reequilibrar()}.
+ */
+public class BibliotecaSucursales implements Closeable {
+
+	/** Puntos de cada sucursal en el anillo */
+	static final int NODOS_VIRTUALES = 128;
+
+	/** Cerrojos para buscar y mover recursos (potencia de dos) */
+	private static final int CERROJOS = 64;
+
+	/** Recursos o usuarios que pide el reparto a una sucursal de cada vez */
+	private static final int TAMANO_LOTE_REPARTO = 1000;
+
+	/** Reintentos de una operación cuyo recurso cambia de sucursal mientras tanto */
+	private static final int INTENTOS = 6;
+
+	private final List<Sucursal> sucursales = new CopyOnWriteArrayList<>();
+	private volatile AnilloHash<Sucursal> anillo;
+
+	/** Sucursal de los recursos que no están en la suya según el anillo, por ID */
+	private final Map<String, Sucursal> desplazados = new ConcurrentHashMap<>();
+
+	/** Copias de recursos ya retirados en su sucursal vieja que no se pudieron dar de alta en la nueva */
+	private final Map<String, RecursoBiblioteca> pendientes = new ConcurrentHashMap<>();
+
+	private final Object[] cerrojos = new Object[CERROJOS];
+
+	/**
+	 * true desde que cambia el anillo hasta que termina el reparto: mientras tanto
+	 * un recurso puede estar en cualquier sucursal
+	 */
+	private volatile boolean repartiendo;
+	private Thread reparto;
+	private volatile IOException errorReparto;
+
+	/**
+	 * Movimientos de recursos empezados y en curso: una respuesta de una sucursal que
+	 * se cruzó con alguno puede deberse a que el recurso ya no está en ella
+	 */
+	private final AtomicLong movimientosIniciados = new AtomicLong();
+	private final AtomicInteger movimientosEnCurso = new AtomicInteger();
+
+	private final LongAdder recursosMovidos = new LongAdder();
+	private final LongAdder usuariosCopiados = new LongAdder();
+
+	/**
+	 * @param sucursales Sucursales iniciales (al menos una), con nombres distintos
+	 */
+	public BibliotecaSucursales(List<? extends Sucursal> sucursales) {
+		for (Sucursal sucursal : sucursales) {
+			comprobarNombre(sucursal);
+			this.sucursales.add(sucursal);
+		}
+		for (int i = 0; i < CERROJOS; i++) {
+			cerrojos[i] = new Object();
+		}
+		this.anillo = construirAnillo();
+	}
+
+	// ---------------------------------------------------------------- altas y consultas
+
+	/**
+	 * Da de alta un usuario en su sucursal.
+	 *
+	 * @return true si se añadió; false si ya existía
+	 */
+	public boolean agregarUsuario(Usuario usuario) throws IOException {
+		if (repartiendo && getUsuario(usuario.getId()) != null) return false;
+		return anillo.duena(usuario.getId()).agregarUsuario(usuario);
+	}
+
+	/**
+	 * Da de alta un recurso en su sucursal.
+	 *
+	 * @return true si se añadió; false si ya existía
+	 */
+	public boolean agregarRecurso(RecursoBiblioteca recurso) throws IOException {
+		String id = recurso.getId();
+		if (desplazados.containsKey(id) || pendientes.containsKey(id)) return false;
+		if (repartiendo && getRecurso(id) != null) return false;
+		return anillo.duena(id).agregarRecurso(recurso);
+	}
+
+	/**
+	 * @return El usuario, o null si no existe
+	 */
+	public Usuario getUsuario(String id) throws IOException {
+		Sucursal duena = anillo.duena(id);
+		Usuario usuario = duena.getUsuario(id);
+		if (usuario != null || !repartiendo) return usuario;
+		// Durante un reparto puede que aún no se haya copiado a su nueva sucursal
+		for (Sucursal sucursal : sucursales) {
+			if (sucursal == duena) continue;
+			usuario = sucursal.getUsuario(id);
+			if (usuario != null) return usuario;
+		}
+		return null;
+	}
+
+	/**
+	 * @return El recurso, o null si no existe
+	 */
+	public RecursoBiblioteca getRecurso(String id) throws IOException {
+		Sucursal sucursal = sucursalDe(id);
+		for (int intento = 0; intento < INTENTOS; intento++) {
+			RecursoBiblioteca recurso = sucursal.getRecurso(id);
+			if (recurso != null) return recurso;
+			sucursal = localizar(id, sucursal);
+			if (sucursal == null) return null;
+		}
+		return null;
+	}
+
+	/**
+	 * @return Sucursal en la que está ahora el recurso (o en la que se daría de alta)
+	 */
+	public Sucursal getSucursalDe(String idRecurso) {
+		return sucursalDe(idRecurso);
+	}
+
+	// ---------------------------------------------------------------- préstamos
+
+	/**
+	 * Presta un recurso a un usuario, sean o no de la misma sucursal.
+	 *
+	 * @return REALIZADO, NO_DISPONIBLE, o INVALIDO si no existe el recurso o el usuario
+	 */
+	public ResultadoOperacion prestar(String idRecurso, String idUsuario) throws IOException {
+		long marca = marcaMovimientos();
+		Sucursal sucursal = sucursalDe(idRecurso);
+		Usuario usuario = null;
+		for (int intento = 0; intento < INTENTOS; intento++) {
+			ResultadoOperacion resultado = sucursal.prestar(idRecurso, idUsuario);
+			if (resultado == ResultadoOperacion.NO_DISPONIBLE && huboMovimientos(marca)
+					&& sucursal.getRecurso(idRecurso) == null) {
+				// Se retiró para llevarlo a otra sucursal mientras se prestaba: se prueba allí
+				marca = marcaMovimientos();
+				sucursal = localizar(idRecurso, sucursal);
+				if (sucursal == null) return ResultadoOperacion.INVALIDO;
+				continue;
+			}
+			if (resultado != ResultadoOperacion.INVALIDO) return resultado;
+			// Falta el usuario o el recurso en esa sucursal: primero se prueba con el usuario
+			if (usuario == null) {
+				usuario = getUsuario(idUsuario);
+				if (usuario == null) return ResultadoOperacion.INVALIDO;
+			}
+			if (sucursal.agregarUsuario(usuario)) continue;
+			marca = marcaMovimientos();
+			sucursal = localizar(idRecurso, sucursal);
+			if (sucursal == null) return ResultadoOperacion.INVALIDO;
+		}
+		return ResultadoOperacion.INVALIDO;
+	}
+
+	/**
+	 * Devuelve un recurso. Si estaba fuera de su sucursal, se aprovecha para llevarlo a ella.
+	 *
+	 * @return REALIZADO, NO_PRESTADO, o INVALIDO si no existe el recurso
+	 */
+	public ResultadoOperacion devolver(String idRecurso) throws IOException {
+		Sucursal sucursal = sucursalDe(idRecurso);
+		for (int intento = 0; intento < INTENTOS; intento++) {
+			ResultadoOperacion resultado = sucursal.devolver(idRecurso);
+			if (resultado != ResultadoOperacion.INVALIDO) {
+				Sucursal duena = anillo.duena(idRecurso);
+				if (resultado == ResultadoOperacion.REALIZADO && sucursal != duena) {
+					mover(idRecurso, sucursal, duena);
+				}
+				return resultado;
+			}
+			sucursal = localizar(idRecurso, sucursal);
+			if (sucursal == null) return ResultadoOperacion.INVALIDO;
+		}
+		return ResultadoOperacion.INVALIDO;
+	}
+
+	// ---------------------------------------------------------------- sucursales y reparto
+
+	/**
+	 * Añade una sucursal (vacía o no) y empieza a pasarle en segundo plano los
+	 * recursos que le corresponden. Si había un reparto en marcha, antes espera a
+	 * que termine.
+	 *
+	 * @throws IllegalArgumentException si ya hay una sucursal con ese nombre
+	 */
+	public synchronized void agregarSucursal(Sucursal sucursal) throws InterruptedException {
+		comprobarNombre(sucursal);
+		esperarReparto();
+		// Primero se avisa del reparto: quien vea el anillo nuevo sabrá que debe buscar
+		repartiendo = true;
+		sucursales.add(sucursal);
+		anillo = construirAnillo();
+		iniciarReparto();
+	}
+
+	/**
+	 * Recorre todas las sucursales y lleva cada recurso a la suya según el anillo
+	 * actual, en segundo plano. Sirve para terminar un reparto que se interrumpió.
+	 */
+	public synchronized void reequilibrar() throws InterruptedException {
+		esperarReparto();
+		repartiendo = true;
+		iniciarReparto();
+	}
+
+	/**
+	 * Espera a que termine el reparto en marcha, si lo hay.
+	 */
+	public void esperarReparto() throws InterruptedException {
+		Thread hilo;
+		synchronized (this) {
+			hilo = reparto;
+		}
+		if (hilo != null) hilo.join();
+	}
+
+	public boolean isRepartiendo() {
+		return repartiendo;
+	}
+
+	/**
+	 * @return El error que detuvo el último reparto, o null si no lo hubo
+	 */
+	public IOException getErrorReparto() {
+		return errorReparto;
+	}
+
+	public List<Sucursal> getSucursales() {
+		return Collections.unmodifiableList(sucursales);
+	}
+
+	/**
+	 * @return Recursos que están fuera de su sucursal (prestados o reservados al repartir)
+	 */
+	public int getDesplazados() {
+		return desplazados.size();
+	}
+
+	/**
+	 * @return Recursos movidos de sucursal desde que se creó el coordinador
+	 */
+	public long getRecursosMovidos() {
+		return recursosMovidos.sum();
+	}
+
+	/**
+	 * @return Usuarios copiados a su nueva sucursal desde que se creó el coordinador
+	 */
+	public long getUsuariosCopiados() {
+		return usuariosCopiados.sum();
+	}
+
+	/**
+	 * Detiene el reparto en marcha y cierra todas las sucursales.
+	 */
+	@Override
+	public void close() throws IOException {
+		Thread hilo;
+		synchronized (this) {
+			hilo = reparto;
+		}
+		if (hilo != null) {
+			hilo.interrupt();
+			try {
+				hilo.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		IOException error = null;
+		for (Sucursal sucursal : sucursales) {
+			try {
+				sucursal.close();
+			} catch (IOException e) {
+				if (error == null) error = e; else error.addSuppressed(e);
+			}
+		}
+		if (error != null) throw error;
+	}
+
+	// ---------------------------------------------------------------- internos
+
+	private Sucursal sucursalDe(String idRecurso) {
+		Sucursal sucursal = desplazados.get(idRecurso);
+		return sucursal != null ? sucursal : anillo.duena(idRecurso);
+	}
+
+	/**
+	 * Se toma antes de elegir la sucursal de una operación. Se lee primero el número de
+	 * movimientos empezados: un movimiento que ya contaba en él estaba en curso o había
+	 * terminado antes de elegir.
+	 *
+	 * @return Movimientos empezados, o -1 si hay alguno en curso
+	 */
+	private long marcaMovimientos() {
+		long iniciados = movimientosIniciados.get();
+		return movimientosEnCurso.get() > 0 ? -1 : iniciados;
+	}
+
+	/**
+	 * @return true si desde la marca pudo retirarse algún recurso para moverlo
+	 */
+	private boolean huboMovimientos(long marca) {
+		return marca < 0 || movimientosIniciados.get() != marca;
+	}
+
+	private Object cerrojo(String id) {
+		int h = id.hashCode();
+		return cerrojos[(h ^ (h >>> 16)) & (CERROJOS - 1)];
+	}
+
+	/**
+	 * Busca un recurso que no estaba en la sucursal donde se esperaba. Fuera de un
+	 * reparto solo puede estar en su sucursal dueña o en la de desplazados.
+	 *
+	 * La sucursal descartada se vuelve a mirar: un préstamo entre sucursales puede dar
+	 * INVALIDO porque faltaba el usuario, y otro hilo darlo de alta justo después.
+	 *
+	 * @param descartada Sucursal en la que no se encontró
+	 * @return Sucursal en la que está, o null si no existe
+	 */
+	private Sucursal localizar(String id, Sucursal descartada) throws IOException {
+		synchronized (cerrojo(id)) {
+			Sucursal apuntada = desplazados.get(id);
+			if (apuntada != null && apuntada != descartada) return apuntada;
+			Sucursal duena = anillo.duena(id);
+			if (entregarPendiente(id, duena)) return duena;
+			if (apuntada != null) {
+				if (apuntada.getRecurso(id) != null) return apuntada;
+				desplazados.remove(id, apuntada);
+			}
+			if (duena.getRecurso(id) != null) return duena;
+			if (!repartiendo) return null;
+			for (Sucursal otra : sucursales) {
+				if (otra == duena || otra == apuntada) continue;
+				if (otra.getRecurso(id) != null) {
+					desplazados.put(id, otra);
+					return otra;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Lleva un recurso disponible de una sucursal a otra. Si no se puede porque está
+	 * prestado o reservado, queda apuntado como desplazado.
+	 *
+	 * @return true si se movió
+	 */
+	private boolean mover(String id, Sucursal origen, Sucursal destino) throws IOException {
+		synchronized (cerrojo(id)) {
+			RecursoBiblioteca recurso = origen.getRecurso(id);
+			if (recurso == null) {
+				desplazados.remove(id, origen);
+				return false;
+			}
+			movimientosEnCurso.incrementAndGet();
+			movimientosIniciados.incrementAndGet();
+			try {
+				if (!origen.retirarRecurso(id)) {
+					desplazados.put(id, origen);
+					return false;
+				}
+				// Se copia antes de quitarlo de desplazados: si falla el alta queda en pendientes
+				pendientes.put(id, copiar(recurso));
+				desplazados.remove(id, origen);
+				return entregarPendiente(id, destino);
+			} finally {
+				movimientosEnCurso.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Da de alta en su sucursal la copia pendiente de un recurso, si la hay. Se llama
+	 * con el cerrojo del recurso.
+	 *
+	 * @return true si había copia pendiente y se dio de alta
+	 */
+	private boolean entregarPendiente(String id, Sucursal destino) throws IOException {
+		RecursoBiblioteca copia = pendientes.get(id);
+		if (copia == null) return false;
+		if (!destino.agregarRecurso(copia)) {
+			throw new IOException("La sucursal " + destino.getNombre() + " ya tiene el recurso " + id);
+		}
+		pendientes.remove(id);
+		recursosMovidos.increment();
+		return true;
+	}
+
+	private void iniciarReparto() {
+		errorReparto = null;
+		reparto = new Thread(this::repartir, "sucursales-reparto");
+		reparto.setDaemon(true);
+		reparto.start();
+	}
+
+	/**
+	 * Recorre cada sucursal por orden de alta: copia a su sucursal los usuarios que
+	 * ahora son de otra y mueve los recursos.
+	 */
+	private void repartir() {
+		try {
+			for (String id : new ArrayList<>(pendientes.keySet())) {
+				localizar(id, null);
+			}
+			for (Sucursal origen : sucursales) {
+				repartirUsuarios(origen);
+				repartirRecursos(origen);
+			}
+			repartiendo = false;
+		} catch (IOException e) {
+			// Queda a medias: se consulta con getErrorReparto y se termina con reequilibrar
+			errorReparto = e;
+		} catch (InterruptedException e) {
+			// Se está cerrando: el reparto queda a medias
+		}
+	}
+
+	private void repartirUsuarios(Sucursal origen) throws IOException, InterruptedException {
+		for (int desde = 0; ; desde += TAMANO_LOTE_REPARTO) {
+			List<Usuario> lote = origen.getUsuariosPorAlta(desde, TAMANO_LOTE_REPARTO);
+			if (lote.isEmpty()) return;
+			for (Usuario usuario : lote) {
+				Sucursal duena = anillo.duena(usuario.getId());
+				if (duena != origen && duena.agregarUsuario(usuario)) usuariosCopiados.increment();
+			}
+			if (Thread.interrupted()) throw new InterruptedException();
+		}
+	}
+
+	private void repartirRecursos(Sucursal origen) throws IOException, InterruptedException {
+		for (int desde = 0; ; desde += TAMANO_LOTE_REPARTO) {
+			List<RecursoBiblioteca> lote = origen.getRecursosPorAlta(desde, TAMANO_LOTE_REPARTO);
+			if (lote.isEmpty()) return;
+			for (RecursoBiblioteca recurso : lote) {
+				if (recurso.getEstado() == EstadoRecurso.RETIRADO) continue;
+				Sucursal duena = anillo.duena(recurso.getId());
+				if (duena != origen) mover(recurso.getId(), origen, duena);
+			}
+			if (Thread.interrupted()) throw new InterruptedException();
+		}
+	}
+
+	private AnilloHash<Sucursal> construirAnillo() {
+		List<String> nombres = new ArrayList<>(sucursales.size());
+		for (Sucursal sucursal : sucursales) {
+			nombres.add(sucursal.getNombre());
+		}
+		return new AnilloHash<>(new ArrayList<>(sucursales), nombres, NODOS_VIRTUALES);
+	}
+
+	private void comprobarNombre(Sucursal nueva) {
+		for (Sucursal sucursal : sucursales) {
+			if (sucursal.getNombre().equals(nueva.getNombre())) {
+				throw new IllegalArgumentException("Ya hay una sucursal llamada " + nueva.getNombre());
+			}
+		}
+	}
+
+	/**
+	 * Copia de un recurso, disponible, para darla de alta en otra sucursal: cada
+	 * sucursal tiene sus propios objetos.
+	 */
+	private static RecursoBiblioteca copiar(RecursoBiblioteca recurso) {
+		switch (recurso.getTipo()) {
+			case LIBRO:
+				return new Libro(recurso.getId(), recurso.getTitulo(), ((Libro) recurso).getAutor());
+			case REVISTA:
+				return new Revista(recurso.getId(), recurso.getTitulo(), ((Revista) recurso).getNumeroEdicion());
+			default:
+				return new DVD(recurso.getId(), recurso.getTitulo(), ((DVD) recurso).getDuracionMinutos());
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package biblioteca.sucursales;
+
+import biblioteca.enums.ResultadoOperacion;
+import biblioteca.model.RecursoBiblioteca;
+import biblioteca.model.Usuario;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Una sucursal de una biblioteca repartida: una biblioteca completa con su parte
+ * de los recursos y usuarios, en este proceso ({@link SucursalLocal}) o en otro al
+ * que se habla por HTTP ({@link biblioteca.servidor.SucursalRemota}).
+ *
+ * Las operaciones se hacen por ID para que funcionen igual en los dos casos. Un
+ * recurso retirado (entregado a otra sucursal) cuenta como inexistente. Las
+ * excepciones de E/S solo se dan en sucursales remotas.
+ */
+public interface Sucursal extends Closeable {
+
+	/**
+	 * @return Nombre de la sucursal, único en la biblioteca; decide su sitio en el
+	 *         anillo de hash, así que no debe cambiar
+	 */
+	String getNombre();
+
+	/**
+	 * @return true si se añadió; false si ya había un usuario con ese ID
+	 */
+	boolean agregarUsuario(Usuario usuario) throws IOException;
+
+	/**
+	 * @return true si se añadió; false si ya había un recurso con ese ID
+	 */
+	boolean agregarRecurso(RecursoBiblioteca recurso) throws IOException;
+
+	/**
+	 * @return El usuario, o null si no está en esta sucursal
+	 */
+	Usuario getUsuario(String id) throws IOException;
+
+	/**
+	 * @return El recurso, o null si no está en esta sucursal o está retirado
+	 */
+	RecursoBiblioteca getRecurso(String id) throws IOException;
+
+	/**
+	 * @return REALIZADO, NO_DISPONIBLE, o INVALIDO si falta el recurso o el usuario
+	 */
+	ResultadoOperacion prestar(String idRecurso, String idUsuario) throws IOException;
+
+	/**
+	 * @return REALIZADO, NO_PRESTADO, o INVALIDO si falta el recurso
+	 */
+	ResultadoOperacion devolver(String idRecurso) throws IOException;
+
+	/**
+	 * Retira un recurso disponible para entregarlo a otra sucursal.
+	 *
+	 * @return true si se retiró; false si no está, no está disponible o alguien lo espera
+	 * @see biblioteca.model.BibliotecaManager#retirarRecurso(RecursoBiblioteca)
+	 */
+	boolean retirarRecurso(String idRecurso) throws IOException;
+
+	/**
+	 * @return Recursos por orden de alta, retirados incluidos; vacía al pasar del último
+	 * @see biblioteca.model.BibliotecaManager#getRecursosPorAlta(int, int)
+	 */
+	List<RecursoBiblioteca> getRecursosPorAlta(int desde, int limite) throws IOException;
+
+	/**
+	 * @return Usuarios por orden de alta; vacía al pasar del último
+	 */
+	List<Usuario> getUsuariosPorAlta(int desde, int limite) throws IOException;
+}
@@ -0,0 +1,100 @@
+package biblioteca.sucursales;
+
+import biblioteca.enums.EstadoRecurso;
+import biblioteca.enums.ResultadoOperacion;
+import biblioteca.model.BibliotecaManager;
+import biblioteca.model.RecursoBiblioteca;
+import biblioteca.model.Usuario;
+import java.util.List;
+
+/**
+ * Sucursal en el mismo proceso, sobre su propio {@link BibliotecaManager}.
+ */
+public class SucursalLocal implements Sucursal {
+
+	private final String nombre;
+	private final BibliotecaManager biblioteca;
+
+	/**
+	 * @param nombre     Nombre único de la sucursal
+	 * @param biblioteca Biblioteca de la sucursal; pasa a ser de la sucursal, que la
+	 *                   cierra al cerrarse
+	 */
+	public SucursalLocal(String nombre, BibliotecaManager biblioteca) {
+		this.nombre = nombre;
+		this.biblioteca = biblioteca;
+	}
+
+	public BibliotecaManager getBiblioteca() {
+		return biblioteca;
+	}
+
+	@Override
+	public String getNombre() {
+		return nombre;
+	}
+
+	@Override
+	public boolean agregarUsuario(Usuario usuario) {
+		return biblioteca.agregarUsuario(usuario);
+	}
+
+	@Override
+	public boolean agregarRecurso(RecursoBiblioteca recurso) {
+		return biblioteca.agregarRecurso(recurso);
+	}
+
+	@Override
+	public Usuario getUsuario(String id) {
+		return biblioteca.getUsuario(id);
+	}
+
+	@Override
+	public RecursoBiblioteca getRecurso(String id) {
+		RecursoBiblioteca recurso = biblioteca.getRecurso(id);
+		return recurso == null || recurso.getEstado() == EstadoRecurso.RETIRADO ? null : recurso;
+	}
+
+	@Override
+	public ResultadoOperacion prestar(String idRecurso, String idUsuario) {
+		RecursoBiblioteca recurso = biblioteca.getRecurso(idRecurso);
+		Usuario usuario = biblioteca.getUsuario(idUsuario);
+		if (recurso == null || usuario == null) return ResultadoOperacion.INVALIDO;
+		if (biblioteca.prestar(recurso, usuario)) return ResultadoOperacion.REALIZADO;
+		return recurso.getEstado() == EstadoRecurso.RETIRADO ? ResultadoOperacion.INVALIDO : ResultadoOperacion.NO_DISPONIBLE;
+	}
+
+	@Override
+	public ResultadoOperacion devolver(String idRecurso) {
+		RecursoBiblioteca recurso = biblioteca.getRecurso(idRecurso);
+		if (recurso == null) return ResultadoOperacion.INVALIDO;
+		if (biblioteca.devolver(recurso)) return ResultadoOperacion.REALIZADO;
+		return recurso.getEstado() == EstadoRecurso.RETIRADO ? ResultadoOperacion.INVALIDO : ResultadoOperacion.NO_PRESTADO;
+	}
+
+	@Override
+	public boolean retirarRecurso(String idRecurso) {
+		RecursoBiblioteca recurso = biblioteca.getRecurso(idRecurso);
+		return recurso != null && biblioteca.retirarRecurso(recurso);
+	}
+
+	@Override
+	public List<RecursoBiblioteca> getRecursosPorAlta(int desde, int limite) {
+		return biblioteca.getRecursosPorAlta(desde, limite);
+	}
+
+	@Override
+	public List<Usuario> getUsuariosPorAlta(int desde, int limite) {
+		return biblioteca.getUsuariosPorAlta(desde, limite);
+	}
+
+	@Override
+	public void close() {
+		biblioteca.cerrar();
+	}
+
+	@Override
+	public String toString() {
+		return nombre;
+	}
+}
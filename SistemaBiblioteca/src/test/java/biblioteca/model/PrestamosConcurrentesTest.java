@@ -0,0 +1,204 @@
+package biblioteca.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import biblioteca.enums.EstadoRecurso;
+import biblioteca.enums.ResultadoOperacion;
+import biblioteca.enums.TipoRecurso;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Préstamos y devoluciones concurrentes sobre un catálogo pequeño.
+ *
+ * Cada transición se aplica con el cerrojo de su franja ({@code synchronized} sobre
+ * uno de los cerrojos repartidos por ID de recurso): dos hilos que prestan o devuelven
+ * el mismo recurso se ordenan en ese cerrojo, y los de recursos de franjas distintas
+ * no se esperan. Estas pruebas hacen competir a muchos hilos por los mismos recursos
+ * y comprueban que ninguno se presta dos veces a la vez y que no se pierde ninguna
+ * devolución, ni sueltos ni por lotes.
+ */
+class PrestamosConcurrentesTest {
+
+	private static final int HILOS = 8;
+	private static final int RECURSOS = 16;
+	private static final int OPERACIONES = 20_000;
+
+	/** Recursos que retiene cada hilo antes de devolver */
+	private static final int RETENIDOS = 3;
+
+	private BibliotecaManager biblioteca;
+	private Usuario[] usuarios;
+
+	@BeforeEach
+	void crear() {
+		biblioteca = new BibliotecaManager();
+		for (int i = 0; i < RECURSOS; i++) {
+			biblioteca.agregarRecurso(new Libro("L" + i, "Titulo " + i, "Autor " + i));
+		}
+		usuarios = new Usuario[HILOS];
+		for (int h = 0; h < HILOS; h++) {
+			usuarios[h] = new Usuario("U" + h, "Usuario " + h);
+			biblioteca.agregarUsuario(usuarios[h]);
+		}
+	}
+
+	@AfterEach
+	void cerrar() {
+		biblioteca.cerrar();
+	}
+
+	@Test
+	void ningunRecursoSePrestaDosVecesNiSePierdenDevoluciones() throws InterruptedException {
+		AtomicIntegerArray ocupantes = new AtomicIntegerArray(RECURSOS);
+		LongAdder prestamos = new LongAdder();
+		LongAdder devoluciones = new LongAdder();
+		List<String> fallos = Collections.synchronizedList(new ArrayList<>());
+
+		ejecutar(h -> {
+			Usuario usuario = usuarios[h];
+			ThreadLocalRandom azar = ThreadLocalRandom.current();
+			Queue<Integer> retenidos = new ArrayDeque<>();
+			for (int i = 0; i < OPERACIONES; i++) {
+				if (retenidos.size() == RETENIDOS) {
+					devolver(retenidos, i % 4 == 0, ocupantes, devoluciones, fallos);
+					continue;
+				}
+				int r = azar.nextInt(RECURSOS);
+				boolean concedido = i % 5 == 0
+						? biblioteca.prestarLote(Collections.singletonList(new SolicitudPrestamo(recurso(r), usuario)))
+								.get(0) == ResultadoOperacion.REALIZADO
+						: biblioteca.prestar(recurso(r), usuario);
+				if (!concedido) continue;
+				prestamos.increment();
+				if (ocupantes.incrementAndGet(r) != 1) fallos.add("L" + r + " prestado a dos usuarios a la vez");
+				Prestamo activo = biblioteca.getPrestamoActivo("L" + r);
+				if (activo == null || activo.getUsuario() != usuario) {
+					fallos.add("el préstamo abierto de L" + r + " no es de " + usuario.getId());
+				}
+				retenidos.add(r);
+			}
+			while (!retenidos.isEmpty()) devolver(retenidos, false, ocupantes, devoluciones, fallos);
+		});
+
+		assertEquals(List.of(), fallos);
+		assertTrue(prestamos.sum() > 0, "ningún préstamo concedido");
+		assertEquals(prestamos.sum(), devoluciones.sum(), "préstamos concedidos y devoluciones aceptadas");
+		long prestamosEstadisticas = 0;
+		long devolucionesEstadisticas = 0;
+		for (TipoRecurso tipo : TipoRecurso.values()) {
+			prestamosEstadisticas += biblioteca.getEstadisticas().getPrestamos(tipo);
+			devolucionesEstadisticas += biblioteca.getEstadisticas().getDevoluciones(tipo);
+		}
+		assertEquals(prestamos.sum(), prestamosEstadisticas, "préstamos según las estadísticas");
+		assertEquals(devoluciones.sum(), devolucionesEstadisticas, "devoluciones según las estadísticas");
+		comprobarTodoDevuelto();
+	}
+
+	@Test
+	void cadaPrestamoSeDevuelveUnaSolaVez() throws InterruptedException {
+		LongAdder devoluciones = new LongAdder();
+		int rondas = 500;
+		for (int ronda = 0; ronda < rondas; ronda++) {
+			for (int r = 0; r < RECURSOS; r++) {
+				assertTrue(biblioteca.prestar(recurso(r), usuarios[r % HILOS]));
+			}
+			// Todos los hilos intentan devolver todos los recursos a la vez
+			ejecutar(h -> {
+				for (int r = 0; r < RECURSOS; r++) {
+					int elegido = (r + h) % RECURSOS;
+					boolean devuelto = h % 2 == 0
+							? biblioteca.devolver(recurso(elegido))
+							: biblioteca.devolverLote(Collections.singletonList(recurso(elegido)))
+									.get(0) == ResultadoOperacion.REALIZADO;
+					if (devuelto) devoluciones.increment();
+				}
+			});
+		}
+		assertEquals((long) rondas * RECURSOS, devoluciones.sum(), "devoluciones aceptadas");
+		comprobarTodoDevuelto();
+	}
+
+	/** Cuerpo de uno de los hilos de prueba */
+	private interface Trabajo {
+		void ejecutar(int hilo);
+	}
+
+	/**
+	 * Lanza {@value #HILOS} hilos que empiezan a la vez y espera a que terminen.
+	 */
+	private static void ejecutar(Trabajo trabajo) throws InterruptedException {
+		CountDownLatch salida = new CountDownLatch(1);
+		List<Throwable> errores = Collections.synchronizedList(new ArrayList<>());
+		List<Thread> hilos = new ArrayList<>();
+		for (int h = 0; h < HILOS; h++) {
+			int hilo = h;
+			Thread t = new Thread(() -> {
+				try {
+					salida.await();
+					trabajo.ejecutar(hilo);
+				} catch (Throwable e) {
+					errores.add(e);
+				}
+			}, "prueba-" + h);
+			t.start();
+			hilos.add(t);
+		}
+		salida.countDown();
+		for (Thread t : hilos) t.join();
+		assertEquals(List.of(), errores);
+	}
+
+	/**
+	 * Devuelve el recurso retenido más antiguo, o todos los retenidos en un lote.
+	 */
+	private void devolver(Queue<Integer> retenidos, boolean enLote, AtomicIntegerArray ocupantes,
+			LongAdder devoluciones, List<String> fallos) {
+		List<Integer> elegidos = new ArrayList<>();
+		if (enLote) {
+			elegidos.addAll(retenidos);
+			retenidos.clear();
+		} else {
+			elegidos.add(retenidos.remove());
+		}
+		List<RecursoBiblioteca> lote = new ArrayList<>();
+		for (int r : elegidos) {
+			// Antes de devolver: en cuanto vuelve a estar disponible otro hilo puede prestarlo
+			ocupantes.decrementAndGet(r);
+			lote.add(recurso(r));
+		}
+		List<ResultadoOperacion> resultados = enLote ? biblioteca.devolverLote(lote)
+				: List.of(biblioteca.devolver(lote.get(0)) ? ResultadoOperacion.REALIZADO : ResultadoOperacion.NO_PRESTADO);
+		for (int i = 0; i < elegidos.size(); i++) {
+			if (resultados.get(i) == ResultadoOperacion.REALIZADO) {
+				devoluciones.increment();
+			} else {
+				fallos.add("devolución de L" + elegidos.get(i) + " rechazada (" + resultados.get(i) + ") estando prestado");
+			}
+		}
+	}
+
+	private void comprobarTodoDevuelto() {
+		assertEquals(0, biblioteca.contarRecursos(EstadoRecurso.PRESTADO, null), "recursos prestados al terminar");
+		for (int r = 0; r < RECURSOS; r++) {
+			assertEquals(EstadoRecurso.DISPONIBLE, recurso(r).getEstado(), "estado de L" + r);
+			assertNull(biblioteca.getPrestamoActivo("L" + r), "préstamo abierto de L" + r);
+		}
+	}
+
+	private RecursoBiblioteca recurso(int r) {
+		return biblioteca.getRecurso("L" + r);
+	}
+}
@@ -0,0 +1,80 @@
+package biblioteca.sucursales;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import biblioteca.enums.EstadoRecurso;
+import biblioteca.enums.ResultadoOperacion;
+import biblioteca.model.BibliotecaManager;
+import biblioteca.model.Libro;
+import biblioteca.model.Usuario;
+import java.io.IOException;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Préstamos que se cruzan con el reparto de recursos al añadir una sucursal.
+ *
+ * Mover un recurso es retirarlo en la sucursal vieja y darlo de alta en la nueva; un
+ * préstamo que llega a la vieja en medio no debe rechazarse, sino seguir al recurso.
+ */
+class BibliotecaSucursalesTest {
+
+	private BibliotecaSucursales biblioteca;
+
+	@AfterEach
+	void cerrar() throws IOException {
+		if (biblioteca != null) biblioteca.close();
+	}
+
+	/**
+	 * La sucursal vieja recibe el préstamo, y justo antes de aplicarlo se añade la
+	 * sucursal nueva y se reparte, así que el recurso ya está retirado. La vieja
+	 * responde NO_DISPONIBLE, como haría una sucursal que no distingue los retirados.
+	 */
+	@Test
+	void unPrestamoQueSeCruzaConElMovimientoSigueAlRecurso() throws Exception {
+		SucursalLocal nueva = new SucursalLocal("nueva", new BibliotecaManager());
+		String id = recursoDe(nueva, "vieja");
+		SucursalLocal vieja = new SucursalLocal("vieja", new BibliotecaManager()) {
+			private boolean repartido;
+
+			@Override
+			public ResultadoOperacion prestar(String idRecurso, String idUsuario) {
+				if (!repartido) {
+					repartido = true;
+					try {
+						biblioteca.agregarSucursal(nueva);
+						biblioteca.esperarReparto();
+					} catch (InterruptedException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+				ResultadoOperacion resultado = super.prestar(idRecurso, idUsuario);
+				boolean retirado = getBiblioteca().getRecurso(idRecurso).getEstado() == EstadoRecurso.RETIRADO;
+				return resultado == ResultadoOperacion.INVALIDO && retirado ? ResultadoOperacion.NO_DISPONIBLE : resultado;
+			}
+		};
+		biblioteca = new BibliotecaSucursales(List.of(vieja));
+		biblioteca.agregarUsuario(new Usuario("U1", "Usuario 1"));
+		biblioteca.agregarRecurso(new Libro(id, "Titulo", "Autor"));
+
+		assertEquals(ResultadoOperacion.REALIZADO, biblioteca.prestar(id, "U1"));
+		assertNull(biblioteca.getErrorReparto());
+		assertNull(vieja.getRecurso(id));
+		assertEquals(EstadoRecurso.PRESTADO, nueva.getRecurso(id).getEstado());
+		assertEquals(ResultadoOperacion.REALIZADO, biblioteca.devolver(id));
+	}
+
+	/**
+	 * @return ID de un recurso que pasa a la sucursal nueva al añadirla junto a la otra
+	 */
+	private static String recursoDe(Sucursal nueva, String otra) {
+		AnilloHash<String> anillo = new AnilloHash<>(List.of(otra, nueva.getNombre()),
+				List.of(otra, nueva.getNombre()), BibliotecaSucursales.NODOS_VIRTUALES);
+		for (int i = 0; ; i++) {
+			if (anillo.duena("L" + i).equals(nueva.getNombre())) return "L" + i;
+		}
+	}
+}